@@ -30,6 +30,8 @@ public interface Registrar extends Service {
 
   final String MAX_EXPIRE = "com.voxeo.moho.reg.expire.max";
 
+  final String EXPIRE_TICK = "com.voxeo.moho.reg.expire.tick";
+
   final String DOMAINS = "com.voxeo.moho.reg.domains";
 
   void addController(RegistrarController controller);
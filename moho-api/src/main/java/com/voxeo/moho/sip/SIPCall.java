@@ -14,6 +14,8 @@
 
 package com.voxeo.moho.sip;
 
+import java.util.concurrent.Future;
+
 import javax.servlet.sip.SipServletRequest;
 import javax.servlet.sip.SipSession;
 
@@ -53,4 +55,35 @@ public interface SIPCall extends Call {
   SipServletRequest getSipRequest();
   
   void setContinueRouting(final SIPCall origCall);
+
+  /**
+   * hold this call without waiting for the re-INVITE to complete.
+   * 
+   * @return a future whose result is true if the call is held, false if the
+   *         hold failed or the call ended first.
+   */
+  Future<Boolean> holdAsync();
+
+  /**
+   * send a sendrecv SDP and resume to send media data without waiting for the
+   * re-INVITE to complete.
+   * 
+   * @return a future whose result is true if the call is no longer held.
+   */
+  Future<Boolean> unholdAsync();
+
+  /**
+   * mute the endpoint without waiting for the re-INVITE to complete.
+   * 
+   * @return a future whose result is true if the call is muted, false if the
+   *         mute failed or the call ended first.
+   */
+  Future<Boolean> muteAsync();
+
+  /**
+   * unmute this call without waiting for the re-INVITE to complete.
+   * 
+   * @return a future whose result is true if the call is no longer muted.
+   */
+  Future<Boolean> unmuteAsync();
 }
@@ -24,6 +24,13 @@ public interface ExecutionContext extends ApplicationContext {
 
   Executor getExecutor();
 
+  /**
+   * @return the executor the events are dispatched with. It may be bounded and
+   *         reject events under overload, so tasks that wait on other tasks,
+   *         like joins, must run on {@link #getExecutor()} instead.
+   */
+  Executor getEventExecutor();
+
   Call getCall(String cid);
 
   void addCall(Call call);
@@ -0,0 +1,32 @@
+package com.voxeo.moho.common.codec;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Hand written binary encoding of a persisted type. Every codec writes the
+ * current version of its format and has to be able to read all older ones.
+ *
+ * @see BinaryCodecRegistry
+ */
+public interface BinaryCodec<T> {
+
+  /**
+   * @return the type encoded by this codec, matched exactly.
+   */
+  Class<? extends T> getType();
+
+  /**
+   * @return the version of the format written by {@link #write(Object, DataOutput, BinaryCodecRegistry)}, 0 to 255.
+   */
+  int getVersion();
+
+  void write(T value, DataOutput out, BinaryCodecRegistry registry) throws IOException;
+
+  /**
+   * @param version
+   *          the version the value was written with.
+   */
+  T read(DataInput in, int version, BinaryCodecRegistry registry) throws IOException;
+}
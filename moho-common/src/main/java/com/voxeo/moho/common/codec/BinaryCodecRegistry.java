@@ -0,0 +1,289 @@
+package com.voxeo.moho.common.codec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamConstants;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Binary encoding of persisted values. A value whose type has a registered
+ * {@link BinaryCodec} is written as
+ *
+ * <pre>
+ * MAGIC | type id (2 bytes) | version (1 byte) | payload
+ * </pre>
+ *
+ * and any other value with Java serialization. Java serialization streams
+ * always start with 0xAC, so {@link #fromBytes(byte[])} reads both formats and
+ * values written before a codec was registered, or by an older version, can
+ * still be read. The type id is part of the persisted format and must never be
+ * reused for another type.
+ */
+public class BinaryCodecRegistry {
+
+  public static final byte MAGIC = (byte) 0xB1;
+
+  private static final int NULL_TYPE = 0;
+
+  private static final BinaryCodec<Object> NONE = new BinaryCodec<Object>() {
+    @Override
+    public Class<Object> getType() {
+      return Object.class;
+    }
+
+    @Override
+    public int getVersion() {
+      return 0;
+    }
+
+    @Override
+    public void write(final Object value, final DataOutput out, final BinaryCodecRegistry registry) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Object read(final DataInput in, final int version, final BinaryCodecRegistry registry) {
+      throw new UnsupportedOperationException();
+    }
+  };
+
+  private final Map<Integer, BinaryCodec<?>> _codecsById = new ConcurrentHashMap<Integer, BinaryCodec<?>>();
+
+  private final Map<BinaryCodec<?>, Integer> _idsByCodec = new ConcurrentHashMap<BinaryCodec<?>, Integer>();
+
+  private final List<BinaryCodec<?>> _codecs = new CopyOnWriteArrayList<BinaryCodec<?>>();
+
+  // resolved codec by concrete class, NONE if there is none
+  private final Map<Class<?>, BinaryCodec<?>> _codecsByClass = new ConcurrentHashMap<Class<?>, BinaryCodec<?>>();
+
+  /**
+   * Registers a codec. A codec of a class only encodes that exact class, as it
+   * can't restore subclasses. A codec of an interface encodes every
+   * implementation of it not matched by an earlier codec.
+   *
+   * @param typeId
+   *          the persisted id of the type, 1 to 32767.
+   */
+  public void register(final int typeId, final BinaryCodec<?> codec) {
+    if (typeId <= NULL_TYPE || typeId > Short.MAX_VALUE) {
+      throw new IllegalArgumentException("Illegal type id " + typeId);
+    }
+    if (codec.getVersion() < 0 || codec.getVersion() > 255) {
+      throw new IllegalArgumentException("Illegal version " + codec.getVersion() + " of " + codec);
+    }
+    if (_codecsById.containsKey(typeId)) {
+      throw new IllegalArgumentException("Type id " + typeId + " is already registered for "
+          + _codecsById.get(typeId).getType());
+    }
+    _codecsById.put(typeId, codec);
+    _idsByCodec.put(codec, typeId);
+    _codecs.add(codec);
+    _codecsByClass.clear();
+  }
+
+  /**
+   * @return the codec of the value's class, or null if it has to be
+   *         serialized.
+   */
+  @SuppressWarnings("unchecked")
+  public <T> BinaryCodec<T> getCodec(final Class<? extends T> clazz) {
+    BinaryCodec<?> codec = _codecsByClass.get(clazz);
+    if (codec == null) {
+      codec = NONE;
+      for (final BinaryCodec<?> candidate : _codecs) {
+        final Class<?> type = candidate.getType();
+        if (type == clazz || type.isInterface() && type.isAssignableFrom(clazz)) {
+          codec = candidate;
+          break;
+        }
+      }
+      _codecsByClass.put(clazz, codec);
+    }
+    return codec != NONE ? (BinaryCodec<T>) codec : null;
+  }
+
+  public boolean canEncode(final Object value) {
+    return value != null && getCodec(value.getClass()) != null;
+  }
+
+  /**
+   * @return true if the bytes are in the codec format, false if they are
+   *         serialized.
+   */
+  public static boolean isEncoded(final byte[] bytes) {
+    return bytes.length > 0 && bytes[0] == MAGIC;
+  }
+
+  /**
+   * Encodes the value with its codec, or with Java serialization if it has
+   * none.
+   */
+  public byte[] toBytes(final Object value) {
+    if (!canEncode(value)) {
+      return serialize(value);
+    }
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+    try {
+      final DataOutputStream out = new DataOutputStream(bytes);
+      out.writeByte(MAGIC);
+      writeObject(value, out);
+      out.flush();
+    }
+    catch (final NotEncodableException ex) {
+      // a nested value has no codec, serialize the whole value instead
+      return serialize(value);
+    }
+    catch (final IOException ex) {
+      throw new IllegalArgumentException("Can't encode " + value, ex);
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Encodes the value with Java serialization, the format read by older
+   * versions.
+   */
+  public static byte[] serialize(final Object value) {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+    try {
+      final ObjectOutputStream out = new ObjectOutputStream(bytes);
+      out.writeObject(value);
+      out.close();
+    }
+    catch (final IOException ex) {
+      throw new IllegalArgumentException("Can't serialize " + value, ex);
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Decodes bytes written by {@link #toBytes(Object)} or by plain Java
+   * serialization.
+   */
+  public Object fromBytes(final byte[] bytes) {
+    if (bytes == null || bytes.length == 0) {
+      return null;
+    }
+    try {
+      if (isEncoded(bytes)) {
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, 1, bytes.length - 1));
+        return readObject(in);
+      }
+      if (bytes[0] != (byte) (ObjectStreamConstants.STREAM_MAGIC >> 8)) {
+        throw new IllegalArgumentException("Unknown format " + bytes[0]);
+      }
+      final ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+      return in.readObject();
+    }
+    catch (final IOException ex) {
+      throw new IllegalArgumentException("Can't decode " + bytes.length + " bytes", ex);
+    }
+    catch (final ClassNotFoundException ex) {
+      throw new IllegalArgumentException("Can't decode " + bytes.length + " bytes", ex);
+    }
+  }
+
+  /**
+   * Writes a nested value, which may be null, with its type id and version.
+   *
+   * @throws NotEncodableException
+   *           if the value's type has no codec.
+   */
+  public void writeObject(final Object value, final DataOutput out) throws IOException {
+    if (value == null) {
+      out.writeShort(NULL_TYPE);
+      return;
+    }
+    final BinaryCodec<Object> codec = getCodec(value.getClass());
+    if (codec == null) {
+      throw new NotEncodableException(value.getClass());
+    }
+    out.writeShort(_idsByCodec.get(codec));
+    out.writeByte(codec.getVersion());
+    codec.write(value, out, this);
+  }
+
+  public Object readObject(final DataInput in) throws IOException {
+    final int typeId = in.readShort();
+    if (typeId == NULL_TYPE) {
+      return null;
+    }
+    final BinaryCodec<?> codec = _codecsById.get(typeId);
+    if (codec == null) {
+      throw new IOException("Unknown type id " + typeId);
+    }
+    final int version = in.readUnsignedByte();
+    if (version > codec.getVersion()) {
+      throw new IOException("Version " + version + " of " + codec.getType() + " is newer than " + codec.getVersion());
+    }
+    return codec.read(in, version, this);
+  }
+
+  /**
+   * Writes a nullable string of any length as UTF-8.
+   */
+  public static void writeString(final String value, final DataOutput out) throws IOException {
+    if (value == null) {
+      writeVarInt(0, out);
+      return;
+    }
+    final byte[] bytes = value.getBytes("UTF-8");
+    writeVarInt(bytes.length + 1, out);
+    out.write(bytes);
+  }
+
+  public static String readString(final DataInput in) throws IOException {
+    final int length = readVarInt(in) - 1;
+    if (length < 0) {
+      return null;
+    }
+    final byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, "UTF-8");
+  }
+
+  /**
+   * Writes a non negative int in 1 to 5 bytes, 7 bits at a time.
+   */
+  public static void writeVarInt(int value, final DataOutput out) throws IOException {
+    while ((value & ~0x7F) != 0) {
+      out.writeByte((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.writeByte(value);
+  }
+
+  public static int readVarInt(final DataInput in) throws IOException {
+    int value = 0;
+    for (int shift = 0; shift < 32; shift += 7) {
+      final int b = in.readByte();
+      value |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Malformed var int");
+  }
+
+  /**
+   * Thrown when a nested value has no codec.
+   */
+  public static class NotEncodableException extends IOException {
+
+    private static final long serialVersionUID = -3316950407125591358L;
+
+    public NotEncodableException(final Class<?> type) {
+      super("No codec for " + type.getName());
+    }
+  }
+}
@@ -0,0 +1,44 @@
+package com.voxeo.moho.common.codec;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Encodes a list as its size followed by its elements, which need codecs of
+ * their own. Lists are read back as {@link ArrayList}.
+ */
+@SuppressWarnings("rawtypes")
+public class ListCodec implements BinaryCodec<List> {
+
+  @Override
+  public Class<List> getType() {
+    return List.class;
+  }
+
+  @Override
+  public int getVersion() {
+    return 1;
+  }
+
+  @Override
+  public void write(final List value, final DataOutput out, final BinaryCodecRegistry registry) throws IOException {
+    BinaryCodecRegistry.writeVarInt(value.size(), out);
+    for (final Object element : value) {
+      registry.writeObject(element, out);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public List read(final DataInput in, final int version, final BinaryCodecRegistry registry) throws IOException {
+    final int size = BinaryCodecRegistry.readVarInt(in);
+    final List retv = new ArrayList(size);
+    for (int i = 0; i < size; i++) {
+      retv.add(registry.readObject(in));
+    }
+    return retv;
+  }
+}
@@ -17,7 +17,9 @@ package com.voxeo.moho.common.event;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
@@ -65,6 +67,8 @@ public class AutowiredEventListener implements EventListener<Event<EventSource>>
 
   protected ConcurrentMap<Class<Event<EventSource>>, List<AutowiredEventTarget>> _listeners = new ConcurrentHashMap<Class<Event<EventSource>>, List<AutowiredEventTarget>>();
 
+  protected ConcurrentMap<Class<?>, StateIndex> _indexes = new ConcurrentHashMap<Class<?>, StateIndex>();
+
   /**
    * Takes a target object on which to invoke event handlers
    * 
@@ -93,6 +97,9 @@ public class AutowiredEventListener implements EventListener<Event<EventSource>>
       final AutowiredEventTarget autowiredEventTarget = new AutowiredEventTarget(m, target);
       addTarget(eventType, autowiredEventTarget);
     }
+    for (final Map.Entry<Class<Event<EventSource>>, List<AutowiredEventTarget>> entry : _listeners.entrySet()) {
+      _indexes.put(entry.getKey(), new StateIndex(entry.getValue()));
+    }
   }
 
   private void addTarget(final Class<Event<EventSource>> eventType, final AutowiredEventTarget target) {
@@ -109,26 +116,91 @@ public class AutowiredEventListener implements EventListener<Event<EventSource>>
     targets.add(target);
   }
 
-  @SuppressWarnings("unchecked")
   public void onEvent(final Event<EventSource> event) throws Exception {
-    Class<? extends Event<EventSource>> clz = (Class<? extends Event<EventSource>>) event.getClass();
-    clz = (Class<? extends Event<EventSource>>) Utils.getEventType(clz);
-    do {
-      final List<AutowiredEventTarget> targets = _listeners.get(clz);
-      if (targets != null) {
-        for (final AutowiredEventTarget target : targets) {
-          if (target.invoke(event)) {
-            break;
-          }
-        }
+    final Class<?>[] chain = Utils.getEventTypeChain(event.getClass());
+    for (int i = 0; i < chain.length; i++) {
+      final StateIndex index = _indexes.get(chain[i]);
+      if (index != null) {
+        index.invoke(event);
       }
-      clz = (Class<? extends Event<EventSource>>) Utils.getEventType(clz);
     }
-    while (clz != null && !clz.equals(Object.class));
   }
 
   public Object getTarget() {
     return _target;
   }
 
+  /**
+   * Targets of one event type indexed by the state they are defined for. When
+   * all targets constrain the same FSM (usually the default one), the first
+   * matching target is found with a single lookup on the current state of that
+   * FSM. Targets spanning several FSMs are scanned in order as before. The
+   * index holds only the static definitions, so state changes on the source
+   * need no invalidation.
+   */
+  static class StateIndex {
+
+    private final List<AutowiredEventTarget> _targets;
+
+    // null if the targets can't be indexed by a single FSM.
+    private String _fsm;
+
+    private final Map<String, AutowiredEventTarget> _byState = new HashMap<String, AutowiredEventTarget>();
+
+    // the first target that doesn't constrain the FSM.
+    private AutowiredEventTarget _any;
+
+    StateIndex(final List<AutowiredEventTarget> targets) {
+      _targets = targets;
+      for (final AutowiredEventTarget target : targets) {
+        for (int i = 0; i < target._fsms.length; i++) {
+          if (target._states[i] == AutowiredEventTarget.ANY_STATE) {
+            continue;
+          }
+          if (_fsm == null) {
+            _fsm = target._fsms[i];
+          }
+          else if (!_fsm.equals(target._fsms[i])) {
+            _fsm = null;
+            return;
+          }
+        }
+      }
+      // keep first-match semantics, targets behind an unconstrained one are
+      // never reached.
+      for (final AutowiredEventTarget target : targets) {
+        final String state = _fsm == null ? null : target.getDefinedState(_fsm);
+        if (state == null) {
+          _any = target;
+          break;
+        }
+        if (!_byState.containsKey(state)) {
+          _byState.put(state, target);
+        }
+      }
+      if (_fsm == null) {
+        // no target constrains any FSM.
+        _fsm = AutowiredEventTarget.DEFAULT_FSM;
+      }
+    }
+
+    void invoke(final Event<EventSource> event) throws Exception {
+      if (_fsm != null) {
+        AutowiredEventTarget target = _byState.get(event.getSource().getApplicationState(_fsm));
+        if (target == null) {
+          target = _any;
+        }
+        if (target != null) {
+          target.invoke(event);
+        }
+        return;
+      }
+      for (final AutowiredEventTarget target : _targets) {
+        if (target.invoke(event)) {
+          break;
+        }
+      }
+    }
+  }
+
 }
@@ -36,6 +36,11 @@ public class AutowiredEventTarget {
 
   protected final Map<String, String> _definedStates = new HashMap<String, String>();
 
+  // flattened copy of _definedStates, FSM names and interned states by index.
+  protected String[] _fsms;
+
+  protected String[] _states;
+
   protected Method _method;
 
   protected Object _observer;
@@ -70,6 +75,14 @@ public class AutowiredEventTarget {
     }
     _method = method;
     _observer = observer;
+    bindStates();
+    try {
+      // bind once, the accessibility is never restored.
+      _method.setAccessible(true);
+    }
+    catch (final SecurityException e) {
+      log.debug("Unable to suppress access checks for " + method, e);
+    }
   }
 
   AutowiredEventTarget(final String[][] states, final EventListener<Event<? extends EventSource>> listener) {
@@ -77,6 +90,49 @@ public class AutowiredEventTarget {
       _definedStates.put(s[0], s[1]);
     }
     _listener = listener;
+    bindStates();
+  }
+
+  private void bindStates() {
+    _fsms = new String[_definedStates.size()];
+    _states = new String[_definedStates.size()];
+    int i = 0;
+    for (final Map.Entry<String, String> entry : _definedStates.entrySet()) {
+      _fsms[i] = entry.getKey();
+      _states[i] = entry.getValue().equals(ANY_STATE) ? ANY_STATE : entry.getValue().intern();
+      i++;
+    }
+  }
+
+  /**
+   * @return the state this target requires for the given FSM, or null if it
+   *         accepts any state.
+   */
+  String getDefinedState(final String fsm) {
+    for (int i = 0; i < _fsms.length; i++) {
+      if (_fsms[i].equals(fsm) && _states[i] != ANY_STATE) {
+        return _states[i];
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @return true if the current states of the source satisfy every state this
+   *         target is defined for. States set through the Moho event sources
+   *         are interned, so the identity check usually decides.
+   */
+  boolean matches(final EventSource source) {
+    for (int i = 0; i < _fsms.length; i++) {
+      final String defined = _states[i];
+      if (defined != ANY_STATE) {
+        final String current = source.getApplicationState(_fsms[i]);
+        if (defined != current && !defined.equals(current)) {
+          return false;
+        }
+      }
+    }
+    return true;
   }
 
   @Override
@@ -96,19 +152,12 @@ public class AutowiredEventTarget {
   }
 
   boolean invoke(final Event<? extends EventSource> event) throws Exception {
-    for (final Map.Entry<String, String> entry : _definedStates.entrySet()) {
-      final String defined = entry.getValue();
-      if (defined != ANY_STATE) {
-        if (!defined.equals(event.getSource().getApplicationState(entry.getKey()))) {
-          return false;
-        }
-      }
+    if (!matches(event.getSource())) {
+      return false;
     }
     if (_observer != null && _method != null) {
-      final boolean accessible = _method.isAccessible();
       try {
-        _method.setAccessible(true);
-        _method.invoke(_observer, new Object[] {event});
+        _method.invoke(_observer, event);
       }
       catch (final Exception e) {
         log.error("Got Exception when invoking Application.", e);
@@ -117,9 +166,6 @@ public class AutowiredEventTarget {
           throw (Exception) ((InvocationTargetException) e).getTargetException();
         }
       }
-      finally {
-        _method.setAccessible(accessible);
-      }
     }
     if (_listener != null) {
       try {
@@ -59,6 +59,7 @@ public class DispatchableEventSource extends AttributeStoreImpl implements Event
 	  this();
       _context = applicationContext;
       _dispatcher.setExecutor(getThreadPool(), orderedDispatch);
+      _dispatcher.setOverflowExecutor(_context.getExecutor());
       _id = UUID.randomUUID().toString();
   }
 
@@ -170,7 +171,7 @@ public class DispatchableEventSource extends AttributeStoreImpl implements Event
 
   @Override
   public void setApplicationState(final String state) {
-    _states.put(AutowiredEventTarget.DEFAULT_FSM, state);
+    _states.put(AutowiredEventTarget.DEFAULT_FSM, state.intern());
   }
 
   public String getApplicationState(final String FSM) {
@@ -179,10 +180,10 @@ public class DispatchableEventSource extends AttributeStoreImpl implements Event
 
   @Override
   public void setApplicationState(final String FSM, final String state) {
-    _states.put(FSM, state);
+    _states.put(FSM, state.intern());
   }
 
   protected Executor getThreadPool() {
-    return _context.getExecutor();
+    return _context.getEventExecutor();
   }
 }
@@ -18,17 +18,25 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
 import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.log4j.Logger;
 
+import com.voxeo.moho.IncomingCall;
 import com.voxeo.moho.common.util.InheritLogContextFutureTask;
+import com.voxeo.moho.common.util.InheritLogContextI;
 import com.voxeo.moho.common.util.InheritLogContextRunnable;
+import com.voxeo.moho.common.util.OverloadRejectionHandler;
 import com.voxeo.moho.common.util.Utils;
 import com.voxeo.moho.event.Event;
 import com.voxeo.moho.event.EventSource;
@@ -39,6 +47,18 @@ public class EventDispatcher {
 
   private static final Logger LOG = Logger.getLogger(EventDispatcher.class);
 
+  /**
+   * System property that turns on the lock-free ordered dispatch mode for every
+   * new dispatcher.
+   */
+  public static final String LOCK_FREE_ORDERING_PROPERTY = "com.voxeolabs.moho.lockFreeOrderedDispatch";
+
+  /**
+   * the max number of tasks the lock-free processor runs before it gives the
+   * executor thread back and reschedules itself.
+   */
+  private static final int MAX_BATCH_SIZE = 64;
+
   private ConcurrentHashMap<Class<?>, List<Object>> clazzListeners = new ConcurrentHashMap<Class<?>, List<Object>>();
 
   private ConcurrentHashMap<Object, List<Object>> enumListeners = new ConcurrentHashMap<Object, List<Object>>();
@@ -47,6 +67,8 @@ public class EventDispatcher {
 
   private Executor executor = null;
 
+  private Executor overflowExecutor = null;
+
   private boolean needOrder = true;
 
   private Lock lifecycleLock = new ReentrantLock();
@@ -55,6 +77,14 @@ public class EventDispatcher {
 
   private boolean processorRunning = false;
 
+  private boolean lockFreeOrder = Boolean.getBoolean(LOCK_FREE_ORDERING_PROPERTY);
+
+  private final Queue<FutureTask<?>> _lockFreeQueue = new ConcurrentLinkedQueue<FutureTask<?>>();
+
+  private final AtomicBoolean _scheduled = new AtomicBoolean(false);
+
+  private final Runnable _batchProcessor = new BatchTaskProcessor();
+
   public EventDispatcher() {
   }
 
@@ -197,28 +227,25 @@ public class EventDispatcher {
         if (LOG.isTraceEnabled()) {
           LOG.trace("Firing event :" + event);
         }
-        // clazz is a subtype of the Event interface or Event itself.
-        Class<?> clazz = Utils.getEventType(event.getClass());
-        if (clazz != null) {
-          out: do {
-            final List<Object> list = clazzListeners.get(clazz);
-            if (list != null) {
-              LOG.debug("Dispatching Event to listener:" + event);
-              for (final Object listener : list) {
-                try {
-                  ((EventListener<T>) listener).onEvent(event);
-                }
-                catch (Exception ex) {
-                  LOG.warn(ex + " is uncaught when handling " + event);
-                  LOG.debug(ex + " is uncaught when handling " + event, ex);
-                  HandleUncaughtException(ex, event);
-                  break out;
-                }
+        // each type is a subtype of the Event interface or Event itself.
+        final Class<?>[] chain = Utils.getEventTypeChain(event.getClass());
+        final int length = narrowType ? chain.length : Math.min(1, chain.length);
+        out: for (int i = 0; i < length; i++) {
+          final List<Object> list = clazzListeners.get(chain[i]);
+          if (list != null) {
+            LOG.debug("Dispatching Event to listener:" + event);
+            for (final Object listener : list) {
+              try {
+                ((EventListener<T>) listener).onEvent(event);
+              }
+              catch (Exception ex) {
+                LOG.warn(ex + " is uncaught when handling " + event);
+                LOG.debug(ex + " is uncaught when handling " + event, ex);
+                HandleUncaughtException(ex, event);
+                break out;
               }
             }
-            clazz = Utils.getEventType(clazz);
           }
-          while (narrowType && clazz != null);
         }
 
         out: if (event instanceof EnumEvent) {
@@ -247,7 +274,61 @@ public class EventDispatcher {
       }
     }, event);
 
-    if (needOrder) {
+    // the completion of an event with an afterExec drives the state of its
+    // source, it is never shed.
+    if (afterExec == null && shed(event)) {
+      task.cancel(false);
+      return task;
+    }
+
+    try {
+      schedule(task, isRejectable(event));
+    }
+    catch (RejectedExecutionException ex) {
+      // the executor is overloaded or shut down, the new call is dropped like a
+      // shed event and callers can tell from the cancelled future.
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Event executor rejected " + event + ", dropping it.");
+      }
+      task.cancel(false);
+    }
+
+    return task;
+  }
+
+  /**
+   * Decides whether an event is dropped when the executor rejects it. Only the
+   * events starting something new, like a new call that can be answered with
+   * 503, are. The events of existing sources must be delivered for their state
+   * and cleanup to progress, so they are run by the overflow executor, or the
+   * calling thread, instead.
+   */
+  protected boolean isRejectable(final Object event) {
+    return event instanceof IncomingCall;
+  }
+
+  private void schedule(final FutureTask<?> task, final boolean rejectable) {
+    if (needOrder && lockFreeOrder) {
+      _lockFreeQueue.offer(task);
+      if (_scheduled.compareAndSet(false, true)) {
+        try {
+          executor.execute(_batchProcessor);
+        }
+        catch (RejectedExecutionException ex) {
+          if (!rejectable) {
+            // the flag is still held, the processor drains the task elsewhere.
+            overflow(_batchProcessor);
+            return;
+          }
+          _lockFreeQueue.remove(task);
+          _scheduled.set(false);
+          redrain();
+          throw ex;
+        }
+      }
+    }
+    else if (needOrder) {
+      boolean overflowProcessor = false;
       synchronized (_queue) {
         boolean excuteProcessor = false;
         _queue.offer(task);
@@ -258,15 +339,94 @@ public class EventDispatcher {
         }
 
         if (excuteProcessor) {
-          executor.execute(new TaskProcessor());
+          try {
+            executor.execute(new TaskProcessor());
+          }
+          catch (RejectedExecutionException ex) {
+            if (rejectable) {
+              _queue.remove(task);
+              processorRunning = false;
+              throw ex;
+            }
+            overflowProcessor = true;
+          }
         }
       }
+      if (overflowProcessor) {
+        overflow(new TaskProcessor());
+      }
     }
     else {
-      executor.execute(task);
+      try {
+        executor.execute(task);
+      }
+      catch (RejectedExecutionException ex) {
+        if (rejectable) {
+          throw ex;
+        }
+        overflow(task);
+      }
     }
+  }
 
-    return task;
+  /**
+   * Runs a task the executor rejected on the overflow executor, or on the
+   * calling thread if there is none or it rejects the task too.
+   */
+  private void overflow(final Runnable task) {
+    if (overflowExecutor != null) {
+      try {
+        overflowExecutor.execute(task);
+        return;
+      }
+      catch (RejectedExecutionException ex) {
+        // run by the caller below.
+      }
+    }
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Event executors rejected " + task + ", running it on the calling thread.");
+    }
+    task.run();
+  }
+
+  private boolean shed(final Object event) {
+    if (executor instanceof ThreadPoolExecutor) {
+      final RejectedExecutionHandler handler = ((ThreadPoolExecutor) executor).getRejectedExecutionHandler();
+      if (handler instanceof OverloadRejectionHandler) {
+        return ((OverloadRejectionHandler) handler).shed(event, (ThreadPoolExecutor) executor);
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Called once the lock-free processor could not be scheduled and the flag was
+   * released. Tasks offered by other producers while the flag was held have
+   * nobody to run them, so the processor is scheduled again, on the overflow
+   * executor if need be. It is never run by the caller, which may hold locks
+   * the listeners of those tasks need. If both executors reject it, the tasks
+   * stay queued for the processor scheduled by the next event.
+   */
+  private void redrain() {
+    if (!_lockFreeQueue.isEmpty() && _scheduled.compareAndSet(false, true)) {
+      try {
+        executor.execute(_batchProcessor);
+      }
+      catch (RejectedExecutionException ex) {
+        try {
+          if (overflowExecutor != null) {
+            overflowExecutor.execute(_batchProcessor);
+            return;
+          }
+        }
+        catch (RejectedExecutionException e) {
+          // left for the next event.
+        }
+        _scheduled.set(false);
+        LOG.warn("Event executor rejected the processor, " + _lockFreeQueue.size()
+            + " queued events wait for the next one.");
+      }
+    }
   }
 
   private class TaskProcessor extends InheritLogContextRunnable {
@@ -292,11 +452,98 @@ public class EventDispatcher {
     }
   }
 
+  /**
+   * Lock-free ordered processor. Producers only enqueue and compete for the
+   * scheduled flag, the single winner submits this processor, which then drains
+   * the queue in batches. After the queue looks empty the flag is released and
+   * the queue checked once more, so a task offered in between is never
+   * stranded. When the executor rejects the rescheduled processor, or runs it
+   * on the calling thread, the current thread keeps draining instead.
+   */
+  private class BatchTaskProcessor implements Runnable {
+    // set while this thread reschedules the processor, cleared if the executor
+    // runs it inline.
+    private final ThreadLocal<Boolean> _rescheduling = new ThreadLocal<Boolean>();
+
+    public void run() {
+      if (_rescheduling.get() != null) {
+        _rescheduling.set(Boolean.FALSE);
+        return;
+      }
+      while (true) {
+        int count = 0;
+        FutureTask<?> task = null;
+        while (count < MAX_BATCH_SIZE && (task = _lockFreeQueue.poll()) != null) {
+          runTask(task);
+          count++;
+        }
+
+        if (task != null) {
+          // batch is full, give other event sources a chance.
+          _rescheduling.set(Boolean.TRUE);
+          try {
+            executor.execute(this);
+            if (_rescheduling.get() == Boolean.TRUE) {
+              return;
+            }
+          }
+          catch (RejectedExecutionException ex) {
+            // the flag is still held, go on draining here.
+          }
+          finally {
+            _rescheduling.remove();
+          }
+          continue;
+        }
+
+        _scheduled.set(false);
+        if (_lockFreeQueue.isEmpty() || !_scheduled.compareAndSet(false, true)) {
+          return;
+        }
+      }
+    }
+
+    private void runTask(final FutureTask<?> task) {
+      if (task instanceof InheritLogContextI) {
+        Utils.clearContexts();
+        Utils.inheritLogContexts(((InheritLogContextI) task).getLogContexts());
+      }
+      try {
+        task.run();
+        task.get();
+      }
+      catch (Throwable t) {
+        LOG.info("Throwable when processing task.", t);
+      }
+    }
+  }
+
   public void setExecutor(final Executor executor, boolean order) {
     this.executor = executor;
     this.needOrder = order;
   }
 
+  /**
+   * @param lockFree
+   *          if true, ordered events are queued on a non-blocking queue and
+   *          drained by a single scheduled processor instead of being guarded
+   *          by a monitor. Only takes effect when ordering is on.
+   */
+  public void setExecutor(final Executor executor, boolean order, boolean lockFree) {
+    setExecutor(executor, order);
+    this.lockFreeOrder = lockFree;
+  }
+
+  /**
+   * @param overflowExecutor
+   *          runs the events of existing sources the executor rejects, usually
+   *          an elastic executor behind a bounded one. Without it they are run
+   *          by the thread firing them.
+   */
+  public void setOverflowExecutor(final Executor overflowExecutor) {
+    this.overflowExecutor = overflowExecutor;
+  }
+
   protected <S extends EventSource> Future<Event<S>> HandleUncaughtException(Exception ex, Event<S> evt) {
     Event<S> newEvt = new UncaughtExceptionEventImpl<S>(evt.getSource(), ex, evt);
     return fire(newEvt, true);
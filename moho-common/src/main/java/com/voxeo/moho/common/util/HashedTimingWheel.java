@@ -0,0 +1,163 @@
+package com.voxeo.moho.common.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Hashed timing wheel for soft state expiry. Keys are hashed into buckets by
+ * their deadline, so {@link #expire(long)} only visits the buckets of the ticks
+ * that have passed instead of every scheduled key.
+ * <p>
+ * {@link #schedule(Object, long)} and {@link #cancel(Object)} can be called
+ * from any thread, {@link #expire(long)} from a single expiry thread.
+ * Rescheduling or cancelling a key does not search the wheel, the old entry is
+ * left in its bucket and dropped when the bucket is visited.
+ */
+public class HashedTimingWheel<K> {
+
+  private static final class Entry<K> {
+    final K _key;
+
+    final long _deadline;
+
+    Entry(final K key, final long deadline) {
+      _key = key;
+      _deadline = deadline;
+    }
+  }
+
+  private final long _tickMillis;
+
+  private final Queue<Entry<K>>[] _buckets;
+
+  private final int _mask;
+
+  private final ConcurrentMap<K, Entry<K>> _entries = new ConcurrentHashMap<K, Entry<K>>();
+
+  // entries scheduled into a bucket the expiry thread has already visited
+  private final Queue<Entry<K>> _overdue = new ConcurrentLinkedQueue<Entry<K>>();
+
+  private volatile long _currentTick;
+
+  /**
+   * @param tickMillis
+   *          the resolution of the wheel.
+   * @param size
+   *          the number of buckets, rounded up to a power of two. One
+   *          revolution of the wheel takes size * tickMillis.
+   */
+  @SuppressWarnings("unchecked")
+  public HashedTimingWheel(final long tickMillis, final int size) {
+    if (tickMillis <= 0 || size <= 0) {
+      throw new IllegalArgumentException("Illegal tick " + tickMillis + " or size " + size);
+    }
+    int buckets = 1;
+    while (buckets < size) {
+      buckets <<= 1;
+    }
+    _tickMillis = tickMillis;
+    _buckets = new Queue[buckets];
+    for (int i = 0; i < buckets; i++) {
+      _buckets[i] = new ConcurrentLinkedQueue<Entry<K>>();
+    }
+    _mask = buckets - 1;
+    _currentTick = System.currentTimeMillis() / tickMillis;
+  }
+
+  /**
+   * Schedules the key to expire at the deadline, replacing any earlier
+   * schedule of the same key.
+   */
+  public void schedule(final K key, final long deadline) {
+    final Entry<K> entry = new Entry<K>(key, deadline);
+    _entries.put(key, entry);
+    final long tick = Math.max(deadline / _tickMillis, _currentTick + 1);
+    _buckets[(int) (tick & _mask)].offer(entry);
+    if (_currentTick >= tick) {
+      _overdue.offer(entry);
+    }
+  }
+
+  /**
+   * @return true if the key was scheduled.
+   */
+  public boolean cancel(final K key) {
+    return _entries.remove(key) != null;
+  }
+
+  /**
+   * @return true if the key is scheduled and not expired yet.
+   */
+  public boolean isScheduled(final K key) {
+    return _entries.containsKey(key);
+  }
+
+  /**
+   * @return the number of scheduled keys.
+   */
+  public int size() {
+    return _entries.size();
+  }
+
+  public long getTickMillis() {
+    return _tickMillis;
+  }
+
+  /**
+   * Advances the wheel to the given time.
+   *
+   * @return the keys whose deadline has passed. They are no longer scheduled.
+   */
+  public List<K> expire(final long now) {
+    final List<K> expired = new ArrayList<K>();
+    final long from = _currentTick + 1;
+    final long to = now / _tickMillis;
+    if (to >= from) {
+      _currentTick = to;
+      // a bucket is visited only once even if the wheel has fallen behind
+      final long first = Math.max(from, to - _mask);
+      for (long tick = first; tick <= to; tick++) {
+        expire(_buckets[(int) (tick & _mask)], now, expired);
+      }
+    }
+    expire(_overdue, now, expired);
+    return expired;
+  }
+
+  private void expire(final Queue<Entry<K>> bucket, final long now, final List<K> expired) {
+    List<Entry<K>> pending = null;
+    Entry<K> entry = null;
+    while ((entry = bucket.poll()) != null) {
+      if (_entries.get(entry._key) != entry) {
+        // cancelled or rescheduled
+        continue;
+      }
+      if (entry._deadline <= now) {
+        if (_entries.remove(entry._key, entry)) {
+          expired.add(entry._key);
+        }
+      }
+      else {
+        // due in a later revolution
+        if (pending == null) {
+          pending = new ArrayList<Entry<K>>();
+        }
+        pending.add(entry);
+      }
+    }
+    if (pending != null) {
+      if (bucket == _overdue) {
+        for (final Entry<K> e : pending) {
+          _buckets[(int) (Math.max(e._deadline / _tickMillis, _currentTick + 1) & _mask)].offer(e);
+        }
+      }
+      else {
+        bucket.addAll(pending);
+      }
+    }
+  }
+}
@@ -0,0 +1,607 @@
+package com.voxeo.moho.common.util;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import com.voxeo.moho.common.codec.BinaryCodecRegistry;
+
+/**
+ * Transactional write buffer for column oriented stores. Mutations made between
+ * {@link #startTx()} and {@link #commitTx()} on a thread are kept in memory and
+ * handed to the {@link Sink} as one batch on commit. Repeated writes to the same
+ * column are coalesced, only the last one is written, and deleting a row drops
+ * the pending writes to its columns.
+ * <p>
+ * In write-behind mode the committed mutations are not written by the
+ * committing thread but collected and flushed by a background thread every
+ * flush interval, or as soon as the maximum batch size is reached.
+ * <p>
+ * Mutations outside of a transaction are written immediately, or queued in
+ * write-behind mode. {@link #lookup(Object, String, String)} and
+ * {@link #lookupRow(Object, String)} give the stores read-your-writes for the
+ * mutations that have not been written yet.
+ * <p>
+ * Values are encoded with the {@link Codec} when they are buffered, so changes
+ * made to an object after it has been written are not seen by the store. Strings
+ * are immutable and kept as they are.
+ * <p>
+ * A write-behind batch that can not be written is retried on the next flushes,
+ * and dropped once it has failed more than the maximum number of retries. While
+ * the store is down, commits are rejected once the maximum number of pending
+ * mutations is reached.
+ */
+public class MutationBuffer {
+
+  private static final Logger LOG = Logger.getLogger(MutationBuffer.class);
+
+  /**
+   * Writes a batch of mutations to the underlying store.
+   */
+  public interface Sink {
+    void write(List<Mutation> batch);
+  }
+
+  /**
+   * Encodes the values when they are buffered.
+   */
+  public interface Codec {
+    byte[] encode(Object value);
+
+    Object decode(byte[] bytes);
+  }
+
+  /**
+   * Encodes the values with their binary codec, or with Java serialization.
+   */
+  public static final Codec DEFAULT_CODEC = new Codec() {
+    private final BinaryCodecRegistry _registry = new BinaryCodecRegistry();
+
+    @Override
+    public byte[] encode(final Object value) {
+      return _registry.toBytes(value);
+    }
+
+    @Override
+    public Object decode(final byte[] bytes) {
+      return _registry.fromBytes(bytes);
+    }
+  };
+
+  public static final int DEFAULT_MAX_PENDING = 100000;
+
+  public static final int DEFAULT_MAX_RETRIES = 10;
+
+  /**
+   * An insertion or deletion of a column, or the deletion of a whole row when
+   * the column is null.
+   */
+  public static final class Mutation {
+    final Object _key;
+
+    final String _columnFamily;
+
+    final String _column;
+
+    // a String, or the encoded value
+    final Object _value;
+
+    final Codec _codec;
+
+    Mutation(final Object key, final String columnFamily, final String column, final Object value, final Codec codec) {
+      _key = key;
+      _columnFamily = columnFamily;
+      _column = column;
+      _value = value;
+      _codec = codec;
+    }
+
+    public Object getKey() {
+      return _key;
+    }
+
+    public String getColumnFamily() {
+      return _columnFamily;
+    }
+
+    /**
+     * @return the column name, null for a row deletion.
+     */
+    public String getColumn() {
+      return _column;
+    }
+
+    /**
+     * @return a copy of the value as it was when it was buffered, null for a
+     *         deletion.
+     */
+    public Object getValue() {
+      return _value instanceof byte[] ? _codec.decode((byte[]) _value) : _value;
+    }
+
+    /**
+     * @return the encoded value, null for a deletion or a String value.
+     */
+    public byte[] getBytes() {
+      return _value instanceof byte[] ? (byte[]) _value : null;
+    }
+
+    public boolean isDeletion() {
+      return _value == null;
+    }
+
+    public boolean isRowDeletion() {
+      return _column == null;
+    }
+
+    @Override
+    public String toString() {
+      return (isDeletion() ? "delete " : "insert ") + _columnFamily + "[" + _key + "]"
+          + (_column != null ? "[" + _column + "]" : "");
+    }
+  }
+
+  static final class Row {
+    final Object _key;
+
+    final String _columnFamily;
+
+    Row(final Object key, final String columnFamily) {
+      _key = key;
+      _columnFamily = columnFamily;
+    }
+
+    @Override
+    public int hashCode() {
+      return _key.hashCode() * 31 + _columnFamily.hashCode();
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+      if (!(o instanceof Row)) {
+        return false;
+      }
+      final Row r = (Row) o;
+      return _key.equals(r._key) && _columnFamily.equals(r._columnFamily);
+    }
+  }
+
+  static final class RowMutations {
+    Mutation _deletion;
+
+    final LinkedHashMap<String, Mutation> _columns = new LinkedHashMap<String, Mutation>(4);
+
+    void add(final Mutation mutation) {
+      if (mutation.isRowDeletion()) {
+        _deletion = mutation;
+        _columns.clear();
+      }
+      else {
+        _columns.put(mutation._column, mutation);
+      }
+    }
+
+    void addAll(final RowMutations other) {
+      if (other._deletion != null) {
+        add(other._deletion);
+      }
+      _columns.putAll(other._columns);
+    }
+
+    int size() {
+      return _columns.size() + (_deletion != null ? 1 : 0);
+    }
+
+    void drainTo(final List<Mutation> batch) {
+      // the row deletion goes first so that it does not remove later insertions
+      if (_deletion != null) {
+        batch.add(_deletion);
+      }
+      batch.addAll(_columns.values());
+    }
+  }
+
+  /**
+   * The coalesced mutations of a transaction or of the write-behind queue.
+   */
+  static final class Batch {
+    final LinkedHashMap<Row, RowMutations> _rows = new LinkedHashMap<Row, RowMutations>();
+
+    int _size;
+
+    void add(final Mutation mutation) {
+      final Row row = new Row(mutation._key, mutation._columnFamily);
+      RowMutations mutations = _rows.get(row);
+      if (mutations == null) {
+        mutations = new RowMutations();
+        _rows.put(row, mutations);
+      }
+      _size -= mutations.size();
+      mutations.add(mutation);
+      _size += mutations.size();
+    }
+
+    void addAll(final Batch other) {
+      for (final Map.Entry<Row, RowMutations> entry : other._rows.entrySet()) {
+        RowMutations mutations = _rows.get(entry.getKey());
+        if (mutations == null) {
+          mutations = new RowMutations();
+          _rows.put(entry.getKey(), mutations);
+        }
+        _size -= mutations.size();
+        mutations.addAll(entry.getValue());
+        _size += mutations.size();
+      }
+    }
+
+    Mutation lookup(final Row row, final String column) {
+      final RowMutations mutations = _rows.get(row);
+      if (mutations == null) {
+        return null;
+      }
+      final Mutation mutation = mutations._columns.get(column);
+      return mutation != null ? mutation : mutations._deletion;
+    }
+
+    void lookupRow(final Row row, final List<Mutation> result) {
+      final RowMutations mutations = _rows.get(row);
+      if (mutations != null) {
+        if (mutations._deletion != null) {
+          result.clear();
+        }
+        mutations.drainTo(result);
+      }
+    }
+
+    List<Mutation> toList() {
+      final List<Mutation> batch = new ArrayList<Mutation>(_size);
+      for (final RowMutations mutations : _rows.values()) {
+        mutations.drainTo(batch);
+      }
+      return batch;
+    }
+
+    boolean isEmpty() {
+      return _rows.isEmpty();
+    }
+  }
+
+  private final Sink _sink;
+
+  private final Codec _codec;
+
+  private final ThreadLocal<Batch> _tx = new ThreadLocal<Batch>();
+
+  private final boolean _writeBehind;
+
+  private final int _maxBatchSize;
+
+  private Batch _pending = new Batch();
+
+  // the batch that is being written by flush()
+  private Batch _flushing;
+
+  private final Object _flushLock = new Object();
+
+  private int _maxPending = DEFAULT_MAX_PENDING;
+
+  private int _maxRetries = DEFAULT_MAX_RETRIES;
+
+  // the consecutive failures of the batch being retried, guarded by _flushLock
+  private int _failures;
+
+  private long _dropped;
+
+  private ScheduledExecutorService _flusher;
+
+  /**
+   * Creates a buffer that writes on commit.
+   */
+  public MutationBuffer(final Sink sink) {
+    this(sink, DEFAULT_CODEC, 0, 0);
+  }
+
+  public MutationBuffer(final Sink sink, final long flushInterval, final int maxBatchSize) {
+    this(sink, DEFAULT_CODEC, flushInterval, maxBatchSize);
+  }
+
+  /**
+   * @param sink
+   *          the store the mutations are written to.
+   * @param codec
+   *          encodes the values when they are buffered.
+   * @param flushInterval
+   *          the write-behind interval in milliseconds, 0 to write on commit.
+   * @param maxBatchSize
+   *          the number of pending write-behind mutations that triggers a flush.
+   */
+  public MutationBuffer(final Sink sink, final Codec codec, final long flushInterval, final int maxBatchSize) {
+    _sink = sink;
+    _codec = codec;
+    _writeBehind = flushInterval > 0;
+    _maxBatchSize = maxBatchSize > 0 ? maxBatchSize : Integer.MAX_VALUE;
+    if (_writeBehind) {
+      _flusher = Executors.newSingleThreadScheduledExecutor(new Utils.DaemonThreadFactory("MohoWriteBehind"));
+      _flusher.scheduleWithFixedDelay(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            flush();
+          }
+          catch (final Throwable t) {
+            LOG.error("Failed to flush write-behind mutations.", t);
+          }
+        }
+      }, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * @param maxPending
+   *          the number of write-behind mutations waiting to be written above
+   *          which commits are rejected.
+   */
+  public void setMaxPending(final int maxPending) {
+    _maxPending = maxPending > 0 ? maxPending : Integer.MAX_VALUE;
+  }
+
+  /**
+   * @param maxRetries
+   *          the number of times a failed write-behind batch is retried before
+   *          it is dropped.
+   */
+  public void setMaxRetries(final int maxRetries) {
+    _maxRetries = maxRetries;
+  }
+
+  public void startTx() {
+    if (_tx.get() != null) {
+      throw new IllegalStateException("There is already an open transaction on this thread[" + Thread.currentThread()
+          + "]");
+    }
+    _tx.set(new Batch());
+  }
+
+  public void commitTx() {
+    final Batch tx = _tx.get();
+    if (tx == null) {
+      throw new IllegalStateException("No transaction has been started on this thread[" + Thread.currentThread() + "]");
+    }
+    _tx.remove();
+    if (!tx.isEmpty()) {
+      write(tx);
+    }
+  }
+
+  public void rollbackTx() {
+    _tx.remove();
+  }
+
+  public boolean isInTx() {
+    return _tx.get() != null;
+  }
+
+  public void insert(final Object key, final String columnFamily, final String column, final Object value) {
+    if (value == null) {
+      throw new IllegalArgumentException("Null value for " + columnFamily + "[" + key + "][" + column + "]");
+    }
+    add(new Mutation(key, columnFamily, column, value instanceof String ? value : _codec.encode(value), _codec));
+  }
+
+  public void delete(final Object key, final String columnFamily, final String column) {
+    add(new Mutation(key, columnFamily, column, null, _codec));
+  }
+
+  public void deleteRow(final Object key, final String columnFamily) {
+    add(new Mutation(key, columnFamily, null, null, _codec));
+  }
+
+  protected void add(final Mutation mutation) {
+    final Batch tx = _tx.get();
+    if (tx != null) {
+      tx.add(mutation);
+    }
+    else {
+      final Batch batch = new Batch();
+      batch.add(mutation);
+      write(batch);
+    }
+  }
+
+  /**
+   * @throws IllegalStateException
+   *           if the write-behind queue is full.
+   */
+  protected void write(final Batch batch) {
+    if (!_writeBehind) {
+      _sink.write(batch.toList());
+      return;
+    }
+    final boolean full;
+    synchronized (this) {
+      if (_pending._size + batch._size > _maxPending) {
+        throw new IllegalStateException("Write-behind queue is full, " + _pending._size
+            + " mutations are waiting to be written");
+      }
+      _pending.addAll(batch);
+      full = _pending._size >= _maxBatchSize;
+    }
+    if (full && !_flusher.isShutdown()) {
+      _flusher.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            flush();
+          }
+          catch (final Throwable t) {
+            LOG.error("Failed to flush write-behind mutations.", t);
+          }
+        }
+      });
+    }
+  }
+
+  /**
+   * Writes the pending write-behind mutations. If the write fails the
+   * mutations are put back and retried on the next flush, up to the maximum
+   * number of retries after which they are dropped.
+   */
+  public void flush() {
+    synchronized (_flushLock) {
+      final Batch batch;
+      synchronized (this) {
+        if (_pending.isEmpty()) {
+          return;
+        }
+        batch = _pending;
+        _pending = new Batch();
+        // keep the batch visible to lookups until it is written
+        _flushing = batch;
+      }
+      try {
+        _sink.write(batch.toList());
+        _failures = 0;
+      }
+      catch (final RuntimeException ex) {
+        if (++_failures > _maxRetries) {
+          _failures = 0;
+          synchronized (this) {
+            _dropped += batch._size;
+          }
+          LOG.error("Dropping " + batch._size + " write-behind mutations after " + _maxRetries + " retries.");
+        }
+        else {
+          // put the batch back in front of the newer mutations, it is retried on the next flush
+          synchronized (this) {
+            batch.addAll(_pending);
+            _pending = batch;
+          }
+        }
+        throw ex;
+      }
+      finally {
+        synchronized (this) {
+          _flushing = null;
+        }
+      }
+    }
+  }
+
+  /**
+   * @return the mutation of the column that has not been written yet, either in
+   *         the transaction of this thread or in the write-behind queue. A
+   *         deletion means the column is gone, null means the store has to be
+   *         queried.
+   */
+  public Mutation lookup(final Object key, final String columnFamily, final String column) {
+    final Row row = new Row(key, columnFamily);
+    final Batch tx = _tx.get();
+    if (tx != null) {
+      final Mutation mutation = tx.lookup(row, column);
+      if (mutation != null) {
+        return mutation;
+      }
+    }
+    if (_writeBehind) {
+      synchronized (this) {
+        Mutation mutation = _pending.lookup(row, column);
+        if (mutation == null && _flushing != null) {
+          mutation = _flushing.lookup(row, column);
+        }
+        return mutation;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @return the mutations of the row that have not been written yet, oldest
+   *         first. If the row has been deleted the list starts with the row
+   *         deletion and the stored columns have to be ignored.
+   */
+  public List<Mutation> lookupRow(final Object key, final String columnFamily) {
+    final Row row = new Row(key, columnFamily);
+    final List<Mutation> result = new ArrayList<Mutation>(0);
+    if (_writeBehind) {
+      synchronized (this) {
+        if (_flushing != null) {
+          _flushing.lookupRow(row, result);
+        }
+        _pending.lookupRow(row, result);
+      }
+    }
+    final Batch tx = _tx.get();
+    if (tx != null) {
+      tx.lookupRow(row, result);
+    }
+    return result;
+  }
+
+  /**
+   * Applies the pending mutations of a row to the stored columns.
+   *
+   * @param stored
+   *          the columns read from the store, by name.
+   * @return the columns as they will be once the mutations are written.
+   */
+  public Map<String, Object> merge(final Object key, final String columnFamily, final Map<String, Object> stored) {
+    final List<Mutation> mutations = lookupRow(key, columnFamily);
+    if (mutations.isEmpty()) {
+      return stored;
+    }
+    final Map<String, Object> result = new LinkedHashMap<String, Object>(stored);
+    for (final Mutation mutation : mutations) {
+      if (mutation.isRowDeletion()) {
+        result.clear();
+      }
+      else if (mutation.isDeletion()) {
+        result.remove(mutation._column);
+      }
+      else {
+        result.put(mutation._column, mutation.getValue());
+      }
+    }
+    return result;
+  }
+
+  public boolean isWriteBehind() {
+    return _writeBehind;
+  }
+
+  /**
+   * @return the number of write-behind mutations that have not been flushed.
+   */
+  public synchronized int getPendingCount() {
+    return _pending._size;
+  }
+
+  /**
+   * @return the number of write-behind mutations dropped after failing too many
+   *         times.
+   */
+  public synchronized long getDroppedCount() {
+    return _dropped;
+  }
+
+  /**
+   * Flushes the pending mutations and stops the write-behind thread.
+   */
+  public void destroy() {
+    if (_flusher != null) {
+      _flusher.shutdown();
+      try {
+        _flusher.awaitTermination(5, TimeUnit.SECONDS);
+      }
+      catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    flush();
+  }
+}
@@ -0,0 +1,221 @@
+package com.voxeo.moho.common.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded, time-to-live cache kept in front of a remote store. The keys are
+ * spread over segments, each an access ordered map that drops its least
+ * recently used entry when it is full, so readers of different keys rarely
+ * contend. Entries are dropped on access once their time to live has passed.
+ * <p>
+ * Null values are not cached. Hits, misses and evictions are counted so the
+ * cache can be monitored and sized.
+ * <p>
+ * A value loaded from the store can be older than a concurrent write that has
+ * already invalidated the key. Loaders take a {@link #stamp(Object)} before
+ * they read the store and cache the value with
+ * {@link #put(Object, Object, long)}, which drops it if the key's segment has
+ * been invalidated in the meantime.
+ */
+public class NearCache<K, V> {
+
+  private static final class CacheEntry<V> {
+    final V _value;
+
+    final long _expiry;
+
+    CacheEntry(final V value, final long expiry) {
+      _value = value;
+      _expiry = expiry;
+    }
+  }
+
+  private static final class Segment<K, V> extends LinkedHashMap<K, CacheEntry<V>> {
+
+    private static final long serialVersionUID = -8218435520536437318L;
+
+    private final int _capacity;
+
+    private final AtomicLong _evictions;
+
+    // guarded by the segment
+    long _invalidations;
+
+    Segment(final int capacity, final AtomicLong evictions) {
+      super(16, 0.75f, true);
+      _capacity = capacity;
+      _evictions = evictions;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(final Map.Entry<K, CacheEntry<V>> eldest) {
+      if (size() > _capacity) {
+        _evictions.incrementAndGet();
+        return true;
+      }
+      return false;
+    }
+  }
+
+  private final Segment<K, V>[] _segments;
+
+  private final int _mask;
+
+  private final long _ttl;
+
+  private final AtomicLong _hits = new AtomicLong();
+
+  private final AtomicLong _misses = new AtomicLong();
+
+  private final AtomicLong _evictions = new AtomicLong();
+
+  /**
+   * @param maxSize
+   *          the maximum number of entries, at least one per segment.
+   * @param ttl
+   *          the time to live of an entry in milliseconds.
+   */
+  @SuppressWarnings("unchecked")
+  public NearCache(final int maxSize, final long ttl) {
+    if (maxSize <= 0 || ttl <= 0) {
+      throw new IllegalArgumentException("Illegal size " + maxSize + " or ttl " + ttl);
+    }
+    int segments = 1;
+    while (segments < 16 && segments * 2 <= maxSize) {
+      segments <<= 1;
+    }
+    _segments = new Segment[segments];
+    for (int i = 0; i < segments; i++) {
+      _segments[i] = new Segment<K, V>((maxSize + segments - 1) / segments, _evictions);
+    }
+    _mask = segments - 1;
+    _ttl = ttl;
+  }
+
+  private Segment<K, V> segmentFor(final Object key) {
+    int h = key.hashCode();
+    h ^= (h >>> 20) ^ (h >>> 12);
+    h ^= (h >>> 7) ^ (h >>> 4);
+    return _segments[h & _mask];
+  }
+
+  /**
+   * @return the cached value, or null on a miss.
+   */
+  public V get(final K key) {
+    final Segment<K, V> segment = segmentFor(key);
+    synchronized (segment) {
+      final CacheEntry<V> entry = segment.get(key);
+      if (entry != null) {
+        if (entry._expiry > System.currentTimeMillis()) {
+          _hits.incrementAndGet();
+          return entry._value;
+        }
+        segment.remove(key);
+      }
+    }
+    _misses.incrementAndGet();
+    return null;
+  }
+
+  public void put(final K key, final V value) {
+    if (value == null) {
+      return;
+    }
+    final Segment<K, V> segment = segmentFor(key);
+    synchronized (segment) {
+      segment.put(key, new CacheEntry<V>(value, System.currentTimeMillis() + _ttl));
+    }
+  }
+
+  /**
+   * @return the invalidation stamp of the key, to be passed to
+   *         {@link #put(Object, Object, long)}.
+   */
+  public long stamp(final K key) {
+    final Segment<K, V> segment = segmentFor(key);
+    synchronized (segment) {
+      return segment._invalidations;
+    }
+  }
+
+  /**
+   * Caches a value loaded from the store unless the key may have been written
+   * since the stamp was taken.
+   *
+   * @return true if the value has been cached.
+   */
+  public boolean put(final K key, final V value, final long stamp) {
+    if (value == null) {
+      return false;
+    }
+    final Segment<K, V> segment = segmentFor(key);
+    synchronized (segment) {
+      if (segment._invalidations != stamp) {
+        return false;
+      }
+      segment.put(key, new CacheEntry<V>(value, System.currentTimeMillis() + _ttl));
+      return true;
+    }
+  }
+
+  public void invalidate(final K key) {
+    final Segment<K, V> segment = segmentFor(key);
+    synchronized (segment) {
+      segment._invalidations++;
+      segment.remove(key);
+    }
+  }
+
+  public void clear() {
+    for (final Segment<K, V> segment : _segments) {
+      synchronized (segment) {
+        segment._invalidations++;
+        segment.clear();
+      }
+    }
+  }
+
+  /**
+   * @return the number of entries, including the expired ones that have not
+   *         been accessed since.
+   */
+  public int size() {
+    int size = 0;
+    for (final Segment<K, V> segment : _segments) {
+      synchronized (segment) {
+        size += segment.size();
+      }
+    }
+    return size;
+  }
+
+  public long getHitCount() {
+    return _hits.get();
+  }
+
+  public long getMissCount() {
+    return _misses.get();
+  }
+
+  public long getEvictionCount() {
+    return _evictions.get();
+  }
+
+  /**
+   * @return hits / (hits + misses), 0 before the first lookup.
+   */
+  public double getHitRatio() {
+    final long hits = _hits.get();
+    final long total = hits + _misses.get();
+    return total == 0 ? 0 : (double) hits / total;
+  }
+
+  @Override
+  public String toString() {
+    return "NearCache[size=" + size() + ", hits=" + _hits.get() + ", misses=" + _misses.get() + ", evictions="
+        + _evictions.get() + "]";
+  }
+}
@@ -0,0 +1,111 @@
+package com.voxeo.moho.common.util;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Explicit overload policy for a bounded event executor. Counts every task it
+ * has to deal with so the overload can be monitored.
+ */
+public class OverloadRejectionHandler implements RejectedExecutionHandler {
+
+  private static final Logger LOG = Logger.getLogger(OverloadRejectionHandler.class);
+
+  public enum Policy {
+    /**
+     * reject the task. The dispatcher drops a new call and cancels its future,
+     * so it is answered with 503. The events of existing calls are run on the
+     * overflow executor of the dispatcher instead.
+     */
+    REJECT,
+
+    /**
+     * drop low priority events while the queue is full, reject the rest like
+     * REJECT does.
+     */
+    SHED,
+
+    /**
+     * run the task in the submitting thread.
+     */
+    CALLER_RUNS
+  }
+
+  private final Policy _policy;
+
+  private final Class<?>[] _lowPriorityTypes;
+
+  private final AtomicLong _rejected = new AtomicLong();
+
+  private final AtomicLong _shed = new AtomicLong();
+
+  private final AtomicLong _callerRuns = new AtomicLong();
+
+  /**
+   * @param policy
+   *          the overload policy.
+   * @param lowPriorityTypes
+   *          the event types that can be dropped under the SHED policy.
+   */
+  public OverloadRejectionHandler(final Policy policy, final Class<?>... lowPriorityTypes) {
+    _policy = policy;
+    _lowPriorityTypes = lowPriorityTypes;
+  }
+
+  @Override
+  public void rejectedExecution(final Runnable r, final ThreadPoolExecutor executor) {
+    if (_policy == Policy.CALLER_RUNS && !executor.isShutdown()) {
+      _callerRuns.incrementAndGet();
+      r.run();
+      return;
+    }
+    final long count = _rejected.incrementAndGet();
+    if (count % 1000 == 1) {
+      LOG.warn("Event executor is overloaded, " + count + " tasks rejected so far. Queue size: "
+          + executor.getQueue().size());
+    }
+    throw new RejectedExecutionException("Event executor is overloaded.");
+  }
+
+  /**
+   * Decides whether an event should be dropped before it is queued.
+   *
+   * @return true if the policy is SHED, the queue of the executor is full and
+   *         the event is of low priority.
+   */
+  public boolean shed(final Object event, final ThreadPoolExecutor executor) {
+    if (_policy != Policy.SHED || executor.getQueue().remainingCapacity() > 0) {
+      return false;
+    }
+    for (final Class<?> type : _lowPriorityTypes) {
+      if (type.isInstance(event)) {
+        _shed.incrementAndGet();
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("Event executor is overloaded, dropping " + event);
+        }
+        return true;
+      }
+    }
+    return false;
+  }
+
+  public Policy getPolicy() {
+    return _policy;
+  }
+
+  public long getRejectedCount() {
+    return _rejected.get();
+  }
+
+  public long getShedCount() {
+    return _shed.get();
+  }
+
+  public long getCallerRunsCount() {
+    return _callerRuns.get();
+  }
+}
@@ -11,11 +11,18 @@
 
 package com.voxeo.moho.common.util;
 
+import java.lang.ref.WeakReference;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.List;
 import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -27,6 +34,15 @@ import com.voxeo.moho.utils.EventListener;
 
 public class Utils {
 
+  // chains of the classes that live as long as this class does
+  private static final ConcurrentMap<Class<?>, Class<?>[]> EVENT_TYPE_CHAINS = new ConcurrentHashMap<Class<?>, Class<?>[]>();
+
+  // chains of the classes of other class loaders, such as the ones of the
+  // applications, which must not be kept from being unloaded. The chains are
+  // weakly referenced too, as they hold classes of the same loader.
+  private static final Map<Class<?>, WeakReference<Class<?>[]>> FOREIGN_EVENT_TYPE_CHAINS = Collections
+      .synchronizedMap(new WeakHashMap<Class<?>, WeakReference<Class<?>[]>>());
+
   public static Class<?> getGenericType(final Object o) {
     for (Class<?> clz = o.getClass(); clz != null && !clz.equals(Object.class); clz = clz.getSuperclass()) {
       for (final Type type : clz.getGenericInterfaces()) {
@@ -72,6 +88,62 @@ public class Utils {
     return null;
   }
 
+  /**
+   * Returns the event types an event of the given class is dispatched to, most
+   * specific first. This is the sequence {@link #getEventType(Class)} yields
+   * when applied repeatedly, computed once per class and cached. Classes of
+   * class loaders other than the one of Moho and its parents are only weakly
+   * referenced by the cache, so redeployed applications can be unloaded.
+   * 
+   * @param clazz
+   *          the concrete event class.
+   * @return the dispatch chain, empty if the class is not an event. Callers
+   *         must not modify the returned array.
+   */
+  public static Class<?>[] getEventTypeChain(final Class<?> clazz) {
+    Class<?>[] chain = EVENT_TYPE_CHAINS.get(clazz);
+    if (chain != null) {
+      return chain;
+    }
+    if (isVisibleForLifetime(clazz)) {
+      chain = computeEventTypeChain(clazz);
+      final Class<?>[] existing = EVENT_TYPE_CHAINS.putIfAbsent(clazz, chain);
+      return existing != null ? existing : chain;
+    }
+    final WeakReference<Class<?>[]> ref = FOREIGN_EVENT_TYPE_CHAINS.get(clazz);
+    chain = ref != null ? ref.get() : null;
+    if (chain == null) {
+      chain = computeEventTypeChain(clazz);
+      FOREIGN_EVENT_TYPE_CHAINS.put(clazz, new WeakReference<Class<?>[]>(chain));
+    }
+    return chain;
+  }
+
+  private static Class<?>[] computeEventTypeChain(final Class<?> clazz) {
+    final List<Class<?>> types = new ArrayList<Class<?>>();
+    for (Class<?> type = getEventType(clazz); type != null && !type.equals(Object.class); type = getEventType(type)) {
+      types.add(type);
+    }
+    return types.toArray(new Class<?>[types.size()]);
+  }
+
+  /**
+   * @return true if the class is loaded by the class loader of this class or
+   *         one of its parents, so that it can not be unloaded before it.
+   */
+  private static boolean isVisibleForLifetime(final Class<?> clazz) {
+    final ClassLoader loader = clazz.getClassLoader();
+    if (loader == null) {
+      return true;
+    }
+    for (ClassLoader own = Utils.class.getClassLoader(); own != null; own = own.getParent()) {
+      if (own == loader) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   @SuppressWarnings({"rawtypes", "unchecked"})
   public static Map<String, String> getCurrentLogContexts() {
     Map<String, String> current = null;
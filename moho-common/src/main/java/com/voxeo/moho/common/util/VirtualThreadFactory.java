@@ -0,0 +1,59 @@
+package com.voxeo.moho.common.util;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Creates virtual threads when the JVM supports them (Java 21 and later) and
+ * falls back to {@link Utils.DaemonThreadFactory} otherwise. The virtual thread
+ * builder is looked up reflectively so Moho still runs on older JVMs.
+ * <p>
+ * Select it for the event dispatcher with the servlet init parameter
+ * <code>eventDispatcherThreadFactory=com.voxeo.moho.common.util.VirtualThreadFactory</code>.
+ * Event handlers and join workers then block virtual threads instead of
+ * platform threads.
+ */
+public class VirtualThreadFactory implements ThreadFactory {
+
+  private static final Logger LOG = Logger.getLogger(VirtualThreadFactory.class);
+
+  private final ThreadFactory _delegate;
+
+  private final boolean _virtual;
+
+  public VirtualThreadFactory() {
+    this("MOHO-V-");
+  }
+
+  public VirtualThreadFactory(final String namePrefix) {
+    ThreadFactory factory = null;
+    try {
+      final Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+      Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, namePrefix, 0L);
+      final Method factoryMethod = builderClass.getMethod("factory");
+      factory = (ThreadFactory) factoryMethod.invoke(builder);
+    }
+    catch (final Exception ex) {
+      LOG.info("Virtual threads are not supported by this JVM, using daemon threads.");
+    }
+    _virtual = factory != null;
+    _delegate = factory != null ? factory : new Utils.DaemonThreadFactory("MohoContext");
+  }
+
+  @Override
+  public Thread newThread(final Runnable r) {
+    final Thread t = _delegate.newThread(r);
+    t.setContextClassLoader(this.getClass().getClassLoader());
+    return t;
+  }
+
+  /**
+   * @return true if this factory creates virtual threads.
+   */
+  public boolean isVirtual() {
+    return _virtual;
+  }
+}
@@ -0,0 +1,373 @@
+/**
+ * Copyright 2010-2011 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.common.event;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.voxeo.moho.event.Event;
+import com.voxeo.moho.event.EventSource;
+import com.voxeo.moho.utils.EventListener;
+
+public class EventDispatcherTest {
+
+  private ExecutorService _pool;
+
+  private EventDispatcher _dispatcher;
+
+  private final List<TestEvent> _received = Collections.synchronizedList(new ArrayList<TestEvent>());
+
+  private final AtomicInteger _running = new AtomicInteger();
+
+  private volatile boolean _overlapped;
+
+  @Before
+  public void setUp() throws Exception {
+    _pool = Executors.newFixedThreadPool(4);
+    _dispatcher = new EventDispatcher() {
+      @Override
+      protected boolean isRejectable(final Object event) {
+        return event instanceof NewCallEvent;
+      }
+    };
+    _dispatcher.addListener(SequencedEvent.class, new EventListener<TestEvent>() {
+      public void onEvent(final TestEvent event) throws Exception {
+        if (_running.incrementAndGet() > 1) {
+          _overlapped = true;
+        }
+        _received.add(event);
+        _running.decrementAndGet();
+      }
+    });
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    _pool.shutdownNow();
+  }
+
+  @Test
+  public void testEventsAreDeliveredInOrder() throws Exception {
+    _dispatcher.setExecutor(_pool, true, true);
+
+    Future<TestEvent> last = null;
+    for (int i = 0; i < 10000; i++) {
+      last = _dispatcher.fire(new TestEvent(0, i));
+    }
+    last.get(10, TimeUnit.SECONDS);
+
+    assertEquals(10000, _received.size());
+    for (int i = 0; i < 10000; i++) {
+      assertEquals(i, _received.get(i).seq);
+    }
+    assertFalse(_overlapped);
+  }
+
+  @Test
+  public void testConcurrentProducers() throws Exception {
+    _dispatcher.setExecutor(_pool, true, true);
+
+    final int producers = 8;
+    final int events = 2000;
+    final CountDownLatch start = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(producers);
+    for (int p = 0; p < producers; p++) {
+      final int producer = p;
+      new Thread() {
+        public void run() {
+          try {
+            start.await();
+            for (int i = 0; i < events; i++) {
+              _dispatcher.fire(new TestEvent(producer, i));
+            }
+          }
+          catch (InterruptedException e) {
+            // test fails on the count
+          }
+          finally {
+            done.countDown();
+          }
+        }
+      }.start();
+    }
+    start.countDown();
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    waitForEvents(producers * events);
+
+    final int[] next = new int[producers];
+    synchronized (_received) {
+      for (final TestEvent event : _received) {
+        assertEquals(next[event.producer]++, event.seq);
+      }
+    }
+    assertFalse(_overlapped);
+  }
+
+  @Test
+  public void testQueuedEventsAreDrainedAfterRejection() throws Exception {
+    final TestEvent other = new TestEvent(1, 0);
+    _dispatcher.setExecutor(new Executor() {
+      private boolean _rejected;
+
+      public void execute(final Runnable command) {
+        if (!_rejected) {
+          _rejected = true;
+          // another producer queues an event while the flag is held
+          _dispatcher.fire(other);
+          throw new RejectedExecutionException();
+        }
+        _pool.execute(command);
+      }
+    }, true, true);
+
+    assertTrue(_dispatcher.fire(new NewCallEvent(0, 0)).isCancelled());
+    waitForEvents(1);
+    assertEquals(other, _received.get(0));
+
+    _dispatcher.fire(new TestEvent(0, 1)).get(10, TimeUnit.SECONDS);
+    assertEquals(2, _received.size());
+  }
+
+  @Test
+  public void testQueuedEventsAreNotRunByTheRejectedCaller() throws Exception {
+    final TestEvent other = new TestEvent(1, 0);
+    final Thread caller = Thread.currentThread();
+    final List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+    _dispatcher.addListener(SequencedEvent.class, new EventListener<TestEvent>() {
+      public void onEvent(final TestEvent event) throws Exception {
+        threads.add(Thread.currentThread());
+      }
+    });
+    _dispatcher.setExecutor(new Executor() {
+      private int _calls;
+
+      public void execute(final Runnable command) {
+        if (_calls++ == 0) {
+          _dispatcher.fire(other);
+        }
+        if (_calls <= 2) {
+          // rejects the processor and the re-drain
+          throw new RejectedExecutionException();
+        }
+        _pool.execute(command);
+      }
+    }, true, true);
+
+    assertTrue(_dispatcher.fire(new NewCallEvent(0, 0)).isCancelled());
+    assertTrue(_received.isEmpty());
+
+    // the next event schedules the processor, which runs the stranded one first
+    _dispatcher.fire(new TestEvent(0, 1)).get(10, TimeUnit.SECONDS);
+    assertEquals(2, _received.size());
+    assertEquals(other, _received.get(0));
+    assertFalse(threads.contains(caller));
+  }
+
+  @Test
+  public void testRejectedNewCallIsCancelled() throws Exception {
+    _dispatcher.setExecutor(REJECTING, false);
+    _dispatcher.setOverflowExecutor(_pool);
+
+    assertTrue(_dispatcher.fire(new NewCallEvent(0, 0)).isCancelled());
+    assertTrue(_received.isEmpty());
+  }
+
+  @Test
+  public void testRejectedEventRunsOnTheOverflowExecutor() throws Exception {
+    assertRejectedEventsAreDelivered(false, false);
+    assertRejectedEventsAreDelivered(true, false);
+    assertRejectedEventsAreDelivered(true, true);
+  }
+
+  @Test
+  public void testRejectedEventRunsOnTheCallerWithoutOverflowExecutor() throws Exception {
+    _dispatcher.setExecutor(REJECTING, true, true);
+    final AtomicInteger after = new AtomicInteger();
+    final Thread caller = Thread.currentThread();
+    final List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+    _dispatcher.addListener(SequencedEvent.class, new EventListener<TestEvent>() {
+      public void onEvent(final TestEvent event) throws Exception {
+        threads.add(Thread.currentThread());
+      }
+    });
+
+    final Future<TestEvent> future = _dispatcher.fire(new TestEvent(0, 0), false, new Runnable() {
+      public void run() {
+        after.incrementAndGet();
+      }
+    });
+    assertTrue(future.isDone());
+    assertFalse(future.isCancelled());
+    assertEquals(1, _received.size());
+    assertEquals(1, after.get());
+    assertEquals(caller, threads.get(0));
+  }
+
+  /**
+   * The events of existing sources are delivered, in order and with their
+   * afterExec, while the executor rejects everything.
+   */
+  private void assertRejectedEventsAreDelivered(final boolean order, final boolean lockFree) throws Exception {
+    _received.clear();
+    _dispatcher.setExecutor(REJECTING, order, lockFree);
+    _dispatcher.setOverflowExecutor(_pool);
+    final AtomicInteger after = new AtomicInteger();
+    final Runnable afterExec = new Runnable() {
+      public void run() {
+        after.incrementAndGet();
+      }
+    };
+
+    Future<TestEvent> last = null;
+    for (int i = 0; i < 100; i++) {
+      last = _dispatcher.fire(new TestEvent(0, i), false, afterExec);
+      assertFalse(last.isCancelled());
+    }
+    last.get(10, TimeUnit.SECONDS);
+    waitForEvents(100);
+    if (order) {
+      for (int i = 0; i < 100; i++) {
+        assertEquals(i, _received.get(i).seq);
+      }
+    }
+    final long deadline = System.currentTimeMillis() + 10000;
+    while (after.get() < 100 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(100, after.get());
+  }
+
+  @Test
+  public void testRejectedRescheduleKeepsDraining() throws Exception {
+    assertDrainedOnOneStack(REJECTING);
+  }
+
+  @Test
+  public void testCallerRunsRescheduleDoesNotRecurse() throws Exception {
+    assertDrainedOnOneStack(new Executor() {
+      public void execute(final Runnable command) {
+        command.run();
+      }
+    });
+  }
+
+  /**
+   * Queues more events than a batch while the processor waits to start, then
+   * lets the given executor handle the reschedules.
+   */
+  private void assertDrainedOnOneStack(final Executor reschedule) throws Exception {
+    final CountDownLatch release = new CountDownLatch(1);
+    final List<Integer> depths = Collections.synchronizedList(new ArrayList<Integer>());
+    _dispatcher.addListener(SequencedEvent.class, new EventListener<TestEvent>() {
+      public void onEvent(final TestEvent event) throws Exception {
+        depths.add(Thread.currentThread().getStackTrace().length);
+      }
+    });
+    _dispatcher.setExecutor(new Executor() {
+      private boolean _started;
+
+      public void execute(final Runnable command) {
+        if (_started) {
+          reschedule.execute(command);
+          return;
+        }
+        _started = true;
+        _pool.execute(new Runnable() {
+          public void run() {
+            try {
+              release.await();
+            }
+            catch (InterruptedException e) {
+              return;
+            }
+            command.run();
+          }
+        });
+      }
+    }, true, true);
+
+    Future<TestEvent> last = null;
+    for (int i = 0; i < 1000; i++) {
+      last = _dispatcher.fire(new TestEvent(0, i));
+    }
+    release.countDown();
+    last.get(10, TimeUnit.SECONDS);
+
+    assertEquals(1000, _received.size());
+    for (int i = 0; i < 1000; i++) {
+      assertEquals(i, _received.get(i).seq);
+      assertEquals(depths.get(0), depths.get(i));
+    }
+  }
+
+  private void waitForEvents(final int count) throws InterruptedException {
+    final long deadline = System.currentTimeMillis() + 10000;
+    while (_received.size() < count && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(count, _received.size());
+  }
+
+  private static final Executor REJECTING = new Executor() {
+    public void execute(final Runnable command) {
+      throw new RejectedExecutionException();
+    }
+  };
+
+  interface SequencedEvent extends Event<EventSource> {
+  }
+
+  static class TestEvent implements SequencedEvent {
+    final int producer;
+
+    final int seq;
+
+    TestEvent(final int producer, final int seq) {
+      this.producer = producer;
+      this.seq = seq;
+    }
+
+    public EventSource getSource() {
+      return null;
+    }
+  }
+
+  /**
+   * Stands for an event starting a new call, the only kind dropped on
+   * rejection.
+   */
+  static class NewCallEvent extends TestEvent {
+    NewCallEvent(final int producer, final int seq) {
+      super(producer, seq);
+    }
+  }
+}
@@ -0,0 +1,244 @@
+/**
+ * Copyright 2010-2011 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.common.event;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.voxeo.moho.State;
+import com.voxeo.moho.event.Event;
+import com.voxeo.moho.event.EventSource;
+
+public class StateIndexTest {
+
+  /**
+   * Event source that only knows its application states.
+   */
+  static class States implements InvocationHandler {
+    final Map<String, String> _states = new HashMap<String, String>();
+
+    public Object invoke(final Object proxy, final Method method, final Object[] args) {
+      if (method.getName().equals("getApplicationState")) {
+        return _states.get(args == null ? AutowiredEventTarget.DEFAULT_FSM : (String) args[0]);
+      }
+      if (method.getName().equals("toString")) {
+        return "source" + _states;
+      }
+      throw new UnsupportedOperationException(method.getName());
+    }
+  }
+
+  public interface TestEvent extends Event<EventSource> {
+  }
+
+  public interface OtherEvent extends TestEvent {
+  }
+
+  static class TestEventImpl implements TestEvent {
+    final EventSource _source;
+
+    TestEventImpl(final EventSource source) {
+      _source = source;
+    }
+
+    public EventSource getSource() {
+      return _source;
+    }
+  }
+
+  static class OtherEventImpl extends TestEventImpl implements OtherEvent {
+    OtherEventImpl(final EventSource source) {
+      super(source);
+    }
+  }
+
+  public static class Observer {
+    final List<String> _calls = new ArrayList<String>();
+
+    @State("ringing")
+    public void onRinging(final TestEvent event) {
+      _calls.add("ringing");
+    }
+
+    @State("answered")
+    public void onAnswered(final TestEvent event) {
+      _calls.add("answered");
+    }
+
+    @State
+    public void onAny(final TestEvent event) {
+      _calls.add("any");
+    }
+  }
+
+  public static class TypedObserver {
+    final List<String> _calls = new ArrayList<String>();
+
+    @State("answered")
+    public void onAnswered(final TestEvent event) {
+      _calls.add("answered");
+    }
+
+    @State("answered")
+    public void onOtherAnswered(final OtherEvent event) {
+      _calls.add("other answered");
+    }
+  }
+
+  public static class MediaObserver {
+    final List<String> _calls = new ArrayList<String>();
+
+    @State("ringing")
+    public void onRinging(final TestEvent event) {
+      _calls.add("ringing");
+    }
+
+    @State("media=playing")
+    public void onPlaying(final TestEvent event) {
+      _calls.add("playing");
+    }
+  }
+
+  private States _states;
+
+  private EventSource _source;
+
+  @Before
+  public void setUp() {
+    _states = new States();
+    _source = (EventSource) Proxy.newProxyInstance(EventSource.class.getClassLoader(),
+        new Class<?>[] {EventSource.class}, _states);
+  }
+
+  private static List<AutowiredEventTarget> targets(final Object observer, final String... names) throws Exception {
+    final List<AutowiredEventTarget> targets = new ArrayList<AutowiredEventTarget>();
+    for (final String name : names) {
+      targets.add(new AutowiredEventTarget(observer.getClass().getMethod(name, TestEvent.class), observer));
+    }
+    return targets;
+  }
+
+  @Test
+  public void testTargetIsLookedUpByState() throws Exception {
+    final Observer observer = new Observer();
+    final AutowiredEventListener.StateIndex index = new AutowiredEventListener.StateIndex(targets(observer,
+        "onRinging", "onAnswered"));
+
+    _states._states.put(AutowiredEventTarget.DEFAULT_FSM, "ringing");
+    index.invoke(new TestEventImpl(_source));
+    // the index holds no state of the source, a state change needs no update
+    _states._states.put(AutowiredEventTarget.DEFAULT_FSM, "answered");
+    index.invoke(new TestEventImpl(_source));
+    // no target for that state
+    _states._states.put(AutowiredEventTarget.DEFAULT_FSM, "disconnected");
+    index.invoke(new TestEventImpl(_source));
+
+    assertEquals(2, observer._calls.size());
+    assertEquals("ringing", observer._calls.get(0));
+    assertEquals("answered", observer._calls.get(1));
+  }
+
+  @Test
+  public void testStatesAreMatchedByValue() throws Exception {
+    final Observer observer = new Observer();
+    final AutowiredEventListener.StateIndex index = new AutowiredEventListener.StateIndex(targets(observer,
+        "onRinging"));
+
+    // a state that was never interned
+    _states._states.put(AutowiredEventTarget.DEFAULT_FSM, new String("ringing"));
+    index.invoke(new TestEventImpl(_source));
+    assertEquals(1, observer._calls.size());
+  }
+
+  @Test
+  public void testUnconstrainedTargetIsTheFallback() throws Exception {
+    final Observer observer = new Observer();
+    final AutowiredEventListener.StateIndex index = new AutowiredEventListener.StateIndex(targets(observer,
+        "onRinging", "onAny"));
+
+    _states._states.put(AutowiredEventTarget.DEFAULT_FSM, "ringing");
+    index.invoke(new TestEventImpl(_source));
+    _states._states.put(AutowiredEventTarget.DEFAULT_FSM, "answered");
+    index.invoke(new TestEventImpl(_source));
+    // the state has been removed from the source
+    _states._states.remove(AutowiredEventTarget.DEFAULT_FSM);
+    index.invoke(new TestEventImpl(_source));
+
+    assertEquals(3, observer._calls.size());
+    assertEquals("ringing", observer._calls.get(0));
+    assertEquals("any", observer._calls.get(1));
+    assertEquals("any", observer._calls.get(2));
+  }
+
+  @Test
+  public void testTargetsBehindAnUnconstrainedOneAreNotIndexed() throws Exception {
+    final Observer observer = new Observer();
+    final AutowiredEventListener.StateIndex index = new AutowiredEventListener.StateIndex(targets(observer,
+        "onAny", "onRinging"));
+
+    _states._states.put(AutowiredEventTarget.DEFAULT_FSM, "ringing");
+    index.invoke(new TestEventImpl(_source));
+
+    assertEquals(1, observer._calls.size());
+    assertEquals("any", observer._calls.get(0));
+  }
+
+  @Test
+  public void testTargetsOfSeveralFSMsAreScanned() throws Exception {
+    final MediaObserver observer = new MediaObserver();
+    final AutowiredEventListener.StateIndex index = new AutowiredEventListener.StateIndex(targets(observer,
+        "onPlaying", "onRinging"));
+
+    _states._states.put(AutowiredEventTarget.DEFAULT_FSM, "ringing");
+    index.invoke(new TestEventImpl(_source));
+    _states._states.put("media", "playing");
+    index.invoke(new TestEventImpl(_source));
+
+    assertEquals(2, observer._calls.size());
+    assertEquals("ringing", observer._calls.get(0));
+    assertEquals("playing", observer._calls.get(1));
+  }
+
+  @Test
+  public void testListenerIndexesEachEventType() throws Exception {
+    final TypedObserver observer = new TypedObserver();
+    final AutowiredEventListener listener = new AutowiredEventListener(observer);
+    assertEquals(2, listener._indexes.size());
+    assertTrue(listener._indexes.containsKey(TestEvent.class));
+    assertTrue(listener._indexes.containsKey(OtherEvent.class));
+
+    _states._states.put(AutowiredEventTarget.DEFAULT_FSM, "answered");
+    listener.onEvent(new TestEventImpl(_source));
+    assertEquals(1, observer._calls.size());
+    assertEquals("answered", observer._calls.get(0));
+
+    // the most specific type first, then its super types
+    listener.onEvent(new OtherEventImpl(_source));
+    assertEquals(3, observer._calls.size());
+    assertEquals("other answered", observer._calls.get(1));
+    assertEquals("answered", observer._calls.get(2));
+  }
+}
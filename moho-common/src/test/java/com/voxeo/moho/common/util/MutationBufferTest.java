@@ -0,0 +1,284 @@
+package com.voxeo.moho.common.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.voxeo.moho.common.util.MutationBuffer.Mutation;
+
+public class MutationBufferTest {
+
+  /**
+   * In-process column store that counts the batches written to it.
+   */
+  static class FakeStore implements MutationBuffer.Sink {
+    final Map<String, Map<String, Object>> _rows = new HashMap<String, Map<String, Object>>();
+
+    final List<List<Mutation>> _batches = new ArrayList<List<Mutation>>();
+
+    volatile boolean _failing;
+
+    volatile CountDownLatch _written = new CountDownLatch(1);
+
+    @Override
+    public synchronized void write(List<Mutation> batch) {
+      if (_failing) {
+        throw new IllegalStateException("store is down");
+      }
+      _batches.add(batch);
+      for (Mutation mutation : batch) {
+        String row = mutation.getColumnFamily() + "/" + mutation.getKey();
+        if (mutation.isRowDeletion()) {
+          _rows.remove(row);
+          continue;
+        }
+        Map<String, Object> columns = _rows.get(row);
+        if (columns == null) {
+          columns = new HashMap<String, Object>();
+          _rows.put(row, columns);
+        }
+        if (mutation.isDeletion()) {
+          columns.remove(mutation.getColumn());
+        }
+        else {
+          columns.put(mutation.getColumn(), mutation.getValue());
+        }
+      }
+      _written.countDown();
+    }
+
+    synchronized Object get(String columnFamily, String key, String column) {
+      Map<String, Object> columns = _rows.get(columnFamily + "/" + key);
+      return columns != null ? columns.get(column) : null;
+    }
+
+    synchronized int getBatchCount() {
+      return _batches.size();
+    }
+  }
+
+  @Test
+  public void testCommitWritesOneBatch() {
+    FakeStore store = new FakeStore();
+    MutationBuffer buffer = new MutationBuffer(store);
+
+    buffer.startTx();
+    buffer.insert("sip:alice@voxeo.com", "Bindings", "sip:alice@127.0.0.1", "a");
+    buffer.insert("sip:alice@voxeo.com", "Bindings", "sip:alice@172.21.0.191", "b");
+    buffer.insert("sip:bob@voxeo.com", "Bindings", "sip:bob@127.0.0.1", "c");
+    assertEquals(0, store.getBatchCount());
+    buffer.commitTx();
+
+    assertEquals(1, store.getBatchCount());
+    assertEquals(3, store._batches.get(0).size());
+    assertEquals("c", store.get("Bindings", "sip:bob@voxeo.com", "sip:bob@127.0.0.1"));
+  }
+
+  @Test
+  public void testCoalescing() {
+    FakeStore store = new FakeStore();
+    MutationBuffer buffer = new MutationBuffer(store);
+
+    buffer.startTx();
+    buffer.insert("alice", "Resources", "presence", "v1");
+    buffer.insert("alice", "Resources", "presence", "v2");
+    buffer.insert("alice", "Resources", "presence", "v3");
+    buffer.insert("bob", "Resources", "presence", "v1");
+    buffer.deleteRow("bob", "Resources");
+    buffer.insert("bob", "Resources", "dialog", "v2");
+    buffer.commitTx();
+
+    List<Mutation> batch = store._batches.get(0);
+    assertEquals(3, batch.size());
+    assertEquals("v3", store.get("Resources", "alice", "presence"));
+    assertNull(store.get("Resources", "bob", "presence"));
+    assertEquals("v2", store.get("Resources", "bob", "dialog"));
+  }
+
+  @Test
+  public void testReadYourWritesAndRollback() {
+    FakeStore store = new FakeStore();
+    MutationBuffer buffer = new MutationBuffer(store);
+
+    buffer.startTx();
+    buffer.insert("alice", "Resources", "presence", "v1");
+    assertEquals("v1", buffer.lookup("alice", "Resources", "presence").getValue());
+    buffer.deleteRow("alice", "Resources");
+    assertTrue(buffer.lookup("alice", "Resources", "presence").isDeletion());
+
+    Map<String, Object> stored = new HashMap<String, Object>();
+    stored.put("dialog", "v0");
+    assertTrue(buffer.merge("alice", "Resources", stored).isEmpty());
+    buffer.rollbackTx();
+
+    assertNull(buffer.lookup("alice", "Resources", "presence"));
+    assertEquals(0, store.getBatchCount());
+    assertFalse(buffer.isInTx());
+  }
+
+  @Test
+  public void testWriteBehind() throws Exception {
+    FakeStore store = new FakeStore();
+    MutationBuffer buffer = new MutationBuffer(store, 50, 1000);
+    try {
+      buffer.startTx();
+      buffer.insert("alice", "Resources", "presence", "v1");
+      buffer.commitTx();
+
+      assertTrue(store._written.await(5, TimeUnit.SECONDS));
+      assertEquals("v1", store.get("Resources", "alice", "presence"));
+    }
+    finally {
+      buffer.destroy();
+    }
+  }
+
+  @Test
+  public void testWriteBehindCoalescesAndFlushesFullBatch() throws Exception {
+    FakeStore store = new FakeStore();
+    // the interval never fires, only a full batch is flushed
+    MutationBuffer buffer = new MutationBuffer(store, 60000, 100);
+    try {
+      for (int i = 0; i < 100; i++) {
+        buffer.startTx();
+        buffer.insert("alice", "Resources", "presence", "v" + i);
+        buffer.commitTx();
+      }
+      // not written yet, but visible
+      assertEquals(1, buffer.getPendingCount());
+      assertEquals("v99", buffer.lookup("alice", "Resources", "presence").getValue());
+      assertEquals(0, store.getBatchCount());
+
+      for (int i = 1; i < 100; i++) {
+        buffer.insert("bob", "Resources", "c" + i, "v" + i);
+      }
+      assertTrue(store._written.await(5, TimeUnit.SECONDS));
+      assertEquals(1, store.getBatchCount());
+      assertEquals(100, store._batches.get(0).size());
+      assertEquals("v99", store.get("Resources", "alice", "presence"));
+    }
+    finally {
+      buffer.destroy();
+    }
+  }
+
+  @Test
+  public void testValueIsCopiedWhenBuffered() {
+    FakeStore store = new FakeStore();
+    MutationBuffer buffer = new MutationBuffer(store);
+
+    List<String> watchers = new ArrayList<String>();
+    watchers.add("bob");
+    buffer.startTx();
+    buffer.insert("alice", "Watchers", "presence", watchers);
+    watchers.add("carol");
+
+    Object buffered = buffer.lookup("alice", "Watchers", "presence").getValue();
+    assertEquals(1, ((List<?>) buffered).size());
+    ((List<String>) buffered).add("dave");
+    buffer.commitTx();
+
+    assertEquals(1, ((List<?>) store.get("Watchers", "alice", "presence")).size());
+  }
+
+  @Test
+  public void testFailedFlushIsRetried() {
+    FakeStore store = new FakeStore();
+    MutationBuffer buffer = new MutationBuffer(store, 60000, 1000);
+    try {
+      buffer.insert("alice", "Resources", "presence", "v1");
+      store._failing = true;
+      try {
+        buffer.flush();
+      }
+      catch (IllegalStateException ex) {
+        // expected
+      }
+      buffer.insert("alice", "Resources", "dialog", "v2");
+      assertEquals(2, buffer.getPendingCount());
+
+      store._failing = false;
+      buffer.flush();
+      assertEquals("v1", store.get("Resources", "alice", "presence"));
+      assertEquals("v2", store.get("Resources", "alice", "dialog"));
+    }
+    finally {
+      buffer.destroy();
+    }
+  }
+
+  @Test
+  public void testFailedBatchIsDroppedAfterMaxRetries() {
+    FakeStore store = new FakeStore();
+    MutationBuffer buffer = new MutationBuffer(store, 60000, 1000);
+    buffer.setMaxRetries(2);
+    try {
+      buffer.insert("alice", "Resources", "presence", "v1");
+      store._failing = true;
+      for (int i = 0; i < 3; i++) {
+        assertEquals(1, buffer.getPendingCount());
+        try {
+          buffer.flush();
+          fail("flushed while the store is down");
+        }
+        catch (IllegalStateException ex) {
+          // expected
+        }
+      }
+      assertEquals(0, buffer.getPendingCount());
+      assertEquals(1, buffer.getDroppedCount());
+      assertNull(buffer.lookup("alice", "Resources", "presence"));
+
+      store._failing = false;
+      buffer.insert("alice", "Resources", "dialog", "v2");
+      buffer.flush();
+      assertNull(store.get("Resources", "alice", "presence"));
+      assertEquals("v2", store.get("Resources", "alice", "dialog"));
+    }
+    finally {
+      buffer.destroy();
+    }
+  }
+
+  @Test
+  public void testCommitIsRejectedWhenQueueIsFull() {
+    FakeStore store = new FakeStore();
+    MutationBuffer buffer = new MutationBuffer(store, 60000, 1000);
+    buffer.setMaxPending(2);
+    try {
+      buffer.insert("alice", "Resources", "presence", "v1");
+      buffer.insert("alice", "Resources", "dialog", "v1");
+
+      buffer.startTx();
+      buffer.insert("bob", "Resources", "presence", "v1");
+      try {
+        buffer.commitTx();
+        fail("commit accepted on a full queue");
+      }
+      catch (IllegalStateException ex) {
+        // expected
+      }
+      assertFalse(buffer.isInTx());
+      assertEquals(2, buffer.getPendingCount());
+      assertNull(buffer.lookup("bob", "Resources", "presence"));
+
+      buffer.flush();
+      buffer.insert("bob", "Resources", "presence", "v2");
+      assertEquals(1, buffer.getPendingCount());
+    }
+    finally {
+      buffer.destroy();
+    }
+  }
+}
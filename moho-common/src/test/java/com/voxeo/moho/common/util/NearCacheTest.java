@@ -0,0 +1,105 @@
+package com.voxeo.moho.common.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class NearCacheTest {
+
+  /**
+   * Keys that all fall in the same segment.
+   */
+  static class CollidingKey {
+    final String _name;
+
+    CollidingKey(String name) {
+      _name = name;
+    }
+
+    @Override
+    public int hashCode() {
+      return 0;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof CollidingKey && _name.equals(((CollidingKey) o)._name);
+    }
+  }
+
+  @Test
+  public void testHitAndMiss() {
+    NearCache<String, String> cache = new NearCache<String, String>(100, 60000);
+    assertNull(cache.get("alice"));
+    cache.put("alice", "open");
+    assertEquals("open", cache.get("alice"));
+
+    // null values are not cached
+    cache.put("bob", null);
+    assertNull(cache.get("bob"));
+
+    assertEquals(1, cache.getHitCount());
+    assertEquals(2, cache.getMissCount());
+    assertEquals(1, cache.size());
+  }
+
+  @Test
+  public void testEntryExpiresAfterTTL() {
+    NearCache<String, String> cache = new NearCache<String, String>(100, 1);
+    cache.put("alice", "open");
+    long now = System.currentTimeMillis();
+    while (System.currentTimeMillis() <= now + 1) {
+      Thread.yield();
+    }
+    assertNull(cache.get("alice"));
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void testLeastRecentlyUsedEntryIsEvicted() {
+    // 16 segments of 2 entries
+    NearCache<CollidingKey, String> cache = new NearCache<CollidingKey, String>(32, 60000);
+    CollidingKey alice = new CollidingKey("alice");
+    CollidingKey bob = new CollidingKey("bob");
+    CollidingKey carol = new CollidingKey("carol");
+    cache.put(alice, "a");
+    cache.put(bob, "b");
+    assertEquals("a", cache.get(alice));
+
+    cache.put(carol, "c");
+    assertEquals(1, cache.getEvictionCount());
+    assertNull(cache.get(bob));
+    assertEquals("a", cache.get(alice));
+    assertEquals("c", cache.get(carol));
+  }
+
+  @Test
+  public void testInvalidationDropsStaleLoad() {
+    NearCache<String, String> cache = new NearCache<String, String>(100, 60000);
+    cache.put("alice", "open");
+
+    // a loader reads the store while a writer invalidates the key
+    long stamp = cache.stamp("alice");
+    cache.invalidate("alice");
+    assertNull(cache.get("alice"));
+    assertFalse(cache.put("alice", "stale", stamp));
+    assertNull(cache.get("alice"));
+
+    assertTrue(cache.put("alice", "closed", cache.stamp("alice")));
+    assertEquals("closed", cache.get("alice"));
+  }
+
+  @Test
+  public void testClearInvalidatesAllStamps() {
+    NearCache<String, String> cache = new NearCache<String, String>(100, 60000);
+    long stamp = cache.stamp("alice");
+    cache.put("bob", "open");
+    cache.clear();
+
+    assertEquals(0, cache.size());
+    assertFalse(cache.put("alice", "stale", stamp));
+  }
+}
@@ -0,0 +1,89 @@
+package com.voxeo.moho.common.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+
+import org.junit.Test;
+
+import com.voxeo.moho.event.Event;
+import com.voxeo.moho.event.EventSource;
+
+public class UtilsTest {
+
+  public interface BaseEvent extends Event<EventSource> {
+  }
+
+  public interface DerivedEvent extends BaseEvent {
+  }
+
+  public static class TestEvent implements DerivedEvent {
+    public EventSource getSource() {
+      return null;
+    }
+  }
+
+  /**
+   * Loads its own copy of {@link TestEvent}, as an application class loader
+   * would.
+   */
+  static class ApplicationClassLoader extends ClassLoader {
+    ApplicationClassLoader() {
+      super(UtilsTest.class.getClassLoader());
+    }
+
+    @Override
+    protected Class<?> loadClass(final String name, final boolean resolve) throws ClassNotFoundException {
+      if (!name.equals(TestEvent.class.getName())) {
+        return super.loadClass(name, resolve);
+      }
+      synchronized (this) {
+        Class<?> clazz = findLoadedClass(name);
+        if (clazz == null) {
+          final byte[] bytes = read("/" + name.replace('.', '/') + ".class");
+          clazz = defineClass(name, bytes, 0, bytes.length);
+        }
+        return clazz;
+      }
+    }
+
+    private static byte[] read(final String resource) throws ClassNotFoundException {
+      final InputStream in = UtilsTest.class.getResourceAsStream(resource);
+      if (in == null) {
+        throw new ClassNotFoundException(resource);
+      }
+      try {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[4096];
+        for (int read = in.read(buffer); read != -1; read = in.read(buffer)) {
+          out.write(buffer, 0, read);
+        }
+        in.close();
+        return out.toByteArray();
+      }
+      catch (final Exception e) {
+        throw new ClassNotFoundException(resource, e);
+      }
+    }
+  }
+
+  @Test
+  public void testEventTypeChainIsCached() {
+    final Class<?>[] chain = Utils.getEventTypeChain(TestEvent.class);
+    assertArrayEquals(new Class<?>[] {DerivedEvent.class, BaseEvent.class, Event.class}, chain);
+    assertSame(chain, Utils.getEventTypeChain(TestEvent.class));
+  }
+
+  @Test
+  public void testEventTypeChainOfAnApplicationClass() throws Exception {
+    final Class<?> clazz = new ApplicationClassLoader().loadClass(TestEvent.class.getName());
+    assertNotSame(TestEvent.class, clazz);
+
+    final Class<?>[] chain = Utils.getEventTypeChain(clazz);
+    assertArrayEquals(new Class<?>[] {DerivedEvent.class, BaseEvent.class, Event.class}, chain);
+    assertSame(chain, Utils.getEventTypeChain(clazz));
+  }
+}
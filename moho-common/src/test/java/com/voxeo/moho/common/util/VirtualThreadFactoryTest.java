@@ -0,0 +1,121 @@
+package com.voxeo.moho.common.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+/**
+ * Runs calls blocked on the result futures hold, mute and the joins wait on, on
+ * threads of the factory.
+ */
+public class VirtualThreadFactoryTest {
+
+  private static final int CALLS = 10000;
+
+  @Test
+  public void testBlockedCallGetsItsResult() throws Exception {
+    final VirtualThreadFactory factory = new VirtualThreadFactory();
+    final SettableResultFuture<String> held = new SettableResultFuture<String>();
+    final SettableResultFuture<String> failed = new SettableResultFuture<String>();
+    final AtomicReference<Object> result = new AtomicReference<Object>();
+    final AtomicReference<Object> failure = new AtomicReference<Object>();
+
+    final Thread thread = factory.newThread(new Runnable() {
+      public void run() {
+        try {
+          result.set(held.get(30, TimeUnit.SECONDS));
+          failed.get(30, TimeUnit.SECONDS);
+        }
+        catch (final ExecutionException e) {
+          failure.set(e.getCause());
+        }
+        catch (final Exception e) {
+          failure.set(e);
+        }
+      }
+    });
+    thread.start();
+
+    held.setResult("held");
+    final IllegalStateException cause = new IllegalStateException();
+    failed.setException(cause);
+    thread.join(30000);
+
+    assertEquals("held", result.get());
+    assertEquals(cause, failure.get());
+    assertEquals(getClass().getClassLoader(), thread.getContextClassLoader());
+  }
+
+  /**
+   * Parks 10k calls at once on an elastic executor configured like the one of
+   * ApplicationContextImpl. The futures park on a Condition, so no carrier
+   * thread is pinned. Only runs on a JVM with virtual threads.
+   */
+  @Test
+  public void testTenThousandBlockedCalls() throws Exception {
+    final VirtualThreadFactory factory = new VirtualThreadFactory();
+    assumeTrue(factory.isVirtual());
+
+    final InheritLogContextThreadPoolExecutor executor = new InheritLogContextThreadPoolExecutor(50,
+        Integer.MAX_VALUE, 60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), factory);
+    final List<SettableResultFuture<Integer>> pending = new ArrayList<SettableResultFuture<Integer>>(CALLS);
+    final AtomicIntegerArray results = new AtomicIntegerArray(CALLS);
+    final AtomicInteger blocked = new AtomicInteger();
+    final AtomicInteger failed = new AtomicInteger();
+    final CountDownLatch done = new CountDownLatch(CALLS);
+
+    try {
+      for (int i = 0; i < CALLS; i++) {
+        final int call = i;
+        final SettableResultFuture<Integer> future = new SettableResultFuture<Integer>();
+        pending.add(future);
+        executor.execute(new Runnable() {
+          public void run() {
+            blocked.incrementAndGet();
+            try {
+              results.set(call, future.get(60, TimeUnit.SECONDS));
+            }
+            catch (final Exception e) {
+              failed.incrementAndGet();
+            }
+            finally {
+              done.countDown();
+            }
+          }
+        });
+      }
+
+      final long deadline = System.currentTimeMillis() + 30000;
+      while (blocked.get() < CALLS && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+      // all the calls are blocked at the same time
+      assertEquals(CALLS, blocked.get());
+      assertEquals(CALLS, done.getCount());
+
+      for (int i = 0; i < CALLS; i++) {
+        pending.get(i).setResult(CALLS - i);
+      }
+      assertTrue(done.await(30, TimeUnit.SECONDS));
+      assertEquals(0, failed.get());
+      for (int i = 0; i < CALLS; i++) {
+        assertEquals(CALLS - i, results.get(i));
+      }
+    }
+    finally {
+      executor.shutdownNow();
+    }
+  }
+}
@@ -23,10 +23,13 @@ import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 
 import javax.media.mscontrol.MsControlFactory;
@@ -42,9 +45,13 @@ import org.springframework.context.support.FileSystemXmlApplicationContext;
 
 import com.voxeo.moho.common.event.DispatchableEventSource;
 import com.voxeo.moho.common.util.NetworkUtils;
+import com.voxeo.moho.common.util.OverloadRejectionHandler;
 import com.voxeo.moho.common.util.Utils.DaemonThreadFactory;
 import com.voxeo.moho.conference.ConferenceDriverImpl;
 import com.voxeo.moho.conference.ConferenceManager;
+import com.voxeo.moho.event.ActiveSpeakerEvent;
+import com.voxeo.moho.event.MediaNotificationEvent;
+import com.voxeo.moho.media.GrammarPatternCache;
 import com.voxeo.moho.media.dialect.MediaDialect;
 import com.voxeo.moho.remote.network.RemoteCommunicationImpl;
 import com.voxeo.moho.services.Service;
@@ -93,6 +100,10 @@ public class ApplicationContextImpl extends DispatchableEventSource implements E
   protected ServletContext _servletContext;
 
   protected InheritLogContextThreadPoolExecutor _executor;
+
+  protected InheritLogContextThreadPoolExecutor _eventExecutor;
+
+  protected OverloadRejectionHandler _overloadHandler;
   
   protected ScheduledThreadPoolExecutor _scheduledEcutor;
 
@@ -121,6 +132,8 @@ public class ApplicationContextImpl extends DispatchableEventSource implements E
 
   private MediaDialect _dialect;
 
+  private GrammarPatternCache _grammarPatternCache;
+
   @SuppressWarnings("unchecked")
   public ApplicationContextImpl(final Application app, final MsControlFactory mc, final SipServlet servlet) {
     super();
@@ -196,18 +209,60 @@ public class ApplicationContextImpl extends DispatchableEventSource implements E
       LOG.error("Moho is unable to create media dialect (" + mediaDialectClassName + ")", ex);
     }
 
+    final int grammarCacheSize = getParameterValue("grammarCacheSize", GrammarPatternCache.DEFAULT_SIZE);
+    // seconds, 0 or less for no TTL
+    final int grammarCacheTTL = getParameterValue("grammarCacheTTL", (int) (GrammarPatternCache.DEFAULT_TTL / 1000));
+    _grammarPatternCache = new GrammarPatternCache(grammarCacheSize, grammarCacheTTL * 1000L);
+
     int eventDispatcherCorePoolSize = getParameterValue("eventDispatcherThreadPoolSize", 50);
     int eventDispatcherMaxPoolSize = getParameterValue("eventDispatcherMaxThreadPoolSize", Integer.MAX_VALUE);
     int eventDispatcherThreadTimeout = getParameterValue("eventDispatcherThreadTimeout", 60);
-    
-    
+    int eventDispatcherQueueSize = getParameterValue("eventDispatcherQueueSize", 0);
+
+    // the thread factory is shared by the event executor and the executor of
+    // the join workers, so a virtual thread factory moves both onto virtual
+    // threads.
+    ThreadFactory eventThreadFactory = new DaemonThreadFactory("MohoContext");
+    final String threadFactoryClassName = getParameter("eventDispatcherThreadFactory");
+    try {
+      if (threadFactoryClassName != null) {
+        eventThreadFactory = (ThreadFactory) Class.forName(threadFactoryClassName).newInstance();
+        LOG.info("Moho is creating event dispatcher threads with (" + threadFactoryClassName + ").");
+      }
+    }
+    catch (Exception ex) {
+      LOG.error("Moho is unable to create thread factory (" + threadFactoryClassName + ")", ex);
+    }
+
     LOG.info("Moho is creating event dispatcher with " + eventDispatcherCorePoolSize + " core threads. Max threads: " 
-    		+ eventDispatcherMaxPoolSize + ". Thread timeout: " + eventDispatcherThreadTimeout);
+        + eventDispatcherMaxPoolSize + ". Thread timeout: " + eventDispatcherThreadTimeout);
     _executor = new InheritLogContextThreadPoolExecutor(eventDispatcherCorePoolSize, eventDispatcherMaxPoolSize, eventDispatcherThreadTimeout, TimeUnit.SECONDS,
-        new SynchronousQueue<Runnable>(), new DaemonThreadFactory("MohoContext"));
+        new SynchronousQueue<Runnable>(), eventThreadFactory);
+
+    if (eventDispatcherQueueSize > 0) {
+      // bounded mode, a fixed number of workers and an explicit overload policy.
+      // only the events go there, join workers wait on other tasks and would
+      // deadlock a bounded pool, so they stay on the elastic executor.
+      OverloadRejectionHandler.Policy policy = OverloadRejectionHandler.Policy.REJECT;
+      final String policyName = getParameter("eventDispatcherOverloadPolicy");
+      if (policyName != null) {
+        policy = OverloadRejectionHandler.Policy.valueOf(policyName.trim().toUpperCase());
+      }
+      LOG.info("Moho is creating bounded event dispatcher with " + eventDispatcherCorePoolSize
+          + " threads. Queue size: " + eventDispatcherQueueSize + ". Overload policy: " + policy);
+      _overloadHandler = new OverloadRejectionHandler(policy, MediaNotificationEvent.class, ActiveSpeakerEvent.class);
+      final BlockingQueue<Runnable> queue = new ArrayBlockingQueue<Runnable>(eventDispatcherQueueSize);
+      _eventExecutor = new InheritLogContextThreadPoolExecutor(eventDispatcherCorePoolSize, eventDispatcherCorePoolSize,
+          eventDispatcherThreadTimeout, TimeUnit.SECONDS, queue, eventThreadFactory);
+      _eventExecutor.setRejectedExecutionHandler(_overloadHandler);
+    }
+    else {
+      _eventExecutor = _executor;
+    }
     
     _scheduledEcutor = new ScheduledThreadPoolExecutor(10, new DaemonThreadFactory("MohoContext"));
-    _dispatcher.setExecutor(_executor, false);
+    _dispatcher.setExecutor(_eventExecutor, false);
+    _dispatcher.setOverflowExecutor(_executor);
 
     _springContext = new ClassPathXmlApplicationContext("classpath:moho-service-context.xml");
     Collection<Service> beans = null;
@@ -346,6 +401,40 @@ private int getParameterValue(String param, int defaultValue) {
     return _executor;
   }
 
+  @Override
+  public Executor getEventExecutor() {
+    return _eventExecutor;
+  }
+
+  /**
+   * @return the number of tasks waiting in the event executor queue.
+   */
+  public int getEventQueueDepth() {
+    return _eventExecutor.getQueue().size();
+  }
+
+  /**
+   * @return the number of tasks rejected by the bounded event executor.
+   */
+  public long getEventRejectedCount() {
+    return _overloadHandler == null ? 0 : _overloadHandler.getRejectedCount();
+  }
+
+  /**
+   * @return the number of low priority events dropped by the bounded event
+   *         executor.
+   */
+  public long getEventShedCount() {
+    return _overloadHandler == null ? 0 : _overloadHandler.getShedCount();
+  }
+
+  /**
+   * @return the number of tasks the bounded event executor ran in the caller.
+   */
+  public long getEventCallerRunsCount() {
+    return _overloadHandler == null ? 0 : _overloadHandler.getCallerRunsCount();
+  }
+
   @Override
   public Call getCall(final String cid) {
     Participant p = _participants.get(cid);
@@ -398,6 +487,7 @@ private int getParameterValue(String param, int defaultValue) {
   public void destroy() {
     getApplication().destroy();
     _executor.shutdown();
+    _eventExecutor.shutdown();
 
     Collection<ProtocolDriver> drivers = _driversByProtocol.values();
     for (ProtocolDriver driver : drivers) {
@@ -629,6 +719,17 @@ private int getParameterValue(String param, int defaultValue) {
     return _dialect;
   }
 
+  public GrammarPatternCache getGrammarPatternCache() {
+    return _grammarPatternCache;
+  }
+
+  /**
+   * @return the ratio of the grammars prompted whose pattern was cached.
+   */
+  public double getGrammarCacheHitRatio() {
+    return _grammarPatternCache.getHitRatio();
+  }
+
   public ScheduledThreadPoolExecutor getScheduledEcutor() {
     return _scheduledEcutor;
   }
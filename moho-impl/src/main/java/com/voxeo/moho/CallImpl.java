@@ -80,6 +80,7 @@ public abstract class CallImpl implements Call {
 
     _context = context;
     _dispatcher.setExecutor(getThreadPool(), true);
+    _dispatcher.setOverflowExecutor(_context.getExecutor());
     _id = IDGenerator.generateId(_context, RemoteParticipant.RemoteParticipant_TYPE_CALL);
 
     context.addCall(this);
@@ -246,7 +247,7 @@ public abstract class CallImpl implements Call {
 
   @Override
   public void setApplicationState(final String state) {
-    _states.put(AutowiredEventTarget.DEFAULT_FSM, state);
+    _states.put(AutowiredEventTarget.DEFAULT_FSM, state.intern());
   }
 
   public String getApplicationState(final String FSM) {
@@ -255,11 +256,11 @@ public abstract class CallImpl implements Call {
 
   @Override
   public void setApplicationState(final String FSM, final String state) {
-    _states.put(FSM, state);
+    _states.put(FSM, state.intern());
   }
 
   protected Executor getThreadPool() {
-    return _context.getExecutor();
+    return _context.getEventExecutor();
   }
 
   @Override
@@ -10,11 +10,8 @@
  */
 package com.voxeo.moho.media;
 
-import java.io.UnsupportedEncodingException;
-import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URL;
-import java.net.URLDecoder;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
@@ -87,7 +84,7 @@ import com.voxeo.moho.media.record.RecordCommand;
 import com.voxeo.moho.sip.JoinDelegate;
 import com.voxeo.moho.sip.SIPCallImpl;
 import com.voxeo.moho.spi.ExecutionContext;
-import com.voxeo.moho.util.NLSMLParser;
+import com.voxeo.moho.util.NLSMLStreamParser;
 
 public class GenericMediaService<T extends EventSource> implements MediaService<T> {
 
@@ -113,6 +110,8 @@ public class GenericMediaService<T extends EventSource> implements MediaService<
 
   protected MediaDialect _dialect;
 
+  protected GrammarPatternCache _patternCache;
+
   protected List<MediaOperation<?, ? extends MediaCompleteEvent<?>>> _futures = new LinkedList<MediaOperation<?, ? extends MediaCompleteEvent<?>>>();
 
   protected PlayerListener playerListener = new PlayerListener();
@@ -123,6 +122,7 @@ public class GenericMediaService<T extends EventSource> implements MediaService<
     _session = group.getMediaSession();
     _context = (ExecutionContext) ((EventSource) _parent).getApplicationContext();
     _dialect = ((ApplicationContextImpl) _context).getDialect();
+    _patternCache = ((ApplicationContextImpl) _context).getGrammarPatternCache();
   }
 
   protected synchronized Player getPlayer() {
@@ -733,28 +733,7 @@ public class GenericMediaService<T extends EventSource> implements MediaService<
           pattern = _dialect.getSignalConstants(sg.getSignal());
         }
         else {
-          final URI uri = grammar.toURI();
-
-          if ("data".equals(uri.getScheme())) {
-            pattern = uri;
-          }
-          else if ("digits".equals(uri.getScheme())) {
-            try {
-              pattern = URLDecoder.decode(uri.getSchemeSpecificPart(), "UTF-8");
-            }
-            catch (UnsupportedEncodingException e) {
-              throw new IllegalStateException(e);
-            }
-          }
-          else {
-            try {
-              pattern = uri.toURL();
-            }
-            catch (MalformedURLException e) {
-              LOG.warn("Skipped Grammar! Only 'data' URIs and http/https/ftp/file URLs are permitted [uri="
-                  + uri.toString() + "]");
-            }
-          }
+          pattern = _patternCache.getPattern(grammar);
         }
 
         if (pattern == null) {
@@ -1048,7 +1027,7 @@ public class GenericMediaService<T extends EventSource> implements MediaService<
             cause == null ? InputCompleteEvent.Cause.UNKNOWN : cause, errorText, _input);
         if (e instanceof SpeechRecognitionEvent) {
           final SpeechRecognitionEvent se = (SpeechRecognitionEvent) e;
-          String signalString = e.getSignalString();
+          final String signalString = e.getSignalString();
           if (signalString != null) {
             final Signal signal = Signal.parse(signalString);
             if (signal == null) {
@@ -1073,26 +1052,20 @@ public class GenericMediaService<T extends EventSource> implements MediaService<
           if (semanticResult != null && "application/x-nlsml".equalsIgnoreCase(semanticResult.getHost())) {
             try {
               inputCompleteEvent.setNlsml(semanticResult.getPath());
-              final List<Map<String, String>> nlsml = NLSMLParser.parse(inputCompleteEvent.getNlsml());
-              for (final Map<String, String> reco : nlsml) {
-                final String conf = reco.get("_confidence");
-                if (conf != null && signalString == null) {
-                  inputCompleteEvent.setConfidence(Float.parseFloat(conf));
-                }
-                final String interpretation = reco.get("_interpretation");
-                if (interpretation != null) {
-                  inputCompleteEvent.setInterpretation(interpretation);
-                }
-                final String inputmode = reco.get("_inputmode");
-                if (inputmode != null && signalString == null) {
-                  if (inputmode.equalsIgnoreCase("speech") || inputmode.equalsIgnoreCase("voice")) {
-                    inputCompleteEvent.setInputMode(InputMode.SPEECH);
+              NLSMLStreamParser.parse(inputCompleteEvent.getNlsml(), new NLSMLStreamParser.Handler() {
+                @Override
+                public void onInterpretation(final NLSMLStreamParser.Interpretation reco) {
+                  if (!Float.isNaN(reco.getConfidence()) && signalString == null) {
+                    inputCompleteEvent.setConfidence(reco.getConfidence());
                   }
-                  else {
-                    inputCompleteEvent.setInputMode(InputMode.DTMF);
+                  if (reco.getInterpretation() != null) {
+                    inputCompleteEvent.setInterpretation(reco.getInterpretation());
+                  }
+                  if (reco.getInputMode() != null && signalString == null) {
+                    inputCompleteEvent.setInputMode(toInputMode(reco.getInputMode()));
                   }
                 }
-              }
+              });
             }
             catch (final Exception e1) {
               LOG.warn("No NLSML", e1);
@@ -1161,7 +1134,7 @@ public class GenericMediaService<T extends EventSource> implements MediaService<
             inputDetectedEvent = new MohoInputDetectedEvent<T>(_parent, input);
             if (e instanceof SpeechRecognitionEvent) {
               final SpeechRecognitionEvent se = (SpeechRecognitionEvent) e;
-              String signalString = e.getSignalString();
+              final String signalString = e.getSignalString();
               if (signalString != null) {
                 inputDetectedEvent.setConcept(se.getTag());
                 inputDetectedEvent.setTag(se.getTag());
@@ -1178,26 +1151,20 @@ public class GenericMediaService<T extends EventSource> implements MediaService<
               if (semanticResult != null && "application/x-nlsml".equalsIgnoreCase(semanticResult.getHost())) {
                 try {
                   inputDetectedEvent.setNlsml(semanticResult.getPath());
-                  final List<Map<String, String>> nlsml = NLSMLParser.parse(inputDetectedEvent.getNlsml());
-                  for (final Map<String, String> reco : nlsml) {
-                    final String conf = reco.get("_confidence");
-                    if (conf != null && signalString == null) {
-                      inputDetectedEvent.setConfidence(Float.parseFloat(conf));
-                    }
-                    final String interpretation = reco.get("_interpretation");
-                    if (interpretation != null) {
-                      inputDetectedEvent.setInterpretation(interpretation);
-                    }
-                    final String inputmode = reco.get("_inputmode");
-                    if (inputmode != null && signalString == null) {
-                      if (inputmode.equalsIgnoreCase("speech") || inputmode.equalsIgnoreCase("voice")) {
-                        inputDetectedEvent.setInputMode(InputMode.SPEECH);
+                  NLSMLStreamParser.parse(inputDetectedEvent.getNlsml(), new NLSMLStreamParser.Handler() {
+                    @Override
+                    public void onInterpretation(final NLSMLStreamParser.Interpretation reco) {
+                      if (!Float.isNaN(reco.getConfidence()) && signalString == null) {
+                        inputDetectedEvent.setConfidence(reco.getConfidence());
+                      }
+                      if (reco.getInterpretation() != null) {
+                        inputDetectedEvent.setInterpretation(reco.getInterpretation());
                       }
-                      else {
-                        inputDetectedEvent.setInputMode(InputMode.DTMF);
+                      if (reco.getInputMode() != null && signalString == null) {
+                        inputDetectedEvent.setInputMode(toInputMode(reco.getInputMode()));
                       }
                     }
-                  }
+                  });
                 }
                 catch (final Exception e1) {
                   LOG.warn("No NLSML", e1);
@@ -1218,6 +1185,13 @@ public class GenericMediaService<T extends EventSource> implements MediaService<
       }
     }
 
+    private InputMode toInputMode(final String inputmode) {
+      if (inputmode.equalsIgnoreCase("speech") || inputmode.equalsIgnoreCase("voice")) {
+        return InputMode.SPEECH;
+      }
+      return InputMode.DTMF;
+    }
+
     private InputPattern patternMatched(final Qualifier qualifier) {
       if (_patterns != null && _patterns.size() > 0) {
         for (final InputPattern p : _patterns) {
@@ -0,0 +1,139 @@
+/**
+ * Copyright 2010 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package com.voxeo.moho.media;
+
+import java.io.UnsupportedEncodingException;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URLDecoder;
+
+import org.apache.log4j.Logger;
+
+import com.voxeo.moho.common.util.NearCache;
+import com.voxeo.moho.media.input.Grammar;
+import com.voxeo.moho.media.input.JSGFGrammar;
+import com.voxeo.moho.media.input.SimpleGrammar;
+
+/**
+ * Caches the JSR-309 patterns compiled from grammars, so that prompting the
+ * same grammars again does not encode, decode and parse their URIs again.
+ * <p>
+ * Patterns are keyed by the URI or the content type and text of the grammar,
+ * which are immutable. Grammars of other classes may override
+ * {@link Grammar#toURI()}, and are compiled every time.
+ */
+public class GrammarPatternCache {
+
+  private static final Logger LOG = Logger.getLogger(GrammarPatternCache.class);
+
+  public static final int DEFAULT_SIZE = 1000;
+
+  public static final long DEFAULT_TTL = 600000;
+
+  // the time to live of the patterns of a cache configured without one, far
+  // enough that adding it to the current time does not overflow
+  private static final long NO_TTL = Long.MAX_VALUE / 2;
+
+  // the pattern of a grammar that is skipped
+  private static final Object SKIPPED = new Object();
+
+  private final NearCache<Object, Object> _patterns;
+
+  public GrammarPatternCache() {
+    this(DEFAULT_SIZE, DEFAULT_TTL);
+  }
+
+  /**
+   * @param size
+   *          the maximum number of patterns, 0 to compile them every time.
+   * @param ttl
+   *          the time to live of a pattern in milliseconds, 0 or less for
+   *          patterns that are only evicted to make room for others.
+   */
+  public GrammarPatternCache(final int size, final long ttl) {
+    _patterns = size > 0 ? new NearCache<Object, Object>(size, ttl > 0 ? ttl : NO_TTL) : null;
+  }
+
+  /**
+   * @return the pattern of the grammar, or null if the grammar is skipped.
+   */
+  public Object getPattern(final Grammar grammar) {
+    final Object key = _patterns == null ? null : keyOf(grammar);
+    if (key == null) {
+      return compile(grammar.toURI());
+    }
+    Object pattern = _patterns.get(key);
+    if (pattern == null) {
+      pattern = compile(grammar.toURI());
+      _patterns.put(key, pattern == null ? SKIPPED : pattern);
+    }
+    return pattern == SKIPPED ? null : pattern;
+  }
+
+  private static Object keyOf(final Grammar grammar) {
+    final Class<?> clazz = grammar.getClass();
+    if (clazz != Grammar.class && clazz != SimpleGrammar.class && clazz != JSGFGrammar.class) {
+      return null;
+    }
+    if (grammar.getUri() != null) {
+      return grammar.getUri();
+    }
+    return grammar.getContentType() + "," + grammar.getText();
+  }
+
+  static Object compile(final URI uri) {
+    if ("data".equals(uri.getScheme())) {
+      return uri;
+    }
+    else if ("digits".equals(uri.getScheme())) {
+      try {
+        return URLDecoder.decode(uri.getSchemeSpecificPart(), "UTF-8");
+      }
+      catch (final UnsupportedEncodingException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+    else {
+      try {
+        return uri.toURL();
+      }
+      catch (final MalformedURLException e) {
+        LOG.warn("Skipped Grammar! Only 'data' URIs and http/https/ftp/file URLs are permitted [uri="
+            + uri.toString() + "]");
+        return null;
+      }
+    }
+  }
+
+  public int size() {
+    return _patterns == null ? 0 : _patterns.size();
+  }
+
+  public long getHitCount() {
+    return _patterns == null ? 0 : _patterns.getHitCount();
+  }
+
+  public long getMissCount() {
+    return _patterns == null ? 0 : _patterns.getMissCount();
+  }
+
+  public double getHitRatio() {
+    return _patterns == null ? 0 : _patterns.getHitRatio();
+  }
+
+  @Override
+  public String toString() {
+    return "GrammarPatternCache[" + _patterns + "]";
+  }
+}
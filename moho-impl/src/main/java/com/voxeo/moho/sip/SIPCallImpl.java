@@ -24,6 +24,7 @@ import java.util.Map.Entry;
 import java.util.Queue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -77,6 +78,7 @@ import com.voxeo.moho.common.event.MohoCallCompleteEvent;
 import com.voxeo.moho.common.event.MohoJoinCompleteEvent;
 import com.voxeo.moho.common.event.MohoUnjoinCompleteEvent;
 import com.voxeo.moho.common.util.InheritLogContextRunnable;
+import com.voxeo.moho.common.util.SettableResultFuture;
 import com.voxeo.moho.common.util.Utils;
 import com.voxeo.moho.event.CallCompleteEvent;
 import com.voxeo.moho.event.JoinCompleteEvent;
@@ -1048,6 +1050,9 @@ public abstract class SIPCallImpl extends CallImpl implements SIPCall, MediaEven
   protected synchronized void setSIPCallState(final SIPCall.State state) {
     LOG.debug(this + " state changed from " + _cstate + " to " + state);
     _cstate = state;
+    if (state != SIPCall.State.ANSWERED) {
+      abortPendingHoldOperations();
+    }
   }
 
   protected synchronized boolean isNoAnswered() {
@@ -1635,12 +1640,25 @@ public abstract class SIPCallImpl extends CallImpl implements SIPCall, MediaEven
 
   protected int waitRespNum;
 
+  // pending hold/unhold and mute/unmute operations, completed when the state
+  // settles.
+  protected SettableResultFuture<Boolean> _holdFuture;
+
+  protected HoldState _holdTarget;
+
+  protected SettableResultFuture<Boolean> _muteFuture;
+
+  protected HoldState _muteTarget;
+
   protected synchronized HoldState getMuteState() {
     return _muteState;
   }
 
   protected synchronized void setMuteState(final HoldState muteState) {
     _muteState = muteState;
+    if (_muteFuture != null && !isMutingProcess()) {
+      completeMute(_muteState == _muteTarget);
+    }
   }
 
   protected synchronized HoldState getHoldState() {
@@ -1652,6 +1670,9 @@ public abstract class SIPCallImpl extends CallImpl implements SIPCall, MediaEven
     if (_holdState == HoldState.Holding || _holdState == HoldState.UnHolding) {
       waitRespNum = 2;
     }
+    else if (_holdFuture != null) {
+      completeHold(_holdState == _holdTarget);
+    }
   }
 
   protected synchronized void setDeafState(final HoldState deafState) {
@@ -1687,24 +1708,110 @@ public abstract class SIPCallImpl extends CallImpl implements SIPCall, MediaEven
     }
   }
 
+  private synchronized void completeHold(final boolean result) {
+    final SettableResultFuture<Boolean> future = _holdFuture;
+    _holdFuture = null;
+    _operationInProcess = false;
+    reInvitingRemote = false;
+    // hold(), unhold() and doReinvite wait on this monitor
+    notifyAll();
+    future.setResult(result);
+  }
+
+  private synchronized void completeMute(final boolean result) {
+    final SettableResultFuture<Boolean> future = _muteFuture;
+    _muteFuture = null;
+    _operationInProcess = false;
+    reInvitingRemote = false;
+    notifyAll();
+    future.setResult(result);
+  }
+
+  /**
+   * the pending operations can't complete once the call is not answered.
+   */
+  private synchronized void abortPendingHoldOperations() {
+    if (_holdFuture != null) {
+      completeHold(false);
+    }
+    if (_muteFuture != null) {
+      completeMute(false);
+    }
+  }
+
+  /**
+   * @return the future of the hold in process, which completes once the
+   *         transition does.
+   */
+  private SettableResultFuture<Boolean> pendingHold() {
+    if (_holdFuture == null) {
+      _holdFuture = new SettableResultFuture<Boolean>();
+      _holdTarget = HoldState.Held;
+    }
+    return _holdFuture;
+  }
+
+  private SettableResultFuture<Boolean> pendingMute() {
+    if (_muteFuture == null) {
+      _muteFuture = new SettableResultFuture<Boolean>();
+      _muteTarget = HoldState.Muted;
+    }
+    return _muteFuture;
+  }
+
+  private SettableResultFuture<Boolean> completed(final boolean result) {
+    final SettableResultFuture<Boolean> future = new SettableResultFuture<Boolean>();
+    future.setResult(result);
+    return future;
+  }
+
+  private void waitFor(final Future<Boolean> future, final String operation) {
+    while (true) {
+      try {
+        future.get();
+        return;
+      }
+      catch (final InterruptedException e) {
+        LOG.warn("InterruptedException when wait " + operation + ", the HoldState " + getHoldState()
+            + ", the MuteState " + getMuteState());
+      }
+      catch (final ExecutionException e) {
+        LOG.error("Error when " + operation, e.getCause());
+        return;
+      }
+    }
+  }
+
   /**
    * send a sendonly SDP and stop to send media data to this endpoint
    */
   @Override
-  public synchronized void hold() {
+  public void hold() {
     hold(false);
   }
 
   /**
    * send a sendonly SDP and stop to send media data to this endpoint
    */
-  public synchronized void hold(final boolean send) {
+  public void hold(final boolean send) {
+    waitFor(holdAsync(send), "hold");
+  }
+
+  @Override
+  public Future<Boolean> holdAsync() {
+    return holdAsync(false);
+  }
+
+  public synchronized Future<Boolean> holdAsync(final boolean send) {
     if (this.getSIPCallState() != SIPCall.State.ANSWERED) {
       throw new IllegalStateException("call have not been answered");
     }
 
-    if (_holdState == HoldState.Held || _holdState == HoldState.Holding) {
-      return;
+    if (_holdState == HoldState.Held) {
+      return completed(true);
+    }
+    if (_holdState == HoldState.Holding) {
+      return pendingHold();
     }
 
     if (_operationInProcess) {
@@ -1712,18 +1819,12 @@ public abstract class SIPCallImpl extends CallImpl implements SIPCall, MediaEven
     }
     _operationInProcess = true;
 
+    final SettableResultFuture<Boolean> future = new SettableResultFuture<Boolean>();
+    _holdFuture = future;
+    _holdTarget = HoldState.Held;
     try {
       setHoldState(HoldState.Holding);
       _callDelegate.hold(this, send);
-
-      while (getHoldState() != HoldState.Held && getHoldState() != HoldState.None && isAnswered()) {
-        try {
-          this.wait();
-        }
-        catch (final InterruptedException e) {
-          LOG.warn("InterruptedException when wait hold, the HoldState " + getHoldState());
-        }
-      }
     }
     catch (final MsControlException e) {
       setHoldState(HoldState.None);
@@ -1741,10 +1842,7 @@ public abstract class SIPCallImpl extends CallImpl implements SIPCall, MediaEven
       setHoldState(HoldState.None);
       LOG.error("Error when holding", t);
     }
-    finally {
-      _operationInProcess = false;
-      reInvitingRemote = false;
-    }
+    return future;
   }
 
   @Override
@@ -1762,13 +1860,21 @@ public abstract class SIPCallImpl extends CallImpl implements SIPCall, MediaEven
    * endpoint
    */
   @Override
-  public synchronized void mute() {
+  public void mute() {
+    waitFor(muteAsync(), "mute");
+  }
+
+  @Override
+  public synchronized Future<Boolean> muteAsync() {
     if (this.getSIPCallState() != SIPCall.State.ANSWERED) {
       throw new IllegalStateException("call have not been answered");
     }
 
-    if (_muteState == HoldState.Muted || _muteState == HoldState.Muting) {
-      return;
+    if (_muteState == HoldState.Muted) {
+      return completed(true);
+    }
+    if (_muteState == HoldState.Muting) {
+      return pendingMute();
     }
 
     if (_operationInProcess) {
@@ -1776,18 +1882,12 @@ public abstract class SIPCallImpl extends CallImpl implements SIPCall, MediaEven
     }
     _operationInProcess = true;
 
+    final SettableResultFuture<Boolean> future = new SettableResultFuture<Boolean>();
+    _muteFuture = future;
+    _muteTarget = HoldState.Muted;
     try {
       setMuteState(HoldState.Muting);
       _callDelegate.mute(this);
-
-      while (getMuteState() != HoldState.Muted && getMuteState() != HoldState.None&& isAnswered()) {
-        try {
-          this.wait();
-        }
-        catch (final InterruptedException e) {
-          LOG.warn("InterruptedException when wait mute, the MuteState " + getMuteState());
-        }
-      }
     }
     catch (final IOException e) {
       setMuteState(HoldState.None);
@@ -1798,40 +1898,36 @@ public abstract class SIPCallImpl extends CallImpl implements SIPCall, MediaEven
       throw new SignalException("exception when muting", e);
     }
     catch (final Throwable t) {
-      setHoldState(HoldState.None);
+      setMuteState(HoldState.None);
       LOG.error("Error when mute", t);
     }
-    finally {
-      _operationInProcess = false;
-      reInvitingRemote = false;
-    }
+    return future;
   }
 
   @Override
-  public synchronized void unhold() {
+  public void unhold() {
+    waitFor(unholdAsync(), "unhold");
+  }
+
+  @Override
+  public synchronized Future<Boolean> unholdAsync() {
     if (_holdState != HoldState.Held) {
-      return;
+      return completed(_holdState == HoldState.None);
     }
     if (_operationInProcess) {
       throw new IllegalStateException("other operation in process.");
     }
     _operationInProcess = true;
 
+    final SettableResultFuture<Boolean> future = new SettableResultFuture<Boolean>();
+    _holdFuture = future;
+    _holdTarget = HoldState.None;
     HoldState oldHoldState = null;
     try {
       oldHoldState = getHoldState();
       setHoldState(HoldState.UnHolding);
 
       _callDelegate.unhold(this);
-
-      while (getHoldState() != HoldState.None && isAnswered()) {
-        try {
-          this.wait();
-        }
-        catch (final InterruptedException e) {
-          LOG.warn("InterruptedException when wait unhold, the HoldState " + getHoldState());
-        }
-      }
     }
     catch (final MsControlException e) {
       setHoldState(oldHoldState);
@@ -1846,19 +1942,25 @@ public abstract class SIPCallImpl extends CallImpl implements SIPCall, MediaEven
       throw new SignalException("exception when unholding", e);
     }
     catch (final Throwable t) {
-      setHoldState(HoldState.None);
+      // the call is still held, the unhold failed
+      if (_holdFuture == future) {
+        completeHold(false);
+      }
+      setHoldState(oldHoldState);
       LOG.error("Error when unhold", t);
     }
-    finally {
-      _operationInProcess = false;
-      reInvitingRemote = false;
-    }
+    return future;
+  }
+
+  @Override
+  public void unmute() {
+    waitFor(unmuteAsync(), "unmute");
   }
 
   @Override
-  public synchronized void unmute() {
+  public synchronized Future<Boolean> unmuteAsync() {
     if (_muteState != HoldState.Muted) {
-      return;
+      return completed(_muteState == HoldState.None);
     }
 
     if (_operationInProcess) {
@@ -1866,21 +1968,15 @@ public abstract class SIPCallImpl extends CallImpl implements SIPCall, MediaEven
     }
     _operationInProcess = true;
 
+    final SettableResultFuture<Boolean> future = new SettableResultFuture<Boolean>();
+    _muteFuture = future;
+    _muteTarget = HoldState.None;
     HoldState oldMuteState = null;
     try {
       oldMuteState = getMuteState();
       setMuteState(HoldState.UnMuting);
 
       _callDelegate.unmute(this);
-
-      while (getMuteState() != HoldState.None && isAnswered()) {
-        try {
-          this.wait();
-        }
-        catch (final InterruptedException e) {
-          LOG.warn("InterruptedException when wait unmute, the MuteState " + getMuteState());
-        }
-      }
     }
     catch (final IOException e) {
       setMuteState(oldMuteState);
@@ -1891,13 +1987,13 @@ public abstract class SIPCallImpl extends CallImpl implements SIPCall, MediaEven
       throw new SignalException("exception when unmuting", e);
     }
     catch (final Throwable t) {
-      setHoldState(HoldState.None);
+      if (_muteFuture == future) {
+        completeMute(false);
+      }
+      setMuteState(oldMuteState);
       LOG.error("Error when unmute", t);
     }
-    finally {
-      _operationInProcess = false;
-      reInvitingRemote = false;
-    }
+    return future;
   }
 
   // for invite event =============
@@ -176,7 +176,11 @@ public class SIPDriverImpl implements SIPDriver {
         final IncomingCall ev = _app.getApplicationContext().getService(IncomingCallFactory.class)
             .createIncomingCall(req);
 
-        _app.dispatch(ev);
+        if (_app.dispatch(ev).isCancelled()) {
+          LOG.warn("Event executor is overloaded, rejecting " + ev + " with 503.");
+          ((ExecutionContext) this.getFramework().getApplicationContext()).removeCall(ev.getId());
+          req.createResponse(SipServletResponse.SC_SERVICE_UNAVAILABLE).send();
+        }
       }
     }
     else {
@@ -111,6 +111,13 @@ public class SIPRegisterEventImpl extends MohoRegisterEvent implements SIPRegist
       return (System.currentTimeMillis() - _creationTime) > (_expiration * 1000L);
     }
 
+    /**
+     * @return the time the REGISTER was received.
+     */
+    public long getCreationTime() {
+      return _creationTime;
+    }
+
     @Override
     public int getCSeq() {
       return _cseq;
@@ -1,9 +1,7 @@
 package com.voxeo.moho.util;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -12,100 +10,163 @@ import org.apache.log4j.Logger;
 
 import com.voxeo.moho.Participant;
 
+/**
+ * Hands out the lock shared by a participant, the participant it is joining
+ * and everything they are already joined to. Locks are reference counted per
+ * participant id. Registrations are kept in a concurrent map and only the ids
+ * being looked up or registered are serialized, on lock stripes, so joins of
+ * unrelated participants don't contend.
+ */
 public class JoinLockService {
 
   private static final Logger LOG = Logger.getLogger(JoinLockService.class);
 
+  private static final int STRIPES = 64;
+
   private static JoinLockService INSTANCE = new JoinLockService();
 
-  protected final Map<String, LockImpl> _m = new HashMap<String, LockImpl>();
+  protected final ConcurrentMap<String, LockImpl> _m = new ConcurrentHashMap<String, LockImpl>();
+
+  protected final Lock[] _stripes = new Lock[STRIPES];
 
   public static JoinLockService getInstance() {
     return INSTANCE;
   }
 
-  public synchronized Lock get(final Participant part, final Participant other) {
-    final List<String> ids1 = new ArrayList<String>();
-    ids1.add(part.getId());
-    Participant[] joinees = part.getParticipants();
-    if (joinees != null && joinees.length > 0) {
-      for (Participant p : joinees) {
-        ids1.add(p.getId());
-      }
-    }
-    if (other != null) {
-      ids1.add(other.getId());
-      joinees = other.getParticipants();
-      if (joinees != null && joinees.length > 0) {
-        for (Participant p : joinees) {
-          ids1.add(p.getId());
-        }
-      }
+  protected JoinLockService() {
+    for (int i = 0; i < STRIPES; i++) {
+      _stripes[i] = new ReentrantLock();
     }
+  }
 
-    final List<String> ids2 = new ArrayList<String>();
-    ids2.add(part.getId());
-    if (other != null) {
-      ids2.add(other.getId());
+  public Lock get(final Participant part, final Participant other) {
+    final String id1 = part.getId();
+    final String id2 = other != null ? other.getId() : null;
+    final Participant[] joinees1 = part.getParticipants();
+    final Participant[] joinees2 = other != null ? other.getParticipants() : null;
+
+    // hold the stripes of every id the shared lock can be found under, so a
+    // concurrent remove can't drop it before it is registered again.
+    final boolean[] stripes = new boolean[STRIPES];
+    stripes[stripe(id1)] = true;
+    if (id2 != null) {
+      stripes[stripe(id2)] = true;
     }
+    mark(stripes, joinees1);
+    mark(stripes, joinees2);
+    lockStripes(stripes);
+    try {
+      // find the lock
+      Lock retval = find(id1, joinees1);
+      if (retval == null && id2 != null) {
+        retval = find(id2, joinees2);
+      }
 
-    return get(ids1, ids2);
+      // increase the lock counter
+      retval = register(id1, retval);
+      if (id2 != null) {
+        register(id2, retval);
+      }
+      return retval;
+    }
+    finally {
+      unlockStripes(stripes);
+    }
   }
 
-  public synchronized Lock get(final Participant part) {
+  public Lock get(final Participant part) {
     return get(part, null);
   }
 
-  protected synchronized Lock get(final List<String> ids1, final List<String> ids2) {
-    Lock retval = null;
+  public void remove(final String id) {
+    final Lock stripe = _stripes[stripe(id)];
+    stripe.lock();
+    try {
+      // find the lock
+      final LockImpl lock = _m.get(id);
 
-    // find the lock
-    for (final String id : ids1) {
-      if (_m.containsKey(id)) {
-        retval = _m.get(id).getLock();
-        break;
+      // decrease the lock counter
+      if (lock != null && lock.getCounter().decrementAndGet() < 1) {
+        _m.remove(id, lock);
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("Removed [" + id + ", " + lock + "]");
+        }
       }
     }
+    finally {
+      stripe.unlock();
+    }
+  }
 
-    // increase the lock counter
-    LockImpl lock;
-    for (final String id : ids2) {
-      lock = _m.get(id);
-      if (lock == null) {
-        if (retval == null) {
-          lock = new LockImpl();
-          retval = lock.getLock();
-        }
-        else {
-          lock = new LockImpl(retval);
-        }
-        _m.put(id, lock);
-        if (LOG.isDebugEnabled()) {
-          LOG.debug("Added [" + id + ", " + lock + "]");
+  /**
+   * must be called with the stripes of the id and of the joinees held.
+   */
+  private Lock find(final String id, final Participant[] joinees) {
+    LockImpl lock = _m.get(id);
+    if (lock != null) {
+      return lock.getLock();
+    }
+    if (joinees != null) {
+      for (final Participant p : joinees) {
+        lock = _m.get(p.getId());
+        if (lock != null) {
+          return lock.getLock();
         }
       }
-      else {
-        lock.getCounter().incrementAndGet();
-        if (LOG.isDebugEnabled()) {
-          LOG.debug("Updated [" + id + ", " + lock + "]");
-        }
+    }
+    return null;
+  }
+
+  private void mark(final boolean[] stripes, final Participant[] joinees) {
+    if (joinees != null) {
+      for (final Participant p : joinees) {
+        stripes[stripe(p.getId())] = true;
+      }
+    }
+  }
+
+  // stripes are always taken in index order to avoid deadlocks.
+  private void lockStripes(final boolean[] stripes) {
+    for (int i = 0; i < STRIPES; i++) {
+      if (stripes[i]) {
+        _stripes[i].lock();
       }
     }
+  }
 
-    return retval;
+  private void unlockStripes(final boolean[] stripes) {
+    for (int i = STRIPES - 1; i >= 0; i--) {
+      if (stripes[i]) {
+        _stripes[i].unlock();
+      }
+    }
   }
 
-  public synchronized void remove(final String id) {
-    // find the lock
+  /**
+   * must be called with the stripe of the id held.
+   */
+  private Lock register(final String id, final Lock found) {
     LockImpl lock = _m.get(id);
-
-    // decrease the lock counter
-    if (lock != null && lock.getCounter().decrementAndGet() < 1) {
-      _m.remove(id);
+    if (lock == null) {
+      lock = found == null ? new LockImpl() : new LockImpl(found);
+      _m.put(id, lock);
       if (LOG.isDebugEnabled()) {
-        LOG.debug("Removed [" + id + ", " + lock + "]");
+        LOG.debug("Added [" + id + ", " + lock + "]");
       }
+      return lock.getLock();
+    }
+    lock.getCounter().incrementAndGet();
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Updated [" + id + ", " + lock + "]");
     }
+    return found == null ? lock.getLock() : found;
+  }
+
+  private int stripe(final String id) {
+    int h = id.hashCode();
+    h ^= (h >>> 20) ^ (h >>> 12);
+    h ^= (h >>> 7) ^ (h >>> 4);
+    return h & (STRIPES - 1);
   }
 
   protected class LockImpl {
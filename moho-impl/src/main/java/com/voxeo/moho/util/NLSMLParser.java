@@ -31,6 +31,14 @@ import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
+/**
+ * DOM based NLSML parser, returning every interpretation as a map.
+ * <p>
+ * Moho itself no longer uses it. It is kept for the applications that do.
+ *
+ * @deprecated use {@link NLSMLStreamParser}, which does not build a DOM.
+ */
+@Deprecated
 public class NLSMLParser {
 
   private static final List<Map<String, String>> EMPTY_RESULT = new ArrayList<Map<String, String>>(0);
@@ -76,12 +84,12 @@ public class NLSMLParser {
         String gramid;
         String gram;
         if (localFullGrammarID != null && !localFullGrammarID.equals("")) {
-          gramid = parseGrammarID(localFullGrammarID, false);
-          gram = parseGrammarID(localFullGrammarID, true);
+          gramid = NLSMLStreamParser.parseGrammarID(localFullGrammarID, false);
+          gram = NLSMLStreamParser.parseGrammarID(localFullGrammarID, true);
         }
         else {
-          gramid = parseGrammarID(fullGrammarID, false);
-          gram = parseGrammarID(fullGrammarID, true);
+          gramid = NLSMLStreamParser.parseGrammarID(fullGrammarID, false);
+          gram = NLSMLStreamParser.parseGrammarID(fullGrammarID, true);
         }
         reco.put("_grammar_id", gramid);
         reco.put("_grammar", gram);
@@ -204,29 +212,4 @@ public class NLSMLParser {
     return hasTextContent ? buffer.toString() : null;
   }
 
-  private static String parseGrammarID(final String fullGrammarID, final boolean suffix) {
-    // session:0@vomoto.com
-    final int start = fullGrammarID.indexOf(":") + 1;
-    final int end = fullGrammarID.indexOf("@");
-
-    if (start == -1 || end == -1) {
-      return null;
-    }
-    else {
-      String foo = null;
-      if (start == end) {
-        foo = "" + fullGrammarID.charAt(end);
-      }
-      else {
-        if (suffix) {
-          foo = fullGrammarID.substring(start);
-        }
-        else {
-          foo = fullGrammarID.substring(start, end);
-        }
-      }
-      return foo;
-    }
-  }
-
 }
@@ -0,0 +1,344 @@
+/**
+ * Copyright 2010 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package com.voxeo.moho.util;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Streaming NLSML parser. Reads the result with StAX, without building a DOM or
+ * the maps of {@link NLSMLParser}, and hands every interpretation to a
+ * {@link Handler} once the whole result has been read. A result that fails to
+ * parse reaches the handler not at all. Interpretations are read the same way
+ * as by {@link NLSMLParser}.
+ * <p>
+ * The parsers are per thread and reused, so the handler must not parse
+ * another result, and must copy what it keeps from the {@link Interpretation},
+ * which is reused for the next result.
+ */
+public class NLSMLStreamParser {
+
+  public interface Handler {
+    void onInterpretation(Interpretation interpretation);
+  }
+
+  public static class Interpretation {
+    private String _grammarId;
+
+    private String _grammar;
+
+    private float _confidence;
+
+    private final StringBuilder _tag = new StringBuilder();
+
+    private boolean _hasTag;
+
+    private final StringBuilder _input = new StringBuilder();
+
+    private String _inputMode;
+
+    private final StringBuilder _concept = new StringBuilder();
+
+    private final StringBuilder _voxeoInterpretation = new StringBuilder();
+
+    private String _interpretation;
+
+    void reset() {
+      _grammarId = null;
+      _grammar = null;
+      _confidence = Float.NaN;
+      _tag.setLength(0);
+      _hasTag = false;
+      _input.setLength(0);
+      _inputMode = null;
+      _concept.setLength(0);
+      _voxeoInterpretation.setLength(0);
+      _interpretation = null;
+    }
+
+    public String getGrammarId() {
+      return _grammarId;
+    }
+
+    public String getGrammar() {
+      return _grammar;
+    }
+
+    /**
+     * @return the confidence between 0 and 1, NaN if there is none.
+     */
+    public float getConfidence() {
+      return _confidence;
+    }
+
+    /**
+     * @return the text of the interpretation without whitespace, or null.
+     */
+    public String getTag() {
+      if (!_hasTag) {
+        return null;
+      }
+      final StringBuilder tag = new StringBuilder(_tag.length());
+      for (int i = 0; i < _tag.length(); i++) {
+        final char c = _tag.charAt(i);
+        // the \s of regular expressions
+        if (c != ' ' && c != '\t' && c != '\n' && c != '\u000B' && c != '\f' && c != '\r') {
+          tag.append(c);
+        }
+      }
+      return tag.length() > 0 ? tag.toString() : null;
+    }
+
+    /**
+     * @return the interpretation of the voxeo result, or else the input, or
+     *         null.
+     */
+    public String getInterpretation() {
+      return _interpretation;
+    }
+
+    /**
+     * @return the input mode, "voice" for speech, or null.
+     */
+    public String getInputMode() {
+      return _inputMode;
+    }
+
+    public String getConcept() {
+      final String concept = _concept.toString().trim();
+      return concept.length() > 0 ? concept : null;
+    }
+
+    void end() {
+      if (!isBlank(_input)) {
+        _interpretation = _input.toString();
+      }
+      if (!isBlank(_voxeoInterpretation)) {
+        _interpretation = _voxeoInterpretation.toString().trim();
+      }
+    }
+
+    private static boolean isBlank(final CharSequence s) {
+      for (int i = 0; i < s.length(); i++) {
+        if (s.charAt(i) > ' ') {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  private static final ThreadLocal<NLSMLStreamParser> PARSERS = new ThreadLocal<NLSMLStreamParser>() {
+    @Override
+    protected NLSMLStreamParser initialValue() {
+      return new NLSMLStreamParser();
+    }
+  };
+
+  private final XMLInputFactory _factory;
+
+  // the interpretations of the result being read, reused across results
+  private final List<Interpretation> _interpretations = new ArrayList<Interpretation>();
+
+  private NLSMLStreamParser() {
+    _factory = XMLInputFactory.newInstance();
+    _factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+    _factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+    _factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.FALSE);
+  }
+
+  /**
+   * Calls the handler for every interpretation of the NLSML result, in
+   * document order, after the result has been read without error.
+   */
+  public static void parse(final String xml, final Handler handler) throws XMLStreamException {
+    PARSERS.get().doParse(xml, handler);
+  }
+
+  private void doParse(final String xml, final Handler handler) throws XMLStreamException {
+    final XMLStreamReader reader = _factory.createXMLStreamReader(new StringReader(xml));
+    int count = 0;
+    try {
+      Interpretation interpretation = null;
+      int depth = 0;
+      int resultDepth = -1;
+      String resultGrammar = null;
+      // the depth of the open elements, -1 if there is none
+      int interpretationDepth = -1;
+      int inputDepth = -1;
+      int voxeoDepth = -1;
+      int conceptDepth = -1;
+      int voxeoInterpretationDepth = -1;
+      // only the first of these elements is read
+      boolean input = false;
+      boolean voxeo = false;
+      boolean concept = false;
+      boolean voxeoInterpretation = false;
+
+      while (reader.hasNext()) {
+        switch (reader.next()) {
+          case XMLStreamConstants.START_ELEMENT:
+            depth++;
+            final String name = localName(reader.getLocalName());
+            if (interpretationDepth == -1) {
+              if ("result".equals(name)) {
+                resultDepth = depth;
+                resultGrammar = reader.getAttributeValue(null, "grammar");
+              }
+              else if ("interpretation".equals(name) && resultDepth == depth - 1) {
+                interpretationDepth = depth;
+                input = false;
+                voxeo = false;
+                concept = false;
+                voxeoInterpretation = false;
+                if (count == _interpretations.size()) {
+                  _interpretations.add(new Interpretation());
+                }
+                interpretation = _interpretations.get(count);
+                startInterpretation(interpretation, reader, resultGrammar);
+              }
+            }
+            else if (depth == interpretationDepth + 1) {
+              if (!input && "input".equals(name)) {
+                input = true;
+                inputDepth = depth;
+                final String mode = reader.getAttributeValue(null, "mode");
+                if (mode != null) {
+                  final String inputMode = mode.trim();
+                  interpretation._inputMode = inputMode.equalsIgnoreCase("speech") ? "voice" : inputMode;
+                }
+              }
+              else if (!voxeo && "voxeoresult".equals(name)) {
+                voxeo = true;
+                voxeoDepth = depth;
+              }
+            }
+            else if (depth == voxeoDepth + 1) {
+              if (!concept && "concept".equals(name)) {
+                concept = true;
+                conceptDepth = depth;
+              }
+              else if (!voxeoInterpretation && "interpretation".equals(name)) {
+                voxeoInterpretation = true;
+                voxeoInterpretationDepth = depth;
+              }
+            }
+            break;
+
+          case XMLStreamConstants.CHARACTERS:
+          case XMLStreamConstants.CDATA:
+          case XMLStreamConstants.SPACE:
+            if (depth == interpretationDepth) {
+              interpretation._hasTag = true;
+              interpretation._tag.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+            }
+            else if (depth == inputDepth) {
+              interpretation._input.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+            }
+            else if (depth == conceptDepth) {
+              interpretation._concept.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+            }
+            else if (depth == voxeoInterpretationDepth) {
+              interpretation._voxeoInterpretation.append(reader.getTextCharacters(), reader.getTextStart(),
+                  reader.getTextLength());
+            }
+            break;
+
+          case XMLStreamConstants.END_ELEMENT:
+            if (depth == interpretationDepth) {
+              interpretation.end();
+              count++;
+              interpretationDepth = -1;
+            }
+            else if (depth == inputDepth) {
+              inputDepth = -1;
+            }
+            else if (depth == voxeoDepth) {
+              voxeoDepth = -1;
+            }
+            else if (depth == conceptDepth) {
+              conceptDepth = -1;
+            }
+            else if (depth == voxeoInterpretationDepth) {
+              voxeoInterpretationDepth = -1;
+            }
+            else if (depth == resultDepth) {
+              resultDepth = -1;
+            }
+            depth--;
+            break;
+
+          default:
+            break;
+        }
+      }
+    }
+    finally {
+      reader.close();
+    }
+    for (int i = 0; i < count; i++) {
+      handler.onInterpretation(_interpretations.get(i));
+    }
+  }
+
+  private static void startInterpretation(final Interpretation interpretation, final XMLStreamReader reader,
+      final String resultGrammar) {
+    interpretation.reset();
+    String grammar = reader.getAttributeValue(null, "grammar");
+    if (grammar == null || grammar.length() == 0) {
+      grammar = resultGrammar != null ? resultGrammar : "";
+    }
+    interpretation._grammarId = parseGrammarID(grammar, false);
+    interpretation._grammar = parseGrammarID(grammar, true);
+    final String confidence = reader.getAttributeValue(null, "confidence");
+    if (confidence != null) {
+      interpretation._confidence = Float.parseFloat(confidence) / 100F;
+    }
+  }
+
+  // the parser is not namespace aware
+  private static String localName(final String name) {
+    final int colon = name.indexOf(':');
+    return colon < 0 ? name : name.substring(colon + 1);
+  }
+
+  /**
+   * @return the id of a grammar like "session:0@vomoto.com", "0", or with the
+   *         suffix, "0@vomoto.com". null if the grammar has no '@'.
+   */
+  static String parseGrammarID(final String fullGrammarID, final boolean suffix) {
+    // session:0@vomoto.com
+    final int start = fullGrammarID.indexOf(":") + 1;
+    final int end = fullGrammarID.indexOf("@");
+
+    if (end == -1) {
+      return null;
+    }
+    else if (start == end) {
+      return String.valueOf(fullGrammarID.charAt(end));
+    }
+    else if (suffix) {
+      return fullGrammarID.substring(start);
+    }
+    else {
+      return fullGrammarID.substring(start, end);
+    }
+  }
+}
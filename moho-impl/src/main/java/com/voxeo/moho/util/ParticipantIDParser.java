@@ -21,8 +21,178 @@ public class ParticipantIDParser {
 	// using this alphabet makes things much simpler
 	static String alphabet = "abcdefghijklmnopqrstuvwxyz1234567890";
 	
+	private static final char[] ALPHABET = alphabet.toCharArray();
 	
+	// reverse lookup of the alphabet, -1 for characters outside of it
+	private static final int[] INDEXES = new int[128];
+	
+	static {
+		for (int i = 0; i < INDEXES.length; i++) {
+			INDEXES[i] = -1;
+		}
+		for (int i = 0; i < ALPHABET.length; i++) {
+			INDEXES[ALPHABET[i]] = i;
+		}
+	}
+	
+	private static final String PREFIX = "moho://";
+	
+	// largest value of a normalized ip address, 255255255255
+	private static final long MAX_IP = 255255255255L;
+	
+	// a segment of up to 12 characters always fits in a long
+	private static final int MAX_SEGMENT_LENGTH = 12;
+	
+	// a number of up to 18 digits always fits in a long
+	private static final int MAX_DIGITS = 18;
+	
+	/**
+	 * Encodes a raw id of the format moho://ip:port/type/timestamp. IPv4 ids with
+	 * numeric port and timestamp are encoded on primitive longs, anything else
+	 * falls back to {@link #legacyEncode(String)}. Both produce the same output.
+	 */
 	public static String encode(String raw) {
+		
+		int colon = raw.indexOf(':', PREFIX.length());
+		int slash = colon < 0 ? -1 : raw.indexOf('/', colon + 1);
+		int slash2 = slash < 0 ? -1 : raw.indexOf('/', slash + 1);
+		if (!isCanonical(raw, colon, slash, slash2)) {
+			return legacyEncode(raw);
+		}
+		long ip = parseIp(raw, PREFIX.length(), colon);
+		long port = parseDigits(raw, colon + 1, slash);
+		long timestamp = parseDigits(raw, slash2 + 1, raw.length());
+		if (ip < 0 || port < 0 || port > 99999 || timestamp < 0) {
+			return legacyEncode(raw);
+		}
+		long type = getNumericType(raw.substring(slash + 1, slash2));
+		
+		StringBuilder builder = new StringBuilder(32);
+		appendShort(builder, ip);
+		builder.append('-');
+		appendShort(builder, port * 10 + type);
+		builder.append('-');
+		appendShort(builder, timestamp);
+		return builder.toString();
+	}
+	
+	/**
+	 * Decodes an id created by {@link #encode(String)} back to
+	 * moho://ip:port/type/timestamp.
+	 */
+	public static String decode(String encoded) {
+		
+		int dash = encoded.indexOf('-');
+		int dash2 = dash < 0 ? -1 : encoded.indexOf('-', dash + 1);
+		if (dash2 < 0 || encoded.indexOf('-', dash2 + 1) >= 0) {
+			return legacyDecode(encoded);
+		}
+		long ip = unshort(encoded, 0, dash);
+		long portAndType = unshort(encoded, dash + 1, dash2);
+		long timestamp = unshort(encoded, dash2 + 1, encoded.length());
+		if (ip < 0 || ip > MAX_IP || portAndType < 10 || timestamp < 0) {
+			return legacyDecode(encoded);
+		}
+		
+		StringBuilder builder = new StringBuilder(48);
+		builder.append(PREFIX);
+		appendIpAddress(builder, ip);
+		builder.append(':').append(portAndType / 10);
+		builder.append('/').append(toRemoteType((int) (portAndType % 10)));
+		builder.append('/').append(timestamp);
+		return builder.toString();
+	}
+	
+	// only ids with exactly one ':' followed by exactly two '/', non empty parts 
+	// and no whitespace are parsed by hand, the regex handles the rest
+	private static boolean isCanonical(String raw, int colon, int slash, int slash2) {
+
+		if (!raw.startsWith(PREFIX) || colon <= PREFIX.length() || slash <= colon + 1 
+				|| slash2 <= slash + 1 || slash2 >= raw.length() - 1) {
+			return false;
+		}
+		for (int i = PREFIX.length(); i < raw.length(); i++) {
+			char c = raw.charAt(i);
+			if (Character.isWhitespace(c) 
+					|| (c == ':' && i != colon) || (c == '/' && i != slash && i != slash2)) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	// normalized ip as a number (127.0.0.1 -> 127000000001), -1 if not a dotted IPv4 address
+	private static long parseIp(String raw, int start, int end) {
+		
+		long result = 0;
+		int octets = 0;
+		int i = start;
+		while (i < end) {
+			int j = raw.indexOf('.', i);
+			if (j < 0 || j > end) {
+				j = end;
+			}
+			long octet = parseDigits(raw, i, j);
+			if (octet < 0 || octet > 255 || ++octets > 4) {
+				return -1;
+			}
+			result = result * 1000 + octet;
+			i = j + 1;
+		}
+		return octets == 4 && raw.charAt(end - 1) != '.' ? result : -1;
+	}
+	
+	private static long parseDigits(String raw, int start, int end) {
+		
+		if (end <= start || end - start > MAX_DIGITS) {
+			return -1;
+		}
+		long result = 0;
+		for (int i = start; i < end; i++) {
+			char c = raw.charAt(i);
+			if (c < '0' || c > '9') {
+				return -1;
+			}
+			result = result * 10 + (c - '0');
+		}
+		return result;
+	}
+	
+	private static void appendShort(StringBuilder builder, long number) {
+		
+		do {
+			builder.append(ALPHABET[(int) (number % 36)]);
+			number /= 36;
+		} while (number > 0);
+	}
+	
+	// -1 if the segment is empty, too long or contains characters outside of the alphabet
+	private static long unshort(String shorted, int start, int end) {
+		
+		if (end <= start || end - start > MAX_SEGMENT_LENGTH) {
+			return -1;
+		}
+		long total = 0;
+		for (int i = end - 1; i >= start; i--) {
+			char c = shorted.charAt(i);
+			int index = c < INDEXES.length ? INDEXES[c] : -1;
+			if (index < 0) {
+				return -1;
+			}
+			total = total * 36 + index;
+		}
+		return total;
+	}
+	
+	private static void appendIpAddress(StringBuilder builder, long encodedIp) {
+		
+		builder.append(encodedIp / 1000000000L).append('.')
+			.append(encodedIp / 1000000L % 1000).append('.')
+			.append(encodedIp / 1000L % 1000).append('.')
+			.append(encodedIp % 1000);
+	}
+	
+	protected static String legacyEncode(String raw) {
 
 		String[] parts = parseId(raw);
 		return shorten(toBigInteger(parts[0])) + "-" + 
@@ -64,7 +234,7 @@ public class ParticipantIDParser {
 		return builder.toString();
 	}
 
-	public static String decode(String encoded) {
+	protected static String legacyDecode(String encoded) {
 
 		String[] parts = StringUtils.split(encoded, "-");
 		BigInteger decodedIp = unshort(parts[0]);
@@ -95,6 +265,13 @@ public class ParticipantIDParser {
 	public static String[] parseId(String raw) {
 		
 		// ip, port, type, id
+		int colon = raw.indexOf(':', PREFIX.length());
+		int slash = colon < 0 ? -1 : raw.indexOf('/', colon + 1);
+		int slash2 = slash < 0 ? -1 : raw.indexOf('/', slash + 1);
+		if (isCanonical(raw, colon, slash, slash2)) {
+			return new String[] { raw.substring(PREFIX.length(), colon), raw.substring(colon + 1, slash),
+					raw.substring(slash + 1, slash2), raw.substring(slash2 + 1) };
+		}
 		Matcher matcher = pattern.matcher(raw);
 		if (matcher.matches()) {
 			return new String[] { matcher.group(1), matcher.group(2),
@@ -105,6 +282,14 @@ public class ParticipantIDParser {
 
 	public static String getIpAddress(String encoded) {
 
+		// only the first segment is needed
+		int dash = encoded.indexOf('-');
+		long ip = dash < 0 ? -1 : unshort(encoded, 0, dash);
+		if (ip >= 0 && ip <= MAX_IP) {
+			StringBuilder builder = new StringBuilder(15);
+			appendIpAddress(builder, ip);
+			return builder.toString();
+		}
 		String decoded = decode(encoded);
 		if (decoded != null) {
 			String[] parts = parseId(decoded);
@@ -134,7 +319,11 @@ public class ParticipantIDParser {
 	
 	protected static String toRemoteType(char type) {
 		
-		long value = Long.parseLong("" + type);
+		return toRemoteType(Character.digit(type, 10));
+	}
+	
+	private static String toRemoteType(int value) {
+		
 		if (value == TYPE_CALL) {
 			return RemoteParticipant.RemoteParticipant_TYPE_CALL;
 		} else if (value == TYPE_CONFERENCE) {
@@ -0,0 +1,85 @@
+package com.voxeo.moho.media;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.net.URI;
+import java.net.URL;
+
+import org.junit.Test;
+
+import com.voxeo.moho.media.input.Grammar;
+import com.voxeo.moho.media.input.SimpleGrammar;
+
+public class GrammarPatternCacheTest {
+
+  @Test
+  public void testSamePatterns() throws Exception {
+    GrammarPatternCache cache = new GrammarPatternCache();
+
+    Object inline = cache.getPattern(new SimpleGrammar("yes,no"));
+    assertEquals(new SimpleGrammar("yes,no").toURI(), inline);
+    assertSame(inline, cache.getPattern(new SimpleGrammar("yes,no")));
+
+    assertEquals("1 2", cache.getPattern(new Grammar(URI.create("digits:1%202"))));
+    assertEquals(new URL("http://voxeo.com/menu.grxml"),
+        cache.getPattern(new Grammar(URI.create("http://voxeo.com/menu.grxml"))));
+
+    // skipped grammars are cached too
+    assertNull(cache.getPattern(new Grammar(URI.create("foo:bar"))));
+    assertNull(cache.getPattern(new Grammar(URI.create("foo:bar"))));
+
+    assertEquals(4, cache.getMissCount());
+    assertEquals(2, cache.getHitCount());
+  }
+
+  @Test
+  public void testSubclassesAreNotCached() {
+    GrammarPatternCache cache = new GrammarPatternCache();
+    Grammar grammar = new SimpleGrammar("yes,no") {
+      @Override
+      public URI toURI() {
+        return URI.create("digits:3");
+      }
+    };
+    assertEquals("3", cache.getPattern(grammar));
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void testUncachedPatternsAreCompiledEveryTime() {
+    GrammarPatternCache cache = new GrammarPatternCache(0, GrammarPatternCache.DEFAULT_TTL);
+    Object first = cache.getPattern(new SimpleGrammar("yes,no"));
+    Object second = cache.getPattern(new SimpleGrammar("yes,no"));
+    assertEquals(first, second);
+    assertNotSame(first, second);
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void testPatternsWithoutTTLAreCached() {
+    for (long ttl : new long[] {0, -1000}) {
+      GrammarPatternCache cache = new GrammarPatternCache(100, ttl);
+      Object first = cache.getPattern(new SimpleGrammar("yes,no"));
+      assertSame(first, cache.getPattern(new SimpleGrammar("yes,no")));
+      assertEquals(1, cache.getHitCount());
+    }
+  }
+
+  @Test
+  public void testExpiredPatternIsCompiledAgain() {
+    GrammarPatternCache cache = new GrammarPatternCache(100, 1);
+    Object first = cache.getPattern(new SimpleGrammar("yes,no"));
+    long now = System.currentTimeMillis();
+    while (System.currentTimeMillis() <= now + 1) {
+      Thread.yield();
+    }
+    Object second = cache.getPattern(new SimpleGrammar("yes,no"));
+    assertEquals(first, second);
+    assertNotSame(first, second);
+    assertEquals(2, cache.getMissCount());
+    assertEquals(0, cache.getHitCount());
+  }
+}
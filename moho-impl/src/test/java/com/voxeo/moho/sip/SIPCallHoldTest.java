@@ -0,0 +1,355 @@
+/**
+ * Copyright 2010-2011 Voxeo Corporation Licensed under the Apache License, Version
+ * 2.0 (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law
+ * or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.sip;
+
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.media.mscontrol.MsControlFactory;
+import javax.servlet.ServletContext;
+import javax.servlet.sip.Address;
+import javax.servlet.sip.SipApplicationSession;
+import javax.servlet.sip.SipServlet;
+import javax.servlet.sip.SipServletRequest;
+
+import junit.framework.TestCase;
+
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.jmock.lib.legacy.ClassImposteriser;
+
+import com.voxeo.moho.Application;
+import com.voxeo.moho.ApplicationContext;
+import com.voxeo.moho.ApplicationContextImpl;
+import com.voxeo.moho.sip.SIPCallImpl.HoldState;
+import com.voxeo.moho.sip.fake.MockSipServlet;
+import com.voxeo.moho.sip.fake.MockSipServletRequest;
+import com.voxeo.moho.sip.fake.MockSipSession;
+import com.voxeo.moho.spi.ExecutionContext;
+
+/**
+ * Tests the asynchronous hold and mute operations of {@link SIPCallImpl}. The
+ * re-INVITE transactions are driven by hand through holdResp() and the state
+ * setters, the way the call delegates do.
+ */
+public class SIPCallHoldTest extends TestCase {
+
+  Mockery mockery = new Mockery() {
+    {
+      setImposteriser(ClassImposteriser.INSTANCE);
+    }
+  };
+
+  MsControlFactory msFactory = mockery.mock(MsControlFactory.class);
+
+  SipServlet servlet = new MockSipServlet(mockery);
+
+  SipApplicationSession appSession = mockery.mock(SipApplicationSession.class);
+
+  MockSipSession session = mockery.mock(MockSipSession.class);
+
+  MockSipServletRequest initInviteReq = mockery.mock(MockSipServletRequest.class);
+
+  ServletContext servletContext = servlet.getServletContext();
+
+  ExecutionContext appContext;
+
+  Address fromAddr = mockery.mock(Address.class, "fromAddr");
+
+  Address toAddr = mockery.mock(Address.class, "toAddr");
+
+  RecordingDelegate delegate;
+
+  private SIPIncomingCall sipcall;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+
+    initInviteReq.setSession(session);
+    initInviteReq.setMethod("INVITE");
+    initInviteReq.setIsInitial(true);
+    session.setServletContext(servletContext);
+
+    mockery.checking(new Expectations() {
+      {
+        allowing(session).getRemoteParty();
+        will(returnValue(fromAddr));
+
+        allowing(fromAddr).clone();
+        will(returnValue(fromAddr));
+
+        allowing(toAddr).clone();
+        will(returnValue(toAddr));
+
+        allowing(initInviteReq).getFrom();
+        will(returnValue(fromAddr));
+
+        allowing(initInviteReq).getTo();
+        will(returnValue(toAddr));
+
+        allowing(session).getApplicationSession();
+        will(returnValue(appSession));
+
+        allowing(session).getCallId();
+        will(returnValue("test"));
+      }
+    });
+
+    appContext = new ApplicationContextImpl(new TestApp(), msFactory, servlet);
+    sipcall = new SIPIncomingCall(appContext, initInviteReq);
+    sipcall.setSIPCallState(SIPCall.State.ANSWERED);
+    delegate = new RecordingDelegate();
+    sipcall.setCallDelegate(delegate);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    super.tearDown();
+    appContext.destroy();
+  }
+
+  public void testHoldAsyncCompletesWhenReinviteCompletes() throws Exception {
+    final Future<Boolean> future = sipcall.holdAsync();
+
+    assertEquals(1, delegate.holds);
+    assertFalse(future.isDone());
+    assertEquals(HoldState.Holding, sipcall.getHoldState());
+
+    // the re-INVITE to the far end and the one to the media server.
+    sipcall.holdResp();
+    assertFalse(future.isDone());
+    sipcall.holdResp();
+
+    assertTrue(future.get(1, TimeUnit.SECONDS));
+    assertTrue(sipcall.isHold());
+  }
+
+  public void testHoldAsyncWhileHoldingReturnsPendingFuture() throws Exception {
+    final Future<Boolean> first = sipcall.holdAsync();
+    final Future<Boolean> second = sipcall.holdAsync();
+
+    assertSame(first, second);
+    assertEquals(1, delegate.holds);
+    assertFalse(second.isDone());
+
+    sipcall.holdResp();
+    sipcall.holdResp();
+    assertTrue(second.get(1, TimeUnit.SECONDS));
+  }
+
+  public void testHoldAsyncWhileHoldingWithoutFutureWaitsForTransition() throws Exception {
+    sipcall.setHoldState(HoldState.Holding);
+
+    final Future<Boolean> future = sipcall.holdAsync();
+    assertFalse(future.isDone());
+    assertEquals(0, delegate.holds);
+
+    sipcall.holdResp();
+    sipcall.holdResp();
+    assertTrue(future.get(1, TimeUnit.SECONDS));
+  }
+
+  public void testHoldAsyncWhenHeldIsDone() throws Exception {
+    sipcall.holdAsync();
+    sipcall.holdResp();
+    sipcall.holdResp();
+
+    final Future<Boolean> future = sipcall.holdAsync();
+    assertTrue(future.isDone());
+    assertTrue(future.get());
+    assertEquals(1, delegate.holds);
+  }
+
+  public void testFailedHoldCompletesWithFalse() throws Exception {
+    final Future<Boolean> future = sipcall.holdAsync();
+
+    // what the delegates do when the far end rejects the re-INVITE.
+    sipcall.setHoldState(HoldState.None);
+
+    assertFalse(future.get(1, TimeUnit.SECONDS));
+    assertFalse(sipcall.isHold());
+  }
+
+  public void testUnholdAsync() throws Exception {
+    sipcall.holdAsync();
+    sipcall.holdResp();
+    sipcall.holdResp();
+
+    final Future<Boolean> future = sipcall.unholdAsync();
+    assertEquals(1, delegate.unholds);
+    assertFalse(future.isDone());
+
+    sipcall.holdResp();
+    sipcall.holdResp();
+    assertTrue(future.get(1, TimeUnit.SECONDS));
+    assertFalse(sipcall.isHold());
+  }
+
+  public void testUnholdAsyncFailsWhenDelegateFails() throws Exception {
+    sipcall.holdAsync();
+    sipcall.holdResp();
+    sipcall.holdResp();
+
+    delegate.failure = new RuntimeException("unhold");
+    final Future<Boolean> future = sipcall.unholdAsync();
+
+    assertFalse(future.get(1, TimeUnit.SECONDS));
+    assertTrue(sipcall.isHold());
+    assertFalse(sipcall.isOperationInprocess());
+  }
+
+  public void testPendingHoldFailsWhenCallEnds() throws Exception {
+    final Future<Boolean> future = sipcall.holdAsync();
+
+    sipcall.setSIPCallState(SIPCall.State.DISCONNECTED);
+
+    assertFalse(future.get(1, TimeUnit.SECONDS));
+  }
+
+  public void testMuteAsyncCompletesWhenMuted() throws Exception {
+    final Future<Boolean> future = sipcall.muteAsync();
+
+    assertEquals(1, delegate.mutes);
+    assertFalse(future.isDone());
+    assertSame(future, sipcall.muteAsync());
+
+    sipcall.setMuteState(HoldState.Muted);
+
+    assertTrue(future.get(1, TimeUnit.SECONDS));
+    assertTrue(sipcall.isMute());
+  }
+
+  public void testMuteAsyncWhileMutingWithoutFutureWaitsForTransition() throws Exception {
+    sipcall.setMuteState(HoldState.Muting);
+
+    final Future<Boolean> future = sipcall.muteAsync();
+    assertFalse(future.isDone());
+    assertEquals(0, delegate.mutes);
+
+    sipcall.setMuteState(HoldState.Muted);
+    assertTrue(future.get(1, TimeUnit.SECONDS));
+  }
+
+  public void testUnmuteAsync() throws Exception {
+    sipcall.muteAsync();
+    sipcall.setMuteState(HoldState.Muted);
+
+    final Future<Boolean> future = sipcall.unmuteAsync();
+    assertEquals(1, delegate.unmutes);
+    assertFalse(future.isDone());
+
+    sipcall.setMuteState(HoldState.None);
+    assertTrue(future.get(1, TimeUnit.SECONDS));
+    assertFalse(sipcall.isMute());
+  }
+
+  public void testUnmuteAsyncFailsWhenDelegateFails() throws Exception {
+    sipcall.muteAsync();
+    sipcall.setMuteState(HoldState.Muted);
+
+    delegate.failure = new RuntimeException("unmute");
+    final Future<Boolean> future = sipcall.unmuteAsync();
+
+    assertFalse(future.get(1, TimeUnit.SECONDS));
+    assertTrue(sipcall.isMute());
+    assertFalse(sipcall.isOperationInprocess());
+  }
+
+  public void testOtherOperationInProcess() throws Exception {
+    sipcall.holdAsync();
+    try {
+      sipcall.muteAsync();
+      fail("mute allowed while holding");
+    }
+    catch (final IllegalStateException ex) {
+      // expected
+    }
+  }
+
+  public void testHoldAsyncRequiresAnsweredCall() throws Exception {
+    sipcall.setSIPCallState(SIPCall.State.RINGING);
+    try {
+      sipcall.holdAsync();
+      fail("hold allowed on a call not answered");
+    }
+    catch (final IllegalStateException ex) {
+      // expected
+    }
+  }
+
+  class RecordingDelegate extends SIPCallDelegate {
+
+    int holds;
+
+    int unholds;
+
+    int mutes;
+
+    int unmutes;
+
+    RuntimeException failure;
+
+    @Override
+    protected void handleAck(final SIPCallImpl call, final SipServletRequest req) throws Exception {
+    }
+
+    @Override
+    protected void handleReinvite(final SIPCallImpl call, final SipServletRequest req,
+        final Map<String, String> headers) throws Exception {
+    }
+
+    @Override
+    protected void handleUpdate(final SIPCallImpl call, final SipServletRequest req,
+        final Map<String, String> headers) throws Exception {
+    }
+
+    @Override
+    protected void hold(final SIPCallImpl call, final boolean send) {
+      holds++;
+    }
+
+    @Override
+    protected void unhold(final SIPCallImpl call) {
+      unholds++;
+      if (failure != null) {
+        throw failure;
+      }
+    }
+
+    @Override
+    protected void mute(final SIPCallImpl call) {
+      mutes++;
+    }
+
+    @Override
+    protected void unmute(final SIPCallImpl call) {
+      unmutes++;
+      if (failure != null) {
+        throw failure;
+      }
+    }
+  }
+
+  class TestApp implements Application {
+    @Override
+    public final void destroy() {
+
+    }
+
+    @Override
+    public void init(final ApplicationContext ctx) {
+
+    }
+  }
+}
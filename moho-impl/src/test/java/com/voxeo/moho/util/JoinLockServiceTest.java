@@ -0,0 +1,152 @@
+package com.voxeo.moho.util;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.jmock.lib.concurrent.Synchroniser;
+import org.junit.Test;
+
+import com.voxeo.moho.Participant;
+
+public class JoinLockServiceTest {
+
+  Mockery mockery = new Mockery() {
+    {
+      setThreadingPolicy(new Synchroniser());
+    }
+  };
+
+  private Participant participant(final String id, final Participant... joinees) {
+    final Participant p = mockery.mock(Participant.class, id);
+    mockery.checking(new Expectations() {
+      {
+        allowing(p).getId();
+        will(returnValue(id));
+        allowing(p).getParticipants();
+        will(returnValue(joinees));
+      }
+    });
+    return p;
+  }
+
+  @Test
+  public void testSharedLockAcrossJoinees() {
+    final JoinLockService service = new JoinLockService();
+    final Participant a = participant("a");
+    final Participant b = participant("b");
+    final Participant c = participant("c", a);
+
+    final Lock ab = service.get(a, b);
+    assertSame(ab, service.get(c));
+    assertSame(ab, service.get(b));
+
+    service.remove("a");
+    service.remove("b");
+    service.remove("b");
+    service.remove("c");
+    assertTrue(service._m.isEmpty());
+  }
+
+  @Test
+  public void testConcurrentJoinsShareTheLockOfTheJoinee() throws Exception {
+    final JoinLockService service = new JoinLockService();
+    final Participant mixer = participant("mixer");
+    final Lock shared = service.get(mixer);
+    final int threads = 8;
+    final int calls = 100;
+    final Participant[][] joined = new Participant[threads][calls];
+    for (int t = 0; t < threads; t++) {
+      for (int i = 0; i < calls; i++) {
+        joined[t][i] = participant("joined-" + t + "-" + i, mixer);
+      }
+    }
+
+    final CountDownLatch start = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(threads);
+    final AtomicInteger failures = new AtomicInteger();
+    for (int t = 0; t < threads; t++) {
+      final Participant[] mine = joined[t];
+      new Thread() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+            for (final Participant call : mine) {
+              if (service.get(call) != shared || service.get(mixer, call) != shared) {
+                failures.incrementAndGet();
+              }
+              service.remove(mixer.getId());
+              service.remove(call.getId());
+              service.remove(call.getId());
+            }
+          }
+          catch (Throwable e) {
+            failures.incrementAndGet();
+          }
+          finally {
+            done.countDown();
+          }
+        }
+      }.start();
+    }
+    start.countDown();
+    done.await();
+
+    assertEquals(0, failures.get());
+    service.remove(mixer.getId());
+    assertTrue(service._m.isEmpty());
+  }
+
+  @Test
+  public void testConcurrentJoinUnjoin() throws Exception {
+    final JoinLockService service = new JoinLockService();
+    final int threads = 8;
+    final int pairs = 200;
+    final Participant[][] calls = new Participant[threads][pairs * 2];
+    for (int t = 0; t < threads; t++) {
+      for (int i = 0; i < pairs * 2; i++) {
+        calls[t][i] = participant("call-" + t + "-" + i);
+      }
+    }
+
+    final CountDownLatch start = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(threads);
+    final AtomicInteger failures = new AtomicInteger();
+    for (int t = 0; t < threads; t++) {
+      final Participant[] mine = calls[t];
+      new Thread() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+            for (int round = 0; round < 20; round++) {
+              for (int i = 0; i < mine.length; i += 2) {
+                final Lock lock = service.get(mine[i], mine[i + 1]);
+                lock.lock();
+                lock.unlock();
+                service.remove(mine[i].getId());
+                service.remove(mine[i + 1].getId());
+              }
+            }
+          }
+          catch (Throwable e) {
+            failures.incrementAndGet();
+          }
+          finally {
+            done.countDown();
+          }
+        }
+      }.start();
+    }
+    start.countDown();
+    done.await();
+
+    assertEquals(0, failures.get());
+    assertTrue(service._m.isEmpty());
+  }
+}
@@ -0,0 +1,48 @@
+package com.voxeo.moho.util;
+
+/**
+ * Compares the time the DOM based {@link NLSMLParser} and the
+ * {@link NLSMLStreamParser} take to read a result with three interpretations.
+ * Not a unit test, run it by hand:
+ *
+ * <pre>
+ * NLSMLParserBenchmark [results] [rounds]
+ * </pre>
+ */
+public class NLSMLParserBenchmark {
+
+  @SuppressWarnings("deprecation")
+  public static void main(String[] args) throws Exception {
+    final int count = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+    final int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+    final float[] confidence = new float[1];
+    final NLSMLStreamParser.Handler handler = new NLSMLStreamParser.Handler() {
+      @Override
+      public void onInterpretation(NLSMLStreamParser.Interpretation interpretation) {
+        confidence[0] += interpretation.getConfidence();
+      }
+    };
+    // warm up both parsers
+    for (int i = 0; i < 5000; i++) {
+      NLSMLParser.parse(NLSMLStreamParserTest.MULTI);
+      NLSMLStreamParser.parse(NLSMLStreamParserTest.MULTI, handler);
+    }
+
+    for (int round = 1; round <= rounds; round++) {
+      long begin = System.nanoTime();
+      for (int i = 0; i < count; i++) {
+        NLSMLParser.parse(NLSMLStreamParserTest.MULTI);
+      }
+      final long dom = System.nanoTime() - begin;
+      begin = System.nanoTime();
+      for (int i = 0; i < count; i++) {
+        NLSMLStreamParser.parse(NLSMLStreamParserTest.MULTI, handler);
+      }
+      final long stream = System.nanoTime() - begin;
+      System.out.println("round " + round + ", NLSML with 3 interpretations: DOM " + dom / count + "ns, StAX "
+          + stream / count + "ns");
+    }
+    // keeps the results of the handler alive
+    System.out.println("total confidence " + confidence[0]);
+  }
+}
@@ -0,0 +1,131 @@
+package com.voxeo.moho.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.junit.Test;
+
+public class NLSMLStreamParserTest {
+
+  static final String MULTI = "<?xml version=\"1.0\"?>\n"
+      + "<result xmlns:xf=\"http://www.w3.org/2000/xforms\" grammar=\"session:1@voxeo.com\">\n"
+      + "  <interpretation grammar=\"session:2@voxeo.com\" confidence=\"87\">\n"
+      + "    <instance><city>Boston</city></instance>\n"
+      + "    <input mode=\"speech\">fly to boston</input>\n"
+      + "    <voxeoresult>\n"
+      + "      <concept> boston </concept>\n"
+      + "      <interpretation> BOS </interpretation>\n"
+      + "    </voxeoresult>\n"
+      + "    city = boston\n"
+      + "  </interpretation>\n"
+      + "  <interpretation confidence=\"41\">\n"
+      + "    <instance><city>Austin</city></instance>\n"
+      + "    <input mode=\"speech\">fly to austin</input>\n"
+      + "  </interpretation>\n"
+      + "  <interpretation confidence=\"12\">\n"
+      + "    <input mode=\"dtmf\">2 8 7</input>\n"
+      + "    <voxeoresult><concept>287</concept></voxeoresult>\n"
+      + "  </interpretation>\n"
+      + "</result>";
+
+  static final String NO_MATCH = "<?xml version=\"1.0\"?><result grammar=\"session:1@voxeo.com\">"
+      + "<interpretation confidence=\"0\"><input><nomatch/></input></interpretation></result>";
+
+  /**
+   * Collects the interpretations the way {@link NLSMLParser} returns them.
+   */
+  static List<Map<String, String>> parse(String xml) throws Exception {
+    final List<Map<String, String>> retv = new ArrayList<Map<String, String>>();
+    NLSMLStreamParser.parse(xml, new NLSMLStreamParser.Handler() {
+      @Override
+      public void onInterpretation(NLSMLStreamParser.Interpretation interpretation) {
+        Map<String, String> reco = new HashMap<String, String>();
+        reco.put("_grammar_id", interpretation.getGrammarId());
+        reco.put("_grammar", interpretation.getGrammar());
+        reco.put("_confidence", Float.toString(interpretation.getConfidence()));
+        reco.put("_interpretationconfidence", Float.toString(interpretation.getConfidence()));
+        put(reco, "_tag", interpretation.getTag());
+        put(reco, "_interpretation", interpretation.getInterpretation());
+        put(reco, "_inputmode", interpretation.getInputMode());
+        put(reco, "_concept", interpretation.getConcept());
+        retv.add(reco);
+      }
+    });
+    return retv;
+  }
+
+  static void put(Map<String, String> reco, String key, String value) {
+    if (value != null) {
+      reco.put(key, value);
+    }
+  }
+
+  @SuppressWarnings("deprecation")
+  @Test
+  public void testSameAsDOMParser() throws Exception {
+    assertEquals(NLSMLParser.parse(MULTI), parse(MULTI));
+    assertEquals(NLSMLParser.parse(NO_MATCH), parse(NO_MATCH));
+  }
+
+  @Test
+  public void testInterpretations() throws Exception {
+    List<Map<String, String>> recos = parse(MULTI);
+    assertEquals(3, recos.size());
+
+    Map<String, String> first = recos.get(0);
+    assertEquals("2", first.get("_grammar_id"));
+    assertEquals("2@voxeo.com", first.get("_grammar"));
+    assertEquals("0.87", first.get("_confidence"));
+    assertEquals("city=boston", first.get("_tag"));
+    assertEquals("BOS", first.get("_interpretation"));
+    assertEquals("voice", first.get("_inputmode"));
+    assertEquals("boston", first.get("_concept"));
+
+    Map<String, String> second = recos.get(1);
+    assertEquals("1", second.get("_grammar_id"));
+    assertEquals("fly to austin", second.get("_interpretation"));
+    assertNull(second.get("_concept"));
+
+    assertEquals("dtmf", recos.get(2).get("_inputmode"));
+    assertTrue(parse(NO_MATCH).get(0).get("_interpretation") == null);
+  }
+
+  @Test
+  public void testNoInterpretationOfAFailedParse() throws Exception {
+    // the second interpretation is cut off
+    String truncated = MULTI.substring(0, MULTI.indexOf("fly to austin"));
+    try {
+      parse(truncated);
+      fail("parsed a truncated result");
+    }
+    catch (XMLStreamException e) {
+      // expected
+    }
+
+    final List<NLSMLStreamParser.Interpretation> recos = new ArrayList<NLSMLStreamParser.Interpretation>();
+    try {
+      NLSMLStreamParser.parse(truncated, new NLSMLStreamParser.Handler() {
+        @Override
+        public void onInterpretation(NLSMLStreamParser.Interpretation interpretation) {
+          recos.add(interpretation);
+        }
+      });
+    }
+    catch (XMLStreamException e) {
+      // expected
+    }
+    assertTrue(recos.isEmpty());
+
+    // the parser of the thread is still usable
+    assertEquals(3, parse(MULTI).size());
+  }
+}
@@ -1,6 +1,8 @@
 package com.voxeo.moho.util;
 
 import java.math.BigInteger;
+import java.util.Random;
+import java.util.regex.Matcher;
 
 import org.junit.Test;
 import static org.junit.Assert.*;
@@ -63,4 +65,46 @@ public class ParticipantIDParserTest {
 		raw = "moho://10.0.0.2:23490/call/" + Math.abs(new UUID().getTime());
 		assertEquals(raw, ParticipantIDParser.decode(ParticipantIDParser.encode(raw)));
 	}
+	
+	@Test
+	public void testCompatibleWithLegacy() {
+		
+		String[] types = new String[] { RemoteParticipant.RemoteParticipant_TYPE_CALL,
+				RemoteParticipant.RemoteParticipant_TYPE_CONFERENCE, RemoteParticipant.RemoteParticipant_TYPE_DIALOG };
+		Random random = new Random(42);
+		for (int i = 0; i < 10000; i++) {
+			String ip = random.nextInt(256) + "." + random.nextInt(256) + "." + random.nextInt(256) + "." + random.nextInt(256);
+			String raw = "moho://" + ip + ":" + random.nextInt(65536) + "/" + types[i % types.length] + "/"
+					+ ((random.nextLong() & Long.MAX_VALUE) >> random.nextInt(64));
+			
+			String encoded = ParticipantIDParser.encode(raw);
+			assertEquals(ParticipantIDParser.legacyEncode(raw), encoded);
+			assertEquals(raw, ParticipantIDParser.decode(encoded));
+			assertEquals(ParticipantIDParser.legacyDecode(encoded), ParticipantIDParser.decode(encoded));
+			assertEquals(ip, ParticipantIDParser.getIpAddress(encoded));
+			
+			Matcher matcher = ParticipantIDParser.pattern.matcher(raw);
+			assertTrue(matcher.matches());
+			assertArrayEquals(new String[] { matcher.group(1), matcher.group(2), matcher.group(3), matcher.group(4) },
+					ParticipantIDParser.parseId(raw));
+		}
+	}
+	
+	@Test
+	public void testEncodeEdgeCases() {
+		
+		String[] raws = new String[] { "moho://0.0.0.0:1/call/0", "moho://255.255.255.255:99999/dialog/999999999999999999",
+				"moho://1.2.3.4:5060/unknown/17", "moho://1.2.3.4:5060/call/123456789012345678901234" };
+		for (String raw : raws) {
+			String encoded = ParticipantIDParser.encode(raw);
+			assertEquals(ParticipantIDParser.legacyEncode(raw), encoded);
+			assertEquals(ParticipantIDParser.legacyDecode(encoded), ParticipantIDParser.decode(encoded));
+		}
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testIllegalId() {
+		
+		ParticipantIDParser.encode("moho://1.2.3.4/call/123");
+	}
 }
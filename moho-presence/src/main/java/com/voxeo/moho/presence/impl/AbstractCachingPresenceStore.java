@@ -0,0 +1,197 @@
+package com.voxeo.moho.presence.impl;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import com.voxeo.moho.common.util.NearCache;
+import com.voxeo.moho.presence.PresenceStore;
+import com.voxeo.moho.presence.StoreRetrieveListener;
+
+/**
+ * Near cache in front of another presence store. Reads are served from
+ * bounded, TTL-evicting caches and go to the delegate store on a miss. Writes
+ * go straight to the delegate and invalidate the cached entries they affect.
+ * <p>
+ * Inside a transaction the written keys are invalidated again on commit and
+ * rollback, and nothing read by the transaction after its first write is
+ * cached, as it may not have been committed yet.
+ * <p>
+ * Configured by naming the caching store in the STORE_IMPL property of the
+ * presence service, and the delegate store in its cache delegate property.
+ */
+public abstract class AbstractCachingPresenceStore<S extends PresenceStore> implements PresenceStore {
+
+  private static final Logger LOG = Logger.getLogger(AbstractCachingPresenceStore.class);
+
+  public static final int DEFAULT_CACHE_SIZE = 10000;
+
+  public static final long DEFAULT_CACHE_TTL = 30000;
+
+  protected S _delegate;
+
+  private int _cacheSize = DEFAULT_CACHE_SIZE;
+
+  private long _cacheTTL = DEFAULT_CACHE_TTL;
+
+  private final Map<String, NearCache<?, ?>> _caches = new LinkedHashMap<String, NearCache<?, ?>>();
+
+  // the keys written by the transaction of this thread
+  private final ThreadLocal<List<Object[]>> _tx = new ThreadLocal<List<Object[]>>();
+
+  /**
+   * @return the name of the property that holds the class name of the
+   *         delegate store.
+   */
+  protected abstract String getDelegateProperty();
+
+  protected abstract String getSizeProperty();
+
+  protected abstract String getTTLProperty();
+
+  protected abstract Class<? extends S> getDefaultDelegate();
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public void init(Map<String, String> props) {
+    String delegate = props.get(getDelegateProperty());
+    if (delegate == null) {
+      delegate = getDefaultDelegate().getName();
+    }
+    if (delegate.equals(getClass().getName())) {
+      throw new IllegalArgumentException("Caching store can't delegate to itself: " + delegate);
+    }
+    try {
+      _delegate = (S) Class.forName(delegate).newInstance();
+    }
+    catch (Exception e) {
+      throw new IllegalArgumentException("Invalidate Presence Store implementation: " + e);
+    }
+    String size = props.get(getSizeProperty());
+    if (size != null) {
+      _cacheSize = Integer.parseInt(size);
+    }
+    String ttl = props.get(getTTLProperty());
+    if (ttl != null) {
+      _cacheTTL = Long.parseLong(ttl);
+    }
+    _delegate.init(props);
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Caching " + delegate + " with size " + _cacheSize + " and ttl " + _cacheTTL + "ms");
+    }
+  }
+
+  /**
+   * Creates a cache with the configured size and ttl, to be called from init.
+   */
+  protected <K, V> NearCache<K, V> createCache(String name) {
+    NearCache<K, V> cache = new NearCache<K, V>(_cacheSize, _cacheTTL);
+    _caches.put(name, cache);
+    return cache;
+  }
+
+  /**
+   * Caches a value read from the delegate, unless the key has been written
+   * since the stamp was taken or by the current transaction.
+   */
+  protected <K, V> void cache(NearCache<K, V> cache, K key, V value, long stamp) {
+    List<Object[]> tx = _tx.get();
+    if (tx != null && !tx.isEmpty()) {
+      return;
+    }
+    cache.put(key, value, stamp);
+  }
+
+  /**
+   * Invalidates a key after it has been written to the delegate.
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  protected void invalidate(NearCache cache, Object key) {
+    cache.invalidate(key);
+    List<Object[]> tx = _tx.get();
+    if (tx != null) {
+      tx.add(new Object[] {cache, key});
+    }
+  }
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private void endTx() {
+    List<Object[]> tx = _tx.get();
+    _tx.remove();
+    if (tx != null) {
+      // a concurrent reader may have cached the value that was committed over
+      for (Object[] written : tx) {
+        ((NearCache) written[0]).invalidate(written[1]);
+      }
+    }
+  }
+
+  protected static String key(String a, String b) {
+    return a + '\n' + b;
+  }
+
+  protected static String key(String a, String b, String c) {
+    return a + '\n' + b + '\n' + c;
+  }
+
+  @Override
+  public void startTx() {
+    _delegate.startTx();
+    _tx.set(new ArrayList<Object[]>(4));
+  }
+
+  @Override
+  public void commitTx() {
+    try {
+      _delegate.commitTx();
+    }
+    finally {
+      endTx();
+    }
+  }
+
+  @Override
+  public void rollbackTx() {
+    try {
+      _delegate.rollbackTx();
+    }
+    finally {
+      endTx();
+    }
+  }
+
+  @Override
+  public void destroy() {
+    if (LOG.isInfoEnabled()) {
+      LOG.info("Destroying presence store cache " + _caches);
+    }
+    for (NearCache<?, ?> cache : _caches.values()) {
+      cache.clear();
+    }
+    _delegate.destroy();
+  }
+
+  @Override
+  public <T> void addRetrieveListener(Class<?> clazz, StoreRetrieveListener<T> listener) {
+    _delegate.addRetrieveListener(clazz, listener);
+  }
+
+  @Override
+  public <T> void removeRetrieveListener(Class<?> clazz) {
+    _delegate.removeRetrieveListener(clazz);
+  }
+
+  public S getDelegate() {
+    return _delegate;
+  }
+
+  /**
+   * @return the caches by name, for monitoring their hit ratios.
+   */
+  public Map<String, NearCache<?, ?>> getCaches() {
+    return _caches;
+  }
+}
@@ -1,33 +1,55 @@
 package com.voxeo.moho.presence.impl;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
+import me.prettyprint.cassandra.serializers.BytesArraySerializer;
 import me.prettyprint.cassandra.serializers.ObjectSerializer;
 import me.prettyprint.cassandra.serializers.StringSerializer;
 import me.prettyprint.hector.api.Cluster;
 import me.prettyprint.hector.api.Keyspace;
+import me.prettyprint.hector.api.Serializer;
 import me.prettyprint.hector.api.beans.ColumnSlice;
 import me.prettyprint.hector.api.beans.HColumn;
+import me.prettyprint.hector.api.beans.OrderedRows;
+import me.prettyprint.hector.api.beans.Row;
 import me.prettyprint.hector.api.factory.HFactory;
 import me.prettyprint.hector.api.mutation.Mutator;
 import me.prettyprint.hector.api.query.ColumnQuery;
 import me.prettyprint.hector.api.query.QueryResult;
+import me.prettyprint.hector.api.query.RangeSlicesQuery;
 import me.prettyprint.hector.api.query.SliceQuery;
 
+import com.voxeo.moho.common.codec.BinaryCodecRegistry;
+import com.voxeo.moho.common.util.MutationBuffer;
+import com.voxeo.moho.common.util.MutationBuffer.Mutation;
+
 public abstract class AbstractCassandraPresenceStore extends AbstractPresenceStore {
 
   protected static final ObjectSerializer OBJECT_SERIALIZER = ObjectSerializer.get();
 
+  protected static final BytesArraySerializer BYTES_SERIALIZER = BytesArraySerializer.get();
+
   protected static final StringSerializer STRING_SERIALIZER = StringSerializer.get();
 
   protected static final String DEFAULT_DATABASE_ADDRESS = "localhost:9160";
 
   protected static final String DEFAULT_CLUSTER_NAME = "MohoCluster";
 
+  protected static final int DEFAULT_WRITE_BEHIND_BATCH_SIZE = 500;
+
+  protected static final int ROW_PAGE_SIZE = 100;
+
   protected Cluster _cluster;
 
   protected Keyspace _keyspace;
 
+  protected MutationBuffer _buffer;
+
+  protected CodecSerializer _valueSerializer;
+
   @Override
   public void init(Map<String, String> props) {
     String databaseAddress = props.get("databaseAddress");
@@ -37,21 +59,133 @@ public abstract class AbstractCassandraPresenceStore extends AbstractPresenceSto
     _cluster = HFactory.getOrCreateCluster(clusterName != null ? clusterName : DEFAULT_CLUSTER_NAME,
         databaseAddress != null ? databaseAddress : DEFAULT_DATABASE_ADDRESS);
     _keyspace = HFactory.createKeyspace(keySapceName != null ? keySapceName : getDefaultKeyspaceName(), _cluster);
+
+    // column values are written with the binary codecs unless binaryCodec is false, both formats are read
+    BinaryCodecRegistry registry = new BinaryCodecRegistry();
+    registerCodecs(registry);
+    String binaryCodec = props.get("binaryCodec");
+    _valueSerializer = new CodecSerializer(registry, binaryCodec == null || Boolean.parseBoolean(binaryCodec));
+
+    // writes are batched per transaction, and written behind if an interval is configured
+    String writeBehindInterval = props.get("writeBehindInterval");
+    String writeBehindBatchSize = props.get("writeBehindBatchSize");
+    _buffer = createMutationBuffer(writeBehindInterval != null ? Long.parseLong(writeBehindInterval) : 0,
+        writeBehindBatchSize != null ? Integer.parseInt(writeBehindBatchSize) : DEFAULT_WRITE_BEHIND_BATCH_SIZE);
+    String writeBehindMaxPending = props.get("writeBehindMaxPending");
+    if (writeBehindMaxPending != null) {
+      _buffer.setMaxPending(Integer.parseInt(writeBehindMaxPending));
+    }
+    String writeBehindMaxRetries = props.get("writeBehindMaxRetries");
+    if (writeBehindMaxRetries != null) {
+      _buffer.setMaxRetries(Integer.parseInt(writeBehindMaxRetries));
+    }
   }
   
   protected abstract String getDefaultKeyspaceName();
 
+  /**
+   * Registers the binary codecs of the values kept by this store, values
+   * without a codec are serialized.
+   */
+  protected void registerCodecs(BinaryCodecRegistry registry) {
+  }
+
+  protected MutationBuffer createMutationBuffer(long writeBehindInterval, int writeBehindBatchSize) {
+    return new MutationBuffer(new MutationBuffer.Sink() {
+      @Override
+      public void write(List<Mutation> batch) {
+        executeBatch(batch);
+      }
+    }, _valueSerializer, writeBehindInterval, writeBehindBatchSize);
+  }
+
+  /**
+   * Writes a batch with one mutator per key type.
+   */
+  protected void executeBatch(List<Mutation> batch) {
+    Mutator<String> stringMutator = null;
+    Mutator<Object> objectMutator = null;
+    for (Mutation mutation : batch) {
+      if (mutation.getKey() instanceof String) {
+        if (stringMutator == null) {
+          stringMutator = getStringMutator();
+        }
+        addMutation(stringMutator, (String) mutation.getKey(), mutation);
+      }
+      else {
+        if (objectMutator == null) {
+          objectMutator = getObjectMutator();
+        }
+        addMutation(objectMutator, mutation.getKey(), mutation);
+      }
+    }
+    if (stringMutator != null) {
+      stringMutator.execute();
+    }
+    if (objectMutator != null) {
+      objectMutator.execute();
+    }
+  }
+
+  private <K> void addMutation(Mutator<K> mutator, K key, Mutation mutation) {
+    if (mutation.isRowDeletion()) {
+      mutator.addDeletion(key, mutation.getColumnFamily());
+    }
+    else if (mutation.isDeletion()) {
+      mutator.addDeletion(key, mutation.getColumnFamily(), mutation.getColumn(), STRING_SERIALIZER);
+    }
+    else if (mutation.getValue() instanceof String) {
+      mutator.addInsertion(key, mutation.getColumnFamily(),
+          HFactory.createColumn(mutation.getColumn(), (String) mutation.getValue(), STRING_SERIALIZER, STRING_SERIALIZER));
+    }
+    else {
+      // the value was encoded by _valueSerializer when it was buffered
+      mutator.addInsertion(key, mutation.getColumnFamily(),
+          HFactory.createColumn(mutation.getColumn(), mutation.getBytes(), STRING_SERIALIZER, BYTES_SERIALIZER));
+    }
+  }
+
+  @Override
+  public void startTx() {
+    _buffer.startTx();
+  }
+
+  @Override
+  public void commitTx() {
+    _buffer.commitTx();
+  }
+
+  @Override
+  public void rollbackTx() {
+    _buffer.rollbackTx();
+  }
+
   @Override
   public void destroy() {
+    _buffer.destroy();
     _cluster.getConnectionManager().shutdown();
     HFactory.shutdownCluster(_cluster);
     _keyspace = null;
     _cluster = null;
   }
 
+  /**
+   * @return the column as it is in the write buffer, null if it has been deleted.
+   */
+  private HColumn<String, Object> toColumn(Mutation mutation) {
+    if (mutation.isDeletion()) {
+      return null;
+    }
+    return HFactory.createColumn(mutation.getColumn(), mutation.getValue(), STRING_SERIALIZER, _valueSerializer);
+  }
+
   protected HColumn<String, Object> queryResultByObjectKey(Object key, String columnFamily, String columnName) {
+    Mutation buffered = _buffer.lookup(key, columnFamily, columnName);
+    if (buffered != null) {
+      return toColumn(buffered);
+    }
     ColumnQuery<Object, String, Object> createColumnQuery = HFactory.createColumnQuery(_keyspace, OBJECT_SERIALIZER,
-        STRING_SERIALIZER, OBJECT_SERIALIZER);
+        STRING_SERIALIZER, _valueSerializer);
     createColumnQuery.setColumnFamily(columnFamily);
     createColumnQuery.setKey(key);
     createColumnQuery.setName(columnName);
@@ -61,8 +195,12 @@ public abstract class AbstractCassandraPresenceStore extends AbstractPresenceSto
   }
 
   protected HColumn<String, Object> queryResultByStringKey(String key, String columnFamily, String columnName) {
+    Mutation buffered = _buffer.lookup(key, columnFamily, columnName);
+    if (buffered != null) {
+      return toColumn(buffered);
+    }
     ColumnQuery<String, String, Object> createColumnQuery = HFactory.createColumnQuery(_keyspace, STRING_SERIALIZER,
-        STRING_SERIALIZER, OBJECT_SERIALIZER);
+        STRING_SERIALIZER, _valueSerializer);
     createColumnQuery.setColumnFamily(columnFamily);
     createColumnQuery.setKey(key);
     createColumnQuery.setName(columnName);
@@ -71,12 +209,65 @@ public abstract class AbstractCassandraPresenceStore extends AbstractPresenceSto
     return queryResult.get();
   }
   
-  protected QueryResult<ColumnSlice<String, Object>> queryRowByStringKey(String key, String columnFamily) {
-    SliceQuery<String, String, Object> createSliceQuery = HFactory.createSliceQuery(_keyspace, STRING_SERIALIZER, STRING_SERIALIZER, OBJECT_SERIALIZER);
+  /**
+   * @return the columns of the row, including the mutations that have not been
+   *         written yet.
+   */
+  protected List<HColumn<String, Object>> queryRowByStringKey(String key, String columnFamily) {
+    SliceQuery<String, String, Object> createSliceQuery = HFactory.createSliceQuery(_keyspace, STRING_SERIALIZER, STRING_SERIALIZER, _valueSerializer);
     createSliceQuery.setColumnFamily(columnFamily);
     createSliceQuery.setKey(key);
     createSliceQuery.setRange(null, null, false, 100);
-    return createSliceQuery.execute();
+    QueryResult<ColumnSlice<String, Object>> result = createSliceQuery.execute();
+    List<HColumn<String, Object>> columns = result != null && result.get() != null ? result.get().getColumns()
+        : new ArrayList<HColumn<String, Object>>(0);
+    if (_buffer.lookupRow(key, columnFamily).isEmpty()) {
+      return columns;
+    }
+    Map<String, Object> stored = new LinkedHashMap<String, Object>();
+    for (HColumn<String, Object> column : columns) {
+      stored.put(column.getName(), column.getValue());
+    }
+    List<HColumn<String, Object>> retv = new ArrayList<HColumn<String, Object>>();
+    for (Map.Entry<String, Object> entry : _buffer.merge(key, columnFamily, stored).entrySet()) {
+      retv.add(HFactory.createColumn(entry.getKey(), entry.getValue(), STRING_SERIALIZER, _valueSerializer));
+    }
+    return retv;
+  }
+
+  /**
+   * Reads the columns of all the rows of the column family, a page of rows at
+   * a time. Unlike the other queries it ignores the mutations that have not
+   * been written yet, there are none when the store has just been initialized.
+   */
+  protected <K> List<HColumn<String, Object>> queryAllColumns(Serializer<K> keySerializer, String columnFamily) {
+    List<HColumn<String, Object>> retv = new ArrayList<HColumn<String, Object>>();
+    K start = null;
+    while (true) {
+      RangeSlicesQuery<K, String, Object> query = HFactory.createRangeSlicesQuery(_keyspace, keySerializer,
+          STRING_SERIALIZER, _valueSerializer);
+      query.setColumnFamily(columnFamily);
+      query.setKeys(start, null);
+      query.setRange(null, null, false, 100);
+      query.setRowCount(ROW_PAGE_SIZE);
+      QueryResult<OrderedRows<K, String, Object>> result = query.execute();
+      if (result == null || result.get() == null) {
+        return retv;
+      }
+      List<Row<K, String, Object>> rows = result.get().getList();
+      for (Row<K, String, Object> row : rows) {
+        // the first row of a page is the last one of the previous page
+        if (start != null && start.equals(row.getKey())) {
+          continue;
+        }
+        // deleted rows come back without columns
+        retv.addAll(row.getColumnSlice().getColumns());
+      }
+      if (rows.size() < ROW_PAGE_SIZE) {
+        return retv;
+      }
+      start = rows.get(rows.size() - 1).getKey();
+    }
   }
 
   protected Mutator<String> getStringMutator() {
@@ -0,0 +1,65 @@
+package com.voxeo.moho.presence.impl;
+
+import java.nio.ByteBuffer;
+
+import me.prettyprint.cassandra.serializers.AbstractSerializer;
+
+import com.voxeo.moho.common.codec.BinaryCodecRegistry;
+import com.voxeo.moho.common.util.MutationBuffer;
+
+/**
+ * Column value serializer that uses the binary codec of a value if there is
+ * one. Values without a codec, and columns written by the old
+ * {@link me.prettyprint.cassandra.serializers.ObjectSerializer}, are read and
+ * written with Java serialization.
+ * <p>
+ * During a rolling upgrade the codecs can be turned off for writing, so that
+ * the nodes that have not been upgraded yet can read what is written.
+ */
+public class CodecSerializer extends AbstractSerializer<Object> implements MutationBuffer.Codec {
+
+  private final BinaryCodecRegistry _registry;
+
+  private final boolean _encode;
+
+  /**
+   * @param encode
+   *          false to keep writing Java serialization, both formats are read.
+   */
+  public CodecSerializer(BinaryCodecRegistry registry, boolean encode) {
+    _registry = registry;
+    _encode = encode;
+  }
+
+  public BinaryCodecRegistry getRegistry() {
+    return _registry;
+  }
+
+  @Override
+  public ByteBuffer toByteBuffer(Object obj) {
+    if (obj == null) {
+      return null;
+    }
+    return ByteBuffer.wrap(encode(obj));
+  }
+
+  @Override
+  public byte[] encode(Object value) {
+    return _encode ? _registry.toBytes(value) : BinaryCodecRegistry.serialize(value);
+  }
+
+  @Override
+  public Object decode(byte[] bytes) {
+    return _registry.fromBytes(bytes);
+  }
+
+  @Override
+  public Object fromByteBuffer(ByteBuffer byteBuffer) {
+    if (byteBuffer == null || !byteBuffer.hasRemaining()) {
+      return null;
+    }
+    byte[] bytes = new byte[byteBuffer.remaining()];
+    byteBuffer.duplicate().get(bytes);
+    return _registry.fromBytes(bytes);
+  }
+}
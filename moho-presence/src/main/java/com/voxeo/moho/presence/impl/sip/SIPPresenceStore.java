@@ -1,5 +1,6 @@
 package com.voxeo.moho.presence.impl.sip;
 
+import java.util.Collection;
 import java.util.List;
 
 import com.voxeo.moho.event.SubscribeEvent.SubscriptionContext;
@@ -31,6 +32,23 @@ public interface SIPPresenceStore extends PresenceStore {
 
   EventSoftState getEventSoftState(String resourceUri, String entityTag);
 
+  /**
+   * @return the soft states published for the resource, by all publishers.
+   */
+  Collection<EventSoftState> getEventSoftStates(String resourceUri);
+
+  /**
+   * @return all the subscriptions in the store, read once on start to schedule
+   *         their expiry.
+   */
+  Collection<SubscriptionContext> getAllSubscriptions();
+
+  /**
+   * @return all the soft states in the store, read once on start to schedule
+   *         their expiry.
+   */
+  Collection<EventSoftState> getAllEventSoftStates();
+
   boolean removeEventSoftState(EventSoftState state);
 
   void addEventSoftState(EventSoftState state);
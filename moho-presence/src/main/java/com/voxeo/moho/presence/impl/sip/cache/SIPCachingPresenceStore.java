@@ -0,0 +1,220 @@
+package com.voxeo.moho.presence.impl.sip.cache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import com.voxeo.moho.common.util.NearCache;
+import com.voxeo.moho.event.SubscribeEvent.SubscriptionContext;
+import com.voxeo.moho.presence.NotifyBody;
+import com.voxeo.moho.presence.Resource;
+import com.voxeo.moho.presence.SubscriptionID;
+import com.voxeo.moho.presence.impl.AbstractCachingPresenceStore;
+import com.voxeo.moho.presence.impl.sip.SIPPresenceStore;
+import com.voxeo.moho.presence.impl.sip.memory.SIPMemoryPresenceStore;
+import com.voxeo.moho.presence.sip.EventSoftState;
+import com.voxeo.moho.presence.sip.SIPPresenceService;
+import com.voxeo.moho.presence.sip.SIPResource;
+import com.voxeo.moho.presence.sip.impl.SIPSubscriptionContextImpl;
+import com.voxeo.moho.sip.SIPSubscribeEvent.SIPSubscriptionContext;
+
+/**
+ * Near cache in front of a {@link SIPPresenceStore}, typically the Cassandra
+ * store. Caches the resources, subscriptions, subscription lists, notify
+ * bodies and soft states read while handling PUBLISH and SUBSCRIBE. Like
+ * {@link com.voxeo.moho.presence.impl.xmpp.cache.XMPPCachingPresenceStore}, it
+ * hands out clones of the cached values, as the callers modify them before
+ * writing them back. Notify bodies are immutable and shared.
+ */
+public class SIPCachingPresenceStore extends AbstractCachingPresenceStore<SIPPresenceStore> implements
+    SIPPresenceStore {
+
+  private NearCache<String, Resource> _resources;
+
+  private NearCache<SubscriptionID, SubscriptionContext> _subscriptions;
+
+  private NearCache<String, List<SubscriptionID>> _subscriptionLists;
+
+  private NearCache<String, NotifyBody> _notifyBodies;
+
+  private NearCache<String, EventSoftState> _softStates;
+
+  @Override
+  public void init(Map<String, String> props) {
+    super.init(props);
+    _resources = createCache("resources");
+    _subscriptions = createCache("subscriptions");
+    _subscriptionLists = createCache("subscriptionLists");
+    _notifyBodies = createCache("notifyBodies");
+    _softStates = createCache("softStates");
+  }
+
+  @Override
+  protected String getDelegateProperty() {
+    return SIPPresenceService.STORE_CACHE_DELEGATE;
+  }
+
+  @Override
+  protected String getSizeProperty() {
+    return SIPPresenceService.STORE_CACHE_SIZE;
+  }
+
+  @Override
+  protected String getTTLProperty() {
+    return SIPPresenceService.STORE_CACHE_TTL;
+  }
+
+  @Override
+  protected Class<? extends SIPPresenceStore> getDefaultDelegate() {
+    return SIPMemoryPresenceStore.class;
+  }
+
+  @Override
+  public SubscriptionContext getSubscription(SubscriptionID subId) {
+    SubscriptionContext retv = _subscriptions.get(subId);
+    if (retv == null) {
+      long stamp = _subscriptions.stamp(subId);
+      retv = _delegate.getSubscription(subId);
+      if (!(retv instanceof SIPSubscriptionContextImpl)) {
+        // can't be copied
+        return retv;
+      }
+      cache(_subscriptions, subId, retv, stamp);
+    }
+    return ((SIPSubscriptionContextImpl) retv).clone();
+  }
+
+  @Override
+  public void addSubscription(SubscriptionContext context) {
+    _delegate.addSubscription(context);
+    invalidateSubscription(context);
+  }
+
+  @Override
+  public void updateSubscripton(SubscriptionContext context) {
+    _delegate.updateSubscripton(context);
+    invalidateSubscription(context);
+  }
+
+  @Override
+  public void removeSubscription(SubscriptionContext context) {
+    _delegate.removeSubscription(context);
+    invalidateSubscription(context);
+  }
+
+  private void invalidateSubscription(SubscriptionContext context) {
+    SIPSubscriptionContext sipContext = (SIPSubscriptionContext) context;
+    invalidate(_subscriptions, context.getId());
+    invalidate(_subscriptionLists,
+        key(context.getSubscribee(), sipContext.getEventName(), sipContext.getNotifyBodyType()));
+  }
+
+  @Override
+  public Collection<SubscriptionContext> getAllSubscriptions() {
+    return _delegate.getAllSubscriptions();
+  }
+
+  @Override
+  public boolean isSubscriptionExist(SubscriptionContext context) {
+    // loads the subscription that is usually read next
+    return getSubscription((SubscriptionID) context.getId()) != null;
+  }
+
+  @Override
+  public Resource getResource(String resourceUri, String eventName) {
+    String key = key(resourceUri, eventName);
+    Resource retv = _resources.get(key);
+    if (retv == null) {
+      long stamp = _resources.stamp(key);
+      retv = _delegate.getResource(resourceUri, eventName);
+      cache(_resources, key, retv, stamp);
+    }
+    return retv != null ? retv.clone() : null;
+  }
+
+  @Override
+  public void addResource(Resource resource) {
+    _delegate.addResource(resource);
+    invalidate(_resources, key(resource.getUri(), ((SIPResource) resource).getEventName()));
+  }
+
+  @Override
+  public void updateResource(Resource resource) {
+    _delegate.updateResource(resource);
+    invalidate(_resources, key(resource.getUri(), ((SIPResource) resource).getEventName()));
+  }
+
+  @Override
+  public NotifyBody getNotifyBody(String resourceUri, String eventName, String notifyBodyType) {
+    String key = key(resourceUri, eventName, notifyBodyType);
+    NotifyBody retv = _notifyBodies.get(key);
+    if (retv == null) {
+      long stamp = _notifyBodies.stamp(key);
+      retv = _delegate.getNotifyBody(resourceUri, eventName, notifyBodyType);
+      cache(_notifyBodies, key, retv, stamp);
+    }
+    return retv;
+  }
+
+  @Override
+  public void addNotifyBody(String resourceUri, String eventName, String notifyBodyType, NotifyBody notifyBody) {
+    _delegate.addNotifyBody(resourceUri, eventName, notifyBodyType, notifyBody);
+    invalidate(_notifyBodies, key(resourceUri, eventName, notifyBodyType));
+  }
+
+  @Override
+  public EventSoftState getEventSoftState(String resourceUri, String entityTag) {
+    String key = key(resourceUri, entityTag);
+    EventSoftState retv = _softStates.get(key);
+    if (retv == null) {
+      long stamp = _softStates.stamp(key);
+      retv = _delegate.getEventSoftState(resourceUri, entityTag);
+      cache(_softStates, key, retv, stamp);
+    }
+    return retv != null ? retv.clone() : null;
+  }
+
+  @Override
+  public Collection<EventSoftState> getEventSoftStates(String resourceUri) {
+    return _delegate.getEventSoftStates(resourceUri);
+  }
+
+  @Override
+  public Collection<EventSoftState> getAllEventSoftStates() {
+    return _delegate.getAllEventSoftStates();
+  }
+
+  @Override
+  public boolean removeEventSoftState(EventSoftState state) {
+    boolean retv = _delegate.removeEventSoftState(state);
+    invalidateSoftState(state);
+    return retv;
+  }
+
+  @Override
+  public void addEventSoftState(EventSoftState state) {
+    _delegate.addEventSoftState(state);
+    invalidateSoftState(state);
+  }
+
+  private void invalidateSoftState(EventSoftState state) {
+    invalidate(_softStates, key(state.getResourceURL(), state.getEntityTag()));
+    // a refresh changes the entity tag of the cached instance
+    if (state.getBeforeEntityTag() != null) {
+      invalidate(_softStates, key(state.getResourceURL(), state.getBeforeEntityTag()));
+    }
+  }
+
+  @Override
+  public List<SubscriptionID> getSubscriptions(String resourceUri, String event, String notifyBodyType) {
+    String key = key(resourceUri, event, notifyBodyType);
+    List<SubscriptionID> retv = _subscriptionLists.get(key);
+    if (retv == null) {
+      long stamp = _subscriptionLists.stamp(key);
+      retv = _delegate.getSubscriptions(resourceUri, event, notifyBodyType);
+      cache(_subscriptionLists, key, retv, stamp);
+    }
+    return retv != null ? new ArrayList<SubscriptionID>(retv) : null;
+  }
+}
@@ -1,14 +1,14 @@
 package com.voxeo.moho.presence.impl.sip.cassandra;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
 import me.prettyprint.hector.api.beans.HColumn;
-import me.prettyprint.hector.api.factory.HFactory;
-import me.prettyprint.hector.api.mutation.Mutator;
 
+import com.voxeo.moho.common.codec.BinaryCodecRegistry;
 import com.voxeo.moho.event.SubscribeEvent.SubscriptionContext;
 import com.voxeo.moho.presence.NotifyBody;
 import com.voxeo.moho.presence.Resource;
@@ -18,6 +18,7 @@ import com.voxeo.moho.presence.impl.sip.SIPPresenceStore;
 import com.voxeo.moho.presence.sip.EventSoftState;
 import com.voxeo.moho.presence.sip.SIPResource;
 import com.voxeo.moho.presence.sip.impl.SIPConstans;
+import com.voxeo.moho.presence.sip.impl.SIPPresenceCodecs;
 import com.voxeo.moho.sip.SIPSubscribeEvent.SIPSubscriptionContext;
 
 public class SIPCassandraPresenceStore extends AbstractCassandraPresenceStore implements SIPPresenceStore {
@@ -39,6 +40,11 @@ public class SIPCassandraPresenceStore extends AbstractCassandraPresenceStore im
     super.init(props);
   }
 
+  @Override
+  protected void registerCodecs(BinaryCodecRegistry registry) {
+    SIPPresenceCodecs.register(registry);
+  }
+
   @Override
   public void addSubscription(SubscriptionContext context) {
     insertSubscription(context);
@@ -51,19 +57,26 @@ public class SIPCassandraPresenceStore extends AbstractCassandraPresenceStore im
   }
   
   private void insertSubscription(SubscriptionContext context) {
-    Mutator<Object> mutator = getObjectMutator();
-    mutator.addInsertion(context.getId(), SUBSCRIPTION_COLUMN_FAMILY_NAME, HFactory.createColumn("value", context, STRING_SERIALIZER, OBJECT_SERIALIZER));
-    mutator.execute();
+    _buffer.insert(context.getId(), SUBSCRIPTION_COLUMN_FAMILY_NAME, "value", context);
   }
   
   @Override
   public void removeSubscription(SubscriptionContext context) {
-    Mutator<Object> mutator = getObjectMutator();
-    mutator.addDeletion(context.getId(), SUBSCRIPTION_COLUMN_FAMILY_NAME);
-    mutator.execute();
+    _buffer.deleteRow(context.getId(), SUBSCRIPTION_COLUMN_FAMILY_NAME);
     removeResourceSubRelation(context);
   }
 
+  @Override
+  public Collection<SubscriptionContext> getAllSubscriptions() {
+    List<SubscriptionContext> retv = new ArrayList<SubscriptionContext>();
+    for (HColumn<String, Object> column : queryAllColumns(OBJECT_SERIALIZER, SUBSCRIPTION_COLUMN_FAMILY_NAME)) {
+      SubscriptionContext context = (SubscriptionContext) column.getValue();
+      triggerRetrieveListener(SubscriptionContext.class, context);
+      retv.add(context);
+    }
+    return retv;
+  }
+
   @Override
   public boolean isSubscriptionExist(SubscriptionContext context) {
     return querySubscription(context.getId()) != null;
@@ -86,9 +99,7 @@ public class SIPCassandraPresenceStore extends AbstractCassandraPresenceStore im
   }
   
   private void insertResource(Resource resource) {
-    Mutator<String> mutator = getStringMutator();
-    mutator.addInsertion(resource.getUri(), RESOURCE_COLUMN_FAMILY_NAME, HFactory.createColumn(((SIPResource)resource).getEventName(), resource, STRING_SERIALIZER, OBJECT_SERIALIZER));
-    mutator.execute();
+    _buffer.insert(resource.getUri(), RESOURCE_COLUMN_FAMILY_NAME, ((SIPResource) resource).getEventName(), resource);
   }
 
   @Override
@@ -105,23 +116,6 @@ public class SIPCassandraPresenceStore extends AbstractCassandraPresenceStore im
     throw new IllegalArgumentException("Can't find notify body for event[" + eventName + "]");
   }
 
-  @Override
-  public void startTx() {
-    //TODO
-  }
-
-  @Override
-  public void commitTx() {
-    // TODO Auto-generated method stub
-    
-  }
-
-  @Override
-  public void rollbackTx() {
-    // TODO Auto-generated method stub
-    
-  }
-
   @Override
   public void destroy() {
     super.destroy();
@@ -132,25 +126,34 @@ public class SIPCassandraPresenceStore extends AbstractCassandraPresenceStore im
     return (EventSoftState) (eventSoftState == null ? null : eventSoftState.getValue());
   }
 
+  public Collection<EventSoftState> getEventSoftStates(String resourceUri) {
+    List<EventSoftState> retv = new ArrayList<EventSoftState>();
+    for (HColumn<String, Object> column : queryRowByStringKey(resourceUri, EVENT_SOFT_STATE_COLUMN_FAMILY_NAME)) {
+      retv.add((EventSoftState) column.getValue());
+    }
+    return retv;
+  }
+
+  public Collection<EventSoftState> getAllEventSoftStates() {
+    List<EventSoftState> retv = new ArrayList<EventSoftState>();
+    for (HColumn<String, Object> column : queryAllColumns(STRING_SERIALIZER, EVENT_SOFT_STATE_COLUMN_FAMILY_NAME)) {
+      retv.add((EventSoftState) column.getValue());
+    }
+    return retv;
+  }
+
   public boolean removeEventSoftState(EventSoftState state) {
-    Mutator<String> mutator = getStringMutator();
-    mutator.addDeletion(state.getResourceURL(), SUBSCRIPTION_COLUMN_FAMILY_NAME);
-    mutator.execute();
+    _buffer.delete(state.getResourceURL(), EVENT_SOFT_STATE_COLUMN_FAMILY_NAME, state.getEntityTag());
     return true;
   }
 
   public void addEventSoftState(EventSoftState state) {
-    Mutator<String> mutator = getStringMutator();
-    mutator.addInsertion(state.getResourceURL(), EVENT_SOFT_STATE_COLUMN_FAMILY_NAME, HFactory.createColumn(state.getEntityTag(), state, STRING_SERIALIZER, OBJECT_SERIALIZER));
-    mutator.execute();
+    _buffer.insert(state.getResourceURL(), EVENT_SOFT_STATE_COLUMN_FAMILY_NAME, state.getEntityTag(), state);
   }
 
   public void addNotifyBody(String resourceUri, String eventName, String notifyBodyType, NotifyBody notifyBody) {
     if (SIPConstans.EVENT_NAME_PRESENCE.equals(eventName)) {
-      Mutator<String> mutator = getStringMutator();
-      mutator.addInsertion(resourceUri, PRESENCE_NB_COLUMN_FAMILY_NAME, HFactory.createColumn(
-          notifyBodyType, notifyBody, STRING_SERIALIZER, OBJECT_SERIALIZER));
-      mutator.execute();
+      _buffer.insert(resourceUri, PRESENCE_NB_COLUMN_FAMILY_NAME, notifyBodyType, notifyBody);
     }
     else {
       throw new IllegalArgumentException("Can't save notify body for event[" + eventName + "]");
@@ -181,9 +184,7 @@ public class SIPCassandraPresenceStore extends AbstractCassandraPresenceStore im
       idList = new ArrayList<SubscriptionID>();
     }
     idList.add((SubscriptionID) context.getId());
-    Mutator<String> mutator = getStringMutator();
-    mutator.addInsertion(context.getSubscribee(), RESOURCE_SUB_COLUMN_FAMILY_NAME, HFactory.createColumn(notifyBodyType, idList, STRING_SERIALIZER, OBJECT_SERIALIZER));
-    mutator.execute();
+    _buffer.insert(context.getSubscribee(), RESOURCE_SUB_COLUMN_FAMILY_NAME, notifyBodyType, idList);
   }
   
   private void removeResourceSubRelation(SubscriptionContext context) {
@@ -197,9 +198,7 @@ public class SIPCassandraPresenceStore extends AbstractCassandraPresenceStore im
     else {
       return;
     }
-    Mutator<String> mutator = getStringMutator();
-    mutator.addInsertion(context.getSubscribee(), RESOURCE_SUB_COLUMN_FAMILY_NAME, HFactory.createColumn(notifyBodyType, idList, STRING_SERIALIZER, OBJECT_SERIALIZER));
-    mutator.execute();
+    _buffer.insert(context.getSubscribee(), RESOURCE_SUB_COLUMN_FAMILY_NAME, notifyBodyType, idList);
   }
 
   public SubscriptionContext getSubscription(SubscriptionID subId) {
@@ -1,11 +1,12 @@
 package com.voxeo.moho.presence.impl.sip.memory;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import com.voxeo.moho.event.SubscribeEvent.SubscriptionContext;
 import com.voxeo.moho.presence.NotifyBody;
@@ -18,23 +19,54 @@ import com.voxeo.moho.presence.sip.SIPPresenceResource;
 import com.voxeo.moho.presence.sip.impl.SIPConstans;
 import com.voxeo.moho.sip.SIPSubscribeEvent.SIPSubscriptionContext;
 
+/**
+ * In memory SIP presence store, safe for concurrent SUBSCRIBEs and PUBLISHes.
+ * <p>
+ * The per resource maps are concurrent maps too. The subscription lists are
+ * immutable and replaced by compare and set on every change, so
+ * {@link #getSubscriptions(String, String, String)} returns them without
+ * locking or copying, as a snapshot the caller can iterate while they change.
+ */
 public class SIPMemoryPresenceStore extends AbstractPresenceStore implements SIPPresenceStore {
   
   
-  private Map<SubscriptionID, SubscriptionContext> _subscriptions = new ConcurrentHashMap<SubscriptionID, SubscriptionContext>();
+  private ConcurrentMap<SubscriptionID, SubscriptionContext> _subscriptions = new ConcurrentHashMap<SubscriptionID, SubscriptionContext>();
   
   //<resourceUri, <notifyBodyType, List<SubID>>>
-  private Map<String, HashMap<String, ArrayList<SubscriptionID>>> _resourceVsSubcribtion = new ConcurrentHashMap<String, HashMap<String,ArrayList<SubscriptionID>>>();
+  private ConcurrentMap<String, ConcurrentMap<String, List<SubscriptionID>>> _resourceVsSubcribtion = new ConcurrentHashMap<String, ConcurrentMap<String, List<SubscriptionID>>>();
   
   //Presence event
   //<resourceUri, <notifyBodyType, notifyBody>>
-  private Map<String, HashMap<String, NotifyBody>> _presenceNotifyBodys = new ConcurrentHashMap<String, HashMap<String, NotifyBody>>();
+  private ConcurrentMap<String, ConcurrentMap<String, NotifyBody>> _presenceNotifyBodys = new ConcurrentHashMap<String, ConcurrentMap<String, NotifyBody>>();
   
   //<resourceUri, <eventName, Resource>>
-  private Map<String, HashMap<String, Resource>> _resources = new ConcurrentHashMap<String, HashMap<String,Resource>>();
+  private ConcurrentMap<String, ConcurrentMap<String, Resource>> _resources = new ConcurrentHashMap<String, ConcurrentMap<String, Resource>>();
   
   //<resourceUri, <entity, EventSoftState>>
-  private Map<String, HashMap<String, EventSoftState>> _softStates = new ConcurrentHashMap<String, HashMap<String,EventSoftState>>();
+  private ConcurrentMap<String, ConcurrentMap<String, EventSoftState>> _softStates = new ConcurrentHashMap<String, ConcurrentMap<String, EventSoftState>>();
+
+  /**
+   * @return the map of the key, created if there is none yet.
+   */
+  private static <V> ConcurrentMap<String, V> inner(ConcurrentMap<String, ConcurrentMap<String, V>> outer, String key) {
+    ConcurrentMap<String, V> retv = outer.get(key);
+    if (retv == null) {
+      ConcurrentMap<String, V> created = new ConcurrentHashMap<String, V>(4, 0.75f, 4);
+      retv = outer.putIfAbsent(key, created);
+      if (retv == null) {
+        retv = created;
+      }
+    }
+    return retv;
+  }
+
+  private static <V> V get(ConcurrentMap<String, ConcurrentMap<String, V>> outer, String key, String innerKey) {
+    ConcurrentMap<String, V> inner = outer.get(key);
+    if (inner != null) {
+      return inner.get(innerKey);
+    }
+    return null;
+  }
 
   @Override
   public void init(Map<String, String> props) {
@@ -43,11 +75,7 @@ public class SIPMemoryPresenceStore extends AbstractPresenceStore implements SIP
 
   @Override
   public Resource getResource(String resourceUri, String eventName) {
-    HashMap<String, Resource> resources = _resources.get(resourceUri);
-    if (resources != null) {
-      return resources.get(eventName);
-    }
-    return null;
+    return get(_resources, resourceUri, eventName);
   }
 
   @Override
@@ -58,19 +86,30 @@ public class SIPMemoryPresenceStore extends AbstractPresenceStore implements SIP
 
   @Override
   public void addSubscription(SubscriptionContext context) {
-    _subscriptions.put((SubscriptionID) context.getId(), context);
-    HashMap<String, ArrayList<SubscriptionID>> bodytypeVsId = _resourceVsSubcribtion.get(context.getSubscribee());
-    if (bodytypeVsId == null) {
-      bodytypeVsId = new HashMap<String, ArrayList<SubscriptionID>>();
-      _resourceVsSubcribtion.put(context.getSubscribee(), bodytypeVsId);
-    }
+    SubscriptionID id = (SubscriptionID) context.getId();
+    _subscriptions.put(id, context);
+    ConcurrentMap<String, List<SubscriptionID>> bodytypeVsId = inner(_resourceVsSubcribtion, context.getSubscribee());
     String notifyBodyType = ((SIPSubscriptionContext) context).getNotifyBodyType();
-    ArrayList<SubscriptionID> idList = bodytypeVsId.get(notifyBodyType);
-    if (idList == null) {
-      idList = new ArrayList<SubscriptionID>();
-      bodytypeVsId.put(notifyBodyType, idList);
+    while (true) {
+      List<SubscriptionID> idList = bodytypeVsId.get(notifyBodyType);
+      if (idList == null) {
+        if (bodytypeVsId.putIfAbsent(notifyBodyType, Collections.singletonList(id)) == null) {
+          return;
+        }
+      }
+      else if (idList.contains(id)) {
+        // a refresh
+        return;
+      }
+      else {
+        List<SubscriptionID> newList = new ArrayList<SubscriptionID>(idList.size() + 1);
+        newList.addAll(idList);
+        newList.add(id);
+        if (bodytypeVsId.replace(notifyBodyType, idList, Collections.unmodifiableList(newList))) {
+          return;
+        }
+      }
     }
-    idList.add((SubscriptionID) context.getId());
   }
 
   @Override
@@ -80,21 +119,38 @@ public class SIPMemoryPresenceStore extends AbstractPresenceStore implements SIP
 
   @Override
   public void removeSubscription(SubscriptionContext context) {
-    _subscriptions.remove(context.getId());
-    HashMap<String, ArrayList<SubscriptionID>> bodytypeVsId = _resourceVsSubcribtion.get(context.getSubscribee());
-    if (bodytypeVsId != null) {
-      ArrayList<SubscriptionID> idList = bodytypeVsId.get(((SIPSubscriptionContext) context).getNotifyBodyType());
-      if (idList != null) {
-        idList.remove((SubscriptionID) context.getId());
+    SubscriptionID id = (SubscriptionID) context.getId();
+    _subscriptions.remove(id);
+    ConcurrentMap<String, List<SubscriptionID>> bodytypeVsId = _resourceVsSubcribtion.get(context.getSubscribee());
+    if (bodytypeVsId == null) {
+      return;
+    }
+    String notifyBodyType = ((SIPSubscriptionContext) context).getNotifyBodyType();
+    while (true) {
+      List<SubscriptionID> idList = bodytypeVsId.get(notifyBodyType);
+      if (idList == null || !idList.contains(id)) {
+        return;
+      }
+      if (idList.size() == 1) {
+        if (bodytypeVsId.remove(notifyBodyType, idList)) {
+          return;
+        }
+      }
+      else {
+        List<SubscriptionID> newList = new ArrayList<SubscriptionID>(idList);
+        newList.remove(id);
+        if (bodytypeVsId.replace(notifyBodyType, idList, Collections.unmodifiableList(newList))) {
+          return;
+        }
       }
     }
   }
   
   public List<SubscriptionID> getSubscriptions(String resourceUri, String event, String notifyBodyType) {
     if (SIPConstans.EVENT_NAME_PRESENCE.equals(event)) {
-      HashMap<String, ArrayList<SubscriptionID>> bodytypeVsId = _resourceVsSubcribtion.get(resourceUri);
-      if (bodytypeVsId != null) {
-        return bodytypeVsId.get(notifyBodyType);
+      List<SubscriptionID> idList = get(_resourceVsSubcribtion, resourceUri, notifyBodyType);
+      if (idList != null) {
+        return idList;
       }
       return Collections.emptyList();
     }
@@ -107,6 +163,11 @@ public class SIPMemoryPresenceStore extends AbstractPresenceStore implements SIP
     return _subscriptions.get(subId);
   }
 
+  @Override
+  public Collection<SubscriptionContext> getAllSubscriptions() {
+    return new ArrayList<SubscriptionContext>(_subscriptions.values());
+  }
+
   @Override
   public boolean isSubscriptionExist(SubscriptionContext context) {
     return _subscriptions.containsKey(context.getId());
@@ -118,16 +179,11 @@ public class SIPMemoryPresenceStore extends AbstractPresenceStore implements SIP
   }
   
   public void addEventSoftState(EventSoftState state) {
-    HashMap<String, EventSoftState> eventNameVsStates = _softStates.get(state.getResourceURL());
-    if (eventNameVsStates == null) {
-      eventNameVsStates = new HashMap<String, EventSoftState>();
-      _softStates.put(state.getResourceURL(), eventNameVsStates);
-    }
-    eventNameVsStates.put(state.getEntityTag(), state);
+    inner(_softStates, state.getResourceURL()).put(state.getEntityTag(), state);
   }
   
   public boolean removeEventSoftState(EventSoftState state) {
-    HashMap<String, EventSoftState> eventNameVsStates = _softStates.get(state.getResourceURL());
+    ConcurrentMap<String, EventSoftState> eventNameVsStates = _softStates.get(state.getResourceURL());
     if (eventNameVsStates != null) {
       eventNameVsStates.remove(state.getEntityTag());
       return true;
@@ -136,32 +192,36 @@ public class SIPMemoryPresenceStore extends AbstractPresenceStore implements SIP
   }
   
   public EventSoftState getEventSoftState(String resourceUri, String entityTag) {
-    HashMap<String, EventSoftState> eventNameVsStates = _softStates.get(resourceUri);
+    return get(_softStates, resourceUri, entityTag);
+  }
+
+  public Collection<EventSoftState> getEventSoftStates(String resourceUri) {
+    ConcurrentMap<String, EventSoftState> eventNameVsStates = _softStates.get(resourceUri);
     if (eventNameVsStates != null) {
-      return eventNameVsStates.get(entityTag);
+      return new ArrayList<EventSoftState>(eventNameVsStates.values());
     }
-    return null;
+    return Collections.emptyList();
+  }
+
+  @Override
+  public Collection<EventSoftState> getAllEventSoftStates() {
+    List<EventSoftState> retv = new ArrayList<EventSoftState>();
+    for (ConcurrentMap<String, EventSoftState> eventNameVsStates : _softStates.values()) {
+      retv.addAll(eventNameVsStates.values());
+    }
+    return retv;
   }
 
   public NotifyBody getNotifyBody(String resourceUri, String eventName, String notifyBodyType) {
     if (SIPConstans.EVENT_NAME_PRESENCE.equals(eventName)) {
-      HashMap<String, NotifyBody> bodyTyeVsNotifyBody = _presenceNotifyBodys.get(resourceUri);
-      if (bodyTyeVsNotifyBody != null) {
-        return bodyTyeVsNotifyBody.get(notifyBodyType);
-      }
-      return null;
+      return get(_presenceNotifyBodys, resourceUri, notifyBodyType);
     }
     throw new IllegalArgumentException("Can't find notify body for event[" + eventName + "]");
   }
   
   public void addNotifyBody(String resourceUri, String eventName, String notifyBodyType, NotifyBody notifyBody) {
     if (SIPConstans.EVENT_NAME_PRESENCE.equals(eventName)) {
-      HashMap<String, NotifyBody> typeVsBody = _presenceNotifyBodys.get(resourceUri);
-      if (typeVsBody == null) {
-        typeVsBody = new HashMap<String, NotifyBody>();
-        _presenceNotifyBodys.put(resourceUri, typeVsBody);
-      }
-      typeVsBody.put(notifyBodyType, notifyBody);
+      inner(_presenceNotifyBodys, resourceUri).put(notifyBodyType, notifyBody);
     }
     else {
       throw new IllegalArgumentException("Can't save notify body for event[" + eventName + "]");
@@ -190,12 +250,7 @@ public class SIPMemoryPresenceStore extends AbstractPresenceStore implements SIP
   public void addResource(Resource resource) {
     if (resource instanceof SIPPresenceResource) {
       SIPPresenceResource res = (SIPPresenceResource) resource;
-      HashMap<String, Resource> uriVsRes = _resources.get(res.getUri());
-      if (uriVsRes == null) {
-        uriVsRes = new HashMap<String, Resource>();
-        _resources.put(res.getUri(), uriVsRes);
-      }
-      uriVsRes.put(res.getEventName(), res);
+      inner(_resources, res.getUri()).put(res.getEventName(), res);
     }
     else {
       throw new IllegalArgumentException("Can't save resource for type[" + resource.getClass().getSimpleName() + "]");
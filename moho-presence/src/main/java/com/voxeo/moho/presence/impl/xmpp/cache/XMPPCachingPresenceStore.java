@@ -0,0 +1,178 @@
+package com.voxeo.moho.presence.impl.xmpp.cache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import com.voxeo.moho.common.util.NearCache;
+import com.voxeo.moho.presence.impl.AbstractCachingPresenceStore;
+import com.voxeo.moho.presence.impl.xmpp.XMPPPresenceStore;
+import com.voxeo.moho.presence.impl.xmpp.memory.XMPPMemoryPresenceStore;
+import com.voxeo.moho.presence.xmpp.Roster;
+import com.voxeo.moho.presence.xmpp.XMPPPresenceResource;
+import com.voxeo.moho.presence.xmpp.XMPPPresenceService;
+import com.voxeo.moho.presence.xmpp.XmppPendingNotification;
+
+/**
+ * Near cache in front of an {@link XMPPPresenceStore}. Like the memory store,
+ * it hands out clones of the cached resources, notifications and rosters, as
+ * the callers modify them before writing them back.
+ */
+public class XMPPCachingPresenceStore extends AbstractCachingPresenceStore<XMPPPresenceStore> implements
+    XMPPPresenceStore {
+
+  private NearCache<String, XMPPPresenceResource> _resources;
+
+  private NearCache<String, List<XMPPPresenceResource>> _bareResources;
+
+  private NearCache<String, XmppPendingNotification> _notifications;
+
+  private NearCache<String, Collection<XmppPendingNotification>> _notificationsByTo;
+
+  private NearCache<String, Roster> _rosters;
+
+  @Override
+  public void init(Map<String, String> props) {
+    super.init(props);
+    _resources = createCache("resources");
+    _bareResources = createCache("bareResources");
+    _notifications = createCache("notifications");
+    _notificationsByTo = createCache("notificationsByTo");
+    _rosters = createCache("rosters");
+  }
+
+  @Override
+  protected String getDelegateProperty() {
+    return XMPPPresenceService.STORE_CACHE_DELEGATE;
+  }
+
+  @Override
+  protected String getSizeProperty() {
+    return XMPPPresenceService.STORE_CACHE_SIZE;
+  }
+
+  @Override
+  protected String getTTLProperty() {
+    return XMPPPresenceService.STORE_CACHE_TTL;
+  }
+
+  @Override
+  protected Class<? extends XMPPPresenceStore> getDefaultDelegate() {
+    return XMPPMemoryPresenceStore.class;
+  }
+
+  @Override
+  public XMPPPresenceResource getResource(String jid) {
+    XMPPPresenceResource retv = _resources.get(jid);
+    if (retv == null) {
+      long stamp = _resources.stamp(jid);
+      retv = _delegate.getResource(jid);
+      cache(_resources, jid, retv, stamp);
+    }
+    return retv != null ? (XMPPPresenceResource) retv.clone() : null;
+  }
+
+  @Override
+  public List<XMPPPresenceResource> getResourceByBareID(String jid) {
+    List<XMPPPresenceResource> retv = _bareResources.get(jid);
+    if (retv == null) {
+      long stamp = _bareResources.stamp(jid);
+      retv = _delegate.getResourceByBareID(jid);
+      cache(_bareResources, jid, retv, stamp);
+    }
+    if (retv.isEmpty()) {
+      return retv;
+    }
+    List<XMPPPresenceResource> clones = new ArrayList<XMPPPresenceResource>(retv.size());
+    for (XMPPPresenceResource resource : retv) {
+      clones.add((XMPPPresenceResource) resource.clone());
+    }
+    return Collections.unmodifiableList(clones);
+  }
+
+  @Override
+  public void removeResource(XMPPPresenceResource resource) {
+    _delegate.removeResource(resource);
+    invalidateResource(resource);
+  }
+
+  @Override
+  public void addResource(XMPPPresenceResource resource) {
+    _delegate.addResource(resource);
+    invalidateResource(resource);
+  }
+
+  private void invalidateResource(XMPPPresenceResource resource) {
+    invalidate(_resources, resource.getUri());
+    invalidate(_bareResources, resource.getBareJID());
+  }
+
+  @Override
+  public Collection<XmppPendingNotification> getNotifyByTo(String jid) {
+    Collection<XmppPendingNotification> retv = _notificationsByTo.get(jid);
+    if (retv == null) {
+      long stamp = _notificationsByTo.stamp(jid);
+      retv = _delegate.getNotifyByTo(jid);
+      if (retv != null) {
+        // the memory store returns a view of its own map
+        retv = Collections.unmodifiableList(new ArrayList<XmppPendingNotification>(retv));
+      }
+      cache(_notificationsByTo, jid, retv, stamp);
+    }
+    return retv;
+  }
+
+  @Override
+  public XmppPendingNotification getNotification(String from, String to) {
+    String key = key(from, to);
+    XmppPendingNotification retv = _notifications.get(key);
+    if (retv == null) {
+      long stamp = _notifications.stamp(key);
+      retv = _delegate.getNotification(from, to);
+      cache(_notifications, key, retv, stamp);
+    }
+    return retv != null ? retv.clone() : null;
+  }
+
+  @Override
+  public void addNotification(XmppPendingNotification notifcation) {
+    _delegate.addNotification(notifcation);
+    invalidateNotification(notifcation);
+  }
+
+  @Override
+  public void removeNotification(XmppPendingNotification notifcation) {
+    _delegate.removeNotification(notifcation);
+    invalidateNotification(notifcation);
+  }
+
+  private void invalidateNotification(XmppPendingNotification notifcation) {
+    invalidate(_notifications, key(notifcation.getFrom(), notifcation.getTo()));
+    invalidate(_notificationsByTo, notifcation.getTo());
+  }
+
+  @Override
+  public Roster getRoster(String user) {
+    Roster retv = _rosters.get(user);
+    if (retv == null) {
+      long stamp = _rosters.stamp(user);
+      retv = _delegate.getRoster(user);
+      cache(_rosters, user, retv, stamp);
+    }
+    return retv != null ? retv.clone() : null;
+  }
+
+  @Override
+  public void addRoster(Roster roster) {
+    _delegate.addRoster(roster);
+    invalidate(_rosters, roster.getOwner());
+  }
+
+  @Override
+  public void removeRoster(Roster roster) {
+    _delegate.removeRoster(roster);
+    invalidate(_rosters, roster.getOwner());
+  }
+}
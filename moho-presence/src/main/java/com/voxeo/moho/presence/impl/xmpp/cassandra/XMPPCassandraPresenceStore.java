@@ -6,11 +6,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 
-import me.prettyprint.hector.api.beans.ColumnSlice;
 import me.prettyprint.hector.api.beans.HColumn;
-import me.prettyprint.hector.api.factory.HFactory;
-import me.prettyprint.hector.api.mutation.Mutator;
-import me.prettyprint.hector.api.query.QueryResult;
 
 import com.voxeo.moho.presence.Resource;
 import com.voxeo.moho.presence.impl.AbstractCassandraPresenceStore;
@@ -40,24 +36,6 @@ public class XMPPCassandraPresenceStore extends AbstractCassandraPresenceStore i
     super.init(props);
   }
 
-  @Override
-  public void startTx() {
-    // TODO Auto-generated method stub
-
-  }
-
-  @Override
-  public void commitTx() {
-    // TODO Auto-generated method stub
-
-  }
-
-  @Override
-  public void rollbackTx() {
-    // TODO Auto-generated method stub
-
-  }
-
   @Override
   public void destroy() {
     super.destroy();
@@ -77,13 +55,10 @@ public class XMPPCassandraPresenceStore extends AbstractCassandraPresenceStore i
   @Override
   public List<XMPPPresenceResource> getResourceByBareID(String jid) {
     List<XMPPPresenceResource> retv = new ArrayList<XMPPPresenceResource>();
-    QueryResult<ColumnSlice<String, Object>> queryRowByStringKey = queryRowByStringKey(jid, BARE_JID_RESOURCE_COLUMN_FAMILY_NAME);
-    if (queryRowByStringKey != null) {
-      for (HColumn<String, Object> hc : queryRowByStringKey.get().getColumns()) {
-        XMPPPresenceResource resource = getResource(hc.getName());
-        if (resource != null) {
-          retv.add(resource);
-        }
+    for (HColumn<String, Object> hc : queryRowByStringKey(jid, BARE_JID_RESOURCE_COLUMN_FAMILY_NAME)) {
+      XMPPPresenceResource resource = getResource(hc.getName());
+      if (resource != null) {
+        retv.add(resource);
       }
     }
     return retv;
@@ -91,43 +66,31 @@ public class XMPPCassandraPresenceStore extends AbstractCassandraPresenceStore i
 
   @Override
   public void removeResource(XMPPPresenceResource resource) {
-    Mutator<String> mutator = getStringMutator();
-    mutator.addDeletion(resource.getUri(), RESOURCE_COLUMN_FAMILY_NAME);
-    mutator.execute();
+    _buffer.deleteRow(resource.getUri(), RESOURCE_COLUMN_FAMILY_NAME);
     removeBareResources(resource.getUri(), resource.getBareJID());
   }
 
   @Override
   public void addResource(XMPPPresenceResource resource) {
-    Mutator<String> mutator = getStringMutator();
-    mutator.addInsertion(resource.getUri(), RESOURCE_COLUMN_FAMILY_NAME, HFactory.createColumn("value", resource, STRING_SERIALIZER, OBJECT_SERIALIZER));
-    mutator.execute();
+    _buffer.insert(resource.getUri(), RESOURCE_COLUMN_FAMILY_NAME, "value", resource);
     addToBareResources(resource.getUri(), resource.getBareJID());
   }
   
   private void removeBareResources(String fullJID, String bareJID) {
-    Mutator<String> mutator = getStringMutator();
-    mutator.addDeletion(bareJID, BARE_JID_RESOURCE_COLUMN_FAMILY_NAME, fullJID, STRING_SERIALIZER);
-    mutator.execute();
+    _buffer.delete(bareJID, BARE_JID_RESOURCE_COLUMN_FAMILY_NAME, fullJID);
   }
   
   private void addToBareResources(String fullJID, String bareJID) {
-    Mutator<String> mutator = getStringMutator();
-    mutator.addInsertion(bareJID, BARE_JID_RESOURCE_COLUMN_FAMILY_NAME, HFactory.createColumn(fullJID, "", STRING_SERIALIZER, STRING_SERIALIZER));
-    mutator.execute();
+    _buffer.insert(bareJID, BARE_JID_RESOURCE_COLUMN_FAMILY_NAME, fullJID, "");
   }
 
   @Override
   public Collection<XmppPendingNotification> getNotifyByTo(String jid) {
     Collection<XmppPendingNotification> retv = new HashSet<XmppPendingNotification>();
-    QueryResult<ColumnSlice<String, Object>> queryRowByStringKey = queryRowByStringKey(jid, NOTIFICATION_COLUMN_FAMILY_NAME);
-    if (queryRowByStringKey != null) {
-      List<HColumn<String, Object>> columns = queryRowByStringKey.get().getColumns();
-      for (HColumn<String, Object> hc : columns) {
-        XmppPendingNotification notify = (XmppPendingNotification) hc.getValue();
-        triggerRetrieveListener(XmppPendingNotification.class, notify);
-        retv.add(notify);
-      }
+    for (HColumn<String, Object> hc : queryRowByStringKey(jid, NOTIFICATION_COLUMN_FAMILY_NAME)) {
+      XmppPendingNotification notify = (XmppPendingNotification) hc.getValue();
+      triggerRetrieveListener(XmppPendingNotification.class, notify);
+      retv.add(notify);
     }
     return retv;
   }
@@ -145,16 +108,12 @@ public class XMPPCassandraPresenceStore extends AbstractCassandraPresenceStore i
 
   @Override
   public void addNotification(XmppPendingNotification notifcation) {
-    Mutator<String> mutator = getStringMutator();
-    mutator.addInsertion(notifcation.getTo(), NOTIFICATION_COLUMN_FAMILY_NAME, HFactory.createColumn(notifcation.getFrom(), notifcation, STRING_SERIALIZER, OBJECT_SERIALIZER));
-    mutator.execute();
+    _buffer.insert(notifcation.getTo(), NOTIFICATION_COLUMN_FAMILY_NAME, notifcation.getFrom(), notifcation);
   }
 
   @Override
   public void removeNotification(XmppPendingNotification notifcation) {
-    Mutator<String> mutator = getStringMutator();
-    mutator.addDeletion(notifcation.getTo(), NOTIFICATION_COLUMN_FAMILY_NAME, notifcation.getFrom(), STRING_SERIALIZER);
-    mutator.execute();
+    _buffer.delete(notifcation.getTo(), NOTIFICATION_COLUMN_FAMILY_NAME, notifcation.getFrom());
   }
 
   @Override
@@ -168,16 +127,12 @@ public class XMPPCassandraPresenceStore extends AbstractCassandraPresenceStore i
 
   @Override
   public void addRoster(Roster roster) {
-    Mutator<String> mutator = getStringMutator();
-    mutator.addInsertion(roster.getOwner(), ROSTER_COLUMN_FAMILY_NAME, HFactory.createColumn("value", roster, STRING_SERIALIZER, OBJECT_SERIALIZER));
-    mutator.execute();
+    _buffer.insert(roster.getOwner(), ROSTER_COLUMN_FAMILY_NAME, "value", roster);
   }
 
   @Override
   public void removeRoster(Roster roster) {
-    Mutator<String> mutator = getStringMutator();
-    mutator.addDeletion(roster.getOwner(), ROSTER_COLUMN_FAMILY_NAME);
-    mutator.execute();
+    _buffer.deleteRow(roster.getOwner(), ROSTER_COLUMN_FAMILY_NAME);
   }
 
   @Override
@@ -4,7 +4,7 @@ import java.io.Serializable;
 
 import com.voxeo.moho.presence.NotifyBody;
 
-public interface EventSoftState extends Serializable {
+public interface EventSoftState extends Serializable, Cloneable {
 
   NotifyBody getBody();
   
@@ -28,4 +28,6 @@ public interface EventSoftState extends Serializable {
 
   String getEventName();
 
+  EventSoftState clone();
+
 }
@@ -9,10 +9,39 @@ public interface SIPPresenceService extends Service, Runnable {
   
   final String STORE_IMPL = "com.voxeo.moho.presence.store.impl";
 
+  /**
+   * the store cached by {@link com.voxeo.moho.presence.impl.sip.cache.SIPCachingPresenceStore}
+   */
+  final String STORE_CACHE_DELEGATE = "com.voxeo.moho.presence.store.cache.delegate";
+
+  final String STORE_CACHE_SIZE = "com.voxeo.moho.presence.store.cache.size";
+
+  final String STORE_CACHE_TTL = "com.voxeo.moho.presence.store.cache.ttl";
+
   final String MAX_EXPIRE = "com.voxeo.moho.presence.expire.max";
+
+  /**
+   * the precision in milliseconds of subscription and soft state expiry
+   */
+  final String EXPIRE_TICK = "com.voxeo.moho.presence.expire.tick";
   
   final String MIN_EXPIRE = "com.voxeo.moho.presence.expire.min";
 
+  final String NOTIFY_CAPACITY = "com.voxeo.moho.presence.notify.capacity";
+
+  /**
+   * the minimum interval in milliseconds between two NOTIFYs of a subscription,
+   * the NOTIFYs in between are coalesced
+   */
+  final String NOTIFY_WINDOW = "com.voxeo.moho.presence.notify.window";
+
+  /**
+   * the maximum NOTIFYs per second sent to a subscriber, 0 for no limit
+   */
+  final String NOTIFY_RATE = "com.voxeo.moho.presence.notify.rate";
+
+  final String NOTIFY_MAX_IN_FLIGHT = "com.voxeo.moho.presence.notify.inflight";
+
   final String DOMAINS = "com.voxeo.moho.presence.domains";
   
   void doPublish(SIPPublishEvent event);
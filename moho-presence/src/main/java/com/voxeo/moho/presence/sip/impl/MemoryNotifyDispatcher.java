@@ -1,33 +1,132 @@
 package com.voxeo.moho.presence.sip.impl;
 
-import java.util.concurrent.BlockingQueue;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
 import java.util.concurrent.Executor;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
 
 import com.voxeo.moho.presence.NotifyDispatcher;
+import com.voxeo.moho.sip.SIPSubscribeEvent.SIPSubscriptionContext;
 
 /**
- * 
+ *
  * MemoryNotifyDispatcher from SIPoint
- * 
+ * <p>
+ * NOTIFYs are coalesced per subscription: a NOTIFY put while another one for
+ * the same subscription is still pending replaces it, as the body is read from
+ * the store when the NOTIFY is sent. A pending NOTIFY that terminates its
+ * subscription is never replaced by one that does not. A subscription is
+ * notified at most once per window, and a subscriber at most at the configured
+ * rate across all its subscriptions. A NOTIFY that terminates its subscription
+ * is sent right away.
+ * <p>
+ * {@link #put(NotifyRequest)} never blocks, as it is called from the
+ * container threads inside the store transactions. Once the capacity of
+ * subscriptions with a pending NOTIFY is used up, the NOTIFYs of other
+ * subscriptions are dropped, except the terminating ones. The dispatcher stops
+ * taking NOTIFYs while the maximum number of them are being sent. A NOTIFY the
+ * executor rejects is sent from the dispatcher thread.
  */
 public class MemoryNotifyDispatcher implements NotifyDispatcher {
   private static final Logger LOG = Logger.getLogger(MemoryNotifyDispatcher.class);
 
+  public static final long DEFAULT_WINDOW = 500;
+
+  public static final int DEFAULT_MAX_IN_FLIGHT = 32;
+
+  // the burst a subscriber can send at its rate
+  private static final long RATE_TOLERANCE = 1000;
+
+  private static final long PRUNE_INTERVAL = 1000;
+
+  // the pending NOTIFY of a subscription
+  private static final class Pending implements Delayed {
+    final Object _key;
+
+    // guarded by _lock
+    NotifyRequest _request;
+
+    // whether the request terminates the subscription, guarded by _lock
+    boolean _terminal;
+
+    final long _queued;
+
+    final long _due;
+
+    Pending(Object key, NotifyRequest request, boolean terminal, long queued, long due) {
+      _key = key;
+      _request = request;
+      _terminal = terminal;
+      _queued = queued;
+      _due = due;
+    }
+
+    @Override
+    public long getDelay(TimeUnit unit) {
+      return unit.convert(_due - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public int compareTo(Delayed o) {
+      long other = ((Pending) o)._due;
+      return _due < other ? -1 : (_due == other ? 0 : 1);
+    }
+  }
+
   int _remainingThreshold = 0;
 
   int _cap = 10000;
 
   Executor _executor = null;
 
-  boolean _stop = false;
+  volatile boolean _stop = false;
+
+  private final long _window;
+
+  // the NOTIFYs per second per subscriber, 0 for no limit
+  private final double _rate;
+
+  private final Semaphore _inFlight;
+
+  private final int _maxInFlight;
+
+  private final Object _lock = new Object();
+
+  private final DelayQueue<Pending> _queue = new DelayQueue<Pending>();
+
+  // guarded by _lock
+  private final Map<Object, Pending> _pending = new HashMap<Object, Pending>();
+
+  // the time each subscription was last notified, guarded by _lock
+  private final Map<Object, Long> _lastSent = new HashMap<Object, Long>();
+
+  // the theoretical arrival time of the next NOTIFY of each subscriber, guarded
+  // by _lock
+  private final Map<String, Long> _nextSend = new HashMap<String, Long>();
+
+  private long _lastPrune;
 
-  BlockingQueue<NotifyRequest> _queue = null;
+  private final AtomicLong _received = new AtomicLong();
 
+  private final AtomicLong _coalesced = new AtomicLong();
+
+  private final AtomicLong _dropped = new AtomicLong();
+
+  private final AtomicLong _dispatched = new AtomicLong();
+
+  private final AtomicLong _callerRuns = new AtomicLong();
+
+  private final AtomicLong _totalLatency = new AtomicLong();
+
+  private volatile long _maxLatency;
 
   // The tolal length of the queue
   public int getCapability() {
@@ -36,7 +135,7 @@ public class MemoryNotifyDispatcher implements NotifyDispatcher {
 
   // currently used length
   public int remainingCapacity() {
-    return _queue.remainingCapacity();
+    return _cap - getQueueDepth();
   }
 
   public boolean isBusy() {
@@ -45,34 +144,148 @@ public class MemoryNotifyDispatcher implements NotifyDispatcher {
 
   public boolean isFull() {
     boolean result = false;
-    result = (remainingCapacity() == 0);
+    result = (remainingCapacity() <= 0);
     return result;
   }
 
   /**
-   * Adds the specified element to the tail of this queue, waiting if necessary
-   * for space to become available.
-   * 
+   * Queues the NOTIFY, or replaces the pending NOTIFY of the same subscription.
+   * Does not wait: the NOTIFY is dropped if the capacity is used up, unless it
+   * terminates its subscription.
+   *
    * @param nr
-   * @return
-   * @throws InterruptedException
    */
-  public void put(NotifyRequest nr) throws InterruptedException {
-    _queue.put(nr);
+  public void put(NotifyRequest nr) {
+    if (_stop) {
+      LOG.warn(this + " has been shut down, dropping notify to " + nr.getSubscription());
+      return;
+    }
+    _received.incrementAndGet();
+    Object key = keyOf(nr);
+    boolean terminal = isTerminal(nr);
+    synchronized (_lock) {
+      Pending pending = _pending.get(key);
+      if (pending != null) {
+        _coalesced.incrementAndGet();
+        if (pending._terminal && !terminal) {
+          // the subscription is over, the terminating NOTIFY is sent instead
+          return;
+        }
+        if (terminal && pending._due > System.currentTimeMillis() && _queue.remove(pending)) {
+          pending = new Pending(key, nr, true, pending._queued, System.currentTimeMillis());
+          _pending.put(key, pending);
+          _queue.put(pending);
+        }
+        else {
+          pending._request = nr;
+          pending._terminal = terminal;
+        }
+        return;
+      }
+      if (_pending.size() >= _cap && !terminal) {
+        if (_dropped.incrementAndGet() == 1 || LOG.isDebugEnabled()) {
+          LOG.warn(this + " is full, dropping notify to " + nr.getSubscription());
+        }
+        return;
+      }
+      long now = System.currentTimeMillis();
+      pending = new Pending(key, nr, terminal, now, terminal ? now : dueTime(key, nr, now));
+      _pending.put(key, pending);
+      _queue.put(pending);
+    }
+  }
+
+  private Object keyOf(NotifyRequest nr) {
+    SIPSubscriptionContext subscription = nr.getSubscription();
+    return subscription != null && subscription.getId() != null ? subscription.getId() : nr;
+  }
+
+  private boolean isTerminal(NotifyRequest nr) {
+    if (nr.getSubscription() instanceof SIPSubscriptionContextImpl) {
+      SIPSubscriptionContextImpl subscription = (SIPSubscriptionContextImpl) nr.getSubscription();
+      return subscription.getState() != null && "terminated".equals(subscription.getState().getPhrase());
+    }
+    return false;
+  }
+
+  // guarded by _lock
+  private long dueTime(Object key, NotifyRequest nr, long now) {
+    long due = now;
+    Long last = _lastSent.get(key);
+    if (last != null && last + _window > due) {
+      due = last + _window;
+    }
+    if (_rate > 0 && nr.getSubscription() != null && nr.getSubscription().getSubscriber() != null) {
+      String subscriber = nr.getSubscription().getSubscriber();
+      long interval = (long) (1000 / _rate);
+      Long next = _nextSend.get(subscriber);
+      if (next != null && next - RATE_TOLERANCE > due) {
+        due = next - RATE_TOLERANCE;
+      }
+      _nextSend.put(subscriber, Math.max(next != null ? next : 0, due) + interval);
+    }
+    return due;
+  }
+
+  // guarded by _lock
+  private void prune(long now) {
+    if (now - _lastPrune < PRUNE_INTERVAL) {
+      return;
+    }
+    _lastPrune = now;
+    for (Iterator<Long> i = _lastSent.values().iterator(); i.hasNext();) {
+      if (i.next() + _window <= now) {
+        i.remove();
+      }
+    }
+    for (Iterator<Long> i = _nextSend.values().iterator(); i.hasNext();) {
+      if (i.next() <= now) {
+        i.remove();
+      }
+    }
   }
 
   /**
-   * Retrieves and removes the head of this queue, waiting if no elements are
-   * present on this queue *
-   * 
+   * Retrieves and removes the NOTIFY that is due first, waiting if there is
+   * none yet.
+   *
    * @return
    * @throws InterruptedException
    */
   public NotifyRequest take() throws InterruptedException {
-    return _queue.take();
+    Pending pending = _queue.take();
+    long now = System.currentTimeMillis();
+    NotifyRequest nr = null;
+    synchronized (_lock) {
+      _pending.remove(pending._key);
+      nr = pending._request;
+      if (_window > 0) {
+        _lastSent.put(pending._key, now);
+      }
+      prune(now);
+    }
+    long latency = now - pending._queued;
+    _totalLatency.addAndGet(latency);
+    if (latency > _maxLatency) {
+      _maxLatency = latency;
+    }
+    return nr;
   }
 
   public MemoryNotifyDispatcher(Executor executor, int cap) {
+    this(executor, cap, DEFAULT_WINDOW, 0, DEFAULT_MAX_IN_FLIGHT);
+  }
+
+  /**
+   * @param window
+   *          the minimum interval in milliseconds between the NOTIFYs of a
+   *          subscription.
+   * @param rate
+   *          the maximum NOTIFYs per second to a subscriber, 0 for no limit.
+   * @param maxInFlight
+   *          the maximum number of NOTIFYs being sent at once.
+   */
+  public MemoryNotifyDispatcher(Executor executor, int cap, long window, double rate, int maxInFlight) {
     /**
      * by limiting the max thread number of this independent thread pool, we can
      * avoid too many blocked threads caused by the SipMessage.send(), this
@@ -82,17 +295,21 @@ public class MemoryNotifyDispatcher implements NotifyDispatcher {
     _executor = executor;
     _cap = cap;
     _remainingThreshold = (int) (_cap * 0.25);
-    _queue = new LinkedBlockingQueue<NotifyRequest>(_cap);
+    _window = window;
+    _rate = rate;
+    _maxInFlight = maxInFlight;
+    _inFlight = new Semaphore(maxInFlight);
   }
 
   public void shutdown() {
     _stop = true;
-    // return immediately if full
-    _queue.offer(ShutdownSignal.SHUTDOWN_SIGNAL);
+    synchronized (_lock) {
+      _queue.put(new Pending(ShutdownSignal.SHUTDOWN_SIGNAL, ShutdownSignal.SHUTDOWN_SIGNAL, false, 0, 0));
+    }
   }
 
   public void run() {
-    String name = Thread.currentThread().getName(); 
+    String name = Thread.currentThread().getName();
     Thread.currentThread().setName(toString());
     LOG.info("Started " + toString());
     while (!_stop) {
@@ -118,55 +335,102 @@ public class MemoryNotifyDispatcher implements NotifyDispatcher {
   /**
    * Dispath a NOTIFY message to a new thread in the thread pool to send it.
    * <br>
-   * If the thread pool is full, this method will block until it can get a spare
-   * thread to send the notify.
-   * 
-   * @param session
-   * @param id
-   * @return
+   * Waits while the maximum number of NOTIFYs are being sent. If the thread
+   * pool is full, the NOTIFY is sent by the calling thread.
+   *
+   * @param nr
+   * @throws InterruptedException
    */
-  protected void sendIt(NotifyRequest nr) {
-    try {
-      // wait until the thread pool is able to send it
-      while (true) {
+  protected void sendIt(final NotifyRequest nr) throws InterruptedException {
+    _inFlight.acquire();
+    Runnable task = new Runnable() {
+      @Override
+      public void run() {
         try {
-          _executor.execute(nr);
-          break;
+          nr.run();
         }
-        catch (RejectedExecutionException e) {
-          if (_executor instanceof ThreadPoolExecutor) {
-            ThreadPoolExecutor exec = (ThreadPoolExecutor) _executor;
-            LOG.warn("MemoryNotifySender thread pool is full. Thread num = " + exec.getPoolSize());
-          }
-          else {
-            LOG.warn("MemoryNotifySender thread pool is full");
-          }
-          try {
-            Thread.sleep(500);
-          }
-          catch (InterruptedException e1) {
-            //ignore
-          }
+        finally {
+          _inFlight.release();
         }
       }
+    };
+    _dispatched.incrementAndGet();
+    try {
+      _executor.execute(task);
     }
-    catch (Throwable t) {
-      LOG.error("MemoryNotifyDispatcher Error", t);
+    catch (RejectedExecutionException e) {
+      if (_callerRuns.incrementAndGet() == 1 || LOG.isDebugEnabled()) {
+        LOG.warn("MemoryNotifySender thread pool is full, sending from " + this);
+      }
+      task.run();
     }
-    finally {
-      ;
+  }
+
+  /**
+   * @return the number of subscriptions with a pending NOTIFY.
+   */
+  public int getQueueDepth() {
+    synchronized (_lock) {
+      return _pending.size();
     }
   }
 
+  public int getInFlight() {
+    return _maxInFlight - _inFlight.availablePermits();
+  }
+
+  public long getReceivedCount() {
+    return _received.get();
+  }
+
+  /**
+   * @return the number of NOTIFYs replaced by a later one before being sent.
+   */
+  public long getCoalescedCount() {
+    return _coalesced.get();
+  }
+
+  /**
+   * @return the number of NOTIFYs dropped as the capacity was used up.
+   */
+  public long getDroppedCount() {
+    return _dropped.get();
+  }
+
+  public long getDispatchedCount() {
+    return _dispatched.get();
+  }
+
+  /**
+   * @return the number of NOTIFYs sent from the dispatcher thread as the
+   *         executor was full.
+   */
+  public long getCallerRunsCount() {
+    return _callerRuns.get();
+  }
+
+  /**
+   * @return the average time in milliseconds from the first NOTIFY put for a
+   *         subscription to its dispatch.
+   */
+  public double getAverageLatency() {
+    long dispatched = _dispatched.get();
+    return dispatched == 0 ? 0 : (double) _totalLatency.get() / dispatched;
+  }
+
+  public long getMaxLatency() {
+    return _maxLatency;
+  }
+
   // indicate the shutdown of the queue worker thread
   static class ShutdownSignal extends NotifyRequest {
     static final ShutdownSignal SHUTDOWN_SIGNAL = new ShutdownSignal();
     ShutdownSignal() {
     }
   }
-  
+
    @Override
    public String toString() {
-    return "MemNotifySender[cap=" + _cap + "]";
+    return "MemNotifySender[cap=" + _cap + ", window=" + _window + "ms, rate=" + _rate + "/s]";
   }
 }
@@ -142,7 +142,15 @@ public class NotifyRequest implements Runnable {
       NotifyBody notifyBody = resource.getNotifyBody(subscription.getNotifyBodyType());
       notify.setContent(notifyBody.getContent(), notifyBody.getName());
       notify.setHeader("Event", subscription.getEventName());
-      notify.setHeader("Subscription-State", subscription.getState().getPhrase() + ";expires=" + subscription.getSpareTime());
+      // RFC 3265 terminated states carry a reason instead of the expiry
+      if ("terminated".equals(subscription.getState().getPhrase())) {
+        notify.setHeader("Subscription-State", subscription.getState().getPhrase() + ";reason="
+            + subscription.getState().getReason());
+      }
+      else {
+        notify.setHeader("Subscription-State", subscription.getState().getPhrase() + ";expires="
+            + subscription.getSpareTime());
+      }
       notify.send();
     }
     catch (Throwable e) {
@@ -132,6 +132,16 @@ public class SIPEventSoftState implements EventSoftState {
     m_body = body;
   }
 
+  @Override
+  public SIPEventSoftState clone() {
+    try {
+      return (SIPEventSoftState) super.clone();
+    }
+    catch (CloneNotSupportedException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
   @Override
   public String toString() {
     return "SIPEventSoftState [m_resourceURL=" + m_resourceURL + ", m_eventName=" + m_eventName
@@ -0,0 +1,234 @@
+package com.voxeo.moho.presence.sip.impl;
+
+import static com.voxeo.moho.common.codec.BinaryCodecRegistry.readString;
+import static com.voxeo.moho.common.codec.BinaryCodecRegistry.writeString;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import com.voxeo.moho.common.codec.BinaryCodec;
+import com.voxeo.moho.common.codec.BinaryCodecRegistry;
+import com.voxeo.moho.common.codec.ListCodec;
+import com.voxeo.moho.presence.sip.SipSubscriptionState;
+import com.voxeo.moho.presence.sip.impl.notifybody.PIDFNotifyBody;
+
+/**
+ * Binary codecs of the SIP presence types kept in the presence store. The type
+ * ids are persisted and must not change.
+ */
+public final class SIPPresenceCodecs {
+
+  public static final int LIST = 1;
+
+  public static final int SUBSCRIPTION_ID = 10;
+
+  public static final int SUBSCRIPTION_STATE = 11;
+
+  public static final int SUBSCRIPTION_CONTEXT = 12;
+
+  public static final int PRESENCE_RESOURCE = 13;
+
+  public static final int EVENT_SOFT_STATE = 14;
+
+  public static final int PIDF_NOTIFY_BODY = 15;
+
+  private static final SipSubscriptionState[] STATES = new SipSubscriptionState[] {SipSubscriptionStateImpl.ALLOW,
+      SipSubscriptionStateImpl.CONFIRM, SipSubscriptionStateImpl.BLOCK, SipSubscriptionStateImpl.POLITE_BLOCK,
+      SipSubscriptionStateImpl.TERMINATED};
+
+  private SIPPresenceCodecs() {
+  }
+
+  public static void register(BinaryCodecRegistry registry) {
+    registry.register(LIST, new ListCodec());
+    registry.register(SUBSCRIPTION_ID, new SubscriptionIDCodec());
+    registry.register(SUBSCRIPTION_STATE, new SubscriptionStateCodec());
+    registry.register(SUBSCRIPTION_CONTEXT, new SubscriptionContextCodec());
+    registry.register(PRESENCE_RESOURCE, new PresenceResourceCodec());
+    registry.register(EVENT_SOFT_STATE, new EventSoftStateCodec());
+    registry.register(PIDF_NOTIFY_BODY, new PIDFNotifyBodyCodec());
+  }
+
+  static class SubscriptionIDCodec implements BinaryCodec<SIPSubscriptionID> {
+    @Override
+    public Class<SIPSubscriptionID> getType() {
+      return SIPSubscriptionID.class;
+    }
+
+    @Override
+    public int getVersion() {
+      return 1;
+    }
+
+    @Override
+    public void write(SIPSubscriptionID value, DataOutput out, BinaryCodecRegistry registry) throws IOException {
+      writeString(value.getSessionId(), out);
+      writeString(value.getEventId(), out);
+    }
+
+    @Override
+    public SIPSubscriptionID read(DataInput in, int version, BinaryCodecRegistry registry) throws IOException {
+      return new SIPSubscriptionID(readString(in), readString(in));
+    }
+  }
+
+  static class SubscriptionStateCodec implements BinaryCodec<SipSubscriptionStateImpl> {
+    @Override
+    public Class<SipSubscriptionStateImpl> getType() {
+      return SipSubscriptionStateImpl.class;
+    }
+
+    @Override
+    public int getVersion() {
+      return 1;
+    }
+
+    @Override
+    public void write(SipSubscriptionStateImpl value, DataOutput out, BinaryCodecRegistry registry) throws IOException {
+      out.writeInt(value.getResponseCode());
+      writeString(value.getReason(), out);
+      writeString(value.getPhrase(), out);
+    }
+
+    @Override
+    public SipSubscriptionStateImpl read(DataInput in, int version, BinaryCodecRegistry registry) throws IOException {
+      int responseCode = in.readInt();
+      String reason = readString(in);
+      String phrase = readString(in);
+      // the states are compared by identity
+      for (SipSubscriptionState state : STATES) {
+        if (state.getResponseCode() == responseCode && state.getReason().equals(reason)
+            && state.getPhrase().equals(phrase)) {
+          return (SipSubscriptionStateImpl) state;
+        }
+      }
+      return new SipSubscriptionStateImpl(responseCode, reason, phrase);
+    }
+  }
+
+  static class SubscriptionContextCodec implements BinaryCodec<SIPSubscriptionContextImpl> {
+    @Override
+    public Class<SIPSubscriptionContextImpl> getType() {
+      return SIPSubscriptionContextImpl.class;
+    }
+
+    @Override
+    public int getVersion() {
+      return 1;
+    }
+
+    @Override
+    public void write(SIPSubscriptionContextImpl value, DataOutput out, BinaryCodecRegistry registry)
+        throws IOException {
+      writeString(value.getSubscriber(), out);
+      writeString(value.getSubscribee(), out);
+      writeString(value.getEventName(), out);
+      writeString(value.getNotifyBodyType(), out);
+      out.writeInt(value.getExpires());
+      out.writeLong(value.getUpdateTime());
+      writeString(value.getAppId(), out);
+      registry.writeObject(value.getId(), out);
+      registry.writeObject(value.getState(), out);
+    }
+
+    @Override
+    public SIPSubscriptionContextImpl read(DataInput in, int version, BinaryCodecRegistry registry)
+        throws IOException {
+      String subscriber = readString(in);
+      String subscribee = readString(in);
+      String eventName = readString(in);
+      String notifyBodyType = readString(in);
+      int expires = in.readInt();
+      long updateTime = in.readLong();
+      String appId = readString(in);
+      SIPSubscriptionID id = (SIPSubscriptionID) registry.readObject(in);
+      SipSubscriptionState state = (SipSubscriptionState) registry.readObject(in);
+      return new SIPSubscriptionContextImpl(subscriber, subscribee, eventName, notifyBodyType, expires, updateTime,
+          id, appId, state);
+    }
+  }
+
+  static class PresenceResourceCodec implements BinaryCodec<SIPPresenceResourceImpl> {
+    @Override
+    public Class<SIPPresenceResourceImpl> getType() {
+      return SIPPresenceResourceImpl.class;
+    }
+
+    @Override
+    public int getVersion() {
+      return 1;
+    }
+
+    @Override
+    public void write(SIPPresenceResourceImpl value, DataOutput out, BinaryCodecRegistry registry) throws IOException {
+      writeString(value.getUri(), out);
+      writeString(value.getEventName(), out);
+    }
+
+    @Override
+    public SIPPresenceResourceImpl read(DataInput in, int version, BinaryCodecRegistry registry) throws IOException {
+      // the execution context is set by the store's retrieve listener
+      return new SIPPresenceResourceImpl(null, readString(in), readString(in));
+    }
+  }
+
+  static class EventSoftStateCodec implements BinaryCodec<SIPEventSoftState> {
+    @Override
+    public Class<SIPEventSoftState> getType() {
+      return SIPEventSoftState.class;
+    }
+
+    @Override
+    public int getVersion() {
+      return 1;
+    }
+
+    @Override
+    public void write(SIPEventSoftState value, DataOutput out, BinaryCodecRegistry registry) throws IOException {
+      // the body is transient and stored on its own
+      writeString(value.getResourceURL(), out);
+      writeString(value.getEventName(), out);
+      writeString(value.getBeforeEntityTag(), out);
+      writeString(value.getEntityTag(), out);
+      out.writeInt(value.getExpires());
+      out.writeLong(value.getUpdateTime());
+      writeString(value.getContentType(), out);
+    }
+
+    @Override
+    public SIPEventSoftState read(DataInput in, int version, BinaryCodecRegistry registry) throws IOException {
+      SIPEventSoftState retv = new SIPEventSoftState();
+      retv.setResourceURL(readString(in));
+      retv.setEventName(readString(in));
+      retv.setBeforeEntityTag(readString(in));
+      retv.setEntityTag(readString(in));
+      retv.m_expires = in.readInt();
+      retv.setUpdateTime(in.readLong());
+      retv.setContentType(readString(in));
+      return retv;
+    }
+  }
+
+  static class PIDFNotifyBodyCodec implements BinaryCodec<PIDFNotifyBody> {
+    @Override
+    public Class<PIDFNotifyBody> getType() {
+      return PIDFNotifyBody.class;
+    }
+
+    @Override
+    public int getVersion() {
+      return 1;
+    }
+
+    @Override
+    public void write(PIDFNotifyBody value, DataOutput out, BinaryCodecRegistry registry) throws IOException {
+      writeString(value.getContent(), out);
+    }
+
+    @Override
+    public PIDFNotifyBody read(DataInput in, int version, BinaryCodecRegistry registry) throws IOException {
+      return new PIDFNotifyBody(readString(in));
+    }
+  }
+}
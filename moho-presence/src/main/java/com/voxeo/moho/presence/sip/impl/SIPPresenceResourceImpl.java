@@ -98,6 +98,7 @@ public class SIPPresenceResourceImpl extends AbstractSIPResource implements SIPP
         SIPSubscriptionContext subscription = (SIPSubscriptionContext) presenceStore.getSubscription(id);
         if (subscription == null) {
           LOG.warn("Can't find subscription on " + id + " for " + this);
+          continue;
         }
         try {
           sendNotify(subscription);
@@ -130,7 +131,25 @@ public class SIPPresenceResourceImpl extends AbstractSIPResource implements SIPP
     }
     SIPPresenceStore presenceStore = (SIPPresenceStore) StoreHolder.getPresenceStore();
     presenceStore.removeEventSoftState(softState);
-    setNotifyBody(presenceStore, softState.getContentType(), createNeutralBody());
+    setNotifyBody(presenceStore, softState.getContentType(), composeNotifyBody(presenceStore, softState.getContentType()));
+  }
+
+  /**
+   * @return the body of the latest soft state that is left for the content
+   *         type, or the neutral body if there is none.
+   */
+  private NotifyBody composeNotifyBody(SIPPresenceStore presenceStore, String contentType) {
+    EventSoftState latest = null;
+    for (EventSoftState state : presenceStore.getEventSoftStates(getUri())) {
+      // the body is not persisted with the soft state by every store
+      if (state.getBody() == null || state.isExpired() || !contentType.equals(state.getContentType())) {
+        continue;
+      }
+      if (latest == null || state.getUpdateTime() > latest.getUpdateTime()) {
+        latest = state;
+      }
+    }
+    return latest != null ? latest.getBody() : createNeutralBody();
   }
 
   @Override
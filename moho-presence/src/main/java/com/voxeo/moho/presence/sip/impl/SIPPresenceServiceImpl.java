@@ -1,6 +1,7 @@
 package com.voxeo.moho.presence.sip.impl;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import javax.servlet.sip.SipServletRequest;
@@ -8,6 +9,7 @@ import javax.servlet.sip.SipServletRequest;
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 
+import com.voxeo.moho.common.util.HashedTimingWheel;
 import com.voxeo.moho.event.AcceptableEvent;
 import com.voxeo.moho.event.AcceptableEvent.Reason;
 import com.voxeo.moho.event.SubscribeEvent.SubscriptionContext;
@@ -15,6 +17,7 @@ import com.voxeo.moho.presence.NotifyBody;
 import com.voxeo.moho.presence.NotifyDispatcher;
 import com.voxeo.moho.presence.Resource;
 import com.voxeo.moho.presence.StoreRetrieveListener;
+import com.voxeo.moho.presence.SubscriptionID;
 import com.voxeo.moho.presence.SubscriptionState;
 import com.voxeo.moho.presence.impl.StoreHolder;
 import com.voxeo.moho.presence.impl.sip.SIPPresenceStore;
@@ -33,6 +36,47 @@ public class SIPPresenceServiceImpl implements SIPPresenceService {
 
   private final static Logger LOG = Logger.getLogger(SIPPresenceServiceImpl.class);
 
+  private static final long DEFAULT_EXPIRE_TICK = 1000;
+
+  private static final int EXPIRE_WHEEL_SIZE = 4096;
+
+  // delay before retrying an expiry that failed
+  private static final long EXPIRE_RETRY_DELAY = 30000;
+
+  /**
+   * Key of a soft state in the expiry wheel, subscriptions are scheduled by
+   * their {@link SubscriptionID}.
+   */
+  static final class SoftStateKey {
+    final String _resourceUri;
+
+    final String _entityTag;
+
+    SoftStateKey(String resourceUri, String entityTag) {
+      _resourceUri = resourceUri;
+      _entityTag = entityTag;
+    }
+
+    @Override
+    public int hashCode() {
+      return _resourceUri.hashCode() * 31 + _entityTag.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof SoftStateKey)) {
+        return false;
+      }
+      SoftStateKey k = (SoftStateKey) o;
+      return _resourceUri.equals(k._resourceUri) && _entityTag.equals(k._entityTag);
+    }
+
+    @Override
+    public String toString() {
+      return "SoftState[" + _resourceUri + ", " + _entityTag + "]";
+    }
+  }
+
   private ExecutionContext _context;
 
   private SIPPresenceStore _store;
@@ -41,6 +85,10 @@ public class SIPPresenceServiceImpl implements SIPPresenceService {
 
   private NotifyDispatcher _notifyDispatcher;
 
+  private HashedTimingWheel<Object> _expiry;
+
+  private volatile boolean _running;
+
   @Override
   public void init(ExecutionContext context, Map<String, String> props) {
     _context = context;
@@ -68,8 +116,30 @@ public class SIPPresenceServiceImpl implements SIPPresenceService {
     catch (Exception e) {
       throw new IllegalArgumentException("Invalidate Presence Store implementation: " + e);
     }
+    long tick = DEFAULT_EXPIRE_TICK;
+    if (props.get(EXPIRE_TICK) != null) {
+      tick = Long.parseLong(props.get(EXPIRE_TICK));
+    }
+    _expiry = new HashedTimingWheel<Object>(tick, EXPIRE_WHEEL_SIZE);
+    scheduleStoredExpiries();
+    _running = true;
     int capacity = 1000;
-    _notifyDispatcher = new MemoryNotifyDispatcher(context.getExecutor(), capacity);
+    if (props.get(NOTIFY_CAPACITY) != null) {
+      capacity = Integer.parseInt(props.get(NOTIFY_CAPACITY));
+    }
+    long window = MemoryNotifyDispatcher.DEFAULT_WINDOW;
+    if (props.get(NOTIFY_WINDOW) != null) {
+      window = Long.parseLong(props.get(NOTIFY_WINDOW));
+    }
+    double rate = 0;
+    if (props.get(NOTIFY_RATE) != null) {
+      rate = Double.parseDouble(props.get(NOTIFY_RATE));
+    }
+    int maxInFlight = MemoryNotifyDispatcher.DEFAULT_MAX_IN_FLIGHT;
+    if (props.get(NOTIFY_MAX_IN_FLIGHT) != null) {
+      maxInFlight = Integer.parseInt(props.get(NOTIFY_MAX_IN_FLIGHT));
+    }
+    _notifyDispatcher = new MemoryNotifyDispatcher(context.getExecutor(), capacity, window, rate, maxInFlight);
     context.getExecutor().execute(_notifyDispatcher);
     context.getExecutor().execute(this);
   }
@@ -108,6 +178,7 @@ public class SIPPresenceServiceImpl implements SIPPresenceService {
         eventSoftState = new SIPEventSoftState(resourceKey, eventHeader.getEventName(), expires, contentType,
             notifyBody);
         resource.addEventSoftState(eventSoftState);
+        scheduleExpiry(eventSoftState);
         acceptPublish(event, eventSoftState);
       }
       // Publish keepalive
@@ -116,6 +187,7 @@ public class SIPPresenceServiceImpl implements SIPPresenceService {
         if (eventSoftState != null) {
           eventSoftState.updateExpires(expires);
           resource.refreshEventSoftState(eventSoftState);
+          scheduleExpiry(eventSoftState);
           acceptPublish(event, eventSoftState);
         }
         else {
@@ -130,6 +202,7 @@ public class SIPPresenceServiceImpl implements SIPPresenceService {
           eventSoftState.setBody(notifyBody);
           eventSoftState.updateExpires(expires);
           resource.refreshEventSoftState(eventSoftState);
+          scheduleExpiry(eventSoftState);
           acceptPublish(event, eventSoftState);
         }
         else {
@@ -141,6 +214,7 @@ public class SIPPresenceServiceImpl implements SIPPresenceService {
         eventSoftState = resource.getSoftState(sipIfMatch);
         if (eventSoftState != null) {
           resource.removeEventSoftState(eventSoftState);
+          _expiry.cancel(new SoftStateKey(resourceKey, eventSoftState.getEntityTag()));
           event.accept();
         }
         else {
@@ -213,6 +287,12 @@ public class SIPPresenceServiceImpl implements SIPPresenceService {
           Runnable sendNotify = subscription.sendNotify();
           _notifyDispatcher.put((NotifyRequest) sendNotify);
           _store.commitTx();
+          if (state == SipSubscriptionStateImpl.TERMINATED) {
+            _expiry.cancel(subscription.getId());
+          }
+          else {
+            _expiry.schedule(subscription.getId(), System.currentTimeMillis() + subscription.getExpires() * 1000L);
+          }
         }
         else {
           if (LOG.isDebugEnabled()) {
@@ -276,8 +356,43 @@ public class SIPPresenceServiceImpl implements SIPPresenceService {
     return resource;
   }
 
+  /**
+   * Schedules the expiry of what a previous run of the server, or another
+   * instance of the service, left in the store. Those already expired are
+   * expired on the first tick.
+   */
+  private void scheduleStoredExpiries() {
+    long now = System.currentTimeMillis();
+    int subscriptions = 0;
+    for (SubscriptionContext subscription : _store.getAllSubscriptions()) {
+      _expiry.schedule(subscription.getId(),
+          now + ((SIPSubscriptionContextImpl) subscription).getSpareTime() * 1000L);
+      subscriptions++;
+    }
+    int softStates = 0;
+    for (EventSoftState softState : _store.getAllEventSoftStates()) {
+      _expiry.schedule(new SoftStateKey(softState.getResourceURL(), softState.getEntityTag()),
+          now + softState.getSpareTime() * 1000L);
+      softStates++;
+    }
+    if (subscriptions > 0 || softStates > 0) {
+      LOG.info("Scheduled the expiry of " + subscriptions + " stored subscriptions and " + softStates
+          + " soft states");
+    }
+  }
+
+  void scheduleExpiry(EventSoftState softState) {
+    // a refresh changes the entity tag
+    if (softState.getBeforeEntityTag() != null) {
+      _expiry.cancel(new SoftStateKey(softState.getResourceURL(), softState.getBeforeEntityTag()));
+    }
+    _expiry.schedule(new SoftStateKey(softState.getResourceURL(), softState.getEntityTag()),
+        System.currentTimeMillis() + softState.getSpareTime() * 1000L);
+  }
+
   @Override
   public void destroy() {
+    _running = false;
     _context = null;
     if (_notifyDispatcher != null) {
       _notifyDispatcher.shutdown();
@@ -290,10 +405,126 @@ public class SIPPresenceServiceImpl implements SIPPresenceService {
     _store = null;
   }
 
+  /**
+   * Expires the subscriptions and soft states that have not been refreshed in
+   * time, until the service is destroyed. Only those scheduled by this
+   * instance, or found in the store when it started, are expired.
+   */
   @Override
   public void run() {
-    // TODO EventSoftState clean
-    // TODO Subscription clean
+    while (_running) {
+      try {
+        Thread.sleep(_expiry.getTickMillis());
+      }
+      catch (InterruptedException e) {
+        break;
+      }
+      if (!expire(System.currentTimeMillis())) {
+        break;
+      }
+    }
+  }
+
+  /**
+   * Expires what is due at the given time.
+   *
+   * @return false if the service has been destroyed.
+   */
+  boolean expire(long now) {
+    List<Object> expired = _expiry.expire(now);
+    if (expired.isEmpty()) {
+      return true;
+    }
+    SIPPresenceStore store = _store;
+    if (store == null) {
+      return false;
+    }
+    StoreHolder.setPresenceStore(store);
+    try {
+      for (Object key : expired) {
+        try {
+          if (key instanceof SoftStateKey) {
+            expireSoftState(store, (SoftStateKey) key);
+          }
+          else {
+            expireSubscription(store, (SubscriptionID) key);
+          }
+        }
+        catch (Throwable t) {
+          LOG.error("Error expiring " + key + ", will retry", t);
+          _expiry.schedule(key, System.currentTimeMillis() + EXPIRE_RETRY_DELAY);
+        }
+      }
+    }
+    finally {
+      StoreHolder.setPresenceStore(null);
+    }
+    return true;
+  }
+
+  HashedTimingWheel<Object> getExpiry() {
+    return _expiry;
+  }
+
+  SIPPresenceStore getStore() {
+    return _store;
+  }
+
+  private void expireSubscription(SIPPresenceStore store, SubscriptionID id) throws InterruptedException {
+    SIPSubscriptionContextImpl subscription = (SIPSubscriptionContextImpl) store.getSubscription(id);
+    if (subscription == null) {
+      return;
+    }
+    // refreshed by another instance of the service
+    if (subscription.getSpareTime() > 0) {
+      _expiry.schedule(id, System.currentTimeMillis() + subscription.getSpareTime() * 1000L);
+      return;
+    }
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Expiring " + subscription);
+    }
+    store.startTx();
+    try {
+      SIPResource resource = (SIPResource) store.getResource(subscription.getSubscribee(),
+          subscription.getEventName());
+      if (resource != null) {
+        resource.removeSubscripton(subscription);
+        store.updateResource(resource);
+      }
+      else {
+        subscription.setState(SipSubscriptionStateImpl.TERMINATED);
+        store.removeSubscription(subscription);
+      }
+      store.commitTx();
+    }
+    catch (RuntimeException e) {
+      store.rollbackTx();
+      throw e;
+    }
+    // the dialog is gone after a restart of the server
+    if (subscription.getDialog() != null) {
+      _notifyDispatcher.put((NotifyRequest) subscription.sendNotify());
+    }
+  }
+
+  private void expireSoftState(SIPPresenceStore store, SoftStateKey key) {
+    EventSoftState softState = store.getEventSoftState(key._resourceUri, key._entityTag);
+    if (softState == null) {
+      return;
+    }
+    if (!softState.isExpired()) {
+      _expiry.schedule(key, System.currentTimeMillis() + softState.getSpareTime() * 1000L);
+      return;
+    }
+    SIPPresenceResource resource = (SIPPresenceResource) store.getResource(softState.getResourceURL(),
+        softState.getEventName());
+    if (resource != null) {
+      // republishes the remaining state to the subscribers
+      resource.removeEventSoftState(softState);
+    }
+    else {
+      store.removeEventSoftState(softState);
+    }
   }
 
   public NotifyDispatcher getNotifyDispatcher() {
@@ -15,7 +15,7 @@ import com.voxeo.moho.presence.sip.SipSubscriptionState;
 import com.voxeo.moho.sip.SIPSubscribeEvent.SIPSubscriptionContext;
 import com.voxeo.moho.spi.ExecutionContext;
 
-public class SIPSubscriptionContextImpl implements SIPSubscriptionContext {
+public class SIPSubscriptionContextImpl implements SIPSubscriptionContext, Cloneable {
   
   private static final long serialVersionUID = 5166897019787952683L;
   
@@ -59,6 +59,22 @@ public class SIPSubscriptionContextImpl implements SIPSubscriptionContext {
     setState(SipSubscriptionStateImpl.ALLOW);
   }
 
+  /**
+   * Restores a persisted subscription, the dialog is looked up on demand.
+   */
+  SIPSubscriptionContextImpl(String subscriber, String subscribee, String eventName, String notifyBodyType,
+      int expires, long updateTime, SIPSubscriptionID id, String appId, SipSubscriptionState state) {
+    _subscriber = subscriber;
+    _subscribee = subscribee;
+    _eventName = eventName;
+    _notifyBodyType = notifyBodyType;
+    _expires = expires;
+    _updateTime = updateTime;
+    _id = id;
+    _appId = appId;
+    _state = state;
+  }
+
   private String parseNotifyBodyType(ListIterator<String> notifyBodies) {
     if (SIPConstans.EVENT_NAME_PRESENCE.equals(_eventName)) {
       //TODO
@@ -106,6 +122,14 @@ public class SIPSubscriptionContextImpl implements SIPSubscriptionContext {
   public void setUpdateTime(long updateDate) {
     _updateTime = updateDate;
   }
+
+  public long getUpdateTime() {
+    return _updateTime;
+  }
+
+  public String getAppId() {
+    return _appId;
+  }
   
   public void updateExpires(int expires) {
     setExpires(expires);
@@ -169,6 +193,16 @@ public class SIPSubscriptionContextImpl implements SIPSubscriptionContext {
     return _id;
   }
 
+  @Override
+  public SIPSubscriptionContextImpl clone() {
+    try {
+      return (SIPSubscriptionContextImpl) super.clone();
+    }
+    catch (CloneNotSupportedException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
   @Override
   public String toString() {
     return "SIPSubscriptionContext [_subscriber=" + _subscriber + ", _subscribee=" + _subscribee + ", _eventName="
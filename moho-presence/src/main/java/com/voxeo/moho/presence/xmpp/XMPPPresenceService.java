@@ -14,6 +14,15 @@ import com.voxeo.servlet.xmpp.XmppSessionsUtil;
 
 public interface XMPPPresenceService extends Service {
   final String STORE_IMPL = "com.voxeo.moho.presence.xmpp.store.impl";
+
+  /**
+   * the store cached by {@link com.voxeo.moho.presence.impl.xmpp.cache.XMPPCachingPresenceStore}
+   */
+  final String STORE_CACHE_DELEGATE = "com.voxeo.moho.presence.xmpp.store.cache.delegate";
+
+  final String STORE_CACHE_SIZE = "com.voxeo.moho.presence.xmpp.store.cache.size";
+
+  final String STORE_CACHE_TTL = "com.voxeo.moho.presence.xmpp.store.cache.ttl";
   
   void doPresence(XMPPPresenceEvent event);
 
@@ -0,0 +1,104 @@
+package com.voxeo.moho.presence.impl.sip.memory;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.voxeo.moho.presence.SubscriptionID;
+import com.voxeo.moho.presence.impl.sip.memory.SIPMemoryPresenceStoreTest.MockSubscription;
+import com.voxeo.moho.presence.sip.impl.SIPConstans;
+
+/**
+ * Measures the throughput of the copy-on-write subscription lists: SUBSCRIBEs
+ * from several threads while another one keeps iterating the watchers of the
+ * resources, as PUBLISHes do. Not a unit test, run it by hand:
+ *
+ * <pre>
+ * SIPMemoryPresenceStoreBenchmark [threads] [subscriptions] [resources] [rounds]
+ * </pre>
+ */
+public class SIPMemoryPresenceStoreBenchmark {
+
+  public static void main(String[] args) throws Exception {
+    int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+    int subscriptions = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+    int resources = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+    int rounds = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+
+    // the first round warms up the JIT
+    for (int round = 0; round <= rounds; round++) {
+      run(round == 0 ? "warm up" : "round " + round, threads, subscriptions, resources);
+    }
+  }
+
+  private static void run(String name, final int threads, final int subscriptions, final int resources)
+      throws InterruptedException {
+    final SIPMemoryPresenceStore store = new SIPMemoryPresenceStore();
+    final CountDownLatch start = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(threads);
+    final AtomicBoolean running = new AtomicBoolean(true);
+    final AtomicLong lookups = new AtomicLong();
+    final AtomicLong watchers = new AtomicLong();
+
+    for (int t = 0; t < threads; t++) {
+      final int offset = t;
+      new Thread() {
+        public void run() {
+          try {
+            start.await();
+            // every subscription is added, refreshed, and every other one removed
+            for (int i = offset; i < subscriptions; i += threads) {
+              MockSubscription subscription = new MockSubscription("dialog" + i, "sip:user" + i % resources
+                  + "@voxeo.com");
+              store.addSubscription(subscription);
+              store.updateSubscripton(subscription);
+              if (i % 2 == 1) {
+                store.removeSubscription(subscription);
+              }
+            }
+          }
+          catch (InterruptedException e) {
+            // stops
+          }
+          finally {
+            done.countDown();
+          }
+        }
+      }.start();
+    }
+    Thread reader = new Thread() {
+      public void run() {
+        try {
+          start.await();
+          int i = 0;
+          while (running.get()) {
+            List<SubscriptionID> ids = store.getSubscriptions("sip:user" + i++ % resources + "@voxeo.com",
+                SIPConstans.EVENT_NAME_PRESENCE, SIPMemoryPresenceStoreTest.PIDF);
+            for (SubscriptionID id : ids) {
+              if (id != null) {
+                watchers.incrementAndGet();
+              }
+            }
+            lookups.incrementAndGet();
+          }
+        }
+        catch (InterruptedException e) {
+          // stops
+        }
+      }
+    };
+    reader.start();
+
+    long begin = System.nanoTime();
+    start.countDown();
+    done.await();
+    long millis = (System.nanoTime() - begin) / 1000000;
+    running.set(false);
+    reader.join();
+
+    System.out.println(name + ": " + subscriptions * 2 + " SUBSCRIBEs from " + threads + " threads in " + millis
+        + "ms (" + subscriptions * 2000L / Math.max(millis, 1) + "/s), " + lookups.get() + " concurrent lookups of "
+        + watchers.get() + " watchers");
+  }
+}
@@ -0,0 +1,235 @@
+package com.voxeo.moho.presence.impl.sip.memory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.sip.SipSession;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.voxeo.moho.presence.SubscriptionID;
+import com.voxeo.moho.presence.sip.EventSoftState;
+import com.voxeo.moho.presence.sip.impl.SIPConstans;
+import com.voxeo.moho.presence.sip.impl.SIPEventSoftState;
+import com.voxeo.moho.presence.sip.impl.SIPSubscriptionID;
+import com.voxeo.moho.sip.SIPSubscribeEvent.SIPSubscriptionContext;
+import com.voxeo.moho.spi.ExecutionContext;
+
+public class SIPMemoryPresenceStoreTest {
+
+  static final String PIDF = "application/pidf+xml";
+
+  static class MockSubscription implements SIPSubscriptionContext {
+    private static final long serialVersionUID = -5921587409862171155L;
+
+    final SIPSubscriptionID _id;
+
+    final String _subscribee;
+
+    MockSubscription(String dialog, String subscribee) {
+      _id = new SIPSubscriptionID(dialog);
+      _subscribee = subscribee;
+    }
+
+    @Override
+    public String getSubscriber() {
+      return "sip:watcher@voxeo.com";
+    }
+
+    @Override
+    public String getSubscribee() {
+      return _subscribee;
+    }
+
+    @Override
+    public Object getId() {
+      return _id;
+    }
+
+    @Override
+    public void setExecutionContext(ExecutionContext context) {
+    }
+
+    @Override
+    public String getEventName() {
+      return SIPConstans.EVENT_NAME_PRESENCE;
+    }
+
+    @Override
+    public String getNotifyBodyType() {
+      return PIDF;
+    }
+
+    @Override
+    public int getExpires() {
+      return 3600;
+    }
+
+    @Override
+    public Runnable sendNotify() {
+      return null;
+    }
+
+    @Override
+    public SipSession getDialog() {
+      return null;
+    }
+  }
+
+  private SIPMemoryPresenceStore _store;
+
+  @Before
+  public void setUp() {
+    _store = new SIPMemoryPresenceStore();
+  }
+
+  private List<SubscriptionID> getSubscriptions(String resource) {
+    return _store.getSubscriptions(resource, SIPConstans.EVENT_NAME_PRESENCE, PIDF);
+  }
+
+  @Test
+  public void testAddRefreshRemove() {
+    MockSubscription a = new MockSubscription("a", "sip:alice@voxeo.com");
+    MockSubscription b = new MockSubscription("b", "sip:alice@voxeo.com");
+    _store.addSubscription(a);
+    _store.addSubscription(b);
+    // a refresh does not list the subscription twice
+    _store.updateSubscripton(a);
+
+    List<SubscriptionID> snapshot = getSubscriptions("sip:alice@voxeo.com");
+    assertEquals(2, snapshot.size());
+
+    _store.removeSubscription(a);
+    // a snapshot does not change
+    assertEquals(2, snapshot.size());
+    assertEquals(1, getSubscriptions("sip:alice@voxeo.com").size());
+    assertNull(_store.getSubscription(a._id));
+
+    _store.removeSubscription(b);
+    assertTrue(getSubscriptions("sip:alice@voxeo.com").isEmpty());
+    assertTrue(getSubscriptions("sip:bob@voxeo.com").isEmpty());
+  }
+
+  @Test
+  public void testEventSoftStatesAreASnapshot() {
+    SIPEventSoftState first = new SIPEventSoftState();
+    first.setResourceURL("sip:alice@voxeo.com");
+    first.setEntityTag("1");
+    SIPEventSoftState second = new SIPEventSoftState();
+    second.setResourceURL("sip:alice@voxeo.com");
+    second.setEntityTag("2");
+    _store.addEventSoftState(first);
+    _store.addEventSoftState(second);
+
+    Collection<EventSoftState> snapshot = _store.getEventSoftStates("sip:alice@voxeo.com");
+    _store.removeEventSoftState(first);
+    assertEquals(2, snapshot.size());
+    assertEquals(1, _store.getEventSoftStates("sip:alice@voxeo.com").size());
+  }
+
+  @Test
+  public void testAllSubscriptionsAndSoftStates() {
+    _store.addSubscription(new MockSubscription("a", "sip:alice@voxeo.com"));
+    _store.addSubscription(new MockSubscription("b", "sip:bob@voxeo.com"));
+    SIPEventSoftState alice = new SIPEventSoftState();
+    alice.setResourceURL("sip:alice@voxeo.com");
+    alice.setEntityTag("1");
+    SIPEventSoftState bob = new SIPEventSoftState();
+    bob.setResourceURL("sip:bob@voxeo.com");
+    bob.setEntityTag("2");
+    _store.addEventSoftState(alice);
+    _store.addEventSoftState(bob);
+
+    assertEquals(2, _store.getAllSubscriptions().size());
+    assertEquals(2, _store.getAllEventSoftStates().size());
+    assertTrue(_store.getAllEventSoftStates().contains(bob));
+  }
+
+  @Test
+  public void testConcurrentSubscribe() throws Exception {
+    final int threads = 8;
+    final int resources = 16;
+    final int subscriptions = 20000;
+    final CountDownLatch start = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(threads);
+    final AtomicBoolean running = new AtomicBoolean(true);
+    // what fails in the other threads is rethrown on this one
+    final ConcurrentLinkedQueue<Throwable> failures = new ConcurrentLinkedQueue<Throwable>();
+
+    for (int t = 0; t < threads; t++) {
+      final int offset = t;
+      new Thread() {
+        public void run() {
+          try {
+            start.await();
+            // every subscription is added, refreshed, and every other one removed
+            for (int i = offset; i < subscriptions; i += threads) {
+              MockSubscription subscription = new MockSubscription("dialog" + i, "sip:user" + i % resources
+                  + "@voxeo.com");
+              _store.addSubscription(subscription);
+              _store.updateSubscripton(subscription);
+              if (i % 2 == 1) {
+                _store.removeSubscription(subscription);
+              }
+            }
+          }
+          catch (Throwable t) {
+            failures.add(t);
+          }
+          finally {
+            done.countDown();
+          }
+        }
+      }.start();
+    }
+    // the watchers of the resources are looked up while they change, as when
+    // PUBLISHes are handled
+    Thread reader = new Thread() {
+      public void run() {
+        try {
+          start.await();
+          int i = 0;
+          while (running.get()) {
+            for (SubscriptionID id : getSubscriptions("sip:user" + i++ % resources + "@voxeo.com")) {
+              assertTrue(id != null);
+            }
+          }
+        }
+        catch (Throwable t) {
+          failures.add(t);
+        }
+      }
+    };
+    reader.start();
+
+    start.countDown();
+    done.await();
+    running.set(false);
+    reader.join();
+    for (Throwable t : failures) {
+      if (t instanceof Error) {
+        throw (Error) t;
+      }
+      throw new AssertionError(t);
+    }
+
+    Set<SubscriptionID> ids = new HashSet<SubscriptionID>();
+    for (int r = 0; r < resources; r++) {
+      ids.addAll(getSubscriptions("sip:user" + r + "@voxeo.com"));
+    }
+    assertEquals(subscriptions / 2, ids.size());
+    for (int i = 0; i < subscriptions; i += 2) {
+      assertTrue(ids.contains(new SIPSubscriptionID("dialog" + i)));
+    }
+  }
+}
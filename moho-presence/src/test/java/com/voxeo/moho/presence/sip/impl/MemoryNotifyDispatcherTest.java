@@ -0,0 +1,120 @@
+package com.voxeo.moho.presence.sip.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.Executor;
+
+import org.junit.Test;
+
+import com.voxeo.moho.presence.sip.SipSubscriptionState;
+
+public class MemoryNotifyDispatcherTest {
+
+  static final long WINDOW = 400;
+
+  static final Executor DIRECT = new Executor() {
+    @Override
+    public void execute(Runnable command) {
+      command.run();
+    }
+  };
+
+  private static NotifyRequest createNotify(String dialog, String subscriber, SipSubscriptionState state) {
+    NotifyRequest nr = new NotifyRequest();
+    nr.setSubscription(new SIPSubscriptionContextImpl(subscriber, "sip:alice@voxeo.com", "presence",
+        SIPConstans.NOTIFY_BODY_PRESENCE, 3600, System.currentTimeMillis(), new SIPSubscriptionID(dialog), "app",
+        state));
+    return nr;
+  }
+
+  private static NotifyRequest createNotify(String dialog) {
+    return createNotify(dialog, "sip:watcher@voxeo.com", SipSubscriptionStateImpl.ALLOW);
+  }
+
+  @Test
+  public void testPendingNotifyIsReplaced() throws Exception {
+    MemoryNotifyDispatcher dispatcher = new MemoryNotifyDispatcher(DIRECT, 100, WINDOW, 0, 1);
+    dispatcher.put(createNotify("d1"));
+    dispatcher.put(createNotify("d1"));
+    NotifyRequest last = createNotify("d1");
+    dispatcher.put(last);
+
+    assertEquals(1, dispatcher.getQueueDepth());
+    assertEquals(2, dispatcher.getCoalescedCount());
+    assertSame(last, dispatcher.take());
+    assertEquals(0, dispatcher.getQueueDepth());
+  }
+
+  @Test
+  public void testSubscriptionIsNotifiedOncePerWindow() throws Exception {
+    MemoryNotifyDispatcher dispatcher = new MemoryNotifyDispatcher(DIRECT, 100, WINDOW, 0, 1);
+    dispatcher.put(createNotify("d1"));
+    dispatcher.take();
+
+    long begin = System.currentTimeMillis();
+    NotifyRequest next = createNotify("d1");
+    dispatcher.put(next);
+    // another subscription is not held back
+    NotifyRequest other = createNotify("d2");
+    dispatcher.put(other);
+    assertSame(other, dispatcher.take());
+    assertTrue(System.currentTimeMillis() - begin < WINDOW / 2);
+
+    assertSame(next, dispatcher.take());
+    assertTrue(System.currentTimeMillis() - begin >= WINDOW / 2);
+  }
+
+  @Test
+  public void testTerminatingNotifyIsSentRightAwayAndNotReplaced() throws Exception {
+    MemoryNotifyDispatcher dispatcher = new MemoryNotifyDispatcher(DIRECT, 100, WINDOW, 0, 1);
+    dispatcher.put(createNotify("d1"));
+    dispatcher.take();
+
+    long begin = System.currentTimeMillis();
+    dispatcher.put(createNotify("d1"));
+    NotifyRequest terminal = createNotify("d1", "sip:watcher@voxeo.com", SipSubscriptionStateImpl.TERMINATED);
+    dispatcher.put(terminal);
+    // a late NOTIFY of the still active subscription
+    dispatcher.put(createNotify("d1"));
+
+    assertSame(terminal, dispatcher.take());
+    assertTrue(System.currentTimeMillis() - begin < WINDOW / 2);
+    assertEquals(0, dispatcher.getQueueDepth());
+  }
+
+  @Test
+  public void testSubscriberIsNotifiedAtItsRate() throws Exception {
+    // two NOTIFYs per second with a burst of one second
+    MemoryNotifyDispatcher dispatcher = new MemoryNotifyDispatcher(DIRECT, 100, 0, 2, 1);
+    for (int i = 0; i < 4; i++) {
+      dispatcher.put(createNotify("d" + i));
+    }
+    dispatcher.put(createNotify("other", "sip:other@voxeo.com", SipSubscriptionStateImpl.ALLOW));
+
+    long begin = System.currentTimeMillis();
+    for (int i = 0; i < 4; i++) {
+      dispatcher.take();
+    }
+    assertTrue(System.currentTimeMillis() - begin < 300);
+
+    // beyond the burst
+    dispatcher.take();
+    assertTrue(System.currentTimeMillis() - begin >= 300);
+  }
+
+  @Test
+  public void testPutDoesNotBlockWhenFull() throws Exception {
+    MemoryNotifyDispatcher dispatcher = new MemoryNotifyDispatcher(DIRECT, 1, WINDOW, 0, 1);
+    dispatcher.put(createNotify("d1"));
+    dispatcher.put(createNotify("d2"));
+    assertEquals(1, dispatcher.getQueueDepth());
+    assertEquals(1, dispatcher.getDroppedCount());
+
+    // the end of a subscription is never dropped
+    dispatcher.put(createNotify("d3", "sip:watcher@voxeo.com", SipSubscriptionStateImpl.TERMINATED));
+    assertEquals(2, dispatcher.getQueueDepth());
+    assertEquals(1, dispatcher.getDroppedCount());
+  }
+}
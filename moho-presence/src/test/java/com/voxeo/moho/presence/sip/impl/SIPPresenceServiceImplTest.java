@@ -0,0 +1,161 @@
+package com.voxeo.moho.presence.sip.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.voxeo.moho.event.SubscribeEvent.SubscriptionContext;
+import com.voxeo.moho.presence.impl.sip.memory.SIPMemoryPresenceStore;
+import com.voxeo.moho.presence.sip.EventSoftState;
+import com.voxeo.moho.presence.sip.SIPPresenceService;
+import com.voxeo.moho.spi.ExecutionContext;
+
+public class SIPPresenceServiceImplTest {
+
+  static final long TICK = 10;
+
+  static final String ALICE = "sip:alice@voxeo.com";
+
+  /**
+   * Store holding what a previous run of the server left.
+   */
+  public static class StoredPresenceStore extends SIPMemoryPresenceStore {
+    static final List<SubscriptionContext> SUBSCRIPTIONS = new ArrayList<SubscriptionContext>();
+
+    static final List<EventSoftState> SOFT_STATES = new ArrayList<EventSoftState>();
+
+    @Override
+    public void init(Map<String, String> props) {
+      for (SubscriptionContext subscription : SUBSCRIPTIONS) {
+        addSubscription(subscription);
+      }
+      for (EventSoftState softState : SOFT_STATES) {
+        addEventSoftState(softState);
+      }
+    }
+  }
+
+  /**
+   * Context whose executor never runs the expiry thread, the tests expire by
+   * hand.
+   */
+  static class Context implements InvocationHandler {
+    final List<Runnable> _tasks = new ArrayList<Runnable>();
+
+    public Object invoke(Object proxy, Method method, Object[] args) {
+      if (method.getName().equals("getExecutor")) {
+        return new Executor() {
+          @Override
+          public void execute(Runnable command) {
+            _tasks.add(command);
+          }
+        };
+      }
+      return null;
+    }
+  }
+
+  private SIPPresenceServiceImpl _service;
+
+  @Before
+  public void setUp() {
+    StoredPresenceStore.SUBSCRIPTIONS.clear();
+    StoredPresenceStore.SOFT_STATES.clear();
+  }
+
+  @After
+  public void tearDown() {
+    if (_service != null) {
+      _service.destroy();
+    }
+  }
+
+  private void start() {
+    Map<String, String> props = new HashMap<String, String>();
+    props.put(SIPPresenceService.STORE_IMPL, StoredPresenceStore.class.getName());
+    props.put(SIPPresenceService.EXPIRE_TICK, String.valueOf(TICK));
+    _service = new SIPPresenceServiceImpl();
+    _service.init((ExecutionContext) Proxy.newProxyInstance(ExecutionContext.class.getClassLoader(),
+        new Class<?>[] {ExecutionContext.class}, new Context()), props);
+  }
+
+  private static SIPSubscriptionContextImpl subscription(String dialog, int expires, long updateTime) {
+    return new SIPSubscriptionContextImpl("sip:watcher@voxeo.com", ALICE, SIPConstans.EVENT_NAME_PRESENCE,
+        SIPConstans.NOTIFY_BODY_PRESENCE, expires, updateTime, new SIPSubscriptionID(dialog), "app",
+        SipSubscriptionStateImpl.ALLOW);
+  }
+
+  private static SIPEventSoftState softState(String entityTag, int expires, long updateTime) {
+    SIPEventSoftState retv = new SIPEventSoftState(ALICE, SIPConstans.EVENT_NAME_PRESENCE, expires,
+        "application/pidf+xml", null);
+    retv.setEntityTag(entityTag);
+    retv.setUpdateTime(updateTime);
+    return retv;
+  }
+
+  @Test
+  public void testStoredSubscriptionExpires() {
+    long now = System.currentTimeMillis();
+    SIPSubscriptionContextImpl expired = subscription("d1", 60, now - 120000);
+    SIPSubscriptionContextImpl live = subscription("d2", 3600, now);
+    StoredPresenceStore.SUBSCRIPTIONS.add(expired);
+    StoredPresenceStore.SUBSCRIPTIONS.add(live);
+    start();
+
+    assertTrue(_service.getExpiry().isScheduled(expired.getId()));
+    assertTrue(_service.getExpiry().isScheduled(live.getId()));
+
+    _service.expire(System.currentTimeMillis() + 2 * TICK);
+
+    assertNull(_service.getStore().getSubscription((SIPSubscriptionID) expired.getId()));
+    assertNotNull(_service.getStore().getSubscription((SIPSubscriptionID) live.getId()));
+    assertTrue(_service.getExpiry().isScheduled(live.getId()));
+    assertEquals(1, _service.getExpiry().size());
+  }
+
+  @Test
+  public void testStoredSoftStateExpires() {
+    long now = System.currentTimeMillis();
+    StoredPresenceStore.SOFT_STATES.add(softState("expired", 60, now - 120000));
+    StoredPresenceStore.SOFT_STATES.add(softState("live", 3600, now));
+    start();
+
+    assertEquals(2, _service.getExpiry().size());
+
+    _service.expire(System.currentTimeMillis() + 2 * TICK);
+
+    assertNull(_service.getStore().getEventSoftState(ALICE, "expired"));
+    assertNotNull(_service.getStore().getEventSoftState(ALICE, "live"));
+    assertTrue(_service.getExpiry().isScheduled(new SIPPresenceServiceImpl.SoftStateKey(ALICE, "live")));
+  }
+
+  @Test
+  public void testRefreshCancelsTheTimerOfTheOldEntityTag() {
+    start();
+    SIPEventSoftState state = softState("first", 60, System.currentTimeMillis());
+    _service.scheduleExpiry(state);
+
+    state.updateExpires(3600);
+    state.setEntityTag("second");
+    _service.scheduleExpiry(state);
+
+    assertFalse(_service.getExpiry().isScheduled(new SIPPresenceServiceImpl.SoftStateKey(ALICE, "first")));
+    assertTrue(_service.getExpiry().isScheduled(new SIPPresenceServiceImpl.SoftStateKey(ALICE, "second")));
+    assertEquals(1, _service.getExpiry().size());
+  }
+}
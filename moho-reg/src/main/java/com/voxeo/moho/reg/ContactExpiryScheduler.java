@@ -0,0 +1,136 @@
+package com.voxeo.moho.reg;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.voxeo.moho.Endpoint;
+import com.voxeo.moho.common.util.HashedTimingWheel;
+import com.voxeo.moho.event.RegisterEvent.Contact;
+
+/**
+ * Keeps track of when the contacts of the {@link RegistrarStore} expire.
+ * {@link RegistrarStore} implementations schedule a contact when it is added or
+ * updated and cancel it when it is removed, the {@link Registrar} then only
+ * visits the contacts that are due.
+ */
+public class ContactExpiryScheduler {
+
+  public static final long DEFAULT_TICK = 100;
+
+  public static final int DEFAULT_WHEEL_SIZE = 4096;
+
+  static final class Binding {
+    final Endpoint _aor;
+
+    final Endpoint _contact;
+
+    Binding(final Endpoint aor, final Endpoint contact) {
+      _aor = aor;
+      _contact = contact;
+    }
+
+    @Override
+    public int hashCode() {
+      return _aor.hashCode() * 31 + _contact.hashCode();
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+      if (!(o instanceof Binding)) {
+        return false;
+      }
+      final Binding b = (Binding) o;
+      return _aor.equals(b._aor) && _contact.equals(b._contact);
+    }
+  }
+
+  protected final HashedTimingWheel<Binding> _wheel;
+
+  public ContactExpiryScheduler() {
+    this(DEFAULT_TICK, DEFAULT_WHEEL_SIZE);
+  }
+
+  /**
+   * @param tick
+   *          the expiry precision in milliseconds.
+   * @param wheelSize
+   *          the number of buckets of the timing wheel.
+   */
+  public ContactExpiryScheduler(final long tick, final int wheelSize) {
+    _wheel = new HashedTimingWheel<Binding>(tick, wheelSize);
+  }
+
+  /**
+   * Schedules the contact to expire after its expiration time.
+   */
+  public void schedule(final Endpoint aor, final Contact contact) {
+    if (contact.isWildCard()) {
+      return;
+    }
+    schedule(aor, contact.getEndpoint(), System.currentTimeMillis() + contact.getExpiration() * 1000L);
+  }
+
+  public void schedule(final Endpoint aor, final Endpoint contact, final long deadline) {
+    _wheel.schedule(new Binding(aor, contact), deadline);
+  }
+
+  public void cancel(final Endpoint aor, final Contact contact) {
+    _wheel.cancel(new Binding(aor, contact.getEndpoint()));
+  }
+
+  /**
+   * Reschedules the new contacts of an AOR and cancels the removed ones.
+   * Contacts that are the same instance in both collections are left alone.
+   */
+  public void update(final Endpoint aor, final Map<Endpoint, Contact> olds, final Map<Endpoint, Contact> news) {
+    if (olds != null) {
+      for (final Map.Entry<Endpoint, Contact> entry : olds.entrySet()) {
+        if (news == null || !news.containsKey(entry.getKey())) {
+          cancel(aor, entry.getValue());
+        }
+      }
+    }
+    if (news != null) {
+      for (final Map.Entry<Endpoint, Contact> entry : news.entrySet()) {
+        if (olds == null || olds.get(entry.getKey()) != entry.getValue()) {
+          schedule(aor, entry.getValue());
+        }
+      }
+    }
+  }
+
+  /**
+   * @return the contacts that are due, grouped by AOR. They are no longer
+   *         scheduled.
+   */
+  public Map<Endpoint, Collection<Endpoint>> expire(final long now) {
+    final List<Binding> expired = _wheel.expire(now);
+    if (expired.isEmpty()) {
+      return new HashMap<Endpoint, Collection<Endpoint>>(0);
+    }
+    final Map<Endpoint, Collection<Endpoint>> result = new HashMap<Endpoint, Collection<Endpoint>>();
+    for (final Binding binding : expired) {
+      Collection<Endpoint> contacts = result.get(binding._aor);
+      if (contacts == null) {
+        contacts = new ArrayList<Endpoint>(1);
+        result.put(binding._aor, contacts);
+      }
+      contacts.add(binding._contact);
+    }
+    return result;
+  }
+
+  /**
+   * @return the number of scheduled contacts.
+   */
+  public int size() {
+    return _wheel.size();
+  }
+
+  public long getTick() {
+    return _wheel.getTickMillis();
+  }
+}
@@ -39,5 +39,11 @@ public interface RegistrarStore {
   Contact getContact(Endpoint addr, Endpoint contact);
   boolean isExisting(Endpoint addr, Contact contact);
   boolean isExisting(Endpoint addr);
+  /**
+   * Sets the scheduler the store feeds with the contacts it adds, updates and
+   * removes, so that the {@link Registrar Registrar} only visits the contacts
+   * that are due to expire.
+   */
+  void setExpiryScheduler(ContactExpiryScheduler scheduler);
   void destroy();
 }
@@ -9,9 +9,11 @@ import com.voxeo.moho.Endpoint;
 import com.voxeo.moho.event.AcceptableEvent.Reason;
 import com.voxeo.moho.event.RegisterEvent;
 import com.voxeo.moho.event.RegisterEvent.Contact;
+import com.voxeo.moho.reg.ContactExpiryScheduler;
 import com.voxeo.moho.reg.Registrar;
 import com.voxeo.moho.reg.RegistrarController;
 import com.voxeo.moho.reg.RegistrarStore;
+import com.voxeo.moho.reg.impl.cassandra.NoSqlDatabaseRegisterStore;
 import com.voxeo.moho.reg.impl.mem.MemoryRegistrarStore;
 import com.voxeo.moho.sip.SIPRegisterEvent;
 import com.voxeo.moho.sip.SIPRegisterEvent.SIPContact;
@@ -21,6 +23,8 @@ import com.voxeo.moho.spi.ExecutionContext;
 public class RegistrarImpl implements Registrar, Runnable {
   protected RegistrarStore _store;
 
+  protected ContactExpiryScheduler _scheduler;
+
   protected Collection<RegistrarController> _controllers = new ArrayList<RegistrarController>();
 
   protected int _maxExpiration = 60000;
@@ -119,30 +123,43 @@ public class RegistrarImpl implements Registrar, Runnable {
   @Override
   public void run() {
     while (_running) {
-      Iterator<Endpoint> i = _store.getEndpoints();
-      Endpoint ep = null;
-      while (_running && i.hasNext()) {
-        ep = i.next();
+      try {
+        Thread.sleep(_scheduler.getTick());
+      }
+      catch (Exception e) {
+        // ignore
+      }
+      long now = System.currentTimeMillis();
+      Map<Endpoint, Collection<Endpoint>> due = _scheduler.expire(now);
+      for (Map.Entry<Endpoint, Collection<Endpoint>> entry : due.entrySet()) {
+        if (!_running) {
+          break;
+        }
+        Endpoint ep = entry.getKey();
         try {
           _store.startTx();
-          Collection<Contact> contacts = _store.getContacts(ep);
-          for (Contact contact : contacts) {
+          for (Endpoint addr : entry.getValue()) {
+            Contact contact = _store.getContact(ep, addr);
+            if (contact == null) {
+              continue;
+            }
             if (contact.isExpired()) {
               _store.remove(ep, contact);
             }
+            else {
+              // not quite there yet, check again on the next tick
+              _scheduler.schedule(ep, addr, now + _scheduler.getTick());
+            }
           }
           _store.commitTx();
         }
         catch (Throwable t) {
           _store.rollbackTx();
+          // try again on the next tick
+          for (Endpoint addr : entry.getValue()) {
+            _scheduler.schedule(ep, addr, now + _scheduler.getTick());
+          }
         }
-        Thread.yield();
-      }
-      try {
-        Thread.sleep(_maxExpiration);
-      }
-      catch (Exception e) {
-        // ignore
       }
     }
   }
@@ -155,9 +172,16 @@ public class RegistrarImpl implements Registrar, Runnable {
     if (storeImpl == null) {
       storeImpl = MemoryRegistrarStore.class.getName();
     }
+    String tick = props.get(EXPIRE_TICK);
+    _scheduler = tick != null ? new ContactExpiryScheduler(Long.parseLong(tick),
+        ContactExpiryScheduler.DEFAULT_WHEEL_SIZE) : new ContactExpiryScheduler();
     try {
       _store = (RegistrarStore) Class.forName(storeImpl).newInstance();
+      if (_store instanceof NoSqlDatabaseRegisterStore) {
+        ((NoSqlDatabaseRegisterStore) _store).setApplicationContext(context);
+      }
       _store.init(props);
+      _store.setExpiryScheduler(_scheduler);
     }
     catch (Exception e) {
       throw new IllegalArgumentException("Invalidate Registrar Store implementation: " + e);
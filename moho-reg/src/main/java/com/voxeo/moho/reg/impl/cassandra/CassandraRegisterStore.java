@@ -3,10 +3,11 @@ package com.voxeo.moho.reg.impl.cassandra;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
-import me.prettyprint.cassandra.serializers.ObjectSerializer;
+import me.prettyprint.cassandra.serializers.BytesArraySerializer;
 import me.prettyprint.cassandra.serializers.StringSerializer;
 import me.prettyprint.hector.api.Cluster;
 import me.prettyprint.hector.api.Keyspace;
@@ -15,16 +16,19 @@ import me.prettyprint.hector.api.beans.HColumn;
 import me.prettyprint.hector.api.factory.HFactory;
 import me.prettyprint.hector.api.mutation.Mutator;
 import me.prettyprint.hector.api.query.ColumnQuery;
-import me.prettyprint.hector.api.query.CountQuery;
 import me.prettyprint.hector.api.query.QueryResult;
 import me.prettyprint.hector.api.query.SliceQuery;
 
+import com.voxeo.moho.ApplicationContext;
 import com.voxeo.moho.Endpoint;
+import com.voxeo.moho.common.codec.BinaryCodecRegistry;
+import com.voxeo.moho.common.util.MutationBuffer;
+import com.voxeo.moho.common.util.MutationBuffer.Mutation;
 import com.voxeo.moho.event.RegisterEvent.Contact;
 
 public class CassandraRegisterStore extends NoSqlDatabaseRegisterStore {
   
-  private static final ObjectSerializer OBJECT_SERIALIZER = ObjectSerializer.get();
+  private static final BytesArraySerializer BYTES_SERIALIZER = BytesArraySerializer.get();
   
   private static final StringSerializer STRING_SERIALIZER = StringSerializer.get();
   
@@ -36,10 +40,30 @@ public class CassandraRegisterStore extends NoSqlDatabaseRegisterStore {
   
   private static final String DEFAULT_COLUMN_FAMILY_NAME = "Bindings";
 
+  private static final int DEFAULT_WRITE_BEHIND_BATCH_SIZE = 500;
+
   private Cluster _cluster;
   
   private Keyspace _keyspace;
 
+  private BinaryCodecRegistry _codecs = createCodecs(null);
+
+  private boolean _binaryCodec;
+
+  /**
+   * Contacts are read back with the SIP endpoints created by the context.
+   */
+  @Override
+  public void setApplicationContext(ApplicationContext context) {
+    _codecs = createCodecs(context);
+  }
+
+  private static BinaryCodecRegistry createCodecs(ApplicationContext context) {
+    BinaryCodecRegistry codecs = new BinaryCodecRegistry();
+    codecs.register(ContactCodec.TYPE_ID, new ContactCodec(context));
+    return codecs;
+  }
+
   @Override
   public void init(Map<String, String> props) {
     String databaseAddress = props.get("databaseAddress");
@@ -48,6 +72,65 @@ public class CassandraRegisterStore extends NoSqlDatabaseRegisterStore {
     
     _cluster = HFactory.getOrCreateCluster(clusterName != null ? clusterName : DEFAULT_CLUSTER_NAME, databaseAddress != null ? databaseAddress : DEFAULT_DATABASE_ADDRESS);
     _keyspace = HFactory.createKeyspace(keySapceName != null ? keySapceName : DEFAULT_KEYSPACE_NAME, _cluster);
+
+    // contacts are written with the binary codec unless binaryCodec is false, both formats are read
+    String binaryCodec = props.get("binaryCodec");
+    _binaryCodec = binaryCodec == null || Boolean.parseBoolean(binaryCodec);
+
+    String writeBehindInterval = props.get("writeBehindInterval");
+    String writeBehindBatchSize = props.get("writeBehindBatchSize");
+    _buffer = new MutationBuffer(new MutationBuffer.Sink() {
+      @Override
+      public void write(List<Mutation> batch) {
+        executeBatch(batch);
+      }
+    }, new MutationBuffer.Codec() {
+      @Override
+      public byte[] encode(Object value) {
+        return CassandraRegisterStore.this.encode((Contact) value);
+      }
+
+      @Override
+      public Object decode(byte[] bytes) {
+        return CassandraRegisterStore.this.decode(bytes);
+      }
+    }, writeBehindInterval != null ? Long.parseLong(writeBehindInterval) : 0,
+        writeBehindBatchSize != null ? Integer.parseInt(writeBehindBatchSize) : DEFAULT_WRITE_BEHIND_BATCH_SIZE);
+    String writeBehindMaxPending = props.get("writeBehindMaxPending");
+    if (writeBehindMaxPending != null) {
+      _buffer.setMaxPending(Integer.parseInt(writeBehindMaxPending));
+    }
+    String writeBehindMaxRetries = props.get("writeBehindMaxRetries");
+    if (writeBehindMaxRetries != null) {
+      _buffer.setMaxRetries(Integer.parseInt(writeBehindMaxRetries));
+    }
+  }
+
+  private byte[] encode(Contact contact) {
+    return _binaryCodec ? _codecs.toBytes(contact) : BinaryCodecRegistry.serialize(contact);
+  }
+
+  private Contact decode(byte[] bytes) {
+    return (Contact) _codecs.fromBytes(bytes);
+  }
+
+  private void executeBatch(List<Mutation> batch) {
+    Mutator<String> mutator = getMutator();
+    for (Mutation mutation : batch) {
+      String key = (String) mutation.getKey();
+      if (mutation.isRowDeletion()) {
+        mutator.addDeletion(key, mutation.getColumnFamily());
+      }
+      else if (mutation.isDeletion()) {
+        mutator.addDeletion(key, mutation.getColumnFamily(), mutation.getColumn(), STRING_SERIALIZER);
+      }
+      else {
+        // the contact was encoded when it was buffered
+        mutator.addInsertion(key, mutation.getColumnFamily(), HFactory.createColumn(mutation.getColumn(),
+            mutation.getBytes(), STRING_SERIALIZER, BYTES_SERIALIZER));
+      }
+    }
+    mutator.execute();
   }
 
   @Override
@@ -65,31 +148,32 @@ public class CassandraRegisterStore extends NoSqlDatabaseRegisterStore {
   }
 
   private void insertContact(Endpoint addr, Contact contact) {
-    Mutator<String> mutator = getMutator();
-    mutator.addInsertion(getCleanUri(addr), DEFAULT_COLUMN_FAMILY_NAME, HFactory.createColumn(contact.getEndpoint().getURI().toString(), contact, STRING_SERIALIZER, OBJECT_SERIALIZER));
-    mutator.execute();
+    _buffer.insert(getCleanUri(addr), DEFAULT_COLUMN_FAMILY_NAME, contact.getEndpoint().getURI().toString(), contact);
+    scheduleExpiry(addr, contact);
   }
   
   @Override
   public void remove(Endpoint addr, Contact contact) {
-    Mutator<String> mutator = getMutator();
-    mutator.addDeletion(getCleanUri(addr), DEFAULT_COLUMN_FAMILY_NAME, contact.getEndpoint().getURI().toString(), STRING_SERIALIZER);
-    mutator.execute();
+    _buffer.delete(getCleanUri(addr), DEFAULT_COLUMN_FAMILY_NAME, contact.getEndpoint().getURI().toString());
+    cancelExpiry(addr, contact);
   }
 
   @Override
   public void remove(Endpoint addr) {
-    Mutator<String> mutator = getMutator();
-    mutator.addDeletion(getCleanUri(addr), DEFAULT_COLUMN_FAMILY_NAME);
-    mutator.execute();
+    Collection<Contact> contacts = _scheduler != null ? getContacts(addr) : null;
+    _buffer.deleteRow(getCleanUri(addr), DEFAULT_COLUMN_FAMILY_NAME);
+    if (contacts != null) {
+      for (Contact contact : contacts) {
+        cancelExpiry(addr, contact);
+      }
+    }
   }
 
   @Override
   public Collection<Contact> getContacts(Endpoint addr) {
     Collection<Contact> contacts = new ArrayList<Contact>();
-    List<HColumn<String, Object>> columns = querySliceResult(addr).getColumns();
-    for (HColumn<String, Object> hcolumn : columns) {
-      contacts.add((Contact) hcolumn.getValue());
+    for (Object value : queryRow(addr).values()) {
+      contacts.add((Contact) value);
     }
     return contacts;
   }
@@ -101,11 +185,7 @@ public class CassandraRegisterStore extends NoSqlDatabaseRegisterStore {
 
   @Override
   public Contact getContact(Endpoint addr, Endpoint contact) {
-    HColumn<String, Object> result = queryResult(addr, contact);
-    if (result == null) {
-      return null;
-    }
-    return (Contact) result.getValue();
+    return queryResult(addr, contact);
   }
 
   @Override
@@ -119,14 +199,19 @@ public class CassandraRegisterStore extends NoSqlDatabaseRegisterStore {
     return queryResult(addr, contact.getEndpoint()) != null;
   }
   
-  private HColumn<String, Object> queryResult(Endpoint addr, Endpoint contact) {
-    ColumnQuery<String, String, Object> createColumnQuery = HFactory.createColumnQuery(_keyspace, STRING_SERIALIZER, STRING_SERIALIZER, OBJECT_SERIALIZER);
+  private Contact queryResult(Endpoint addr, Endpoint contact) {
+    Mutation buffered = _buffer.lookup(getCleanUri(addr), DEFAULT_COLUMN_FAMILY_NAME, contact.getURI().toString());
+    if (buffered != null) {
+      return buffered.isDeletion() ? null : (Contact) buffered.getValue();
+    }
+    ColumnQuery<String, String, byte[]> createColumnQuery = HFactory.createColumnQuery(_keyspace, STRING_SERIALIZER, STRING_SERIALIZER, BYTES_SERIALIZER);
     createColumnQuery.setColumnFamily(DEFAULT_COLUMN_FAMILY_NAME);
     createColumnQuery.setKey(getCleanUri(addr));
     createColumnQuery.setName(contact.getURI().toString());
     
-    QueryResult<HColumn<String, Object>> queryResult = createColumnQuery.execute();
-    return queryResult.get();
+    QueryResult<HColumn<String, byte[]>> queryResult = createColumnQuery.execute();
+    HColumn<String, byte[]> result = queryResult.get();
+    return result != null ? decode(result.getValue()) : null;
   }
   
   private String getCleanUri(Endpoint addr) {
@@ -140,22 +225,35 @@ public class CassandraRegisterStore extends NoSqlDatabaseRegisterStore {
 
   @Override
   public boolean isExisting(Endpoint addr) {
-    return querySliceResult(addr).getColumns().size() > 0;
+    return queryRow(addr).size() > 0;
+  }
+
+  /**
+   * @return the contacts of the AOR by URI, including the writes that have not
+   *         been flushed yet.
+   */
+  private Map<String, Object> queryRow(Endpoint addr) {
+    Map<String, Object> stored = new LinkedHashMap<String, Object>();
+    for (HColumn<String, byte[]> hcolumn : querySliceResult(addr).getColumns()) {
+      stored.put(hcolumn.getName(), decode(hcolumn.getValue()));
+    }
+    return _buffer.merge(getCleanUri(addr), DEFAULT_COLUMN_FAMILY_NAME, stored);
   }
   
-  private ColumnSlice<String, Object> querySliceResult(Endpoint addr) {
-    SliceQuery<String, String, Object> createSliceQuery = HFactory.createSliceQuery(_keyspace, STRING_SERIALIZER, STRING_SERIALIZER, OBJECT_SERIALIZER);
+  private ColumnSlice<String, byte[]> querySliceResult(Endpoint addr) {
+    SliceQuery<String, String, byte[]> createSliceQuery = HFactory.createSliceQuery(_keyspace, STRING_SERIALIZER, STRING_SERIALIZER, BYTES_SERIALIZER);
     createSliceQuery.setColumnFamily(DEFAULT_COLUMN_FAMILY_NAME);
     createSliceQuery.setKey(getCleanUri(addr));
     createSliceQuery.setColumnNames("", "");
     createSliceQuery.setRange("", "", false, Integer.MAX_VALUE);
-    QueryResult<ColumnSlice<String, Object>> execute = createSliceQuery.execute();
-    ColumnSlice<String, Object> columnSlice = execute.get();
+    QueryResult<ColumnSlice<String, byte[]>> execute = createSliceQuery.execute();
+    ColumnSlice<String, byte[]> columnSlice = execute.get();
     return columnSlice;
   }
 
   @Override
   public void destroy() {
+    _buffer.destroy();
     _cluster.getConnectionManager().shutdown();
     HFactory.shutdownCluster(_cluster);
     _keyspace = null;
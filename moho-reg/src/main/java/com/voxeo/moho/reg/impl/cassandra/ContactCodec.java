@@ -0,0 +1,223 @@
+package com.voxeo.moho.reg.impl.cassandra;
+
+import static com.voxeo.moho.common.codec.BinaryCodecRegistry.readString;
+import static com.voxeo.moho.common.codec.BinaryCodecRegistry.writeString;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.URI;
+
+import com.voxeo.moho.ApplicationContext;
+import com.voxeo.moho.Endpoint;
+import com.voxeo.moho.common.codec.BinaryCodec;
+import com.voxeo.moho.common.codec.BinaryCodecRegistry;
+import com.voxeo.moho.event.RegisterEvent.Contact;
+import com.voxeo.moho.sip.SIPEndpoint;
+import com.voxeo.moho.sip.SIPRegisterEvent.SIPContact;
+import com.voxeo.moho.sip.SIPRegisterEventImpl;
+
+/**
+ * Binary codec of the registered contacts. Only what the registrar needs is
+ * kept: the contact URI, the expiration and, for SIP contacts, the Call-ID and
+ * CSeq of the REGISTER, and the time the contact was registered. Contacts are
+ * read back as {@link StoredContact}. With an application context, SIP
+ * endpoints are read back as {@link SIPEndpoint} created by the context,
+ * otherwise as {@link StoredEndpoint}.
+ */
+public class ContactCodec implements BinaryCodec<Contact> {
+
+  public static final int TYPE_ID = 1;
+
+  private static final int SIP = 1;
+
+  private static final int WILDCARD = 2;
+
+  private static final int SIP_ENDPOINT = 4;
+
+  private final ApplicationContext _context;
+
+  public ContactCodec() {
+    this(null);
+  }
+
+  /**
+   * @param context
+   *          creates the SIP endpoints of the contacts read, may be null.
+   */
+  public ContactCodec(ApplicationContext context) {
+    _context = context;
+  }
+
+  @Override
+  public Class<Contact> getType() {
+    return Contact.class;
+  }
+
+  @Override
+  public int getVersion() {
+    return 1;
+  }
+
+  @Override
+  public void write(Contact value, DataOutput out, BinaryCodecRegistry registry) throws IOException {
+    int flags = 0;
+    if (value instanceof SIPContact) {
+      flags |= SIP;
+    }
+    if (value.isWildCard()) {
+      flags |= WILDCARD;
+    }
+    if (value.getEndpoint() instanceof SIPEndpoint) {
+      flags |= SIP_ENDPOINT;
+    }
+    out.writeByte(flags);
+    writeString(value.getEndpoint().getURI().toString(), out);
+    out.writeInt(value.getExpiration());
+    out.writeLong(getCreationTime(value));
+    if (value instanceof SIPContact) {
+      writeString(((SIPContact) value).getCallID(), out);
+      out.writeInt(((SIPContact) value).getCSeq());
+    }
+  }
+
+  @Override
+  public Contact read(DataInput in, int version, BinaryCodecRegistry registry) throws IOException {
+    int flags = in.readUnsignedByte();
+    String uri = readString(in);
+    Endpoint endpoint = (flags & SIP_ENDPOINT) != 0 && _context != null ? _context.createEndpoint(uri)
+        : new StoredEndpoint(URI.create(uri));
+    int expiration = in.readInt();
+    long creationTime = in.readLong();
+    String callID = null;
+    int cseq = 0;
+    if ((flags & SIP) != 0) {
+      callID = readString(in);
+      cseq = in.readInt();
+    }
+    return new StoredContact(endpoint, expiration, creationTime, (flags & WILDCARD) != 0, callID, cseq);
+  }
+
+  /**
+   * @return the time the contact was registered or refreshed, now for the
+   *         contacts that do not keep it.
+   */
+  private static long getCreationTime(Contact contact) {
+    if (contact instanceof StoredContact) {
+      return ((StoredContact) contact).getCreationTime();
+    }
+    if (contact instanceof SIPRegisterEventImpl.ContactImpl) {
+      return ((SIPRegisterEventImpl.ContactImpl) contact).getCreationTime();
+    }
+    return System.currentTimeMillis();
+  }
+
+  /**
+   * The endpoint of a contact read from the store.
+   */
+  public static class StoredEndpoint implements Endpoint, Serializable {
+
+    private static final long serialVersionUID = 4518375209613845302L;
+
+    private final URI _uri;
+
+    public StoredEndpoint(URI uri) {
+      _uri = uri;
+    }
+
+    @Override
+    public String getName() {
+      return _uri.getSchemeSpecificPart();
+    }
+
+    @Override
+    public URI getURI() {
+      return _uri;
+    }
+
+    @Override
+    public int hashCode() {
+      return _uri.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof StoredEndpoint && _uri.equals(((StoredEndpoint) o)._uri);
+    }
+
+    @Override
+    public String toString() {
+      return _uri.toString();
+    }
+  }
+
+  /**
+   * A contact read from the store.
+   */
+  public static class StoredContact implements SIPContact {
+
+    private static final long serialVersionUID = -6250873541916245740L;
+
+    private final Endpoint _endpoint;
+
+    private final int _expiration;
+
+    private final long _creationTime;
+
+    private final boolean _wildCard;
+
+    private final String _callID;
+
+    private final int _cseq;
+
+    public StoredContact(Endpoint endpoint, int expiration, long creationTime, boolean wildCard,
+        String callID, int cseq) {
+      _endpoint = endpoint;
+      _expiration = expiration;
+      _creationTime = creationTime;
+      _wildCard = wildCard;
+      _callID = callID;
+      _cseq = cseq;
+    }
+
+    @Override
+    public Endpoint getEndpoint() {
+      return _endpoint;
+    }
+
+    @Override
+    public int getExpiration() {
+      return _expiration;
+    }
+
+    public long getCreationTime() {
+      return _creationTime;
+    }
+
+    @Override
+    public boolean isWildCard() {
+      return _wildCard;
+    }
+
+    @Override
+    public boolean isExpired() {
+      return (System.currentTimeMillis() - _creationTime) > (_expiration * 1000L);
+    }
+
+    @Override
+    public String getCallID() {
+      return _callID;
+    }
+
+    @Override
+    public int getCSeq() {
+      return _cseq;
+    }
+
+    @Override
+    public String toString() {
+      return _endpoint.toString() + ";expiration=" + _expiration;
+    }
+  }
+}
@@ -1,16 +1,115 @@
 package com.voxeo.moho.reg.impl.cassandra;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import com.voxeo.moho.ApplicationContext;
+import com.voxeo.moho.Endpoint;
+import com.voxeo.moho.common.util.MutationBuffer;
+import com.voxeo.moho.event.RegisterEvent.Contact;
+import com.voxeo.moho.reg.ContactExpiryScheduler;
 import com.voxeo.moho.reg.RegistrarStore;
 
 public abstract class NoSqlDatabaseRegisterStore implements RegistrarStore {
 
+  protected ContactExpiryScheduler _scheduler;
+
+  protected MutationBuffer _buffer;
+
+  // the expiry timers to schedule or cancel once the transaction of this thread commits
+  private final ThreadLocal<List<ExpiryUpdate>> _expiryUpdates = new ThreadLocal<List<ExpiryUpdate>>();
+
+  static final class ExpiryUpdate {
+    final Endpoint _aor;
+
+    final Contact _contact;
+
+    final boolean _cancel;
+
+    ExpiryUpdate(final Endpoint aor, final Contact contact, final boolean cancel) {
+      _aor = aor;
+      _contact = contact;
+      _cancel = cancel;
+    }
+  }
+
+  public void setExpiryScheduler(ContactExpiryScheduler scheduler) {
+    _scheduler = scheduler;
+  }
+
+  /**
+   * Sets the context the endpoints of the contacts read from the database are
+   * created with. Called before {@link #init(java.util.Map)}.
+   */
+  public void setApplicationContext(ApplicationContext context) {
+  }
+
   public void startTx() {
+    if (_buffer != null) {
+      _buffer.startTx();
+    }
   }
 
   public void commitTx() {
+    final List<ExpiryUpdate> updates = _expiryUpdates.get();
+    _expiryUpdates.remove();
+    if (_buffer != null) {
+      _buffer.commitTx();
+    }
+    if (updates != null) {
+      for (final ExpiryUpdate update : updates) {
+        applyExpiry(update._aor, update._contact, update._cancel);
+      }
+    }
   }
 
   public void rollbackTx() {
+    _expiryUpdates.remove();
+    if (_buffer != null) {
+      _buffer.rollbackTx();
+    }
+  }
+
+  /**
+   * Schedules the expiry of the contact once the mutations of the transaction
+   * have been committed, or right away outside of a transaction.
+   */
+  protected void scheduleExpiry(final Endpoint aor, final Contact contact) {
+    updateExpiry(aor, contact, false);
+  }
+
+  /**
+   * Cancels the expiry of the contact once the mutations of the transaction
+   * have been committed, or right away outside of a transaction.
+   */
+  protected void cancelExpiry(final Endpoint aor, final Contact contact) {
+    updateExpiry(aor, contact, true);
+  }
+
+  private void updateExpiry(final Endpoint aor, final Contact contact, final boolean cancel) {
+    if (_scheduler == null) {
+      return;
+    }
+    if (_buffer != null && _buffer.isInTx()) {
+      List<ExpiryUpdate> updates = _expiryUpdates.get();
+      if (updates == null) {
+        updates = new ArrayList<ExpiryUpdate>(2);
+        _expiryUpdates.set(updates);
+      }
+      updates.add(new ExpiryUpdate(aor, contact, cancel));
+    }
+    else {
+      applyExpiry(aor, contact, cancel);
+    }
+  }
+
+  private void applyExpiry(final Endpoint aor, final Contact contact, final boolean cancel) {
+    if (cancel) {
+      _scheduler.cancel(aor, contact);
+    }
+    else {
+      _scheduler.schedule(aor, contact);
+    }
   }
 
 }
@@ -0,0 +1,325 @@
+package com.voxeo.moho.reg.impl.mem;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.voxeo.moho.Endpoint;
+import com.voxeo.moho.event.RegisterEvent.Contact;
+import com.voxeo.moho.reg.ContactExpiryScheduler;
+import com.voxeo.moho.reg.RegistrarStore;
+
+/**
+ * In memory {@link RegistrarStore} for a large number of registrations. The
+ * AORs are spread over a number of {@link ConcurrentHashMap} shards and the
+ * contacts of each AOR are kept in an immutable, versioned {@link Binding}.
+ * <p>
+ * Reads never copy or lock. A transaction only copies the contacts of the AORs
+ * it modifies and publishes them on commit with a compare-and-set against the
+ * binding it has read. If another thread has committed the same AOR in the
+ * meantime, the commit fails with a {@link ConcurrentModificationException} and
+ * the caller rolls back. Commits are atomic per AOR.
+ * <p>
+ * As concurrent REGISTERs of the same AOR can fail, this store is not the
+ * default one. Select it with the {@link com.voxeo.moho.reg.Registrar#STORE_IMPL}
+ * property.
+ * <p>
+ * The number of shards can be configured with the {@link #SHARDS} property.
+ */
+public class ConcurrentRegistrarStore implements RegistrarStore {
+
+  public static final String SHARDS = "com.voxeo.moho.reg.store.shards";
+
+  protected static final int DEFAULT_SHARDS = 64;
+
+  protected ConcurrentMap<Endpoint, Binding>[] _shards;
+
+  protected int _mask;
+
+  protected final ThreadLocal<Tx> _tx = new ThreadLocal<Tx>();
+
+  protected volatile ContactExpiryScheduler _scheduler;
+
+  public ConcurrentRegistrarStore() {
+    createShards(DEFAULT_SHARDS);
+  }
+
+  /**
+   * The committed contacts of an AOR. Never modified once published.
+   */
+  protected static final class Binding {
+    final Map<Endpoint, Contact> _contacts;
+
+    final long _version;
+
+    Binding(final Map<Endpoint, Contact> contacts, final long version) {
+      _contacts = Collections.unmodifiableMap(contacts);
+      _version = version;
+    }
+
+    public Map<Endpoint, Contact> getContacts() {
+      return _contacts;
+    }
+
+    public long getVersion() {
+      return _version;
+    }
+  }
+
+  /**
+   * The pending changes of an AOR within a transaction.
+   */
+  static final class Change {
+    final Binding _base;
+
+    HashMap<Endpoint, Contact> _contacts;
+
+    Change(final Binding base) {
+      _base = base;
+    }
+
+    Map<Endpoint, Contact> read() {
+      if (_contacts != null) {
+        return _contacts;
+      }
+      if (_base != null) {
+        return _base._contacts;
+      }
+      return Collections.<Endpoint, Contact> emptyMap();
+    }
+
+    HashMap<Endpoint, Contact> write() {
+      if (_contacts == null) {
+        _contacts = _base != null ? new HashMap<Endpoint, Contact>(_base._contacts) : new HashMap<Endpoint, Contact>();
+      }
+      return _contacts;
+    }
+  }
+
+  class Tx {
+    final HashMap<Endpoint, Change> _changes = new HashMap<Endpoint, Change>(4);
+
+    Change get(final Endpoint aor) {
+      Change change = _changes.get(aor);
+      if (change == null) {
+        change = new Change(shard(aor).get(aor));
+        _changes.put(aor, change);
+      }
+      return change;
+    }
+
+    void commit() {
+      for (final Map.Entry<Endpoint, Change> entry : _changes.entrySet()) {
+        final Change change = entry.getValue();
+        if (change._contacts == null) {
+          continue;
+        }
+        final Endpoint aor = entry.getKey();
+        final ConcurrentMap<Endpoint, Binding> shard = shard(aor);
+        final Binding base = change._base;
+        final boolean committed;
+        if (change._contacts.isEmpty()) {
+          committed = base == null ? !shard.containsKey(aor) : shard.remove(aor, base);
+        }
+        else {
+          final Binding binding = new Binding(change._contacts, base == null ? 1 : base._version + 1);
+          committed = base == null ? shard.putIfAbsent(aor, binding) == null : shard.replace(aor, base, binding);
+        }
+        if (!committed) {
+          throw new ConcurrentModificationException("Binding of " + aor + " has been modified since version "
+              + (base == null ? 0 : base._version));
+        }
+        final ContactExpiryScheduler scheduler = _scheduler;
+        if (scheduler != null) {
+          scheduler.update(aor, base != null ? base._contacts : null, change._contacts);
+        }
+      }
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  protected void createShards(final int count) {
+    int size = 1;
+    while (size < count) {
+      size <<= 1;
+    }
+    _shards = new ConcurrentMap[size];
+    for (int i = 0; i < size; i++) {
+      _shards[i] = new ConcurrentHashMap<Endpoint, Binding>();
+    }
+    _mask = size - 1;
+  }
+
+  protected ConcurrentMap<Endpoint, Binding> shard(final Endpoint aor) {
+    int h = aor.hashCode();
+    h ^= (h >>> 20) ^ (h >>> 12);
+    h ^= (h >>> 7) ^ (h >>> 4);
+    return _shards[h & _mask];
+  }
+
+  /**
+   * @return the committed binding of the AOR, null if it has no contacts.
+   */
+  protected Binding getBinding(final Endpoint aor) {
+    return shard(aor).get(aor);
+  }
+
+  @Override
+  public void init(final Map<String, String> props) {
+    final String shards = props != null ? props.get(SHARDS) : null;
+    if (shards != null) {
+      createShards(Integer.parseInt(shards));
+    }
+  }
+
+  @Override
+  public void setExpiryScheduler(final ContactExpiryScheduler scheduler) {
+    _scheduler = scheduler;
+  }
+
+  @Override
+  public void startTx() {
+    if (_tx.get() != null) {
+      throw new IllegalStateException("There is already an open transaction on this thread[" + Thread.currentThread()
+          + "]");
+    }
+    _tx.set(new Tx());
+  }
+
+  @Override
+  public void commitTx() {
+    final Tx tx = getTx();
+    _tx.remove();
+    tx.commit();
+  }
+
+  @Override
+  public void rollbackTx() {
+    _tx.remove();
+  }
+
+  Tx getTx() {
+    final Tx tx = _tx.get();
+    if (tx == null) {
+      throw new IllegalStateException("No transaction has been started on this thread[" + Thread.currentThread() + "]");
+    }
+    return tx;
+  }
+
+  @Override
+  public void add(final Endpoint addr, final Contact contact) {
+    getTx().get(addr).write().put(contact.getEndpoint(), contact);
+  }
+
+  @Override
+  public void update(final Endpoint addr, final Contact contact) {
+    getTx().get(addr).write().put(contact.getEndpoint(), contact);
+  }
+
+  @Override
+  public void remove(final Endpoint addr, final Contact contact) {
+    getTx().get(addr).write().remove(contact.getEndpoint());
+  }
+
+  @Override
+  public void remove(final Endpoint addr) {
+    getTx().get(addr).write().clear();
+  }
+
+  @Override
+  public Collection<Contact> getContacts(final Endpoint addr) {
+    final Tx tx = _tx.get();
+    if (tx == null) {
+      final Binding binding = getBinding(addr);
+      return binding != null ? binding._contacts.values() : Collections.<Contact> emptyList();
+    }
+    final Change change = tx.get(addr);
+    if (change._contacts != null) {
+      // a snapshot, the caller may modify the contacts while iterating
+      return new ArrayList<Contact>(change._contacts.values());
+    }
+    return change.read().values();
+  }
+
+  @Override
+  public Contact getContact(final Endpoint aor, final Endpoint addr) {
+    final Tx tx = _tx.get();
+    if (tx == null) {
+      final Binding binding = getBinding(aor);
+      return binding != null ? binding._contacts.get(addr) : null;
+    }
+    return tx.get(aor).read().get(addr);
+  }
+
+  /**
+   * @return a weakly consistent iterator over the AORs, nothing is copied.
+   */
+  @Override
+  public Iterator<Endpoint> getEndpoints() {
+    return new Iterator<Endpoint>() {
+      int _shard = 0;
+
+      Iterator<Endpoint> _current = _shards[0].keySet().iterator();
+
+      @Override
+      public boolean hasNext() {
+        while (!_current.hasNext()) {
+          if (++_shard >= _shards.length) {
+            return false;
+          }
+          _current = _shards[_shard].keySet().iterator();
+        }
+        return true;
+      }
+
+      @Override
+      public Endpoint next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        return _current.next();
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  @Override
+  public boolean isExisting(final Endpoint addr, final Contact contact) {
+    final Binding binding = getBinding(addr);
+    return binding != null && binding._contacts.containsKey(contact.getEndpoint());
+  }
+
+  @Override
+  public boolean isExisting(final Endpoint addr) {
+    return getBinding(addr) != null;
+  }
+
+  /**
+   * @return the number of AORs with at least one contact.
+   */
+  public int size() {
+    int size = 0;
+    for (final ConcurrentMap<Endpoint, Binding> shard : _shards) {
+      size += shard.size();
+    }
+    return size;
+  }
+
+  @Override
+  public void destroy() {
+    for (final ConcurrentMap<Endpoint, Binding> shard : _shards) {
+      shard.clear();
+    }
+  }
+}
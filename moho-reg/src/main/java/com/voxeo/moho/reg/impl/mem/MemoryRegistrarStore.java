@@ -9,11 +9,13 @@ import java.util.Set;
 
 import com.voxeo.moho.Endpoint;
 import com.voxeo.moho.event.RegisterEvent.Contact;
+import com.voxeo.moho.reg.ContactExpiryScheduler;
 import com.voxeo.moho.reg.RegistrarStore;
 
 public class MemoryRegistrarStore implements RegistrarStore {
   HashMap<Endpoint, HashMap<Endpoint, Contact>> _tables = new HashMap<Endpoint, HashMap<Endpoint, Contact>>(); 
   ThreadLocal<Tx> _tx;
+  ContactExpiryScheduler _scheduler;
   
   class Tx{
     HashMap<Endpoint, HashMap<Endpoint, Contact>> _mods;
@@ -27,6 +29,9 @@ public class MemoryRegistrarStore implements RegistrarStore {
         for(Endpoint ep : _mods.keySet()) {
           HashMap<Endpoint, Contact> news = _mods.get(ep);
           HashMap<Endpoint, Contact> olds = _tables.get(ep);
+          if (_scheduler != null) {
+            _scheduler.update(ep, olds, news);
+          }
           if (olds != null) {
             olds.clear();
             for(Endpoint epp : news.keySet()) {
@@ -191,6 +196,11 @@ public class MemoryRegistrarStore implements RegistrarStore {
   public void init(Map<String, String> props) {
   }
 
+  @Override
+  public void setExpiryScheduler(ContactExpiryScheduler scheduler) {
+    _scheduler = scheduler;
+  }
+
   @Override
   public void destroy() {
   }
@@ -0,0 +1,109 @@
+package com.voxeo.moho.reg;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.voxeo.moho.Endpoint;
+import com.voxeo.moho.common.util.HashedTimingWheel;
+import com.voxeo.moho.reg.impl.mem.ConcurrentRegistrarStore;
+import com.voxeo.moho.reg.impl.mem.ConcurrentRegistrarStoreTest.MockContact;
+import com.voxeo.moho.reg.impl.mem.ConcurrentRegistrarStoreTest.MockEndpoint;
+
+public class ContactExpirySchedulerTest {
+
+  @Test
+  public void testExpireOnlyDueKeys() {
+    HashedTimingWheel<String> wheel = new HashedTimingWheel<String>(100, 16);
+    long now = System.currentTimeMillis();
+    wheel.schedule("a", now + 250);
+    wheel.schedule("b", now + 1000);
+    // more than one revolution away
+    wheel.schedule("c", now + 5000);
+
+    assertTrue(wheel.expire(now + 100).isEmpty());
+    assertEquals("a", wheel.expire(now + 300).get(0));
+    assertTrue(wheel.expire(now + 900).isEmpty());
+    assertEquals("b", wheel.expire(now + 1100).get(0));
+    assertTrue(wheel.expire(now + 4900).isEmpty());
+    assertEquals("c", wheel.expire(now + 5100).get(0));
+    assertEquals(0, wheel.size());
+  }
+
+  @Test
+  public void testRescheduleAndCancel() {
+    HashedTimingWheel<String> wheel = new HashedTimingWheel<String>(100, 16);
+    long now = System.currentTimeMillis();
+    wheel.schedule("a", now + 200);
+    wheel.schedule("a", now + 800);
+    wheel.schedule("b", now + 200);
+    assertTrue(wheel.cancel("b"));
+
+    assertTrue(wheel.expire(now + 500).isEmpty());
+    assertTrue(wheel.isScheduled("a"));
+    assertEquals(1, wheel.expire(now + 900).size());
+    assertFalse(wheel.isScheduled("a"));
+  }
+
+  @Test
+  public void testScheduleInThePast() {
+    HashedTimingWheel<String> wheel = new HashedTimingWheel<String>(100, 16);
+    long now = System.currentTimeMillis();
+    wheel.expire(now + 1000);
+    wheel.schedule("a", now);
+    // picked up on the next tick
+    assertEquals("a", wheel.expire(now + 1100).get(0));
+  }
+
+  @Test
+  public void testStoreFeedsScheduler() {
+    ContactExpiryScheduler scheduler = new ContactExpiryScheduler();
+    ConcurrentRegistrarStore store = new ConcurrentRegistrarStore();
+    store.setExpiryScheduler(scheduler);
+    MockEndpoint aor = new MockEndpoint("sip:test1@voxeo.com");
+    MockContact contact1 = new MockContact("sip:test1@127.0.0.1");
+    MockContact contact2 = new MockContact("sip:test1@172.21.0.191");
+
+    store.startTx();
+    store.add(aor, contact1);
+    store.add(aor, contact2);
+    store.commitTx();
+    assertEquals(2, scheduler.size());
+
+    store.startTx();
+    store.remove(aor, contact1);
+    store.commitTx();
+    assertEquals(1, scheduler.size());
+
+    Map<Endpoint, Collection<Endpoint>> due = scheduler.expire(System.currentTimeMillis()
+        + contact2.getExpiration() * 1000L + 1000);
+    assertEquals(1, due.size());
+    assertEquals(contact2.getEndpoint(), due.get(aor).iterator().next());
+  }
+
+  @Test
+  public void testExpireOneMillionBindings() {
+    int bindings = 1000000;
+    HashedTimingWheel<Integer> wheel = new HashedTimingWheel<Integer>(100, 4096);
+    long now = System.currentTimeMillis();
+
+    for (int i = 0; i < bindings; i++) {
+      // spread over one hour
+      wheel.schedule(i, now + (i % 36000) * 100L + 100);
+    }
+    List<Integer> expired = wheel.expire(now + 1000);
+    assertEquals(bindings / 36000 * 10, expired.size(), bindings / 36000);
+
+    int total = expired.size();
+    for (long t = now + 1000; t <= now + 3600000 + 100; t += 100) {
+      total += wheel.expire(t).size();
+    }
+    assertEquals(bindings, total);
+  }
+}
@@ -0,0 +1,253 @@
+package com.voxeo.moho.reg.impl.cassandra;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Serializable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.voxeo.moho.ApplicationContext;
+import com.voxeo.moho.Endpoint;
+import com.voxeo.moho.common.codec.BinaryCodecRegistry;
+import com.voxeo.moho.common.codec.ListCodec;
+import com.voxeo.moho.event.RegisterEvent.Contact;
+import com.voxeo.moho.reg.impl.cassandra.ContactCodec.StoredContact;
+import com.voxeo.moho.reg.impl.cassandra.ContactCodec.StoredEndpoint;
+import com.voxeo.moho.sip.SIPEndpoint;
+import com.voxeo.moho.sip.SIPRegisterEvent.SIPContact;
+
+public class ContactCodecTest {
+
+  static class SerializableEndpoint implements Endpoint, Serializable {
+    private static final long serialVersionUID = 2712467012391146811L;
+
+    URI _uri;
+
+    SerializableEndpoint(String uri) {
+      _uri = URI.create(uri);
+    }
+
+    @Override
+    public String getName() {
+      return null;
+    }
+
+    @Override
+    public URI getURI() {
+      return _uri;
+    }
+  }
+
+  /**
+   * A SIP contact as the registrar used to serialize it.
+   */
+  static class MockSIPContact implements SIPContact {
+    private static final long serialVersionUID = 8390364924312087437L;
+
+    Endpoint _endpoint;
+
+    int _expiration;
+
+    String _callID;
+
+    int _cseq;
+
+    MockSIPContact(String uri, int expiration, String callID, int cseq) {
+      this(new SerializableEndpoint(uri), expiration, callID, cseq);
+    }
+
+    MockSIPContact(Endpoint endpoint, int expiration, String callID, int cseq) {
+      _endpoint = endpoint;
+      _expiration = expiration;
+      _callID = callID;
+      _cseq = cseq;
+    }
+
+    @Override
+    public Endpoint getEndpoint() {
+      return _endpoint;
+    }
+
+    @Override
+    public int getExpiration() {
+      return _expiration;
+    }
+
+    @Override
+    public boolean isWildCard() {
+      return false;
+    }
+
+    @Override
+    public boolean isExpired() {
+      return false;
+    }
+
+    @Override
+    public String getCallID() {
+      return _callID;
+    }
+
+    @Override
+    public int getCSeq() {
+      return _cseq;
+    }
+  }
+
+  private static BinaryCodecRegistry createRegistry() {
+    BinaryCodecRegistry registry = new BinaryCodecRegistry();
+    registry.register(ContactCodec.TYPE_ID, new ContactCodec());
+    return registry;
+  }
+
+  /**
+   * @return a SIP endpoint that only knows its URI.
+   */
+  private static SIPEndpoint createSIPEndpoint(final String uri) {
+    return (SIPEndpoint) Proxy.newProxyInstance(SIPEndpoint.class.getClassLoader(),
+        new Class<?>[] {SIPEndpoint.class}, new InvocationHandler() {
+          @Override
+          public Object invoke(Object proxy, Method method, Object[] args) {
+            if (method.getName().equals("getURI")) {
+              return URI.create(uri);
+            }
+            if (method.getName().equals("toString")) {
+              return uri;
+            }
+            if (method.getName().equals("hashCode")) {
+              return uri.hashCode();
+            }
+            if (method.getName().equals("equals")) {
+              return proxy == args[0];
+            }
+            throw new UnsupportedOperationException(method.getName());
+          }
+        });
+  }
+
+  /**
+   * @return a context that only creates SIP endpoints.
+   */
+  private static ApplicationContext createContext() {
+    return (ApplicationContext) Proxy.newProxyInstance(ApplicationContext.class.getClassLoader(),
+        new Class<?>[] {ApplicationContext.class}, new InvocationHandler() {
+          @Override
+          public Object invoke(Object proxy, Method method, Object[] args) {
+            if (method.getName().equals("createEndpoint")) {
+              return createSIPEndpoint((String) args[0]);
+            }
+            throw new UnsupportedOperationException(method.getName());
+          }
+        });
+  }
+
+  private static MockSIPContact createContact(int i) {
+    return new MockSIPContact("sip:user" + i + "@172.21.0." + (i % 255) + ":5060;transport=udp", 3600,
+        "a84b4c76e66710" + i + "@pc33.atlanta.com", i);
+  }
+
+  @Test
+  public void testRoundTrip() {
+    BinaryCodecRegistry registry = createRegistry();
+    MockSIPContact contact = createContact(7);
+
+    byte[] bytes = registry.toBytes(contact);
+    assertTrue(BinaryCodecRegistry.isEncoded(bytes));
+
+    StoredContact stored = (StoredContact) registry.fromBytes(bytes);
+    assertEquals(contact.getEndpoint().getURI(), stored.getEndpoint().getURI());
+    assertEquals(3600, stored.getExpiration());
+    assertEquals(contact.getCallID(), stored.getCallID());
+    assertEquals(7, stored.getCSeq());
+    assertFalse(stored.isExpired());
+
+    // a stored contact keeps its creation time when it is written again
+    StoredContact again = (StoredContact) registry.fromBytes(registry.toBytes(stored));
+    assertEquals(stored.getCreationTime(), again.getCreationTime());
+    assertEquals(new StoredEndpoint(contact.getEndpoint().getURI()), again.getEndpoint());
+  }
+
+  @Test
+  public void testRoundTripKeepsSIPEndpointAndCreationTime() {
+    BinaryCodecRegistry registry = new BinaryCodecRegistry();
+    registry.register(ContactCodec.TYPE_ID, new ContactCodec(createContext()));
+    String uri = "sip:alice@172.21.0.191:5060;transport=udp";
+    long creationTime = System.currentTimeMillis() - 60000;
+    StoredContact contact = new StoredContact(createSIPEndpoint(uri), 3600, creationTime, false,
+        "a84b4c76e66710@pc33.atlanta.com", 3);
+
+    StoredContact read = (StoredContact) registry.fromBytes(registry.toBytes(contact));
+    assertTrue(read.getEndpoint() instanceof SIPEndpoint);
+    assertEquals(URI.create(uri), read.getEndpoint().getURI());
+    assertEquals(creationTime, read.getCreationTime());
+
+    // without a context the endpoint is only known by its URI
+    StoredContact stored = (StoredContact) createRegistry().fromBytes(registry.toBytes(contact));
+    assertEquals(new StoredEndpoint(URI.create(uri)), stored.getEndpoint());
+    assertEquals(creationTime, stored.getCreationTime());
+
+    // an endpoint that is not a SIP endpoint stays a stored endpoint
+    MockSIPContact plain = createContact(2);
+    assertTrue(registry.fromBytes(registry.toBytes(plain)) instanceof StoredContact);
+    assertTrue(((Contact) registry.fromBytes(registry.toBytes(plain))).getEndpoint() instanceof StoredEndpoint);
+  }
+
+  @Test
+  public void testReadsSerializedContacts() {
+    BinaryCodecRegistry registry = createRegistry();
+    MockSIPContact contact = createContact(1);
+
+    // written by a version without codecs
+    byte[] bytes = BinaryCodecRegistry.serialize(contact);
+    assertFalse(BinaryCodecRegistry.isEncoded(bytes));
+
+    Contact read = (Contact) registry.fromBytes(bytes);
+    assertTrue(read instanceof MockSIPContact);
+    assertEquals(contact.getCallID(), ((SIPContact) read).getCallID());
+  }
+
+  @Test
+  public void testFallsBackWithoutCodec() {
+    BinaryCodecRegistry registry = createRegistry();
+    registry.register(2, new ListCodec());
+
+    List<Object> contacts = new ArrayList<Object>();
+    contacts.add(createContact(1));
+    contacts.add(null);
+    List<?> read = (List<?>) registry.fromBytes(registry.toBytes(contacts));
+    assertEquals(2, read.size());
+    assertTrue(read.get(0) instanceof StoredContact);
+    assertNull(read.get(1));
+
+    // a nested value without codec serializes the whole list
+    contacts.add(new SerializableEndpoint("sip:alice@voxeo.com"));
+    byte[] bytes = registry.toBytes(contacts);
+    assertFalse(BinaryCodecRegistry.isEncoded(bytes));
+    assertEquals(3, ((List<?>) registry.fromBytes(bytes)).size());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnknownType() {
+    BinaryCodecRegistry registry = createRegistry();
+    byte[] bytes = registry.toBytes(createContact(1));
+    new BinaryCodecRegistry().fromBytes(bytes);
+  }
+
+  @Test
+  public void testEncodedSizeIsSmallerThanSerialized() {
+    BinaryCodecRegistry registry = createRegistry();
+    for (int i = 0; i < 100; i++) {
+      MockSIPContact contact = createContact(i);
+      assertTrue(registry.toBytes(contact).length < BinaryCodecRegistry.serialize(contact).length);
+    }
+  }
+}
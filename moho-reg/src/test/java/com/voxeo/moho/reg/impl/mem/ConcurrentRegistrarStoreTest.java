@@ -0,0 +1,227 @@
+package com.voxeo.moho.reg.impl.mem;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.URI;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.voxeo.moho.Endpoint;
+import com.voxeo.moho.event.RegisterEvent.Contact;
+
+public class ConcurrentRegistrarStoreTest {
+
+  private ConcurrentRegistrarStore _store;
+
+  @Before
+  public void setUp() throws Exception {
+    _store = new ConcurrentRegistrarStore();
+    _store.init(new HashMap<String, String>());
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    _store.destroy();
+  }
+
+  @Test
+  public void testAddAndRemove() {
+    MockEndpoint aor = new MockEndpoint("sip:test1@voxeo.com");
+    MockContact contact1 = new MockContact("sip:test1@127.0.0.1");
+    MockContact contact2 = new MockContact("sip:test1@172.21.0.191");
+
+    _store.startTx();
+    _store.add(aor, contact1);
+    _store.add(aor, contact2);
+    assertEquals(2, _store.getContacts(aor).size());
+    assertFalse(_store.isExisting(aor));
+    _store.commitTx();
+
+    assertTrue(_store.isExisting(aor));
+    assertTrue(_store.isExisting(aor, contact1));
+    assertNotNull(_store.getContact(aor, new MockEndpoint("sip:test1@127.0.0.1")));
+    assertEquals(1, _store.getBinding(aor).getVersion());
+
+    _store.startTx();
+    for (Contact contact : _store.getContacts(aor)) {
+      _store.remove(aor, contact);
+    }
+    _store.commitTx();
+
+    assertFalse(_store.isExisting(aor));
+    assertEquals(0, _store.getContacts(aor).size());
+  }
+
+  @Test
+  public void testRollback() {
+    MockEndpoint aor = new MockEndpoint("sip:test1@voxeo.com");
+
+    _store.startTx();
+    _store.add(aor, new MockContact("sip:test1@127.0.0.1"));
+    _store.rollbackTx();
+
+    assertFalse(_store.isExisting(aor));
+    assertNull(_store.getContact(aor, new MockEndpoint("sip:test1@127.0.0.1")));
+  }
+
+  @Test
+  public void testConflictingCommit() throws Exception {
+    final MockEndpoint aor = new MockEndpoint("sip:test1@voxeo.com");
+
+    _store.startTx();
+    _store.add(aor, new MockContact("sip:test1@127.0.0.1"));
+
+    Thread other = new Thread() {
+      public void run() {
+        _store.startTx();
+        _store.add(aor, new MockContact("sip:test1@172.21.0.191"));
+        _store.commitTx();
+      }
+    };
+    other.start();
+    other.join();
+
+    try {
+      _store.commitTx();
+      fail("The second commit should have failed.");
+    }
+    catch (ConcurrentModificationException ex) {
+      // expected
+    }
+    assertEquals(1, _store.getContacts(aor).size());
+    assertTrue(_store.isExisting(aor, new MockContact("sip:test1@172.21.0.191")));
+  }
+
+  @Test
+  public void testGetEndpoints() {
+    Set<Endpoint> aors = new HashSet<Endpoint>();
+    _store.startTx();
+    for (int i = 0; i < 500; i++) {
+      MockEndpoint aor = new MockEndpoint("sip:user" + i + "@voxeo.com");
+      aors.add(aor);
+      _store.add(aor, new MockContact("sip:user" + i + "@127.0.0.1"));
+    }
+    _store.commitTx();
+
+    Iterator<Endpoint> i = _store.getEndpoints();
+    while (i.hasNext()) {
+      assertTrue(aors.remove(i.next()));
+    }
+    assertTrue(aors.isEmpty());
+  }
+
+  @Test
+  public void testConcurrentRegister() throws Exception {
+    final int threads = 8;
+    final int phones = 100000;
+    final CountDownLatch start = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(threads);
+
+    for (int t = 0; t < threads; t++) {
+      final int offset = t;
+      new Thread() {
+        public void run() {
+          try {
+            start.await();
+            // every phone registers twice, the second round overlaps with the other threads
+            for (int i = offset; i < phones * 2; i += threads) {
+              int phone = i % phones;
+              MockEndpoint aor = new MockEndpoint("sip:user" + phone + "@voxeo.com");
+              _store.startTx();
+              try {
+                _store.getContact(aor, new MockEndpoint("sip:user" + phone + "@127.0.0.1"));
+                _store.update(aor, new MockContact("sip:user" + phone + "@127.0.0.1"));
+                _store.commitTx();
+              }
+              catch (ConcurrentModificationException ex) {
+                _store.rollbackTx();
+              }
+            }
+          }
+          catch (InterruptedException e) {
+            // ignore
+          }
+          finally {
+            done.countDown();
+          }
+        }
+      }.start();
+    }
+
+    start.countDown();
+    done.await();
+
+    assertEquals(phones, _store.size());
+  }
+
+  public static class MockEndpoint implements Endpoint {
+    URI _uri;
+
+    public MockEndpoint(String uri) {
+      _uri = URI.create(uri);
+    }
+
+    @Override
+    public String getName() {
+      return null;
+    }
+
+    @Override
+    public URI getURI() {
+      return _uri;
+    }
+
+    @Override
+    public int hashCode() {
+      return _uri.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof MockEndpoint && _uri.equals(((MockEndpoint) o)._uri);
+    }
+  }
+
+  public static class MockContact implements Contact {
+    private static final long serialVersionUID = -2419409924384410934L;
+
+    MockEndpoint _endpoint;
+
+    public MockContact(String uri) {
+      _endpoint = new MockEndpoint(uri);
+    }
+
+    @Override
+    public Endpoint getEndpoint() {
+      return _endpoint;
+    }
+
+    @Override
+    public int getExpiration() {
+      return 3600;
+    }
+
+    @Override
+    public boolean isWildCard() {
+      return false;
+    }
+
+    @Override
+    public boolean isExpired() {
+      return false;
+    }
+  }
+}
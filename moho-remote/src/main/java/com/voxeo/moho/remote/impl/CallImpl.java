@@ -181,7 +181,7 @@ public abstract class CallImpl extends MediaServiceSupport<Call> implements Call
       }
       unJoint = new UnJointImpl(this);
       _unjoints.put(other.getId(), unJoint);
-      IQ iq = _mohoRemote.getRayoClient().unjoin(other.getId(), type, this.getId());
+      IQ iq = _mohoRemote.getRayoClient(this.getId()).unjoin(other.getId(), type, this.getId());
 
       if (iq.isError()) {
         _unjoints.remove(other.getId());
@@ -214,7 +214,7 @@ public abstract class CallImpl extends MediaServiceSupport<Call> implements Call
       return;
     }
     try {
-      IQ iq = _mohoRemote.getRayoClient().mute(this.getId());
+      IQ iq = _mohoRemote.getRayoClient(this.getId()).mute(this.getId());
       if (iq.isError()) {
         com.voxeo.rayo.client.xmpp.stanza.Error error = iq.getError();
         throw new SignalException(error.getCondition() + error.getText());
@@ -236,7 +236,7 @@ public abstract class CallImpl extends MediaServiceSupport<Call> implements Call
       throw new IllegalStateException("This call hasn't been muted");
     }
     try {
-      IQ iq = _mohoRemote.getRayoClient().unmute(this.getId());
+      IQ iq = _mohoRemote.getRayoClient(this.getId()).unmute(this.getId());
       if (iq.isError()) {
         com.voxeo.rayo.client.xmpp.stanza.Error error = iq.getError();
         throw new SignalException(error.getCondition() + error.getText());
@@ -258,7 +258,7 @@ public abstract class CallImpl extends MediaServiceSupport<Call> implements Call
       return;
     }
     try {
-      IQ iq = _mohoRemote.getRayoClient().hold(this.getId());
+      IQ iq = _mohoRemote.getRayoClient(this.getId()).hold(this.getId());
       if (iq.isError()) {
         com.voxeo.rayo.client.xmpp.stanza.Error error = iq.getError();
         throw new SignalException(error.getCondition() + error.getText());
@@ -280,7 +280,7 @@ public abstract class CallImpl extends MediaServiceSupport<Call> implements Call
       throw new IllegalStateException("This call hasn't been hold");
     }
     try {
-      IQ iq = _mohoRemote.getRayoClient().unhold(this.getId());
+      IQ iq = _mohoRemote.getRayoClient(this.getId()).unhold(this.getId());
       if (iq.isError()) {
         com.voxeo.rayo.client.xmpp.stanza.Error error = iq.getError();
         throw new SignalException(error.getCondition() + error.getText());
@@ -319,7 +319,7 @@ public abstract class CallImpl extends MediaServiceSupport<Call> implements Call
       command.setCallId(this.getId());
       command.setHeaders(headers);
 
-      IQ iq = _mohoRemote.getRayoClient().command(command, this.getId());
+      IQ iq = _mohoRemote.getRayoClient(this.getId()).command(command, this.getId());
 
       if (iq.isError()) {
         cleanUp();
@@ -553,7 +553,7 @@ public abstract class CallImpl extends MediaServiceSupport<Call> implements Call
       }
       command.setType(destinationType);
 
-      IQ iq = _mohoRemote.getRayoClient().join(command, this.getId());
+      IQ iq = _mohoRemote.getRayoClient(this.getId()).join(command, this.getId());
       if (iq.isError()) {
         _joints.remove(other.getId());
         ((MediaServiceSupport<?>) other)._joints.remove(this.getId());
@@ -66,7 +66,7 @@ public class IncomingCallImpl extends CallImpl implements IncomingCall {
       command.setHeaders(headers);
       command.setCallId(this.getId());
       command.setReason(getRayoCallRejectReasonByMohoReason(reason));
-      IQ iq = _mohoRemote.getRayoClient().command(command, this.getId());
+      IQ iq = _mohoRemote.getRayoClient(this.getId()).command(command, this.getId());
       if (iq.isError()) {
         this.setCallState(Call.State.FAILED);
         com.voxeo.rayo.client.xmpp.stanza.Error error = iq.getError();
@@ -101,7 +101,7 @@ public class IncomingCallImpl extends CallImpl implements IncomingCall {
     redirect.setCallId(this.getId());
     redirect.setHeaders(headers);
     try {
-      IQ iq = _mohoRemote.getRayoClient().command(redirect, this.getId());
+      IQ iq = _mohoRemote.getRayoClient(this.getId()).command(redirect, this.getId());
 
       if (iq.isError()) {
         this.setCallState(Call.State.FAILED);
@@ -142,7 +142,7 @@ public class IncomingCallImpl extends CallImpl implements IncomingCall {
       command.setHeaders(headers);
       command.setCallId(this.getId());
       command.setEarlyMedia(true);
-      IQ iq = _mohoRemote.getRayoClient().command(command, this.getId());
+      IQ iq = _mohoRemote.getRayoClient(this.getId()).command(command, this.getId());
       if (iq.isError()) {
         this.setCallState(Call.State.FAILED);
         com.voxeo.rayo.client.xmpp.stanza.Error error = iq.getError();
@@ -170,7 +170,7 @@ public class IncomingCallImpl extends CallImpl implements IncomingCall {
       AcceptCommand command = new AcceptCommand();
       command.setHeaders(headers);
       command.setCallId(this.getId());
-      IQ iq = _mohoRemote.getRayoClient().command(command, this.getId());
+      IQ iq = _mohoRemote.getRayoClient(this.getId()).command(command, this.getId());
       if (iq.isError()) {
         this.setCallState(Call.State.FAILED);
         com.voxeo.rayo.client.xmpp.stanza.Error error = iq.getError();
@@ -264,7 +264,7 @@ public class IncomingCallImpl extends CallImpl implements IncomingCall {
         AnswerCommand command = new AnswerCommand();
         command.setHeaders(headers);
         command.setCallId(this.getId());
-        IQ iq = _mohoRemote.getRayoClient().answer(this.getId(), command);
+        IQ iq = _mohoRemote.getRayoClient(this.getId()).answer(this.getId(), command);
 
         if (iq.isError()) {
           this.setCallState(Call.State.FAILED);
@@ -98,7 +98,7 @@ public abstract class MediaServiceSupport<T extends EventSource> extends Partici
     OutputImpl<T> output = null;
     getComponentstLock().lock();
     try {
-      VerbRef verbRef = _mohoRemote.getRayoClient().output(text, this.getId());
+      VerbRef verbRef = _mohoRemote.getRayoClient(this.getId()).output(text, this.getId());
 
       output = new OutputImpl<T>(verbRef, this, (T) this);
     }
@@ -117,7 +117,7 @@ public abstract class MediaServiceSupport<T extends EventSource> extends Partici
     OutputImpl<T> output = null;
     getComponentstLock().lock();
     try {
-      VerbRef verbRef = _mohoRemote.getRayoClient().output(getSsmlFromURI(media).getText(), this.getId());
+      VerbRef verbRef = _mohoRemote.getRayoClient(this.getId()).output(getSsmlFromURI(media).getText(), this.getId());
 
       output = new OutputImpl<T>(verbRef, this, (T) this);
     }
@@ -211,7 +211,7 @@ public abstract class MediaServiceSupport<T extends EventSource> extends Partici
       else {
         throw new IllegalArgumentException("no AudibleResources.");
       }
-      verbRef = _mohoRemote.getRayoClient().output(rayoOutput, this.getId());
+      verbRef = _mohoRemote.getRayoClient(this.getId()).output(rayoOutput, this.getId());
 
       outputFuture = new OutputImpl<T>(verbRef, next, this, (T) this);
     }
@@ -240,7 +240,7 @@ public abstract class MediaServiceSupport<T extends EventSource> extends Partici
       command.setCallId(this.getId());
       command.setGrammars(list);
 
-      VerbRef verbRef = _mohoRemote.getRayoClient().input(command, this.getId());
+      VerbRef verbRef = _mohoRemote.getRayoClient(this.getId()).input(command, this.getId());
       input = new InputImpl<T>(verbRef, this, (T) this);
     }
     catch (XmppException e) {
@@ -314,7 +314,7 @@ public abstract class MediaServiceSupport<T extends EventSource> extends Partici
         command.setSensitivity(inputCommand.getSensitivity());
       }
 
-      VerbRef verbRef = _mohoRemote.getRayoClient().input(command, this.getId());
+      VerbRef verbRef = _mohoRemote.getRayoClient(this.getId()).input(command, this.getId());
       input = new InputImpl<T>(verbRef, this, (T) this);
     }
     catch (XmppException e) {
@@ -335,7 +335,7 @@ public abstract class MediaServiceSupport<T extends EventSource> extends Partici
       Record record = new Record();
       record.setTo(recordURI);
       record.setCallId(this.getId());
-      VerbRef verbRef = _mohoRemote.getRayoClient().record(record, this.getId());
+      VerbRef verbRef = _mohoRemote.getRayoClient(this.getId()).record(record, this.getId());
 
       recording = new RecordingImpl<T>(verbRef, this, (T) this);
     }
@@ -376,7 +376,7 @@ public abstract class MediaServiceSupport<T extends EventSource> extends Partici
       if (command.getInitialTimeout() > 0) {
         record.setInitialTimeout(Duration.standardSeconds(command.getInitialTimeout() / 1000));
       }
-      VerbRef verbRef = _mohoRemote.getRayoClient().record(record, this.getId());
+      VerbRef verbRef = _mohoRemote.getRayoClient(this.getId()).record(record, this.getId());
 
       recording = new RecordingImpl<T>(verbRef, this, (T) this);
     }
@@ -36,7 +36,7 @@ public class MohoRemoteImpl extends DispatchableEventSource implements MohoRemot
 
   protected static final Logger LOG = Logger.getLogger(MohoRemoteImpl.class);
 
-  protected RayoClient _client;
+  protected RayoSessionPool _sessions;
 
   protected ThreadPoolExecutor _executor;
 
@@ -71,7 +71,7 @@ public class MohoRemoteImpl extends DispatchableEventSource implements MohoRemot
     }
 
     try {
-      _client.disconnect();
+      _sessions.disconnect();
     }
     catch (XmppException e) {
       throw new MohoRemoteException(e);
@@ -83,6 +83,13 @@ public class MohoRemoteImpl extends DispatchableEventSource implements MohoRemot
 
   class MohoStanzaListener implements StanzaListener {
 
+    // the session this listener receives the stanzas of
+    private final RayoClient _session;
+
+    MohoStanzaListener(final RayoClient session) {
+      _session = session;
+    }
+
     @Override
     public void onIQ(IQ iq) {
       if (iq.getFrom() != null) {
@@ -122,6 +129,8 @@ public class MohoRemoteImpl extends DispatchableEventSource implements MohoRemot
       JID fromJID = new JID(presence.getFrom());
       if (presence.getExtension().getStanzaName().equalsIgnoreCase("offer")) {
         OfferEvent offerEvent = (OfferEvent) presence.getExtension().getObject();
+        // Rayo only takes the commands of the call from the session that got the offer
+        _sessions.pin(fromJID.getNode(), _session);
 
         IncomingCallImpl call = new IncomingCallImpl(MohoRemoteImpl.this, fromJID.getNode(),
             (CallableEndpoint) createEndpoint(offerEvent.getFrom()),
@@ -175,6 +184,9 @@ public class MohoRemoteImpl extends DispatchableEventSource implements MohoRemot
     getParticipantsLock().lock();
     try {
       ParticipantImpl participant = _participants.remove(id);
+      if (_sessions != null) {
+        _sessions.unpin(id);
+      }
 
       if (participant instanceof Mixer) {
         String name = ((Mixer) participant).getName();
@@ -209,12 +221,26 @@ public class MohoRemoteImpl extends DispatchableEventSource implements MohoRemot
   @Override
   public void connect(String userName, String passwd, String realm, String resource, String xmppServer,
       String rayoServer, int timeout) throws MohoRemoteException {
-    if (_client == null) {
-      _client = new RayoClient(xmppServer, rayoServer);
-      _client.addStanzaListener(new MohoStanzaListener());
+    connect(userName, passwd, realm, resource, xmppServer, rayoServer, timeout, 1);
+  }
+
+  /**
+   * Connects through several XMPP sessions. Each call is pinned to one session, so its events
+   * keep their order, while dials and new calls are spread across the sessions still connected.
+   * With more than one session, the index of each session is appended to the resource.
+   */
+  public void connect(String userName, String passwd, String realm, String resource, String xmppServer,
+      String rayoServer, int timeout, int sessions) throws MohoRemoteException {
+    if (_sessions == null) {
+      RayoClient[] clients = new RayoClient[Math.max(1, sessions)];
+      for (int i = 0; i < clients.length; i++) {
+        clients[i] = new RayoClient(xmppServer, rayoServer);
+        clients[i].addStanzaListener(new MohoStanzaListener(clients[i]));
+      }
+      _sessions = new RayoSessionPool(clients);
     }
     try {
-      _client.connect(userName, passwd, resource, timeout);
+      _sessions.connect(userName, passwd, resource, timeout);
     }
     catch (XmppException e) {
       throw new MohoRemoteException("Error connecting to server", e);
@@ -230,8 +256,31 @@ public class MohoRemoteImpl extends DispatchableEventSource implements MohoRemot
     return _executor;
   }
 
+  /**
+   * @return a connected session for the commands not bound to a call, null if never connected
+   */
   public RayoClient getRayoClient() {
-    return _client;
+    return _sessions != null ? _sessions.getClient() : null;
+  }
+
+  /**
+   * @return the session of the given call or mixer, null if never connected
+   */
+  public RayoClient getRayoClient(final String id) {
+    return _sessions != null ? _sessions.getClient(id) : null;
+  }
+
+  /**
+   * Pins the call to the session that dialed it.
+   */
+  protected void pinCall(final String callId, final RayoClient client) {
+    if (_sessions != null) {
+      _sessions.pin(callId, client);
+    }
+  }
+
+  public RayoSessionPool getSessions() {
+    return _sessions;
   }
 
   @Override
@@ -24,6 +24,7 @@ import com.voxeo.moho.remote.MohoRemoteException;
 import com.voxeo.moho.remote.impl.event.MohoAnsweredEventImpl;
 import com.voxeo.moho.remote.impl.event.MohoHangupEventImpl;
 import com.voxeo.moho.remote.impl.event.MohoRingEventImpl;
+import com.voxeo.rayo.client.RayoClient;
 import com.voxeo.rayo.client.XmppException;
 import com.voxeo.rayo.client.xmpp.stanza.Presence;
 
@@ -47,8 +48,10 @@ public class OutgoingCallImpl extends CallImpl implements OutgoingCall {
         command.setHeaders(_headers);
         waitAnswerJoint = new JointImpl(this, null, direction, dispatchJoinToMediaEvent);
 
-        CallRef dialRef = _mohoRemote.getRayoClient().dial(command);
+        RayoClient client = _mohoRemote.getRayoClient();
+        CallRef dialRef = client.dial(command);
         setID(dialRef.getCallId());
+        _mohoRemote.pinCall(dialRef.getCallId(), client);
         return true;
       }
       else {
@@ -0,0 +1,141 @@
+package com.voxeo.moho.remote.impl;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+import com.voxeo.rayo.client.RayoClient;
+import com.voxeo.rayo.client.XmppException;
+
+/**
+ * Several authenticated XMPP sessions with the Rayo server, each one logged in with its own
+ * resource. Rayo only accepts the commands of a call from the session that received its offer
+ * or dialed it, so calls are pinned to that session. Calls that were never pinned always go to
+ * the session picked by the hash of their id, even if it has dropped, since no other session
+ * can command them. New calls skip the sessions that have dropped.
+ */
+public class RayoSessionPool {
+
+  private static final Logger LOG = Logger.getLogger(RayoSessionPool.class);
+
+  protected final RayoClient[] _clients;
+
+  protected final Map<String, RayoClient> _calls = new ConcurrentHashMap<String, RayoClient>();
+
+  protected final AtomicInteger _next = new AtomicInteger();
+
+  public RayoSessionPool(final RayoClient[] clients) {
+    _clients = clients;
+  }
+
+  /**
+   * Connects all the sessions. With more than one session, the index of each session is
+   * appended to the resource.
+   *
+   * @throws XmppException
+   *           if no session could be connected
+   */
+  public void connect(final String userName, final String passwd, final String resource, final int timeout)
+      throws XmppException {
+    XmppException failure = null;
+    int connected = 0;
+    for (int i = 0; i < _clients.length; i++) {
+      try {
+        _clients[i].connect(userName, passwd, _clients.length > 1 ? resource + "-" + i : resource, timeout);
+        connected++;
+      }
+      catch (XmppException e) {
+        LOG.error("Error connecting Rayo session " + i, e);
+        failure = e;
+      }
+    }
+    if (connected == 0) {
+      throw failure;
+    }
+  }
+
+  public void disconnect() throws XmppException {
+    XmppException failure = null;
+    for (RayoClient client : _clients) {
+      try {
+        client.disconnect();
+      }
+      catch (XmppException e) {
+        failure = e;
+      }
+    }
+    _calls.clear();
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  /**
+   * @return the next connected session, so that the commands not bound to a call, like
+   *         dialing, are spread across the sessions
+   */
+  public RayoClient getClient() {
+    return select((_next.getAndIncrement() & Integer.MAX_VALUE) % _clients.length);
+  }
+
+  /**
+   * @return the session the call is pinned to, or else the session picked by the hash of the
+   *         call id. Commands fail on that session if it has dropped rather than going to a
+   *         session that does not own the call.
+   */
+  public RayoClient getClient(final String callId) {
+    if (callId == null) {
+      return getClient();
+    }
+    RayoClient client = _calls.get(callId);
+    if (client != null) {
+      return client;
+    }
+    return _clients[(callId.hashCode() & Integer.MAX_VALUE) % _clients.length];
+  }
+
+  /**
+   * Returns the session at the given index or the first connected one after it.
+   */
+  protected RayoClient select(final int index) {
+    for (int i = 0; i < _clients.length; i++) {
+      RayoClient client = _clients[(index + i) % _clients.length];
+      if (isConnected(client)) {
+        return client;
+      }
+    }
+    // none connected, commands will fail on the original one
+    return _clients[index];
+  }
+
+  public void pin(final String callId, final RayoClient client) {
+    _calls.put(callId, client);
+  }
+
+  public void unpin(final String callId) {
+    _calls.remove(callId);
+  }
+
+  public int size() {
+    return _clients.length;
+  }
+
+  /**
+   * @return the number of sessions currently connected
+   */
+  public int getConnectedCount() {
+    int connected = 0;
+    for (RayoClient client : _clients) {
+      if (isConnected(client)) {
+        connected++;
+      }
+    }
+    return connected;
+  }
+
+  protected boolean isConnected(final RayoClient client) {
+    return client.getXmppConnection() != null && client.getXmppConnection().isConnected();
+  }
+}
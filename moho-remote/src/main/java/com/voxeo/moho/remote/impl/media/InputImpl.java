@@ -69,7 +69,7 @@ public class InputImpl<T extends EventSource> implements Input<T>, RayoListener
   public void stop() {
     if (!_future.isDone()) {
       try {
-        IQ iq = _call.getMohoRemote().getRayoClient().stop(_verbRef);
+        IQ iq = _call.getMohoRemote().getRayoClient(_call.getId()).stop(_verbRef);
         if (iq.isError()) {
           com.voxeo.rayo.client.xmpp.stanza.Error error = iq.getError();
           throw new MediaException(error.getCondition() + error.getText());
@@ -99,7 +99,7 @@ public class OutputImpl<T extends EventSource> implements Output<T>, RayoListene
   public void pause() {
     if (!_future.isDone() && !paused) {
       try {
-        IQ iq = _call.getMohoRemote().getRayoClient().pause(_verbRef);
+        IQ iq = _call.getMohoRemote().getRayoClient(_call.getId()).pause(_verbRef);
         if (iq.isError()) {
           com.voxeo.rayo.client.xmpp.stanza.Error error = iq.getError();
           throw new MediaException(error.getCondition() + error.getText());
@@ -119,7 +119,7 @@ public class OutputImpl<T extends EventSource> implements Output<T>, RayoListene
   public void resume() {
     if (!_future.isDone() && paused) {
       try {
-        IQ iq = _call.getMohoRemote().getRayoClient().resume(_verbRef);
+        IQ iq = _call.getMohoRemote().getRayoClient(_call.getId()).resume(_verbRef);
         if (iq.isError()) {
           com.voxeo.rayo.client.xmpp.stanza.Error error = iq.getError();
           throw new MediaException(error.getCondition() + error.getText());
@@ -139,7 +139,7 @@ public class OutputImpl<T extends EventSource> implements Output<T>, RayoListene
   public void stop() {
     if (!_future.isDone()) {
       try {
-        IQ iq = _call.getMohoRemote().getRayoClient().stop(_verbRef);
+        IQ iq = _call.getMohoRemote().getRayoClient(_call.getId()).stop(_verbRef);
         if (iq.isError()) {
           com.voxeo.rayo.client.xmpp.stanza.Error error = iq.getError();
           throw new MediaException(error.getCondition() + error.getText());
@@ -171,7 +171,7 @@ public class OutputImpl<T extends EventSource> implements Output<T>, RayoListene
           command.setAmount((int) (time / 1000));
         }
 
-        _call.getMohoRemote().getRayoClient().seek(_verbRef, command);
+        _call.getMohoRemote().getRayoClient(_call.getId()).seek(_verbRef, command);
       }
       catch (XmppException e) {
         LOG.error("", e);
@@ -186,10 +186,10 @@ public class OutputImpl<T extends EventSource> implements Output<T>, RayoListene
       try {
         IQ iq = null;
         if (upOrDown) {
-          iq = _call.getMohoRemote().getRayoClient().speedUp(_verbRef);
+          iq = _call.getMohoRemote().getRayoClient(_call.getId()).speedUp(_verbRef);
         }
         else {
-          iq = _call.getMohoRemote().getRayoClient().speedDown(_verbRef);
+          iq = _call.getMohoRemote().getRayoClient(_call.getId()).speedDown(_verbRef);
         }
         if (iq.isError()) {
           com.voxeo.rayo.client.xmpp.stanza.Error error = iq.getError();
@@ -209,10 +209,10 @@ public class OutputImpl<T extends EventSource> implements Output<T>, RayoListene
       try {
         IQ iq = null;
         if (upOrDown) {
-          iq = _call.getMohoRemote().getRayoClient().volumeUp(_verbRef);
+          iq = _call.getMohoRemote().getRayoClient(_call.getId()).volumeUp(_verbRef);
         }
         else {
-          iq = _call.getMohoRemote().getRayoClient().volumeDown(_verbRef);
+          iq = _call.getMohoRemote().getRayoClient(_call.getId()).volumeDown(_verbRef);
         }
         if (iq.isError()) {
           com.voxeo.rayo.client.xmpp.stanza.Error error = iq.getError();
@@ -1,17 +1,39 @@
 package com.voxeo.rayo.client;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import com.voxeo.rayo.client.xmpp.stanza.IQ;
 
 /**
  * This class is an asynchronousr Rayo Client. Basically extends the base class
  * RayoClient but all the operations invoked will be asynchronous.
- * 
+ *
+ * <p>The IQs are sent with {@link RayoClient#sendIQAsync(IQ)} so the operations
+ * return <code>null</code> right away. Use {@link RayoClient#sendIQAsync(IQ)} or
+ * {@link RayoClient#commandAsync(com.rayo.core.CallCommand, String)} directly to
+ * get the responses. Error responses and failures are logged.</p>
+ *
  * @author martin
  *
- */ 
+ */
 public class AsynchronousRayoClient extends RayoClient {
 
-	
+	private static final Logger logger = LoggerFactory.getLogger(AsynchronousRayoClient.class);
+
+	private static final IQFuture.Listener ERROR_LOGGER = new IQFuture.Listener() {
+
+		@Override
+		public void operationComplete(IQFuture future) {
+
+			if (future.getFailure() != null) {
+				logger.warn(String.format("IQ [%s] failed", future.getRequest().getId()), future.getFailure());
+			} else if (future.getResponse() != null && future.getResponse().isError()) {
+				logger.warn(String.format("IQ [%s] failed: %s", future.getRequest().getId(), future.getResponse()));
+			}
+		}
+	};
+
 	public AsynchronousRayoClient(String server, Integer port, String rayoServer) {
 		super(server, port, rayoServer);
 	}
@@ -20,10 +42,19 @@ public class AsynchronousRayoClient extends RayoClient {
 		super(server, rayoServer);
 	}
 
+	public AsynchronousRayoClient(XmppConnection connection, String rayoServer) {
+		super(connection, rayoServer);
+	}
+
 	@Override
 	protected IQ sendIQ(IQ iq) throws XmppException {
 
-		connection.send(iq);
+		if (getPipeline() == null) {
+			// the responses of connections that cannot pipeline are not waited for
+			connection.send(iq);
+		} else {
+			sendIQAsync(iq).addListener(ERROR_LOGGER);
+		}
 		return null;
 	}
 }
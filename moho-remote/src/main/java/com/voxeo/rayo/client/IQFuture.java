@@ -0,0 +1,242 @@
+package com.voxeo.rayo.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.voxeo.rayo.client.io.PendingRequestTable.PendingRequest;
+import com.voxeo.rayo.client.xmpp.stanza.IQ;
+
+/**
+ * <p>The pending response of an IQ sent with {@link RayoClient#sendIQAsync(IQ)}.</p>
+ *
+ * <p>The future completes with the result or error IQ sent back by the server, or fails with
+ * an {@link XmppException} if the IQ could not be written, the connection was closed or no
+ * response arrived in time. Cancelling the future forgets the IQ, so a late response is dropped.</p>
+ *
+ * <p>Listeners are called once, on the listener executor of the {@link IQPipeline}, so they never
+ * run on the reader or the timer thread.</p>
+ *
+ * @author martin
+ *
+ */
+public class IQFuture implements Future<IQ> {
+
+	private static final Logger log = LoggerFactory.getLogger(IQFuture.class);
+
+	public interface Listener {
+
+		public void operationComplete(IQFuture future);
+	}
+
+	private final IQ request;
+
+	private final IQPipeline pipeline;
+
+	private volatile PendingRequest pendingRequest;
+
+	private final CountDownLatch done = new CountDownLatch(1);
+
+	// guarded by this
+	private IQ response;
+	private XmppException failure;
+	private boolean cancelled;
+	private List<Listener> listeners;
+
+	IQFuture(IQ request, IQPipeline pipeline) {
+
+		this.request = request;
+		this.pipeline = pipeline;
+	}
+
+	public IQ getRequest() {
+
+		return request;
+	}
+
+	PendingRequest getPendingRequest() {
+
+		return pendingRequest;
+	}
+
+	void setPendingRequest(PendingRequest pendingRequest) {
+
+		this.pendingRequest = pendingRequest;
+	}
+
+	boolean complete(IQ response) {
+
+		List<Listener> toNotify = null;
+		synchronized (this) {
+			if (isDone()) {
+				return false;
+			}
+			this.response = response;
+			toNotify = listeners;
+			listeners = null;
+			done.countDown();
+		}
+		notifyListeners(toNotify);
+		return true;
+	}
+
+	boolean fail(XmppException failure) {
+
+		List<Listener> toNotify = null;
+		synchronized (this) {
+			if (isDone()) {
+				return false;
+			}
+			this.failure = failure;
+			toNotify = listeners;
+			listeners = null;
+			done.countDown();
+		}
+		notifyListeners(toNotify);
+		return true;
+	}
+
+	/**
+	 * Adds a listener that is called once this future is done.
+	 */
+	public void addListener(Listener listener) {
+
+		synchronized (this) {
+			if (!isDone()) {
+				if (listeners == null) {
+					listeners = new ArrayList<Listener>(1);
+				}
+				listeners.add(listener);
+				return;
+			}
+		}
+		notifyListener(listener);
+	}
+
+	private void notifyListeners(List<Listener> toNotify) {
+
+		if (toNotify != null) {
+			for (Listener listener: toNotify) {
+				notifyListener(listener);
+			}
+		}
+	}
+
+	private void notifyListener(final Listener listener) {
+
+		Runnable task = new Runnable() {
+
+			@Override
+			public void run() {
+
+				try {
+					listener.operationComplete(IQFuture.this);
+				} catch (Exception e) {
+					log.error(String.format("Error on IQ listener for [%s]", request.getId()), e);
+				}
+			}
+		};
+		try {
+			pipeline.getListenerExecutor().execute(task);
+		} catch (RejectedExecutionException e) {
+			log.warn(String.format("IQ listener executor rejected [%s], calling the listener directly", request.getId()));
+			task.run();
+		}
+	}
+
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+
+		List<Listener> toNotify = null;
+		synchronized (this) {
+			if (isDone()) {
+				return false;
+			}
+			cancelled = true;
+			toNotify = listeners;
+			listeners = null;
+			done.countDown();
+		}
+		pipeline.forget(this);
+		notifyListeners(toNotify);
+		return true;
+	}
+
+	@Override
+	public synchronized boolean isCancelled() {
+
+		return cancelled;
+	}
+
+	@Override
+	public boolean isDone() {
+
+		return done.getCount() == 0;
+	}
+
+	/**
+	 * @return <code>true</code> if the server sent back a response, which may be an error IQ
+	 */
+	public synchronized boolean isSuccess() {
+
+		return response != null;
+	}
+
+	/**
+	 * @return The failure of this future or <code>null</code> if it is not done or has a response
+	 */
+	public synchronized XmppException getFailure() {
+
+		return failure;
+	}
+
+	/**
+	 * @return The response or <code>null</code> if it is not done or has failed
+	 */
+	public synchronized IQ getResponse() {
+
+		return response;
+	}
+
+	@Override
+	public IQ get() throws InterruptedException, ExecutionException {
+
+		done.await();
+		return report();
+	}
+
+	@Override
+	public IQ get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+
+		if (!done.await(timeout, unit)) {
+			throw new TimeoutException(String.format("Timed out while waiting for [%s]", request.getId()));
+		}
+		return report();
+	}
+
+	private synchronized IQ report() throws ExecutionException {
+
+		if (cancelled) {
+			throw new CancellationException();
+		}
+		if (failure != null) {
+			throw new ExecutionException(failure);
+		}
+		return response;
+	}
+
+	@Override
+	public String toString() {
+
+		return String.format("IQFuture[id=%s, done=%s]", request.getId(), isDone());
+	}
+}
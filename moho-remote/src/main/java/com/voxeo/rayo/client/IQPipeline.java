@@ -0,0 +1,261 @@
+package com.voxeo.rayo.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.voxeo.rayo.client.io.PendingRequestTable;
+import com.voxeo.rayo.client.response.FailureAwareResponseHandler;
+import com.voxeo.rayo.client.xmpp.stanza.Error;
+import com.voxeo.rayo.client.xmpp.stanza.IQ;
+import com.voxeo.rayo.client.xmpp.stanza.XmppObject;
+
+/**
+ * <p>Sends IQs without waiting for their responses, so any number of them can be outstanding on
+ * a connection. Every IQ is registered in the {@link PendingRequestTable} of the connection, so
+ * the reader completes its {@link IQFuture} with the response and the table times it out.</p>
+ *
+ * <p>With batching enabled the IQs sent while another thread is writing are queued and then
+ * written together by that thread with a single flush.</p>
+ *
+ * <p>The listeners of the futures run on a listener executor, by default a pool of daemon
+ * threads shared by all the pipelines.</p>
+ *
+ * @author martin
+ *
+ */
+public class IQPipeline {
+
+	public static final int MAX_BATCH_SIZE = 64;
+
+	private static final ExecutorService DEFAULT_LISTENER_EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+
+		@Override
+		public Thread newThread(Runnable r) {
+
+			Thread thread = new Thread(r, "rayo-client-iq-listener");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	private final PipelinedXmppConnection connection;
+
+	private final Executor listenerExecutor;
+
+	private final AtomicInteger pending = new AtomicInteger();
+
+	private final Queue<IQFuture> outgoing = new ConcurrentLinkedQueue<IQFuture>();
+
+	private final AtomicBoolean writing = new AtomicBoolean();
+
+	private volatile boolean batching;
+
+	private final AtomicLong sent = new AtomicLong();
+
+	private final AtomicLong batches = new AtomicLong();
+
+	private final AtomicLong timedOut = new AtomicLong();
+
+	public IQPipeline(PipelinedXmppConnection connection) {
+
+		this(connection, DEFAULT_LISTENER_EXECUTOR);
+	}
+
+	/**
+	 * @param connection Connection the IQs are sent on
+	 * @param listenerExecutor Executor the listeners of the futures run on
+	 */
+	public IQPipeline(PipelinedXmppConnection connection, Executor listenerExecutor) {
+
+		this.connection = connection;
+		this.listenerExecutor = listenerExecutor;
+	}
+
+	/**
+	 * Sends the IQ. The returned future fails if no response arrives in the given time.
+	 *
+	 * @param iq IQ to send
+	 * @param timeout Milliseconds to wait for the response
+	 * @return IQFuture Future response
+	 */
+	public IQFuture send(IQ iq, int timeout) {
+
+		if (iq.getId() == null) {
+			iq.setId(UUID.randomUUID().toString());
+		}
+		IQFuture future = new IQFuture(iq, this);
+		PendingRequestTable requests = null;
+		try {
+			requests = connection.getPendingRequests();
+		} catch (XmppException e) {
+			future.fail(e);
+			return future;
+		}
+		// counted before the handler can be called, and uncounted if it never will be
+		pending.incrementAndGet();
+		try {
+			future.setPendingRequest(requests.register(iq.getId(), new FutureHandler(future), timeout));
+		} catch (RuntimeException e) {
+			pending.decrementAndGet();
+			future.fail(new XmppException(String.format("Could not register [%s]: %s", iq.getId(), e), 
+					Error.Condition.internal_server_error));
+			return future;
+		}
+		if (batching) {
+			outgoing.add(future);
+			flush();
+		} else {
+			try {
+				connection.send(iq);
+				sent.incrementAndGet();
+			} catch (XmppException e) {
+				fail(future, e);
+			}
+		}
+		return future;
+	}
+
+	private void flush() {
+
+		// whoever gets to write drains what the others queued meanwhile
+		while (!outgoing.isEmpty() && writing.compareAndSet(false, true)) {
+			List<IQFuture> batch = new ArrayList<IQFuture>();
+			List<XmppObject> stanzas = new ArrayList<XmppObject>();
+			try {
+				IQFuture future = null;
+				while (batch.size() < MAX_BATCH_SIZE && (future = outgoing.poll()) != null) {
+					if (!future.isDone()) {
+						batch.add(future);
+						stanzas.add(future.getRequest());
+					}
+				}
+				if (!stanzas.isEmpty()) {
+					connection.send(stanzas);
+					sent.addAndGet(stanzas.size());
+					batches.incrementAndGet();
+				}
+			} catch (XmppException e) {
+				for (IQFuture future: batch) {
+					fail(future, e);
+				}
+			} finally {
+				writing.set(false);
+			}
+		}
+	}
+
+	/**
+	 * Completes the future of an IQ with its response, or fails it. Called once, after the
+	 * table has removed the request.
+	 */
+	private class FutureHandler implements FailureAwareResponseHandler {
+
+		private final IQFuture future;
+
+		FutureHandler(IQFuture future) {
+
+			this.future = future;
+		}
+
+		@Override
+		public void handle(XmppObject response) {
+
+			pending.decrementAndGet();
+			if (response instanceof IQ) {
+				future.complete((IQ)response);
+			} else {
+				future.fail(new XmppException(String.format("Unexpected response to [%s]: %s", 
+						future.getRequest().getId(), response), Error.Condition.unexpected_request));
+			}
+		}
+
+		@Override
+		public void handleFailure(XmppException failure) {
+
+			pending.decrementAndGet();
+			if (failure.getError() != null && failure.getError().getCondition() == Error.Condition.remote_server_timeout) {
+				timedOut.incrementAndGet();
+			}
+			future.fail(failure);
+		}
+	}
+
+	/**
+	 * Forgets the IQ of a future, so a late response is dropped.
+	 */
+	void forget(IQFuture future) {
+
+		if (future.getPendingRequest() != null && future.getPendingRequest().remove()) {
+			pending.decrementAndGet();
+		}
+	}
+
+	Executor getListenerExecutor() {
+
+		return listenerExecutor;
+	}
+
+	private void fail(IQFuture future, XmppException e) {
+
+		forget(future);
+		future.fail(e);
+	}
+
+	/**
+	 * Fails the IQs still queued for writing, as when the client disconnects. The IQs already
+	 * written fail when the connection clears its pending requests.
+	 */
+	public void failAll(XmppException e) {
+
+		IQFuture future = null;
+		while ((future = outgoing.poll()) != null) {
+			fail(future, e);
+		}
+	}
+
+	public void setBatching(boolean batching) {
+
+		this.batching = batching;
+	}
+
+	public boolean isBatching() {
+
+		return batching;
+	}
+
+	/**
+	 * @return The number of IQs waiting for a response
+	 */
+	public int getPendingCount() {
+
+		return pending.get();
+	}
+
+	public long getSentCount() {
+
+		return sent.get();
+	}
+
+	/**
+	 * @return The number of writes of batched IQs
+	 */
+	public long getBatchCount() {
+
+		return batches.get();
+	}
+
+	public long getTimedOutCount() {
+
+		return timedOut.get();
+	}
+}
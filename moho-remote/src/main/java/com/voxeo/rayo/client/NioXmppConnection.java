@@ -0,0 +1,73 @@
+package com.voxeo.rayo.client;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+import org.jboss.netty.bootstrap.ClientBootstrap;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.socket.ClientSocketChannelFactory;
+
+import com.voxeo.rayo.client.io.NioXmppReader;
+import com.voxeo.rayo.client.io.NioXmppWriter;
+import com.voxeo.rayo.client.io.XmppStreamFrameDecoder;
+import com.voxeo.rayo.client.io.XmppWriter;
+import com.voxeo.rayo.client.xmpp.stanza.Error;
+
+/**
+ * <p>XMPP connection on a Netty NIO channel. The connection has no reading thread of its own,
+ * the incoming stanzas are framed and parsed by the event loop shared with the other
+ * connections created by the same channel factory.</p>
+ * 
+ * @author martin
+ *
+ */
+public class NioXmppConnection extends SimpleXmppConnection {
+
+	private final ClientSocketChannelFactory channelFactory;
+	private final NioXmppReader reader;
+	private Channel channel;
+	
+	public NioXmppConnection(String serviceName, Integer port, ClientSocketChannelFactory channelFactory) {
+		
+		this(serviceName, port, channelFactory, new NioXmppReader());
+	}
+	
+	private NioXmppConnection(String serviceName, Integer port, ClientSocketChannelFactory channelFactory, NioXmppReader reader) {
+		
+		super(serviceName, port, reader);
+		this.channelFactory = channelFactory;
+		this.reader = reader;
+	}
+	
+	@Override
+	protected XmppWriter openTransport(String host, int port) throws XmppException {
+
+		InetSocketAddress address = new InetSocketAddress(host, port);
+		if (address.isUnresolved()) {
+            throw new XmppException(String.format("Could not connect to %s:%s",host,port), Error.Condition.remote_server_timeout);            
+		}
+		ClientBootstrap bootstrap = new ClientBootstrap(channelFactory);
+		bootstrap.setOption("tcpNoDelay", true);
+		bootstrap.setOption("keepAlive", true);
+		ChannelPipeline pipeline = bootstrap.getPipeline();
+		pipeline.addLast("decoder", new XmppStreamFrameDecoder());
+		pipeline.addLast("reader", reader);
+
+		ChannelFuture future = bootstrap.connect(address).awaitUninterruptibly();
+		if (!future.isSuccess()) {
+            throw new XmppException(String.format("Error while connecting to %s:%s",host,port), Error.Condition.service_unavailable, future.getCause());
+		}
+		channel = future.getChannel();
+		return new NioXmppWriter(channel);
+	}
+	
+	@Override
+	protected void closeTransport() throws IOException {
+		
+		if (channel != null) {
+			channel.close().awaitUninterruptibly();
+		}
+	}
+}
@@ -0,0 +1,88 @@
+package com.voxeo.rayo.client;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.netty.channel.socket.ClientSocketChannelFactory;
+import org.jboss.netty.channel.socket.nio.NioClientSocketChannelFactory;
+
+/**
+ * <p>Builds {@link NioXmppConnection} instances. All the connections built by a factory share
+ * the same boss and worker threads, so the number of threads does not grow with the number 
+ * of connections.</p>
+ * 
+ * <p>The threads of the default channel factory are daemon threads, so they never keep the
+ * JVM alive. Applications that stop without exiting the JVM release them with 
+ * {@link #releaseDefaultChannelFactory()}.</p>
+ * 
+ * @author martin
+ *
+ */
+public class NioXmppConnectionFactory implements XmppConnectionFactory {
+
+	private static ClientSocketChannelFactory defaultChannelFactory;
+	
+	private final ClientSocketChannelFactory channelFactory;
+	
+	/**
+	 * Builds connections on a channel factory shared by all the factories built this way 
+	 */
+	public NioXmppConnectionFactory() {
+		
+		this(getDefaultChannelFactory());
+	}
+	
+	public NioXmppConnectionFactory(ClientSocketChannelFactory channelFactory) {
+		
+		this.channelFactory = channelFactory;
+	}
+	
+	private static synchronized ClientSocketChannelFactory getDefaultChannelFactory() {
+		
+		if (defaultChannelFactory == null) {
+			defaultChannelFactory = new NioClientSocketChannelFactory(
+					Executors.newCachedThreadPool(new DaemonThreadFactory("rayo-client-nio-boss")),
+					Executors.newCachedThreadPool(new DaemonThreadFactory("rayo-client-nio-worker")));
+		}
+		return defaultChannelFactory;
+	}
+	
+	/**
+	 * Releases the threads of the channel factory shared by the connections built with 
+	 * {@link #NioXmppConnectionFactory()}. Those connections must have been closed. Factories 
+	 * built afterwards get a new channel factory.
+	 */
+	public static synchronized void releaseDefaultChannelFactory() {
+		
+		if (defaultChannelFactory != null) {
+			defaultChannelFactory.releaseExternalResources();
+			defaultChannelFactory = null;
+		}
+	}
+	
+	private static class DaemonThreadFactory implements ThreadFactory {
+		
+		private final String name;
+		private final AtomicInteger count = new AtomicInteger();
+		
+		DaemonThreadFactory(String name) {
+			
+			this.name = name;
+		}
+		
+		@Override
+		public Thread newThread(Runnable r) {
+			
+			Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+	
+	@Override
+	public XmppConnection createConnection(String hostname, Integer port) {
+
+		return new NioXmppConnection(hostname, port, channelFactory);
+	}
+}
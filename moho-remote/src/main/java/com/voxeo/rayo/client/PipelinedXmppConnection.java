@@ -0,0 +1,26 @@
+package com.voxeo.rayo.client;
+
+import java.util.Collection;
+
+import com.voxeo.rayo.client.io.PendingRequestTable;
+import com.voxeo.rayo.client.xmpp.stanza.XmppObject;
+
+/**
+ * <p>An XMPP connection an {@link IQPipeline} can send on. It writes batches of stanzas and
+ * gives access to the table of the requests waiting for a response.</p>
+ *
+ * @author martin
+ *
+ */
+public interface PipelinedXmppConnection extends XmppConnection {
+
+	/**
+	 * Writes the objects with a single flush.
+	 */
+	public void send(Collection<? extends XmppObject> objects) throws XmppException;
+	/**
+	 * @return The requests of the current connection waiting for a response
+	 * @throws XmppException If not connected
+	 */
+	public PendingRequestTable getPendingRequests() throws XmppException;
+}
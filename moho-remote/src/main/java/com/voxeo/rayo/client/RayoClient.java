@@ -66,6 +66,7 @@ import com.voxeo.rayo.client.registry.CallsRegistry;
 import com.voxeo.rayo.client.verb.ClientPauseCommand;
 import com.voxeo.rayo.client.verb.ClientResumeCommand;
 import com.voxeo.rayo.client.xmpp.extensions.Extension;
+import com.voxeo.rayo.client.xmpp.stanza.Error;
 import com.voxeo.rayo.client.xmpp.stanza.IQ;
 import com.voxeo.rayo.client.xmpp.stanza.Ping;
 import com.voxeo.rayo.client.xmpp.stanza.Presence;
@@ -93,6 +94,8 @@ public class RayoClient {
 	private ReentrantReadWriteLock connectionLock = new ReentrantReadWriteLock();
 	
 	private Timer pingTimer = null;
+	
+	private final IQPipeline pipeline;
 
 	public class Grammar {
 		
@@ -125,8 +128,10 @@ public class RayoClient {
 	 */
 	public RayoClient(String xmppServer, Integer port, String rayoServer) {
 
-		connection = new SimpleXmppConnection(xmppServer, port);
+		SimpleXmppConnection connection = new SimpleXmppConnection(xmppServer, port);
+		this.connection = connection;
 		this.rayoServer = rayoServer;
+		this.pipeline = new IQPipeline(connection);
 	}
 	
 	/**
@@ -139,6 +144,9 @@ public class RayoClient {
 
 		this.connection = connection;
 		this.rayoServer = rayoServer;
+		// IQs can only be pipelined on connections exposing their pending requests
+		this.pipeline = connection instanceof PipelinedXmppConnection ? 
+				new IQPipeline((PipelinedXmppConnection)connection) : null;
 	}
 	
 	/**
@@ -441,6 +449,9 @@ public class RayoClient {
 				connection.disconnect();
 			}
 		} finally {
+			if (pipeline != null) {
+				pipeline.failAll(new XmppException("Rayo client has been disconnected", Error.Condition.service_unavailable));
+			}
 			logger.info("Rayo Client XMPP Connection has been disconnected");
 			lock.unlock();
 			if (pingTimer != null) {
@@ -1386,6 +1397,22 @@ public class RayoClient {
         return sendIQ(iq);
 	}
 	
+	/**
+	 * Sends a command to the call with the given id without waiting for the response.
+	 * 
+	 * @param command Command to send
+	 * @param callId Id of the call
+	 * @return IQFuture Future resulting IQ
+	 * @see #sendIQAsync(IQ)
+	 */
+	public IQFuture commandAsync(CallCommand command, String callId) {
+        IQ iq = new IQ(IQ.Type.set)
+            .setFrom(buildFrom())
+            .setTo(buildTo(callId))
+            .setChild(Extension.create(command));
+        return sendIQAsync(iq);
+	}
+	
 	public CallRef dial(DialCommand command) throws XmppException {
         
 		IQ iq = new IQ(IQ.Type.set)
@@ -1439,6 +1466,49 @@ public class RayoClient {
 		}			
 	}
 	
+	/**
+	 * <p>Sends an IQ without waiting for the response. Any number of IQs can be outstanding, and 
+	 * the response of each one completes its future. The future fails if the IQ cannot be written, 
+	 * the client disconnects or no response arrives within the default timeout.</p>
+	 * 
+	 * @param iq IQ to send
+	 * @return IQFuture Future resulting IQ
+	 * @throws UnsupportedOperationException If the connection is not a {@link PipelinedXmppConnection}
+	 */
+	public IQFuture sendIQAsync(IQ iq) {
+		
+		if (pipeline == null) {
+			throw new UnsupportedOperationException("The XMPP connection does not support pipelined IQs");
+		}
+		Lock lock = connectionLock.readLock();
+		lock.lock();
+		try {
+			return pipeline.send(iq, XmppObjectFilter.DEFAULT_TIMEOUT);
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Sets whether the IQs sent with {@link #sendIQAsync(IQ)} while another one is being written 
+	 * are written together, with a single flush. Disabled by default.
+	 */
+	public void setBatching(boolean batching) {
+		
+		if (pipeline != null) {
+			pipeline.setBatching(batching);
+		}
+	}
+	
+	/**
+	 * @return The pipeline of {@link #sendIQAsync(IQ)} or <code>null</code> if the connection 
+	 * is not a {@link PipelinedXmppConnection}
+	 */
+	public IQPipeline getPipeline() {
+		
+		return pipeline;
+	}
+	
 	private String buildFrom() {
 		
 		return connection.getUsername() + "@" + connection.getServiceName() + "/" + connection.getResource();
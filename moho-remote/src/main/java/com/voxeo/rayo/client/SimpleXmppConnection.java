@@ -8,6 +8,7 @@ import java.io.OutputStreamWriter;
 import java.net.Socket;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
@@ -20,14 +21,14 @@ import com.voxeo.rayo.client.auth.AuthenticationListener;
 import com.voxeo.rayo.client.auth.SimpleAuthenticationHandler;
 import com.voxeo.rayo.client.filter.XmppObjectExtensionNameFilter;
 import com.voxeo.rayo.client.filter.XmppObjectFilter;
-import com.voxeo.rayo.client.filter.XmppObjectIdFilter;
 import com.voxeo.rayo.client.filter.XmppObjectNameFilter;
+import com.voxeo.rayo.client.io.PendingRequestTable;
+import com.voxeo.rayo.client.io.PendingRequestTable.PendingRequest;
 import com.voxeo.rayo.client.io.SimpleXmppReader;
 import com.voxeo.rayo.client.io.SimpleXmppWriter;
 import com.voxeo.rayo.client.io.XmppReader;
 import com.voxeo.rayo.client.io.XmppWriter;
 import com.voxeo.rayo.client.listener.StanzaListener;
-import com.voxeo.rayo.client.response.FilterCleaningResponseHandler;
 import com.voxeo.rayo.client.response.ResponseHandler;
 import com.voxeo.rayo.client.xmpp.extensions.Extension;
 import com.voxeo.rayo.client.xmpp.stanza.Error;
@@ -36,7 +37,7 @@ import com.voxeo.rayo.client.xmpp.stanza.XmppObject;
 import com.voxeo.rayo.client.xmpp.stanza.Error.Condition;
 import com.voxeo.rayo.client.xmpp.stanza.Error.Type;
 
-public class SimpleXmppConnection implements XmppConnection {
+public class SimpleXmppConnection implements PipelinedXmppConnection {
 
 	private Logger log = LoggerFactory.getLogger(SimpleXmppConnection.class);
 	
@@ -65,6 +66,11 @@ public class SimpleXmppConnection implements XmppConnection {
 	
 	public SimpleXmppConnection(String serviceName, Integer port) {
 		
+		this(serviceName, port, new SimpleXmppReader());
+	}
+	
+	protected SimpleXmppConnection(String serviceName, Integer port, XmppReader reader) {
+		
 		this.serviceName = serviceName;
 		
 		//TODO: Lots of things to be handled. Security, compression, proxies. All already done in Smack. Reuse!!
@@ -72,7 +78,7 @@ public class SimpleXmppConnection implements XmppConnection {
 		
 		authenticationHandler = new SimpleAuthenticationHandler(this);
 		
-		reader = new SimpleXmppReader();
+		this.reader = reader;
 	}
 	
 	@Override
@@ -103,6 +109,20 @@ public class SimpleXmppConnection implements XmppConnection {
 
         String host = config.getHostname();
         int port = config.getPort();
+        writer = openTransport(host, port);
+        initConnection(timeout);		
+	}
+	
+	/**
+	 * Connects to the server and hands the incoming data to the reader.
+	 * 
+	 * @param host Server host
+	 * @param port Server port
+	 * @return XmppWriter Writer of the outgoing data
+	 * @throws XmppException If the connection cannot be established
+	 */
+	protected XmppWriter openTransport(String host, int port) throws XmppException {
+		
         try {
         	this.socket = new Socket(host, port);
         } catch (UnknownHostException uhe) {
@@ -110,7 +130,19 @@ public class SimpleXmppConnection implements XmppConnection {
         } catch (IOException ioe) {
             throw new XmppException(String.format("Error while connecting to %s:%s",host,port), Error.Condition.service_unavailable, ioe);
         }
-        initConnection(timeout);		
+		try {
+	        reader.init(new BufferedReader(
+	        		new InputStreamReader(socket.getInputStream(), "UTF-8")));
+	        return new SimpleXmppWriter(new BufferedWriter(
+	        		new OutputStreamWriter(socket.getOutputStream(), "UTF-8")));
+		} catch (IOException ioe) {
+			throw new XmppException("Could not initialise IO system", Error.Condition.remote_server_error, ioe);
+		}
+	}
+	
+	protected void closeTransport() throws IOException {
+		
+		socket.close();
 	}
 	
 	private void initConnection(int timeout) throws XmppException {
@@ -120,7 +152,6 @@ public class SimpleXmppConnection implements XmppConnection {
 		}
 		
 		try {			
-			initIO();
 			initAuth();
 			startReader(); // Blocks until we get an open stream
 			final CountDownLatch latch = new CountDownLatch(1);
@@ -194,7 +225,7 @@ public class SimpleXmppConnection implements XmppConnection {
 		// TODO: Check if implementing keep alive solves this issue
 		try {
 			log.debug("Closing XMPP socket connection");
-			socket.close();
+			closeTransport();
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
@@ -229,16 +260,46 @@ public class SimpleXmppConnection implements XmppConnection {
 		}
 	}
 
+	@Override
+	public void send(Collection<? extends XmppObject> objects) throws XmppException {
+
+		if (objects == null || objects.isEmpty()) {
+			return;
+		}
+		if (!connected) {
+			throw new XmppException(new Error(Condition.service_unavailable, Type.cancel, "Not connected to the server. You need to connect first."));
+		}
+		if (!loggingIn && !authenticationHandler.isAuthenticated()) {
+			throw new XmppException(new Error(Condition.not_authorized, Type.cancel, "Not authenticated. You need to authenticate first."));			
+		}
+		if (log.isDebugEnabled()) {
+			for (XmppObject object: objects) {
+				log.debug(String.format("[OUT] [%s]",object));
+			}
+		}
+		// written with a single flush
+		writer.write(objects);
+		
+		for (XmppObject object: objects) {
+			for (XmppConnectionListener listener: listeners) {
+				listener.messageSent(object);
+			}
+		}
+	}
+
 	@Override
 	public void send(XmppObject object, ResponseHandler handler) throws XmppException {
 
-		// This wrapping response handler will remove the filter once we get the result from the server
-		// This helps to clean up resources
-		FilterCleaningResponseHandler filterHandler = new FilterCleaningResponseHandler(handler,this);
-		XmppObjectIdFilter filter = new XmppObjectIdFilter(object.getId(), filterHandler);
-		filterHandler.setFilter(filter);
-        addFilter(filter);
-        send(object);
+		// The reader hands the response straight to the handler, the request is forgotten 
+		// if there is no response within the default timeout
+		PendingRequestTable requests = getPendingRequests();
+		PendingRequest request = requests.register(object.getId(), handler, DEFAULT_TIMEOUT);
+		try {
+			send(object);
+		} catch (XmppException e) {
+			requests.remove(request);
+			throw e;
+		}
 	}
 	
 	@Override
@@ -250,14 +311,27 @@ public class SimpleXmppConnection implements XmppConnection {
 	@Override
 	public XmppObject sendAndWait(XmppObject object, int timeout) throws XmppException {
 
-		XmppObjectIdFilter filter = new XmppObjectIdFilter(object.getId());
-        addFilter(filter);
-        send(object);
-        XmppObject response = filter.poll(timeout);
-        removeFilter(filter);
-        return response;
+		PendingRequestTable requests = getPendingRequests();
+		PendingRequest request = requests.register(object.getId(), null, timeout);
+		try {
+			send(object);
+		} catch (XmppException e) {
+			requests.remove(request);
+			throw e;
+		}
+		return request.await(timeout);
 	}	
 	
+	@Override
+	public PendingRequestTable getPendingRequests() throws XmppException {
+		
+		XmppReader reader = this.reader;
+		if (reader == null) {
+			throw new XmppException(new Error(Condition.service_unavailable, Type.cancel, "Not connected to the server. You need to connect first."));
+		}
+		return reader.getPendingRequests();
+	}
+	
 	private void openStream() throws XmppException {
 
 		writer.openStream(serviceName);
@@ -297,18 +371,6 @@ public class SimpleXmppConnection implements XmppConnection {
 		reader.start();
 	}
 
-	private void initIO() throws XmppException {
-
-		try {
-	        reader.init(new BufferedReader(
-	        		new InputStreamReader(socket.getInputStream(), "UTF-8")));
-	        writer = new SimpleXmppWriter(new BufferedWriter(
-	        		new OutputStreamWriter(socket.getOutputStream(), "UTF-8")));
-		} catch (IOException ioe) {
-			throw new XmppException("Could not initialise IO system", Error.Condition.remote_server_error, ioe);
-		}
-	}
-
 	@Override
 	public void login(String username, String password, String resourceName) throws XmppException {
 		login(username, password, resourceName, 5);
@@ -16,6 +16,9 @@ public interface XmppConnection extends XmppObjectFilterSupport, AuthenticationS
 	public void connect(int timeout) throws XmppException;
 	public void disconnect() throws XmppException;
 	public void send(XmppObject object) throws XmppException;
+	/**
+	 * Sends the object and hands its response to the handler, on the reader thread.
+	 */
 	public void send(XmppObject object, ResponseHandler handler) throws XmppException;
 	public XmppObject sendAndWait(XmppObject object) throws XmppException;
 	public XmppObject sendAndWait(XmppObject object, int timeout) throws XmppException;
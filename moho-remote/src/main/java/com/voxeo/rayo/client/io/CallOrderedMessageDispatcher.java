@@ -0,0 +1,394 @@
+package com.voxeo.rayo.client.io;
+
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.voxeo.rayo.client.filter.XmppObjectFilter;
+import com.voxeo.rayo.client.listener.StanzaListener;
+import com.voxeo.rayo.client.xmpp.stanza.Presence;
+import com.voxeo.rayo.client.xmpp.stanza.Stanza;
+import com.voxeo.rayo.client.xmpp.stanza.XmppObject;
+
+/**
+ * <p>Implements the {@link MessageDispatcher} interface delivering the stanzas of each call
+ * in the order they were received. Every sender bare JID, that is every call together with
+ * its components, gets a mailbox that is drained by a single worker of a fixed pool at a time.
+ * Mailboxes are dropped as soon as they are empty.</p>
+ *
+ * <p>The number of stanzas waiting to be delivered is bounded. Once the backlog is full, the
+ * {@link OverloadPolicy} decides whether the reader waits for room, slowing down the
+ * connection, or the stanza is discarded. Only a reader with a thread of its own should wait,
+ * an I/O thread shared by several connections must not. The presences ending a call or one of
+ * its components are never discarded, as nothing would tell their listeners otherwise.</p>
+ *
+ * @author martin
+ *
+ */
+public class CallOrderedMessageDispatcher implements MessageDispatcher {
+
+	public enum OverloadPolicy {
+		/**
+		 * The reader waits for room in the backlog up to the overload timeout and then
+		 * discards the stanza
+		 */
+		BLOCK,
+		/**
+		 * The stanza is discarded right away
+		 */
+		DISCARD
+	}
+
+	public static final int DEFAULT_WORKERS = Runtime.getRuntime().availableProcessors() * 2;
+	public static final int DEFAULT_BACKLOG = 10000;
+	public static final int DEFAULT_OVERLOAD_TIMEOUT = 5000;
+
+	// Stanzas delivered by a worker before leaving room to other mailboxes
+	private static final int THROUGHPUT = 32;
+
+	private static final AtomicInteger dispatchers = new AtomicInteger();
+
+	private Logger log = LoggerFactory.getLogger(CallOrderedMessageDispatcher.class);
+
+	private Collection<StanzaListener> stanzaListeners = new ConcurrentLinkedQueue<StanzaListener>();
+	private Collection<XmppObjectFilter> filters = new ConcurrentLinkedQueue<XmppObjectFilter>();
+
+	private final ConcurrentMap<String, Mailbox> mailboxes = new ConcurrentHashMap<String, Mailbox>();
+
+	private final ExecutorService executorService;
+	private final Semaphore backlog;
+	private final int capacity;
+	private final OverloadPolicy overloadPolicy;
+	private final int overloadTimeout;
+	// stanzas taken in over a full backlog, paid back by the next ones delivered
+	private final AtomicInteger overdrawn = new AtomicInteger();
+
+	private volatile boolean running = true;
+
+	private final AtomicLong dispatched = new AtomicLong();
+	private final AtomicLong delivered = new AtomicLong();
+	private final AtomicLong discarded = new AtomicLong();
+	private final AtomicLong blocked = new AtomicLong();
+
+	public CallOrderedMessageDispatcher() {
+
+		this(OverloadPolicy.DISCARD);
+	}
+
+	public CallOrderedMessageDispatcher(OverloadPolicy overloadPolicy) {
+
+		this(DEFAULT_WORKERS, DEFAULT_BACKLOG, overloadPolicy, DEFAULT_OVERLOAD_TIMEOUT);
+	}
+
+	/**
+	 * @param workers Number of threads delivering stanzas
+	 * @param capacity Maximum number of stanzas waiting to be delivered
+	 */
+	public CallOrderedMessageDispatcher(int workers, int capacity) {
+
+		this(workers, capacity, OverloadPolicy.DISCARD, DEFAULT_OVERLOAD_TIMEOUT);
+	}
+
+	/**
+	 * @param workers Number of threads delivering stanzas
+	 * @param capacity Maximum number of stanzas waiting to be delivered
+	 * @param overloadPolicy What to do with the stanzas received once the backlog is full
+	 * @param overloadTimeout Milliseconds the reader waits for room with {@link OverloadPolicy#BLOCK}
+	 */
+	public CallOrderedMessageDispatcher(int workers, int capacity, OverloadPolicy overloadPolicy, int overloadTimeout) {
+
+		final int id = dispatchers.incrementAndGet();
+		this.executorService = Executors.newFixedThreadPool(workers, new ThreadFactory() {
+
+			private final AtomicInteger threads = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+
+				Thread thread = new Thread(r, "rayo-client-dispatcher-" + id + "-" + threads.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		this.capacity = capacity;
+		this.backlog = new Semaphore(capacity);
+		this.overloadPolicy = overloadPolicy;
+		this.overloadTimeout = overloadTimeout;
+	}
+
+	@Override
+	public void addStanzaListener(StanzaListener listener) {
+
+		stanzaListeners.add(listener);
+	}
+
+	@Override
+	public void removeStanzaListener(StanzaListener listener) {
+
+		stanzaListeners.remove(listener);
+	}
+
+	@Override
+    public void addFilter(XmppObjectFilter filter) {
+
+    	filters.add(filter);
+    }
+
+	@Override
+    public void removeFilter(XmppObjectFilter filter) {
+
+    	filters.remove(filter);
+    }
+
+	@Override
+	public void dispatch(XmppObject object) {
+
+		if (!running || (stanzaListeners.isEmpty() && filters.isEmpty())) {
+			return;
+		}
+		if (!reserve()) {
+			if (!isEnd(object)) {
+				discarded.incrementAndGet();
+				log.error(String.format("Dispatching backlog full. Discarding XMPP Object [%s]", object));
+				return;
+			}
+			overdrawn.incrementAndGet();
+			log.warn(String.format("Dispatching backlog full. Queueing end event [%s] anyway", object));
+		}
+		dispatched.incrementAndGet();
+
+		String key = getKey(object);
+		log.trace(String.format("Dispatching XMPP Object with id [%s] to the mailbox of [%s]", object.getId(), key));
+		while (true) {
+			Mailbox mailbox = mailboxes.get(key);
+			if (mailbox == null) {
+				Mailbox created = new Mailbox(key);
+				mailbox = mailboxes.putIfAbsent(key, created);
+				if (mailbox == null) {
+					mailbox = created;
+				}
+			}
+			if (mailbox.add(object)) {
+				return;
+			}
+			// the mailbox has just been dropped, try again with a new one
+		}
+	}
+
+	private boolean reserve() {
+
+		if (backlog.tryAcquire()) {
+			return true;
+		}
+		if (overloadPolicy == OverloadPolicy.BLOCK) {
+			blocked.incrementAndGet();
+			try {
+				return backlog.tryAcquire(overloadTimeout, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		return false;
+	}
+
+	private void release() {
+
+		int debt;
+		while ((debt = overdrawn.get()) > 0) {
+			if (overdrawn.compareAndSet(debt, debt - 1)) {
+				return;
+			}
+		}
+		backlog.release();
+	}
+
+	/**
+	 * @return <code>true</code> for the Rayo end and complete events, the last presences of a call 
+	 * and of a component
+	 */
+	private boolean isEnd(XmppObject object) {
+
+		if (object instanceof Presence) {
+			String name = ((Presence)object).getChildName();
+			return "end".equals(name) || "complete".equals(name);
+		}
+		return false;
+	}
+
+	/**
+	 * Stanzas are ordered by the bare JID of their sender, so the events of a call and of its
+	 * components share a mailbox. Errors and stanzas with no sender share another one.
+	 */
+	private String getKey(XmppObject object) {
+
+		if (object instanceof Stanza) {
+			String from = ((Stanza<?>)object).getFrom();
+			if (from != null) {
+				int slash = from.indexOf('/');
+				return slash == -1 ? from : from.substring(0, slash);
+			}
+		}
+		return "";
+	}
+
+	private void deliver(XmppObject object) {
+
+		try {
+			if (!stanzaListeners.isEmpty()) {
+				new ListenerTask(stanzaListeners, object).run();
+			}
+			if (!filters.isEmpty()) {
+				new FilterTask(this, filters, object).run();
+			}
+		} catch (Exception e) {
+			log.error(String.format("Error dispatching XMPP Object [%s]", object), e);
+		} finally {
+			release();
+			delivered.incrementAndGet();
+		}
+	}
+
+	private class Mailbox implements Runnable {
+
+		private final String key;
+		private final Queue<XmppObject> queue = new LinkedList<XmppObject>();
+		private boolean scheduled;
+		private boolean dropped;
+
+		Mailbox(String key) {
+
+			this.key = key;
+		}
+
+		/**
+		 * @return <code>false</code> if the mailbox has been dropped and can not take more stanzas
+		 */
+		synchronized boolean add(XmppObject object) {
+
+			if (dropped) {
+				return false;
+			}
+			queue.add(object);
+			if (!scheduled) {
+				scheduled = true;
+				schedule();
+			}
+			return true;
+		}
+
+		private synchronized XmppObject next() {
+
+			XmppObject object = queue.poll();
+			if (object == null) {
+				scheduled = false;
+				dropped = true;
+				mailboxes.remove(key, this);
+			}
+			return object;
+		}
+
+		private void schedule() {
+
+			try {
+				executorService.execute(this);
+			} catch (RejectedExecutionException ree) {
+				// shut down, nothing will be delivered anymore
+				log.debug(String.format("Dispatcher shut down. Dropping mailbox of [%s]", key));
+			}
+		}
+
+		@Override
+		public void run() {
+
+			for (int i = 0; i < THROUGHPUT; i++) {
+				XmppObject object = next();
+				if (object == null) {
+					return;
+				}
+				deliver(object);
+			}
+			// still scheduled, let other mailboxes run before continuing
+			schedule();
+		}
+	}
+
+    @Override
+    public void reset() {
+
+    	filters.clear();
+    	stanzaListeners.clear();
+    }
+
+	@Override
+	public void shutdown() {
+
+		running = false;
+		executorService.shutdown();
+	}
+
+	/**
+	 * @return The number of stanzas waiting to be delivered
+	 */
+	public int getBacklog() {
+
+		return capacity - backlog.availablePermits() + overdrawn.get();
+	}
+
+	public int getCapacity() {
+
+		return capacity;
+	}
+
+	/**
+	 * @return The number of senders with stanzas waiting to be delivered
+	 */
+	public int getMailboxCount() {
+
+		return mailboxes.size();
+	}
+
+	public long getDispatchedCount() {
+
+		return dispatched.get();
+	}
+
+	public long getDeliveredCount() {
+
+		return delivered.get();
+	}
+
+	/**
+	 * @return The number of stanzas discarded as the backlog was full
+	 */
+	public long getDiscardedCount() {
+
+		return discarded.get();
+	}
+
+	/**
+	 * @return The number of times the reader had to wait for room in the backlog
+	 */
+	public long getBlockedCount() {
+
+		return blocked.get();
+	}
+
+	public OverloadPolicy getOverloadPolicy() {
+
+		return overloadPolicy;
+	}
+}
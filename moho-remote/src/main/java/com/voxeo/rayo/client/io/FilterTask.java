@@ -21,13 +21,13 @@ import com.voxeo.rayo.client.xmpp.stanza.XmppObject;
  */
 public class FilterTask implements Runnable {
 
-	private Logger log = LoggerFactory.getLogger(UnboundedQueueMessageDispatcher.class);
+	private Logger log = LoggerFactory.getLogger(FilterTask.class);
 
-	private UnboundedQueueMessageDispatcher parent;
+	private MessageDispatcher parent;
 	private Collection<XmppObjectFilter> filters = new ConcurrentLinkedQueue<XmppObjectFilter>();
 	private XmppObject object;
 
-	public FilterTask(UnboundedQueueMessageDispatcher parent, 
+	public FilterTask(MessageDispatcher parent, 
 					  Collection<XmppObjectFilter> filters,
 					  XmppObject object) {
 
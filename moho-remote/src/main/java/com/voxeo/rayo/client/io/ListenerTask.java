@@ -22,7 +22,7 @@ import com.voxeo.rayo.client.xmpp.stanza.XmppObject;
  */
 public class ListenerTask implements Runnable {
 
-	private Logger log = LoggerFactory.getLogger(UnboundedQueueMessageDispatcher.class);
+	private Logger log = LoggerFactory.getLogger(ListenerTask.class);
 
 	private Collection<StanzaListener> listeners = new ConcurrentLinkedQueue<StanzaListener>();
 	private XmppObject object;
@@ -0,0 +1,151 @@
+package com.voxeo.rayo.client.io;
+
+import java.io.Reader;
+
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.ExceptionEvent;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.voxeo.rayo.client.XmppConnectionListener;
+import com.voxeo.rayo.client.XmppException;
+import com.voxeo.rayo.client.auth.AuthenticationListener;
+import com.voxeo.rayo.client.filter.XmppObjectFilter;
+import com.voxeo.rayo.client.listener.StanzaListener;
+import com.voxeo.rayo.client.xmpp.stanza.Error;
+import com.voxeo.rayo.client.xmpp.stanza.Error.Condition;
+import com.voxeo.rayo.client.xmpp.stanza.Error.Type;
+
+/**
+ * <p>Reader fed by the event loop of a Netty channel. Each top-level element framed by
+ * {@link XmppStreamFrameDecoder} is parsed as soon as it arrives, so no thread is blocked
+ * waiting for data on the connection.</p>
+ *
+ * @author martin
+ *
+ */
+public class NioXmppReader extends SimpleChannelUpstreamHandler implements XmppReader {
+
+	private static final Logger log = LoggerFactory.getLogger(NioXmppReader.class);
+
+	private XmppReaderWorker readingTask;
+	private volatile boolean closed;
+
+	public NioXmppReader() {
+
+		this.readingTask = new XmppReaderWorker();
+	}
+
+	public NioXmppReader(MessageDispatcher messageDispatcher) {
+
+		this.readingTask = new XmppReaderWorker(messageDispatcher);
+	}
+
+	/**
+	 * The channel is read by the event loop, so there is no reader to initialise.
+	 */
+	@Override
+	public void init(Reader reader) throws XmppException {}
+
+	@Override
+	public void start() throws XmppException {}
+
+	@Override
+	public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+
+		readingTask.parseFrame((String)e.getMessage());
+	}
+
+	@Override
+	public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+
+		if (!closed) {
+			readingTask.handleError(new Error(Condition.gone, Type.cancel, "Connection closed by the server"));
+		}
+		super.channelClosed(ctx, e);
+	}
+
+	@Override
+	public void exceptionCaught(ChannelHandlerContext ctx, ExceptionEvent e) throws Exception {
+
+		if (!closed) {
+			log.error("Error on XMPP connection", e.getCause());
+			readingTask.handleError(new Error(Condition.gone, Type.cancel, e.getCause().getMessage()));
+		}
+		e.getChannel().close();
+	}
+
+	@Override
+	public void addXmppConnectionListener(XmppConnectionListener listener) {
+
+		readingTask.addXmppConnectionListener(listener);
+	}
+
+	@Override
+	public void removeXmppConnectionListener(XmppConnectionListener listener) {
+
+		readingTask.removeXmppConnectionListener(listener);
+	}
+
+	@Override
+	public void addStanzaListener(StanzaListener listener) {
+
+		readingTask.addStanzaListener(listener);
+	}
+
+	@Override
+	public void removeStanzaListener(StanzaListener listener) {
+
+		readingTask.removeStanzaListener(listener);
+	}
+
+	@Override
+	public void addAuthenticationListener(AuthenticationListener authListener) {
+
+		readingTask.addAuthenticationListener(authListener);
+	}
+
+	@Override
+	public void removeAuthenticationListener(AuthenticationListener authListener) {
+
+		readingTask.removeAuthenticationListener(authListener);
+	}
+
+	@Override
+	public void addFilter(XmppObjectFilter filter) {
+
+		filter.setReader(this);
+		readingTask.addFilter(filter);
+	}
+
+	@Override
+	public void removeFilter(XmppObjectFilter filter) {
+
+		readingTask.removeFilter(filter);
+	}
+
+	@Override
+	public PendingRequestTable getPendingRequests() {
+
+		return readingTask.getPendingRequests();
+	}
+
+	@Override
+	public void close() throws XmppException {
+
+		closed = true;
+		try {
+			readingTask.setDone(true);
+
+			// Wait for pending tasks
+			try {
+				Thread.sleep(150);
+			} catch (InterruptedException e) {}
+		} finally {
+			readingTask.shutdown();
+		}
+	}
+}
@@ -0,0 +1,214 @@
+package com.voxeo.rayo.client.io;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBufferFactory;
+import org.jboss.netty.buffer.DirectChannelBufferFactory;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.voxeo.rayo.client.XmppException;
+import com.voxeo.rayo.client.xmpp.stanza.Error;
+import com.voxeo.rayo.client.xmpp.stanza.XmppObject;
+
+/**
+ * <p>Writer of a Netty channel. Writes never block: the stanzas are queued and whoever gets to
+ * write drains the queue, so the stanzas sent concurrently by several threads go out together
+ * on a single channel write.</p>
+ *
+ * <p>The stanzas are encoded straight into a direct buffer sized to their UTF-8 length, taken
+ * from the chunks preallocated by the {@link DirectChannelBufferFactory}.</p>
+ *
+ * <p>Writes fail once more than {@link #MAX_PENDING_BYTES} are waiting to be sent, rather than
+ * queueing without bounds behind a server that does not read. A failed write closes the
+ * connection.</p>
+ *
+ * @author martin
+ *
+ */
+public class NioXmppWriter implements XmppWriter {
+
+	public static final int MAX_BATCH_SIZE = 64 * 1024;
+
+	public static final int MAX_PENDING_BYTES = 4 * 1024 * 1024;
+
+	private static final Logger log = LoggerFactory.getLogger(NioXmppWriter.class);
+
+	private static final int CLOSE_TIMEOUT = 1000;
+
+	private static final ChannelBufferFactory bufferFactory = DirectChannelBufferFactory.getInstance();
+
+	private final Channel channel;
+
+	private final Queue<String> outgoing = new ConcurrentLinkedQueue<String>();
+
+	private final AtomicBoolean writing = new AtomicBoolean();
+
+	// bytes handed to the channel and not sent yet
+	private final AtomicInteger pendingBytes = new AtomicInteger();
+
+	// only used by the thread that is writing
+	private final CharsetEncoder encoder = Charset.forName("UTF-8").newEncoder()
+		.onMalformedInput(CodingErrorAction.REPLACE)
+		.onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+	private volatile ChannelFuture lastWrite;
+
+	public NioXmppWriter(Channel channel) {
+
+		this.channel = channel;
+	}
+
+	@Override
+	public void openStream(String serviceName) throws XmppException {
+
+        StringBuilder stream = new StringBuilder();
+        stream.append("<stream:stream");
+        stream.append(" to=\"").append(serviceName).append("\"");
+        stream.append(" xmlns=\"jabber:client\"");
+        stream.append(" xmlns:stream=\"http://etherx.jabber.org/streams\"");
+        stream.append(" version=\"1.0\">");
+
+        write(stream.toString());
+	}
+
+	@Override
+	public void write(XmppObject object) throws XmppException {
+
+		write(object.toString());
+	}
+
+	@Override
+	public void write(Collection<? extends XmppObject> objects) throws XmppException {
+
+		checkWritable();
+		for (XmppObject object: objects) {
+			outgoing.add(object.toString());
+		}
+		flush();
+	}
+
+	@Override
+	public void write(String string) throws XmppException {
+
+		checkWritable();
+		outgoing.add(string);
+		flush();
+	}
+
+	private void checkWritable() throws XmppException {
+
+		if (!channel.isConnected()) {
+			throw new XmppException("IO Error: Could not write", Error.Condition.remote_server_error);
+		}
+		if (pendingBytes.get() > MAX_PENDING_BYTES) {
+			throw new XmppException(String.format("IO Error: More than %s bytes waiting to be sent", 
+					MAX_PENDING_BYTES), Error.Condition.resource_constraint);
+		}
+	}
+
+	private void flush() {
+
+		while (!outgoing.isEmpty() && writing.compareAndSet(false, true)) {
+			try {
+				List<String> batch = new ArrayList<String>();
+				int size = 0;
+				String string = null;
+				while (size < MAX_BATCH_SIZE && (string = outgoing.poll()) != null) {
+					batch.add(string);
+					size += utf8Length(string);
+				}
+				if (!batch.isEmpty()) {
+					ChannelBuffer buffer = encode(batch, size);
+					final int bytes = buffer.writerIndex();
+					pendingBytes.addAndGet(bytes);
+					ChannelFuture future = channel.write(buffer);
+					future.addListener(new ChannelFutureListener() {
+
+						@Override
+						public void operationComplete(ChannelFuture future) throws Exception {
+
+							pendingBytes.addAndGet(-bytes);
+							if (!future.isSuccess() && channel.isOpen()) {
+								// the stanzas are lost, the responses they wait for will never come
+								log.error("Could not write to the server. Closing the connection", future.getCause());
+								channel.close();
+							}
+						}
+					});
+					lastWrite = future;
+				}
+			} finally {
+				writing.set(false);
+			}
+		}
+	}
+
+	private ChannelBuffer encode(List<String> batch, int size) {
+
+		ChannelBuffer buffer = bufferFactory.getBuffer(size);
+		ByteBuffer out = buffer.toByteBuffer(0, size);
+		for (String string: batch) {
+			encoder.reset();
+			encoder.encode(CharBuffer.wrap(string), out, true);
+			encoder.flush(out);
+		}
+		buffer.writerIndex(out.position());
+		return buffer;
+	}
+
+	/**
+	 * @return The number of bytes of the string once encoded, with any unpaired surrogate
+	 * replaced by a single byte
+	 */
+	static int utf8Length(String string) {
+
+		int length = 0;
+		for (int i = 0; i < string.length(); i++) {
+			char c = string.charAt(i);
+			if (c < 0x80) {
+				length++;
+			} else if (c < 0x800) {
+				length += 2;
+			} else if (Character.isHighSurrogate(c) && i + 1 < string.length()
+					&& Character.isLowSurrogate(string.charAt(i + 1))) {
+				length += 4;
+				i++;
+			} else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+				length++;
+			} else {
+				length += 3;
+			}
+		}
+		return length;
+	}
+
+	@Override
+	public void close() throws XmppException {
+
+		if (channel.isConnected()) {
+			// even if too many bytes are pending
+			outgoing.add("</stream:stream>");
+			flush();
+		}
+		ChannelFuture future = lastWrite;
+		if (future != null) {
+			future.awaitUninterruptibly(CLOSE_TIMEOUT);
+		}
+	}
+}
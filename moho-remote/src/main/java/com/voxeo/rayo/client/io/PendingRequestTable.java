@@ -0,0 +1,230 @@
+package com.voxeo.rayo.client.io;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.voxeo.rayo.client.XmppException;
+import com.voxeo.rayo.client.response.FailureAwareResponseHandler;
+import com.voxeo.rayo.client.response.ResponseHandler;
+import com.voxeo.rayo.client.xmpp.stanza.Error;
+import com.voxeo.rayo.client.xmpp.stanza.IQ;
+import com.voxeo.rayo.client.xmpp.stanza.XmppObject;
+
+/**
+ * <p>Table of the requests waiting for a response, keyed by stanza id. The reader looks up
+ * every incoming stanza here and completes the matching request directly, so correlating a
+ * response takes constant time whatever the number of requests in flight.</p>
+ *
+ * <p>Response handlers are called by the reader thread and must not block. Requests with a
+ * handler are forgotten by a timer shared by all the connections once their timeout expires.
+ * A {@link FailureAwareResponseHandler} is then told so, as it is when the table is cleared.</p>
+ *
+ * @author martin
+ *
+ */
+public class PendingRequestTable {
+
+	private static final Logger log = LoggerFactory.getLogger(PendingRequestTable.class);
+
+	/**
+	 * Milliseconds between two purges of the cancelled timeouts
+	 */
+	private static final long PURGE_PERIOD = 5000;
+
+	private static final ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+
+		@Override
+		public Thread newThread(Runnable r) {
+
+			Thread thread = new Thread(r, "rayo-client-request-timer");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	static {
+		// The timeouts of the requests answered in time are cancelled but would stay queued 
+		// until they expire, so pipelined requests would pile them up by the thousands
+		timer.scheduleWithFixedDelay(new Runnable() {
+
+			@Override
+			public void run() {
+
+				timer.purge();
+			}
+		}, PURGE_PERIOD, PURGE_PERIOD, TimeUnit.MILLISECONDS);
+	}
+
+	public class PendingRequest {
+
+		private final String id;
+		private final ResponseHandler handler;
+		private final CountDownLatch latch = new CountDownLatch(1);
+		private volatile XmppObject response;
+		private volatile ScheduledFuture<?> timeout;
+
+		PendingRequest(String id, ResponseHandler handler) {
+
+			this.id = id;
+			this.handler = handler;
+		}
+
+		public String getId() {
+
+			return id;
+		}
+
+		/**
+		 * Removes this request from the table, so its response is no longer waited for.
+		 * 
+		 * @return boolean <code>true</code> if the request was still waiting for its response
+		 */
+		public boolean remove() {
+
+			return PendingRequestTable.this.remove(this);
+		}
+
+		/**
+		 * Waits for the response. The request is removed from the table once this returns.
+		 *
+		 * @param milliseconds Time to wait
+		 * @return XmppObject Response or <code>null</code> if none arrived in time
+		 */
+		public XmppObject await(int milliseconds) {
+
+			try {
+				latch.await(milliseconds, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				remove();
+			}
+			return response;
+		}
+
+		void complete(XmppObject response) {
+
+			this.response = response;
+			latch.countDown();
+			if (timeout != null) {
+				timeout.cancel(false);
+			}
+			if (handler != null && response != null) {
+				try {
+					handler.handle(response);
+				} catch (Exception e) {
+					log.error(String.format("Error on response handler for [%s]", id), e);
+				}
+			}
+		}
+
+		void fail(XmppException failure) {
+
+			latch.countDown();
+			if (handler instanceof FailureAwareResponseHandler) {
+				try {
+					((FailureAwareResponseHandler)handler).handleFailure(failure);
+				} catch (Exception e) {
+					log.error(String.format("Error on response handler for [%s]", id), e);
+				}
+			}
+		}
+	}
+
+	private final ConcurrentMap<String, PendingRequest> requests = new ConcurrentHashMap<String, PendingRequest>();
+
+	/**
+	 * Registers a request before it is sent.
+	 *
+	 * @param id Id of the request stanza
+	 * @param handler Handler called with the response or <code>null</code> to {@link PendingRequest#await(int)} it
+	 * @param timeout Milliseconds after which a request with a handler is forgotten
+	 * @return PendingRequest The request
+	 */
+	public PendingRequest register(String id, ResponseHandler handler, int timeout) {
+
+		final PendingRequest request = new PendingRequest(id, handler);
+		requests.put(id, request);
+		if (handler != null) {
+			try {
+				request.timeout = timer.schedule(new Runnable() {
+
+					@Override
+					public void run() {
+
+						if (remove(request)) {
+							log.debug(String.format("No response for [%s]", request.getId()));
+							request.fail(new XmppException(String.format("Timed out while waiting for [%s]", 
+									request.getId()), Error.Condition.remote_server_timeout));
+						}
+					}
+				}, timeout, TimeUnit.MILLISECONDS);
+			} catch (RuntimeException e) {
+				// as when the timer has been shut down
+				requests.remove(id, request);
+				throw e;
+			}
+		}
+		return request;
+	}
+
+	/**
+	 * Completes the request the stanza responds to, if any. IQ requests sent to this
+	 * client are never responses.
+	 *
+	 * @param object Incoming stanza
+	 * @return boolean <code>true</code> if a request was waiting for the stanza
+	 */
+	public boolean complete(XmppObject object) {
+
+		String id = object.getId();
+		if (id == null || requests.isEmpty()) {
+			return false;
+		}
+		if (object instanceof IQ && !((IQ)object).isResult() && !((IQ)object).isError()) {
+			return false;
+		}
+		PendingRequest request = requests.remove(id);
+		if (request == null) {
+			return false;
+		}
+		request.complete(object);
+		return true;
+	}
+
+	public boolean remove(PendingRequest request) {
+
+		if (request.timeout != null) {
+			request.timeout.cancel(false);
+		}
+		return requests.remove(request.getId(), request);
+	}
+
+	/**
+	 * Removes all the requests, waking up the threads waiting for a response.
+	 */
+	public void clear() {
+
+		for (PendingRequest request: requests.values()) {
+			if (remove(request)) {
+				request.fail(new XmppException("The connection has been closed", Error.Condition.service_unavailable));
+			}
+		}
+	}
+
+	/**
+	 * @return The number of requests waiting for a response
+	 */
+	public int size() {
+
+		return requests.size();
+	}
+}
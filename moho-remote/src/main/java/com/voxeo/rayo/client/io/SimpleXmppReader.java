@@ -7,6 +7,7 @@ import com.voxeo.rayo.client.XmppConnectionListener;
 import com.voxeo.rayo.client.XmppException;
 import com.voxeo.rayo.client.auth.AuthenticationListener;
 import com.voxeo.rayo.client.filter.XmppObjectFilter;
+import com.voxeo.rayo.client.io.CallOrderedMessageDispatcher.OverloadPolicy;
 import com.voxeo.rayo.client.listener.StanzaListener;
 import com.voxeo.rayo.client.xmpp.stanza.Error;
 
@@ -18,7 +19,13 @@ public class SimpleXmppReader implements XmppReader {
 	
 	public SimpleXmppReader() {
 		
-		this.readingTask = new XmppReaderWorker();
+		// the reader has a thread of its own, that can wait for the dispatcher to catch up
+		this.readingTask = new XmppReaderWorker(new CallOrderedMessageDispatcher(OverloadPolicy.BLOCK));
+	}
+	
+	public SimpleXmppReader(MessageDispatcher messageDispatcher) {
+		
+		this.readingTask = new XmppReaderWorker(messageDispatcher);
 	}
 	
 	public void init(Reader reader) throws XmppException {
@@ -76,6 +83,12 @@ public class SimpleXmppReader implements XmppReader {
 
     	readingTask.removeFilter(filter);
     }  
+    
+    @Override
+    public PendingRequestTable getPendingRequests() {
+    	
+    	return readingTask.getPendingRequests();
+    }
 	
 	@Override
 	public void start() throws XmppException {
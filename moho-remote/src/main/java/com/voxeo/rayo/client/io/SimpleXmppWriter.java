@@ -2,6 +2,7 @@ package com.voxeo.rayo.client.io;
 
 import java.io.IOException;
 import java.io.Writer;
+import java.util.Collection;
 
 import com.voxeo.rayo.client.XmppException;
 import com.voxeo.rayo.client.xmpp.stanza.Error;
@@ -22,6 +23,16 @@ public class SimpleXmppWriter implements XmppWriter {
 		write(object.toString());
 	}
 	
+	@Override
+	public void write(Collection<? extends XmppObject> objects) throws XmppException {
+
+		StringBuilder builder = new StringBuilder();
+		for (XmppObject object: objects) {
+			builder.append(object.toString());
+		}
+		write(builder.toString());
+	}
+	
 	@Override
 	public void write(String string) throws XmppException {
 		
@@ -21,5 +21,10 @@ public interface XmppReader extends XmppObjectFilterSupport, AuthenticationSuppo
 	
     public void addStanzaListener(StanzaListener stanzaListener);
     public void removeStanzaListener(StanzaListener stanzaListener);
+    
+    /**
+     * @return The table of the requests waiting for a response, completed by this reader
+     */
+    public PendingRequestTable getPendingRequests();
 
 }
@@ -1,6 +1,7 @@
 package com.voxeo.rayo.client.io;
 
 import java.io.Reader;
+import java.io.StringReader;
 import java.net.SocketException;
 import java.util.Collection;
 import java.util.concurrent.ConcurrentLinkedQueue;
@@ -32,6 +33,9 @@ public class XmppReaderWorker implements Runnable, StanzaListenerSupport, XmppOb
 	
 	private Logger log = LoggerFactory.getLogger(XmppReaderWorker.class);
 	
+	private static final String STREAM_WRAPPER = 
+		"<stream:stream xmlns='jabber:client' xmlns:stream='http://etherx.jabber.org/streams'>";
+	
 	private XmlPullParser parser;
 	private String connectionId;
 	
@@ -44,9 +48,16 @@ public class XmppReaderWorker implements Runnable, StanzaListenerSupport, XmppOb
 	
 	private MessageDispatcher messageDispatcher;
 	
+	private PendingRequestTable pendingRequests = new PendingRequestTable();
+	
 	public XmppReaderWorker() {
 		
-		messageDispatcher = new UnboundedQueueMessageDispatcher();
+		this(new CallOrderedMessageDispatcher());
+	}
+	
+	public XmppReaderWorker(MessageDispatcher messageDispatcher) {
+		
+		this.messageDispatcher = messageDispatcher;
 	}
 	
 	@Override
@@ -94,6 +105,11 @@ public class XmppReaderWorker implements Runnable, StanzaListenerSupport, XmppOb
 
     	messageDispatcher.removeFilter(filter);
     }  
+    
+    public PendingRequestTable getPendingRequests() {
+    	
+    	return pendingRequests;
+    }
 	
     public void resetParser(Reader reader) {
     	
@@ -120,96 +136,12 @@ public class XmppReaderWorker implements Runnable, StanzaListenerSupport, XmppOb
             int eventType = parser.getEventType();            
             do {
                 if (eventType == XmlPullParser.START_TAG) {
-                    if (parser.getName().equals("message")) {
-                    	final Message message = XmppObjectParser.parseMessage(parser);
-                    	log(message);
-                    	messageDispatcher.dispatch(message);
-                    } else if (parser.getName().equals("iq")) {
-                    	final IQ iq = XmppObjectParser.parseIQ(parser);
-                    	if (iq.hasChild("error")) {
-                    		handleError(iq.getError());
-                    	}
-                    	log(iq);
-                    	messageDispatcher.dispatch(iq);
-                    } else if (parser.getName().equals("presence")) {
-                    	final Presence presence = XmppObjectParser.parsePresence(parser);
-                    	log(presence);
-                    	messageDispatcher.dispatch(presence);
-                    }
-                    // We found an opening stream. Record information about it, then notify
-                    // the connectionID lock so that the packet reader startup can finish.
-                    else if (parser.getName().equals("stream")) {
-                        // Ensure the correct jabber:client namespace is being used.
-                        if ("jabber:client".equals(parser.getNamespace(null))) {
-                            // Get the connection id.
-                            for (int i=0; i<parser.getAttributeCount(); i++) {
-                                if (parser.getAttributeName(i).equals("id")) {
-                                    // Save the connectionID
-                                	connectionId = parser.getAttributeValue(i);
-                                	log("Received new connection stream with id: " + connectionId);
-                                    if (!"1.0".equals(parser.getAttributeValue("", "version"))) {
-                                        // Notify that a stream has been opened if the
-                                        // server is not XMPP 1.0 compliant otherwise make the
-                                        // notification after TLS has been negotiated or if TLS
-                                        // is not supported
-                                    	connectionEstablished();
-                                    }
-                                }
-                                else if (parser.getAttributeName(i).equals("from")) {
-
-                                }
-                            }
-                        }
-                    }
-                    else if (parser.getName().equals("error")) {
-                    	Error error = XmppObjectParser.parseError(parser);
-                    	log(error);
-                    	handleError(error);
-                    }
-                    else if (parser.getName().equals("features")) {
-                    	log("Received features");
-                    	parseFeatures(parser);
-                    }
-                    else if (parser.getName().equals("proceed")) {
-
-                    }
-                    else if (parser.getName().equals("failure")) {
-
-                    }
-                    else if (parser.getName().equals("challenge")) {
-                    	final Challenge challenge = new Challenge().setText(parser.nextText());
-                    	for (final AuthenticationListener listener: authListeners) {
-	                	    listener.authChallenge(challenge);
-                    	}
-                    }
-                    else if (parser.getName().equals("success")) {
-                    	final Success success = new Success().setText(parser.nextText());
-                    	log(success);
-                    	for (final AuthenticationListener listener: authListeners) {
-                    	    listener.authSuccessful(success);
-                    	}
-
-                    	// We now need to bind a resource for the connection
-                        // Open a new stream and wait for the response
-                    	for (final XmppConnectionListener listener: listeners) {
-		            	    listener.connectionReset(connectionId);									
-                    	}
-
-                        // Reset the state of the parser since a new stream element is going
-                        // to be sent by the server
-                    	resetParser(reader);                    	
-                    	
-                    }
-                    else if (parser.getName().equals("compressed")) {
-
-                    }
+                	parseElement();
                 }
                 else if (eventType == XmlPullParser.END_TAG) {
                     if (parser.getName().equals("stream")) {
                         // Disconnect the connection
-            	    	for (final XmppConnectionListener listener: listeners) {
-		            	    listener.connectionFinished(connectionId);									
-            	    	}
+                    	endStream();
                     }
                 }
                 if (parser == null) {
@@ -230,6 +162,137 @@ public class XmppReaderWorker implements Runnable, StanzaListenerSupport, XmppOb
         }
     }
 
+    /**
+     * Parses a single top-level element, as framed by a non blocking reader. The element is
+     * parsed within a stream element declaring the namespaces of the actual stream.
+     *
+     * @param frame The stream header, a complete top-level element or the stream end tag
+     */
+    public void parseFrame(String frame) {
+
+    	if (done) {
+    		return;
+    	}
+        try {
+        	if (frame.startsWith("</")) {
+        		endStream();
+        		return;
+        	}
+        	XmlPullParser parser = new MXParser();
+        	parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, true);
+        	parser.setInput(new StringReader(STREAM_WRAPPER + frame));
+        	this.parser = parser;
+        	parser.nextTag();
+        	parser.nextTag();
+        	parseElement();
+        } catch (Exception e) {
+        	log.error("Could not parse a stanza", e);
+        	handleError(new Error(Condition.undefined_condition, Type.cancel, e.getMessage()));
+        }
+    }
+    
+    private void endStream() {
+    	
+    	for (final XmppConnectionListener listener: listeners) {
+    	    listener.connectionFinished(connectionId);
+    	}
+    }
+
+    /**
+     * Parses the top-level element the parser is positioned on.
+     */
+    private void parseElement() throws Exception {
+    	
+        if (parser.getName().equals("message")) {
+        	final Message message = XmppObjectParser.parseMessage(parser);
+        	log(message);
+        	pendingRequests.complete(message);
+        	messageDispatcher.dispatch(message);
+        } else if (parser.getName().equals("iq")) {
+        	final IQ iq = XmppObjectParser.parseIQ(parser);
+        	if (iq.hasChild("error")) {
+        		handleError(iq.getError());
+        	}
+        	log(iq);
+        	pendingRequests.complete(iq);
+        	messageDispatcher.dispatch(iq);
+        } else if (parser.getName().equals("presence")) {
+        	final Presence presence = XmppObjectParser.parsePresence(parser);
+        	log(presence);
+        	pendingRequests.complete(presence);
+        	messageDispatcher.dispatch(presence);
+        }
+        // We found an opening stream. Record information about it, then notify
+        // the connectionID lock so that the packet reader startup can finish.
+        else if (parser.getName().equals("stream")) {
+            // Ensure the correct jabber:client namespace is being used.
+            if ("jabber:client".equals(parser.getNamespace(null))) {
+                // Get the connection id.
+                for (int i=0; i<parser.getAttributeCount(); i++) {
+                    if (parser.getAttributeName(i).equals("id")) {
+                        // Save the connectionID
+                    	connectionId = parser.getAttributeValue(i);
+                    	log("Received new connection stream with id: " + connectionId);
+                        if (!"1.0".equals(parser.getAttributeValue("", "version"))) {
+                            // Notify that a stream has been opened if the
+                            // server is not XMPP 1.0 compliant otherwise make the
+                            // notification after TLS has been negotiated or if TLS
+                            // is not supported
+                        	connectionEstablished();
+                        }
+                    }
+                    else if (parser.getAttributeName(i).equals("from")) {
+
+                    }
+                }
+            }
+        }
+        else if (parser.getName().equals("error")) {
+        	Error error = XmppObjectParser.parseError(parser);
+        	log(error);
+        	handleError(error);
+        }
+        else if (parser.getName().equals("features")) {
+        	log("Received features");
+        	parseFeatures(parser);
+        }
+        else if (parser.getName().equals("proceed")) {
+
+        }
+        else if (parser.getName().equals("failure")) {
+
+        }
+        else if (parser.getName().equals("challenge")) {
+        	final Challenge challenge = new Challenge().setText(parser.nextText());
+        	for (final AuthenticationListener listener: authListeners) {
+        	    listener.authChallenge(challenge);
+        	}
+        }
+        else if (parser.getName().equals("success")) {
+        	final Success success = new Success().setText(parser.nextText());
+        	log(success);
+        	for (final AuthenticationListener listener: authListeners) {
+        	    listener.authSuccessful(success);
+        	}
+
+        	// We now need to bind a resource for the connection
+            // Open a new stream and wait for the response
+        	for (final XmppConnectionListener listener: listeners) {
+        	    listener.connectionReset(connectionId);
+        	}
+
+            // Reset the state of the parser since a new stream element is going
+            // to be sent by the server. Parsers of single frames are discarded anyway
+        	if (reader != null) {
+        		resetParser(reader);
+        	}
+        	
+        }
+        else if (parser.getName().equals("compressed")) {
+
+        }
+    }
+
 	private void parseFeatures(XmlPullParser parser) throws Exception {
     	
         boolean startTLSReceived = false;
@@ -336,6 +399,7 @@ public class XmppReaderWorker implements Runnable, StanzaListenerSupport, XmppOb
 		connectionId = null;
 		cleanListeners();
 		messageDispatcher.shutdown();
+		pendingRequests.clear();
 	}
 	
 	private void cleanListeners() {
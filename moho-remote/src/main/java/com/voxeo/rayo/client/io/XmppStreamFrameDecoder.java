@@ -0,0 +1,214 @@
+package com.voxeo.rayo.client.io;
+
+import java.nio.charset.Charset;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.handler.codec.frame.FrameDecoder;
+import org.jboss.netty.handler.codec.frame.TooLongFrameException;
+
+/**
+ * <p>Splits an incoming XMPP stream into its top-level elements. Every decoded frame is a
+ * String with either the stream header, a complete stanza or the stream end tag, ready to be
+ * parsed on its own by {@link XmppReaderWorker#parseFrame(String)}.</p>
+ *
+ * <p>The bytes are scanned only once, keeping track of the element depth, quoted attribute
+ * values, comments, CDATA sections and processing instructions. All the delimiters are ASCII so
+ * the UTF-8 content does not need to be decoded until a frame is complete. Anything outside a
+ * top-level element, like white space keep alives, is discarded.</p>
+ *
+ * <p>A stream header is a frame at any depth, as the stream restarted after TLS or SASL is
+ * opened inside the previous one, which is never closed.</p>
+ *
+ * @author martin
+ *
+ */
+public class XmppStreamFrameDecoder extends FrameDecoder {
+
+	public static final int DEFAULT_MAX_FRAME_SIZE = 1024 * 1024;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final byte[] COMMENT_START = "<!--".getBytes();
+	private static final byte[] CDATA_START = "<![CDATA[".getBytes();
+	private static final byte[] STREAM_START = "<stream:stream".getBytes();
+
+	private static final int TEXT = 0;
+	private static final int TAG = 1;
+	private static final int COMMENT = 2;
+	private static final int CDATA = 3;
+	private static final int DECLARATION = 4;
+
+	private final int maxFrameSize;
+
+	private int state = TEXT;
+	private int depth;
+	// bytes after the reader index that have already been scanned
+	private int scanned;
+	// whether the bytes after the reader index belong to a frame
+	private boolean framing;
+	private boolean endTag;
+	private boolean streamHeader;
+	private byte quote;
+	private byte last;
+	private byte beforeLast;
+
+	public XmppStreamFrameDecoder() {
+
+		this(DEFAULT_MAX_FRAME_SIZE);
+	}
+
+	public XmppStreamFrameDecoder(int maxFrameSize) {
+
+		this.maxFrameSize = maxFrameSize;
+	}
+
+	@Override
+	protected Object decode(ChannelHandlerContext ctx, Channel channel, ChannelBuffer buffer) throws Exception {
+
+		int end = buffer.writerIndex();
+		int i = buffer.readerIndex() + scanned;
+		scan: while (i < end) {
+			byte b = buffer.getByte(i);
+			switch (state) {
+				case TEXT:
+					if (b == '<') {
+						if (i + 1 == end) {
+							break scan;
+						}
+						byte next = buffer.getByte(i + 1);
+						if (next == '!') {
+							int comment = matches(buffer, i, end, COMMENT_START);
+							int cdata = matches(buffer, i, end, CDATA_START);
+							if (comment < 0 || cdata < 0) {
+								break scan;
+							}
+							if (comment > 0) {
+								enter(COMMENT);
+								i += COMMENT_START.length;
+							} else if (cdata > 0) {
+								enter(CDATA);
+								i += CDATA_START.length;
+							} else {
+								enter(DECLARATION);
+								i += 2;
+							}
+							continue scan;
+						} else if (next == '?') {
+							enter(DECLARATION);
+							i += 2;
+							continue scan;
+						}
+						endTag = next == '/';
+						if (!framing && depth <= 1) {
+							// Either the stream header, a new stanza or the end of the stream
+							if (!endTag) {
+								int header = matches(buffer, i, end, STREAM_START);
+								if (header < 0 || (header > 0 && i + STREAM_START.length == end)) {
+									break scan;
+								}
+								streamHeader = header > 0 && isNameEnd(buffer.getByte(i + STREAM_START.length));
+							}
+							buffer.readerIndex(i);
+							framing = true;
+						}
+						enter(TAG);
+					}
+					break;
+				case TAG:
+					if (quote != 0) {
+						if (b == quote) {
+							quote = 0;
+						}
+					} else if (b == '"' || b == '\'') {
+						quote = b;
+					} else if (b == '>') {
+						if (endTag) {
+							depth--;
+						} else if (streamHeader) {
+							// a restarted stream replaces the previous one
+							depth = 1;
+							streamHeader = false;
+						} else if (last != '/') {
+							depth++;
+						}
+						state = TEXT;
+						if (framing && depth <= 1) {
+							return frame(buffer, i + 1);
+						}
+					}
+					break;
+				case COMMENT:
+					if (b == '>' && last == '-' && beforeLast == '-') {
+						state = TEXT;
+					}
+					break;
+				case CDATA:
+					if (b == '>' && last == ']' && beforeLast == ']') {
+						state = TEXT;
+					}
+					break;
+				case DECLARATION:
+					if (b == '>') {
+						state = TEXT;
+					}
+					break;
+			}
+			beforeLast = last;
+			last = b;
+			i++;
+		}
+
+		if (framing) {
+			scanned = i - buffer.readerIndex();
+			if (scanned > maxFrameSize) {
+				throw new TooLongFrameException(String.format("Stanza larger than %s bytes", maxFrameSize));
+			}
+		} else {
+			// nothing worth keeping
+			buffer.readerIndex(i);
+			scanned = 0;
+		}
+		return null;
+	}
+
+	private void enter(int state) {
+
+		this.state = state;
+		last = 0;
+		beforeLast = 0;
+	}
+
+	private String frame(ChannelBuffer buffer, int end) {
+
+		int start = buffer.readerIndex();
+		String frame = buffer.toString(start, end - start, UTF8);
+		buffer.readerIndex(end);
+		framing = false;
+		scanned = 0;
+		return frame;
+	}
+
+	private static boolean isNameEnd(byte b) {
+
+		return b == '>' || b == '/' || b == ' ' || b == '\t' || b == '\r' || b == '\n';
+	}
+
+	/**
+	 * @return 1 if the buffer has the token at the given index, 0 if it does not and -1 if more
+	 * bytes are needed to tell
+	 */
+	private static int matches(ChannelBuffer buffer, int index, int end, byte[] token) {
+
+		for (int i = 0; i < token.length; i++) {
+			if (index + i == end) {
+				return -1;
+			}
+			if (buffer.getByte(index + i) != token[i]) {
+				return 0;
+			}
+		}
+		return 1;
+	}
+}
@@ -1,5 +1,7 @@
 package com.voxeo.rayo.client.io;
 
+import java.util.Collection;
+
 import com.voxeo.rayo.client.XmppException;
 import com.voxeo.rayo.client.xmpp.stanza.XmppObject;
 
@@ -9,6 +11,8 @@ public interface XmppWriter {
 	
 	public void write(XmppObject object) throws XmppException;
 	
+	public void write(Collection<? extends XmppObject> objects) throws XmppException;
+	
 	public void write(String string) throws XmppException;
 
 	public void close() throws XmppException;
@@ -0,0 +1,21 @@
+package com.voxeo.rayo.client.response;
+
+import com.voxeo.rayo.client.XmppException;
+
+/**
+ * A {@link ResponseHandler} that is also told when its request gets no response.
+ * 
+ * @author martin
+ *
+ */
+public interface FailureAwareResponseHandler extends ResponseHandler {
+
+	/**
+	 * Called instead of {@link #handle(com.voxeo.rayo.client.xmpp.stanza.XmppObject)} when no 
+	 * response arrived in time or the connection was closed. Called by the request timer or by 
+	 * the thread closing the connection, and must not block either.
+	 * 
+	 * @param failure Why there is no response
+	 */
+	public void handleFailure(XmppException failure);
+}
@@ -4,6 +4,13 @@ import com.voxeo.rayo.client.XmppConnection;
 import com.voxeo.rayo.client.filter.XmppObjectFilter;
 import com.voxeo.rayo.client.xmpp.stanza.XmppObject;
 
+/**
+ * Removes the filter that waited for a response once the response has been handled.
+ * 
+ * @deprecated Responses are matched by the {@link com.voxeo.rayo.client.io.PendingRequestTable} 
+ * of the connection, use {@link XmppConnection#send(XmppObject, ResponseHandler)} instead of a filter.
+ */
+@Deprecated
 public class FilterCleaningResponseHandler implements ResponseHandler {
 
 	private ResponseHandler handler;
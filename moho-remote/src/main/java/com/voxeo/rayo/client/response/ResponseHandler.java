@@ -2,6 +2,14 @@ package com.voxeo.rayo.client.response;
 
 import com.voxeo.rayo.client.xmpp.stanza.XmppObject;
 
+/**
+ * <p>Handles the response of a request sent with 
+ * {@link com.voxeo.rayo.client.XmppConnection#send(XmppObject, ResponseHandler)}.</p>
+ * 
+ * <p>Handlers are called by the reader thread of the connection, before the response is 
+ * dispatched to the filters and listeners. They must not block; hand any slow work off to 
+ * another thread.</p>
+ */
 public interface ResponseHandler {
 
 	public void handle(XmppObject response);
@@ -1,16 +1,30 @@
 package com.voxeo.rayo.client.xmpp.extensions;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 import org.dom4j.Element;
+import org.dom4j.QName;
 
+import com.rayo.core.xml.XmlProvider;
 import com.rayo.core.xml.XmlProviderManager;
-import com.voxeo.rayo.client.xmpp.util.Dom4jParser;
 
 public class ExtensionsManager {
 
-	private static XmlProviderManager manager = XmlProviderManagerFactory.buildXmlProvider();
-		
+	private static List<XmlProvider> providers = new ArrayList<XmlProvider>();
+
+	private static XmlProviderManager manager = XmlProviderManagerFactory.buildXmlProvider(providers);
+
+	// The provider of each element name and namespace handled by exactly one provider
+	private static ConcurrentMap<QName, XmlProvider> providerCache = new ConcurrentHashMap<QName, XmlProvider>();
+
+	// The elements left to the manager as no single provider handles them
+	private static ConcurrentMap<QName, Boolean> managerElements = new ConcurrentHashMap<QName, Boolean>();
+
 	public static Extension buildExtension(Object object) throws ProviderException {
-		
+
 		try {
 			return new Extension(manager.toXML(object));
 		} catch (ProviderException p) {
@@ -18,20 +32,27 @@ public class ExtensionsManager {
 		} catch (Exception e) {
 			e.printStackTrace();
 			throw new RuntimeException(e);
-		}		
+		}
 	}
-	
+
 	public static Object unmarshall(Extension extension) {
-		
+
 		return unmarshall(extension, Object.class);
 	}
-	
+
+	/**
+	 * Unmarshalls the already parsed element of the extension, with the provider found
+	 * for its name and namespace the first time.
+	 */
 	@SuppressWarnings("unchecked")
 	public static <T> T unmarshall(Extension extension, Class<T> clazz) throws ProviderException {
-		
-		String xml = extension.getElement().asXML();
+
+		Element element = extension.getElement();
 		try {
-			Element element = Dom4jParser.parseXml(xml);
+			XmlProvider provider = findProvider(element);
+			if (provider != null) {
+				return (T)provider.fromXML(element);
+			}
 			return (T)manager.fromXML(element);
 		} catch (ProviderException p) {
 			throw p;
@@ -40,4 +61,29 @@ public class ExtensionsManager {
 			throw new RuntimeException(e);
 		}
 	}
+
+	private static XmlProvider findProvider(Element element) {
+
+		QName name = element.getQName();
+		XmlProvider provider = providerCache.get(name);
+		if (provider != null || managerElements.containsKey(name)) {
+			return provider;
+		}
+		for (XmlProvider candidate: providers) {
+			if (candidate.handles(element)) {
+				if (provider != null) {
+					// the manager decides between several providers
+					managerElements.put(name, Boolean.TRUE);
+					return null;
+				}
+				provider = candidate;
+			}
+		}
+		if (provider != null) {
+			providerCache.put(name, provider);
+		} else {
+			managerElements.put(name, Boolean.TRUE);
+		}
+		return provider;
+	}
 }
@@ -1,11 +1,13 @@
 package com.voxeo.rayo.client.xmpp.extensions;
 
 import java.util.ArrayList;
+import java.util.Collection;
 
 import org.springframework.beans.factory.xml.XmlBeanFactory;
 import org.springframework.core.io.ClassPathResource;
 
 import com.rayo.core.validation.Validator;
+import com.rayo.core.xml.XmlProvider;
 import com.rayo.core.xml.XmlProviderManager;
 import com.voxeo.rayo.client.xml.providers.RayoClientProvider;
 
@@ -13,6 +15,15 @@ public class XmlProviderManagerFactory {
 
 	public static XmlProviderManager buildXmlProvider() {
 		
+		return buildXmlProvider(new ArrayList<XmlProvider>());
+	}
+	
+	/**
+	 * Builds the provider manager and adds all its providers to the given collection.
+	 */
+	@SuppressWarnings("unchecked")
+	public static XmlProviderManager buildXmlProvider(Collection<XmlProvider> providers) {
+		
 		ClassPathResource res = new ClassPathResource("rayo-providers.xml");
 		XmlBeanFactory factory = new XmlBeanFactory(res);
 		XmlProviderManager manager = (XmlProviderManager)factory.getBean("xmlProviderManager");
@@ -26,6 +37,9 @@ public class XmlProviderManagerFactory {
 		rayoClientProvider.setClasses(new ArrayList<Class<?>>());
 		manager.register(rayoClientProvider);
 		
+		providers.addAll(factory.getBeansOfType(XmlProvider.class).values());
+		providers.add(rayoClientProvider);
+		
 		return manager;
 	}
 }
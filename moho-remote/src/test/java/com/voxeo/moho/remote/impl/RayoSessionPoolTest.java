@@ -0,0 +1,170 @@
+package com.voxeo.moho.remote.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.voxeo.rayo.client.RayoClient;
+import com.voxeo.rayo.client.XmppException;
+import com.voxeo.rayo.client.test.util.MockXmppConnection;
+
+public class RayoSessionPoolTest {
+
+  static class FakeConnection extends MockXmppConnection {
+    volatile boolean _connected;
+
+    @Override
+    public boolean isConnected() {
+      return _connected;
+    }
+  }
+
+  /**
+   * Client that connects without a server, or fails to.
+   */
+  static class FakeClient extends RayoClient {
+    final FakeConnection _connection;
+
+    boolean _failing;
+
+    String _resource;
+
+    FakeClient() {
+      this(new FakeConnection());
+    }
+
+    private FakeClient(FakeConnection connection) {
+      super(connection, "localhost");
+      _connection = connection;
+    }
+
+    @Override
+    public void connect(String username, String password, String resource, int timeout) throws XmppException {
+      if (_failing) {
+        throw new XmppException("Connection refused");
+      }
+      _resource = resource;
+      _connection._connected = true;
+    }
+
+    void drop() {
+      _connection._connected = false;
+    }
+  }
+
+  private FakeClient[] _clients;
+
+  private RayoSessionPool _pool;
+
+  @Before
+  public void setUp() throws Exception {
+    _clients = new FakeClient[] {new FakeClient(), new FakeClient(), new FakeClient()};
+    _pool = new RayoSessionPool(_clients);
+    _pool.connect("user", "secret", "moho", 5);
+  }
+
+  private FakeClient hashed(String callId) {
+    return _clients[(callId.hashCode() & Integer.MAX_VALUE) % _clients.length];
+  }
+
+  @Test
+  public void testConnectAppendsTheSessionIndex() {
+    assertEquals("moho-0", _clients[0]._resource);
+    assertEquals("moho-1", _clients[1]._resource);
+    assertEquals("moho-2", _clients[2]._resource);
+    assertEquals(3, _pool.getConnectedCount());
+  }
+
+  @Test
+  public void testConnectFailsOnlyIfNoSessionConnected() throws Exception {
+    FakeClient failing = new FakeClient();
+    failing._failing = true;
+    FakeClient working = new FakeClient();
+    RayoSessionPool pool = new RayoSessionPool(new RayoClient[] {failing, working});
+    pool.connect("user", "secret", "moho", 5);
+    assertEquals(1, pool.getConnectedCount());
+
+    working._failing = true;
+    working.drop();
+    try {
+      pool.connect("user", "secret", "moho", 5);
+      fail("Expected the connection to fail");
+    }
+    catch (XmppException e) {
+      // expected
+    }
+    assertEquals(0, pool.getConnectedCount());
+  }
+
+  @Test
+  public void testPinnedCallStaysOnItsSession() {
+    FakeClient other = _clients[0] == hashed("call1") ? _clients[1] : _clients[0];
+    _pool.pin("call1", other);
+    assertSame(other, _pool.getClient("call1"));
+
+    // even once the session dropped
+    other.drop();
+    assertSame(other, _pool.getClient("call1"));
+
+    _pool.unpin("call1");
+    assertSame(hashed("call1"), _pool.getClient("call1"));
+  }
+
+  @Test
+  public void testUnpinnedCallGoesToTheHashedSession() {
+    for (int i = 0; i < 20; i++) {
+      String callId = "call" + i;
+      assertSame(hashed(callId), _pool.getClient(callId));
+      assertSame(_pool.getClient(callId), _pool.getClient(callId));
+    }
+  }
+
+  @Test
+  public void testUnpinnedCallIsNotMovedOffADroppedSession() {
+    FakeClient client = hashed("call1");
+    client.drop();
+    assertSame(client, _pool.getClient("call1"));
+  }
+
+  @Test
+  public void testGetClientRoundRobin() {
+    Set<RayoClient> used = new HashSet<RayoClient>();
+    RayoClient previous = null;
+    for (int i = 0; i < _clients.length; i++) {
+      RayoClient client = _pool.getClient();
+      assertNotSame(previous, client);
+      used.add(client);
+      previous = client;
+    }
+    assertEquals(_clients.length, used.size());
+
+    // no call id is not a call
+    assertSame(_clients[0], _pool.getClient(null));
+  }
+
+  @Test
+  public void testGetClientSkipsDroppedSessions() {
+    _clients[1].drop();
+    for (int i = 0; i < 2 * _clients.length; i++) {
+      assertNotSame(_clients[1], _pool.getClient());
+    }
+    assertEquals(2, _pool.getConnectedCount());
+  }
+
+  @Test
+  public void testGetClientWithNoSessionConnected() {
+    for (FakeClient client : _clients) {
+      client.drop();
+    }
+    // commands fail on the session that was due
+    assertSame(_clients[0], _pool.getClient());
+    assertSame(_clients[1], _pool.getClient());
+  }
+}
@@ -0,0 +1,186 @@
+package com.voxeo.rayo.client.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.voxeo.rayo.client.io.CallOrderedMessageDispatcher;
+import com.voxeo.rayo.client.io.CallOrderedMessageDispatcher.OverloadPolicy;
+import com.voxeo.rayo.client.listener.StanzaAdapter;
+import com.voxeo.rayo.client.xmpp.stanza.Presence;
+import com.voxeo.rayo.client.xmpp.util.Dom4jParser;
+
+public class CallOrderedMessageDispatcherTest {
+
+	private CallOrderedMessageDispatcher dispatcher;
+
+	@Test
+	public void testEventsOfACallAreDeliveredInOrder() throws Exception {
+
+		final int calls = 50;
+		final int events = 200;
+		final Map<String, List<Integer>> received = new ConcurrentHashMap<String, List<Integer>>();
+		final CountDownLatch latch = new CountDownLatch(calls * events);
+
+		dispatcher = new CallOrderedMessageDispatcher(8, calls * events);
+		dispatcher.addStanzaListener(new StanzaAdapter() {
+			@Override
+			public void onPresence(Presence presence) {
+
+				// components of a call are ordered with the call itself
+				String call = presence.getFrom().substring(0, presence.getFrom().indexOf('@'));
+				List<Integer> list = received.get(call);
+				synchronized (list) {
+					list.add(Integer.valueOf(presence.getId()));
+				}
+				latch.countDown();
+			}
+		});
+		for (int i = 0; i < calls; i++) {
+			received.put("call" + i, new ArrayList<Integer>());
+		}
+		for (int j = 0; j < events; j++) {
+			for (int i = 0; i < calls; i++) {
+				String from = "call" + i + "@localhost" + (j % 2 == 0 ? "" : "/component");
+				dispatcher.dispatch(new Presence().setFrom(from).setId(String.valueOf(j)));
+			}
+		}
+
+		assertTrue(latch.await(10, TimeUnit.SECONDS));
+		for (List<Integer> list: received.values()) {
+			assertEquals(events, list.size());
+			for (int j = 0; j < events; j++) {
+				assertEquals(j, list.get(j).intValue());
+			}
+		}
+		// the listener returns before the dispatcher counts the stanza as delivered
+		awaitDelivered(calls * events);
+		assertEquals(0, dispatcher.getBacklog());
+		assertEquals(0, dispatcher.getDiscardedCount());
+	}
+
+	@Test
+	public void testStanzasAreDiscardedWhenBacklogIsFull() throws Exception {
+
+		final CountDownLatch release = new CountDownLatch(1);
+		dispatcher = new CallOrderedMessageDispatcher(2, 10);
+		dispatcher.addStanzaListener(new StanzaAdapter() {
+			@Override
+			public void onPresence(Presence presence) {
+
+				try {
+					release.await();
+				} catch (InterruptedException e) {}
+			}
+		});
+		for (int i = 0; i < 15; i++) {
+			dispatcher.dispatch(new Presence().setFrom("call@localhost").setId(String.valueOf(i)));
+		}
+
+		assertEquals(10, dispatcher.getBacklog());
+		assertEquals(10, dispatcher.getDispatchedCount());
+		assertEquals(5, dispatcher.getDiscardedCount());
+		assertEquals(1, dispatcher.getMailboxCount());
+
+		release.countDown();
+		awaitDelivered(10);
+		assertEquals(0, dispatcher.getBacklog());
+	}
+
+	@Test
+	public void testEndEventsAreNeverDiscarded() throws Exception {
+
+		final CountDownLatch release = new CountDownLatch(1);
+		final List<String> received = new ArrayList<String>();
+		dispatcher = new CallOrderedMessageDispatcher(2, 10);
+		dispatcher.addStanzaListener(new StanzaAdapter() {
+			@Override
+			public void onPresence(Presence presence) {
+
+				try {
+					release.await();
+				} catch (InterruptedException e) {}
+				synchronized (received) {
+					received.add(presence.getChildName());
+				}
+			}
+		});
+		for (int i = 0; i < 10; i++) {
+			dispatcher.dispatch(new Presence().setFrom("call@localhost").setId(String.valueOf(i)));
+		}
+		dispatcher.dispatch(new Presence(Dom4jParser.parseXml("<presence from='call@localhost/output'>" + 
+				"<complete xmlns='urn:xmpp:rayo:ext:1'><success xmlns='urn:xmpp:rayo:output:complete:1'/></complete></presence>")));
+		dispatcher.dispatch(new Presence(Dom4jParser.parseXml("<presence from='call@localhost'>" + 
+				"<end xmlns='urn:xmpp:rayo:1'><hangup/></end></presence>")));
+		dispatcher.dispatch(new Presence().setFrom("call@localhost").setId("10"));
+
+		assertEquals(12, dispatcher.getBacklog());
+		assertEquals(12, dispatcher.getDispatchedCount());
+		assertEquals(1, dispatcher.getDiscardedCount());
+
+		release.countDown();
+		awaitDelivered(12);
+		assertEquals(0, dispatcher.getBacklog());
+		assertEquals("complete", received.get(10));
+		assertEquals("end", received.get(11));
+	}
+
+	@Test
+	public void testReaderWaitsForRoomWhenBlocking() throws Exception {
+
+		final CountDownLatch release = new CountDownLatch(1);
+		dispatcher = new CallOrderedMessageDispatcher(2, 10, OverloadPolicy.BLOCK, 5000);
+		dispatcher.addStanzaListener(new StanzaAdapter() {
+			@Override
+			public void onPresence(Presence presence) {
+
+				try {
+					release.await();
+				} catch (InterruptedException e) {}
+			}
+		});
+		new Thread() {
+			@Override
+			public void run() {
+
+				try {
+					Thread.sleep(200);
+				} catch (InterruptedException e) {}
+				release.countDown();
+			}
+		}.start();
+		for (int i = 0; i < 15; i++) {
+			dispatcher.dispatch(new Presence().setFrom("call@localhost").setId(String.valueOf(i)));
+		}
+
+		assertEquals(15, dispatcher.getDispatchedCount());
+		assertEquals(0, dispatcher.getDiscardedCount());
+		assertTrue(dispatcher.getBlockedCount() > 0);
+		awaitDelivered(15);
+		assertEquals(0, dispatcher.getBacklog());
+	}
+
+	private void awaitDelivered(long count) throws InterruptedException {
+
+		long deadline = System.currentTimeMillis() + 5000;
+		while (dispatcher.getDeliveredCount() < count && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(count, dispatcher.getDeliveredCount());
+	}
+
+	@After
+	public void shutdown() {
+
+		dispatcher.shutdown();
+	}
+}
@@ -5,6 +5,10 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -238,6 +242,43 @@ public class ConnectionTest {
 		assertEquals(handler.getHandled(),2);
 	}
 	
+	@Test
+	public void testConcurrentSendAndWait() throws Exception {
+		
+		connection = createConnection(TestConfig.serverEndpoint, TestConfig.port);		
+		connection.connect();
+		connection.login("userc", "1", "voxeo");
+		
+		final int threads = 16;
+		final int requests = 50;
+		final AtomicInteger responses = new AtomicInteger();
+		final CountDownLatch done = new CountDownLatch(threads);
+		for (int i = 0; i < threads; i++) {
+			new Thread() {
+				public void run() {
+					try {
+						for (int j = 0; j < requests; j++) {
+							IQ iq = new IQ(IQ.Type.set)
+								.setFrom("userc@localhost")
+								.setTo("something")
+								.setChild(Extension.create(new AnswerCommand()));
+							XmppObject response = connection.sendAndWait(iq);
+							if (response != null && iq.getId().equals(response.getId())) {
+								responses.incrementAndGet();
+							}
+						}
+					} catch (XmppException e) {
+						e.printStackTrace();
+					} finally {
+						done.countDown();
+					}
+				}
+			}.start();
+		}
+		assertTrue(done.await(30, TimeUnit.SECONDS));
+		assertEquals(threads * requests, responses.get());
+	}
+	
 	@After
 	public void shutdown() throws Exception {
 		
@@ -0,0 +1,58 @@
+package com.voxeo.rayo.client.test;
+
+import com.rayo.core.xml.XmlProviderManager;
+import com.voxeo.rayo.client.xmpp.extensions.Extension;
+import com.voxeo.rayo.client.xmpp.extensions.XmlProviderManagerFactory;
+import com.voxeo.rayo.client.xmpp.util.Dom4jParser;
+
+/**
+ * Compares the time taken to unmarshall the Rayo events of a call through the provider cached
+ * by the extension and by looking it up again on a reparsed element, as the extensions used to.
+ * Not a unit test, run it by hand:
+ *
+ * <pre>
+ * ExtensionsManagerBenchmark [events] [rounds]
+ * </pre>
+ *
+ * @author martin
+ *
+ */
+public class ExtensionsManagerBenchmark {
+
+	public static void main(String[] args) throws Exception {
+
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		XmlProviderManager manager = XmlProviderManagerFactory.buildXmlProvider();
+		Extension[] extensions = ExtensionsManagerTest.parse();
+		// warm up both paths
+		for (int i = 0; i < 2000; i++) {
+			for (Extension extension: extensions) {
+				extension.getObject();
+				manager.fromXML(Dom4jParser.parseXml(extension.getElement().asXML()));
+			}
+		}
+
+		for (int round = 1; round <= rounds; round++) {
+			long begin = System.nanoTime();
+			for (int i = 0; i < count; i++) {
+				for (Extension extension: extensions) {
+					manager.fromXML(Dom4jParser.parseXml(extension.getElement().asXML()));
+				}
+			}
+			long reparsed = System.nanoTime() - begin;
+
+			begin = System.nanoTime();
+			for (int i = 0; i < count; i++) {
+				for (Extension extension: extensions) {
+					extension.getObject();
+				}
+			}
+			long direct = System.nanoTime() - begin;
+
+			int events = count * extensions.length;
+			System.out.println("round " + round + ": " + events + " Rayo events, reparsed " + reparsed / events +
+					"ns, direct " + direct / events + "ns");
+		}
+	}
+}
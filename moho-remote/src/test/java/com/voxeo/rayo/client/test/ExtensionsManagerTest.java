@@ -0,0 +1,85 @@
+package com.voxeo.rayo.client.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+
+import org.junit.Test;
+
+import com.rayo.core.AnsweredEvent;
+import com.rayo.core.EndEvent;
+import com.rayo.core.OfferEvent;
+import com.rayo.core.RingingEvent;
+import com.rayo.core.xml.XmlProviderManager;
+import com.voxeo.rayo.client.verb.RefEvent;
+import com.voxeo.rayo.client.xmpp.extensions.Extension;
+import com.voxeo.rayo.client.xmpp.extensions.XmlProviderManagerFactory;
+import com.voxeo.rayo.client.xmpp.stanza.Presence;
+import com.voxeo.rayo.client.xmpp.util.Dom4jParser;
+
+public class ExtensionsManagerTest {
+
+	// Rayo events as received by the client during a call
+	static final String[] EVENTS = new String[] {
+		"<presence from='9f00061@localhost' to='userc@localhost/voxeo'>" +
+			"<offer xmlns='urn:xmpp:rayo:1' to='tel:+18003211212' from='tel:+13058881212'>" +
+			"<header name='x-skill' value='agent'/></offer></presence>",
+		"<presence from='9f00061@localhost' to='userc@localhost/voxeo'><ringing xmlns='urn:xmpp:rayo:1'/></presence>",
+		"<presence from='9f00061@localhost' to='userc@localhost/voxeo'><answered xmlns='urn:xmpp:rayo:1'/></presence>",
+		"<presence from='9f00061@localhost' to='userc@localhost/voxeo'><ref xmlns='urn:xmpp:rayo:1' id='fgh4590'/></presence>",
+		"<presence from='9f00061@localhost' to='userc@localhost/voxeo'><end xmlns='urn:xmpp:rayo:1'><hangup/></end></presence>"
+	};
+
+	static final Class<?>[] TYPES = new Class<?>[] {
+		OfferEvent.class, RingingEvent.class, AnsweredEvent.class, RefEvent.class, EndEvent.class
+	};
+
+	static Extension[] parse() {
+
+		Extension[] extensions = new Extension[EVENTS.length];
+		for (int i = 0; i < EVENTS.length; i++) {
+			extensions[i] = new Presence(Dom4jParser.parseXml(EVENTS[i])).getExtension();
+			assertNotNull(extensions[i]);
+		}
+		return extensions;
+	}
+
+	@Test
+	public void testUnmarshall() throws Exception {
+
+		XmlProviderManager manager = XmlProviderManagerFactory.buildXmlProvider();
+		Extension[] extensions = parse();
+		for (int i = 0; i < extensions.length; i++) {
+			Object direct = extensions[i].getObject();
+			// the way the extensions used to be unmarshalled
+			Object reparsed = manager.fromXML(Dom4jParser.parseXml(extensions[i].getElement().asXML()));
+			assertEquals(TYPES[i], direct.getClass());
+			assertEquals(reparsed.getClass(), direct.getClass());
+		}
+		OfferEvent offer = (OfferEvent)extensions[0].getObject();
+		assertEquals("agent", offer.getHeaders().get("x-skill"));
+	}
+
+	@Test
+	public void testCachedProviderReadsEveryElement() throws Exception {
+
+		// the first offer caches the provider of its element
+		OfferEvent first = (OfferEvent)parse()[0].getObject();
+		String other = EVENTS[0].replace("agent", "supervisor").replace("+13058881212", "+13058881313");
+		OfferEvent second = (OfferEvent)new Presence(Dom4jParser.parseXml(other)).getExtension().getObject();
+
+		assertNotSame(first, second);
+		assertEquals("agent", first.getHeaders().get("x-skill"));
+		assertEquals("supervisor", second.getHeaders().get("x-skill"));
+		assertEquals("tel:+13058881313", second.getFrom().toString());
+	}
+
+	@Test
+	public void testTo() throws Exception {
+
+		Extension[] extensions = parse();
+		RefEvent ref = extensions[3].to(RefEvent.class);
+		assertEquals("fgh4590", ref.getJid());
+		assertEquals(EndEvent.Reason.HANGUP, extensions[4].to(EndEvent.class).getReason());
+	}
+}
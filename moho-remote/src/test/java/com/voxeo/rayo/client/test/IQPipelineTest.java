@@ -0,0 +1,307 @@
+package com.voxeo.rayo.client.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.rayo.core.HangupCommand;
+import com.voxeo.rayo.client.AsynchronousRayoClient;
+import com.voxeo.rayo.client.IQFuture;
+import com.voxeo.rayo.client.IQPipeline;
+import com.voxeo.rayo.client.RayoClient;
+import com.voxeo.rayo.client.io.PendingRequestTable;
+import com.voxeo.rayo.client.response.ResponseHandler;
+import com.voxeo.rayo.client.test.util.MockXmppConnection;
+import com.voxeo.rayo.client.xmpp.stanza.Error.Condition;
+import com.voxeo.rayo.client.xmpp.stanza.IQ;
+
+public class IQPipelineTest {
+
+	// runs the listeners when told to, so the tests see which thread would have run them
+	static class QueueingExecutor implements Executor {
+
+		private final List<Runnable> tasks = new ArrayList<Runnable>();
+
+		@Override
+		public synchronized void execute(Runnable command) {
+
+			tasks.add(command);
+		}
+
+		synchronized int size() {
+
+			return tasks.size();
+		}
+
+		synchronized int runAll() {
+
+			for (Runnable task: tasks) {
+				task.run();
+			}
+			int count = tasks.size();
+			tasks.clear();
+			return count;
+		}
+	}
+
+	static class CountingListener implements IQFuture.Listener {
+
+		final AtomicInteger calls = new AtomicInteger();
+
+		@Override
+		public void operationComplete(IQFuture future) {
+
+			calls.incrementAndGet();
+		}
+	}
+
+	private MockXmppConnection connection;
+
+	private QueueingExecutor executor;
+
+	private IQPipeline pipeline;
+
+	@Before
+	public void setUp() {
+
+		connection = new MockXmppConnection();
+		executor = new QueueingExecutor();
+		pipeline = new IQPipeline(connection, executor);
+	}
+
+	private static IQ request() {
+
+		return new IQ(IQ.Type.set).setTo("call@localhost");
+	}
+
+	private void respond(IQ response) {
+
+		connection.receive(response);
+	}
+
+	@Test
+	public void testOutOfOrderResponses() throws Exception {
+
+		IQFuture first = pipeline.send(request(), 5000);
+		IQFuture second = pipeline.send(request(), 5000);
+		IQFuture third = pipeline.send(request(), 5000);
+		assertEquals(3, connection.getSent().size());
+		assertEquals(3, pipeline.getPendingCount());
+
+		respond(third.getRequest().result());
+		respond(first.getRequest().result());
+		assertFalse(second.isDone());
+		respond(second.getRequest().result());
+
+		assertEquals(first.getRequest().getId(), first.get(1, TimeUnit.SECONDS).getId());
+		assertEquals(second.getRequest().getId(), second.get(1, TimeUnit.SECONDS).getId());
+		assertEquals(third.getRequest().getId(), third.get(1, TimeUnit.SECONDS).getId());
+		assertEquals(0, pipeline.getPendingCount());
+	}
+
+	@Test
+	public void testErrorResponseCompletesFuture() throws Exception {
+
+		IQFuture future = pipeline.send(request(), 5000);
+		respond(future.getRequest().result().error(Condition.item_not_found));
+
+		assertTrue(future.isSuccess());
+		assertNull(future.getFailure());
+		assertTrue(future.get(1, TimeUnit.SECONDS).isError());
+	}
+
+	private static void awaitFailure(IQFuture future) throws Exception {
+
+		try {
+			future.get(1, TimeUnit.SECONDS);
+			fail("Expected a failure");
+		} catch (ExecutionException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testTimeout() throws Exception {
+
+		IQFuture future = pipeline.send(request(), 10);
+		awaitFailure(future);
+
+		assertEquals(Condition.remote_server_timeout, future.getFailure().getError().getCondition());
+		assertEquals(1, pipeline.getTimedOutCount());
+		assertEquals(0, pipeline.getPendingCount());
+		assertEquals(0, connection.getPendingRequests().size());
+
+		// a late response is dropped
+		respond(future.getRequest().result());
+		assertNull(future.getResponse());
+	}
+
+	@Test
+	public void testCancelForgetsIQ() throws Exception {
+
+		IQFuture future = pipeline.send(request(), 5000);
+		assertTrue(future.cancel(false));
+
+		assertTrue(future.isCancelled());
+		assertEquals(0, pipeline.getPendingCount());
+		assertEquals(0, connection.getPendingRequests().size());
+		try {
+			future.get();
+			fail("Expected a cancellation");
+		} catch (CancellationException e) {
+			// expected
+		}
+
+		respond(future.getRequest().result());
+		assertNull(future.getResponse());
+		assertFalse(future.cancel(false));
+	}
+
+	@Test
+	public void testWriteFailureFailsFuture() throws Exception {
+
+		connection.setFailing(true);
+		IQFuture future = pipeline.send(request(), 5000);
+
+		assertTrue(future.isDone());
+		assertFalse(future.isSuccess());
+		assertEquals(Condition.service_unavailable, future.getFailure().getError().getCondition());
+		assertEquals(0, pipeline.getPendingCount());
+		assertEquals(0, connection.getPendingRequests().size());
+	}
+
+	@Test
+	public void testFailedRegistrationIsNotPending() throws Exception {
+
+		final PendingRequestTable rejecting = new PendingRequestTable() {
+
+			@Override
+			public PendingRequest register(String id, ResponseHandler handler, int timeout) {
+
+				throw new RejectedExecutionException("Timer shut down");
+			}
+		};
+		pipeline = new IQPipeline(new MockXmppConnection() {
+
+			@Override
+			public PendingRequestTable getPendingRequests() {
+
+				return rejecting;
+			}
+		}, executor);
+		IQFuture future = pipeline.send(request(), 5000);
+
+		assertTrue(future.isDone());
+		assertEquals(Condition.internal_server_error, future.getFailure().getError().getCondition());
+		assertEquals(0, pipeline.getPendingCount());
+		assertEquals(0, pipeline.getSentCount());
+	}
+
+	@Test
+	public void testListenersRunOnListenerExecutor() throws Exception {
+
+		CountingListener listener = new CountingListener();
+		IQFuture expired = pipeline.send(request(), 10);
+		expired.addListener(listener);
+		IQFuture answered = pipeline.send(request(), 5000);
+		answered.addListener(listener);
+
+		awaitFailure(expired);
+		respond(answered.getRequest().result());
+		assertTrue(answered.isDone());
+		// the timer hands the listener over right after completing the future
+		long deadline = System.currentTimeMillis() + 1000;
+		while (executor.size() < 2 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		// neither the timer nor the reader ran the listeners
+		assertEquals(0, listener.calls.get());
+
+		assertEquals(2, executor.runAll());
+		assertEquals(2, listener.calls.get());
+
+		// also for a listener added once the future is done
+		answered.addListener(listener);
+		assertEquals(1, executor.runAll());
+		assertEquals(3, listener.calls.get());
+	}
+
+	@Test
+	public void testConnectionClosed() throws Exception {
+
+		IQFuture future = pipeline.send(request(), 5000);
+		connection.close();
+
+		assertEquals(0, pipeline.getPendingCount());
+		assertEquals(Condition.service_unavailable, future.getFailure().getError().getCondition());
+	}
+
+	@Test
+	public void testStanzaWithTheSameIdIsNotAResponse() throws Exception {
+
+		IQFuture future = pipeline.send(request(), 5000);
+		// an IQ request sent to the client
+		IQ request = request();
+		request.setId(future.getRequest().getId());
+		respond(request);
+
+		assertFalse(future.isDone());
+		assertEquals(1, pipeline.getPendingCount());
+	}
+
+	@Test
+	public void testCommandAsync() throws Exception {
+
+		RayoClient rayo = new RayoClient(connection, "localhost");
+		IQFuture future = rayo.commandAsync(new HangupCommand(null), "call1");
+
+		assertEquals(1, connection.getSent().size());
+		IQ sent = (IQ)connection.getSent().get(0);
+		assertSame(future.getRequest(), sent);
+		assertEquals("call1@localhost", sent.getTo());
+		assertFalse(future.isDone());
+
+		connection.receive(sent.result());
+		assertTrue(future.get(1, TimeUnit.SECONDS).isResult());
+	}
+
+	@Test
+	public void testSendIQAsyncCancel() throws Exception {
+
+		RayoClient rayo = new RayoClient(connection, "localhost");
+		IQFuture future = rayo.sendIQAsync(request());
+		assertEquals(1, rayo.getPipeline().getPendingCount());
+
+		future.cancel(false);
+		assertEquals(0, rayo.getPipeline().getPendingCount());
+	}
+
+	@Test
+	public void testAsynchronousClientDoesNotWait() throws Exception {
+
+		AsynchronousRayoClient rayo = new AsynchronousRayoClient(connection, "localhost");
+		assertNull(rayo.hangup("call1"));
+		assertEquals(1, connection.getSent().size());
+		assertEquals(1, rayo.getPipeline().getPendingCount());
+
+		// an error response is logged, not thrown
+		IQ sent = (IQ)connection.getSent().get(0);
+		connection.receive(sent.result().error(Condition.item_not_found));
+		assertEquals(0, rayo.getPipeline().getPendingCount());
+	}
+}
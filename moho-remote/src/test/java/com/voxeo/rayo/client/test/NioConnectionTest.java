@@ -0,0 +1,16 @@
+package com.voxeo.rayo.client.test;
+
+import com.voxeo.rayo.client.NioXmppConnectionFactory;
+import com.voxeo.rayo.client.XmppConnection;
+
+/**
+ * Runs the connection tests on the NIO connection
+ */
+public class NioConnectionTest extends ConnectionTest {
+
+	@Override
+	protected XmppConnection createConnection(String hostname, Integer port) {
+
+		return new NioXmppConnectionFactory().createConnection(hostname, port);
+	}
+}
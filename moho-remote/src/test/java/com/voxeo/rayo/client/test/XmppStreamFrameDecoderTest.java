@@ -0,0 +1,92 @@
+package com.voxeo.rayo.client.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.handler.codec.embedder.DecoderEmbedder;
+import org.junit.Test;
+
+import com.voxeo.rayo.client.io.XmppStreamFrameDecoder;
+
+public class XmppStreamFrameDecoderTest {
+
+	static final String HEADER = "<stream:stream xmlns='jabber:client' xmlns:stream='http://etherx.jabber.org/streams' " +
+			"id='c2s_123' from='localhost' version='1.0'>";
+
+	static final String MECHANISMS = "<stream:features><mechanisms xmlns='urn:ietf:params:xml:ns:xmpp-sasl'>" +
+			"<mechanism>PLAIN</mechanism></mechanisms></stream:features>";
+
+	static final String SUCCESS = "<success xmlns='urn:ietf:params:xml:ns:xmpp-sasl'/>";
+
+	static final String BIND = "<stream:features><bind xmlns='urn:ietf:params:xml:ns:xmpp-bind'/>" +
+			"<session xmlns='urn:ietf:params:xml:ns:xmpp-session'/></stream:features>";
+
+	// what the server sends during a login, the stream is restarted after SASL
+	static final String[] LOGIN = new String[] {HEADER, MECHANISMS, SUCCESS, HEADER, BIND};
+
+	private List<String> decode(String stream, int chunk) throws Exception {
+
+		DecoderEmbedder<String> decoder = new DecoderEmbedder<String>(new XmppStreamFrameDecoder());
+		byte[] bytes = stream.getBytes("UTF-8");
+		List<String> frames = new ArrayList<String>();
+		for (int i = 0; i < bytes.length; i += chunk) {
+			decoder.offer(ChannelBuffers.wrappedBuffer(bytes, i, Math.min(chunk, bytes.length - i)));
+			String frame;
+			while ((frame = decoder.poll()) != null) {
+				frames.add(frame);
+			}
+		}
+		return frames;
+	}
+
+	@Test
+	public void testRestartedStream() throws Exception {
+
+		StringBuilder stream = new StringBuilder("<?xml version='1.0'?>");
+		for (String element: LOGIN) {
+			stream.append(element).append(' ');
+		}
+		for (int chunk: new int[] {stream.length(), 1, 7}) {
+			List<String> frames = decode(stream.toString(), chunk);
+			assertEquals(LOGIN.length, frames.size());
+			for (int i = 0; i < LOGIN.length; i++) {
+				assertEquals(LOGIN[i], frames.get(i));
+			}
+		}
+	}
+
+	@Test
+	public void testStanzasAfterRestartedStream() throws Exception {
+
+		String message = "<message to='userc@localhost/voxeo'><body>hello</body></message>";
+		String stream = HEADER + SUCCESS + HEADER + BIND + message + "</stream:stream>";
+		List<String> frames = decode(stream, stream.length());
+		assertEquals(6, frames.size());
+		assertEquals(HEADER, frames.get(2));
+		assertEquals(message, frames.get(4));
+		assertEquals("</stream:stream>", frames.get(5));
+	}
+
+	@Test
+	public void testElementNamedLikeTheStreamIsNotAHeader() throws Exception {
+
+		String stanza = "<stream:streams><stream:stream-info/></stream:streams>";
+		List<String> frames = decode(HEADER + stanza, 3);
+		assertEquals(2, frames.size());
+		assertEquals(stanza, frames.get(1));
+	}
+
+	@Test
+	public void testIncompleteHeaderIsNotAFrame() throws Exception {
+
+		DecoderEmbedder<String> decoder = new DecoderEmbedder<String>(new XmppStreamFrameDecoder());
+		decoder.offer(ChannelBuffers.wrappedBuffer(HEADER.substring(0, 14).getBytes("UTF-8")));
+		assertNull(decoder.poll());
+		decoder.offer(ChannelBuffers.wrappedBuffer(HEADER.substring(14).getBytes("UTF-8")));
+		assertEquals(HEADER, decoder.poll());
+	}
+}
@@ -0,0 +1,79 @@
+package com.voxeo.rayo.client.test.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import com.voxeo.rayo.client.SimpleXmppConnection;
+import com.voxeo.rayo.client.XmppException;
+import com.voxeo.rayo.client.io.PendingRequestTable;
+import com.voxeo.rayo.client.xmpp.stanza.Error.Condition;
+import com.voxeo.rayo.client.xmpp.stanza.XmppObject;
+
+/**
+ * Connection that keeps what is sent to it instead of writing it to a server. Responses are 
+ * handed to it with {@link #receive(XmppObject)}, as the reader would.
+ */
+public class MockXmppConnection extends SimpleXmppConnection {
+
+	private final List<XmppObject> sent = new ArrayList<XmppObject>();
+
+	private final PendingRequestTable requests = new PendingRequestTable();
+
+	private volatile boolean failing;
+
+	public MockXmppConnection() {
+
+		super("localhost");
+	}
+
+	@Override
+	public void send(XmppObject object) throws XmppException {
+
+		if (failing) {
+			throw new XmppException("Write failed", Condition.service_unavailable);
+		}
+		synchronized (sent) {
+			sent.add(object);
+		}
+	}
+
+	@Override
+	public void send(Collection<? extends XmppObject> objects) throws XmppException {
+
+		for (XmppObject object: objects) {
+			send(object);
+		}
+	}
+
+	@Override
+	public PendingRequestTable getPendingRequests() {
+
+		return requests;
+	}
+
+	public void receive(XmppObject response) {
+
+		requests.complete(response);
+	}
+
+	/**
+	 * Clears the pending requests, as closing the reader does.
+	 */
+	public void close() {
+
+		requests.clear();
+	}
+
+	public List<XmppObject> getSent() {
+
+		synchronized (sent) {
+			return new ArrayList<XmppObject>(sent);
+		}
+	}
+
+	public void setFailing(boolean failing) {
+
+		this.failing = failing;
+	}
+}